@@ -43,7 +43,11 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Slf4jReporter;
 import com.github.dozedoff.commonj.hash.ImagePHash;
 import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.FastImagePHash;
 import com.github.dozedoff.similarImage.image.ImageResizer;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
 import com.github.dozedoff.similarImage.io.HashAttribute;
 import com.github.dozedoff.similarImage.messaging.ArtemisQueue;
 import com.github.dozedoff.similarImage.messaging.ArtemisSession;
@@ -127,6 +131,14 @@ public class ArgumentPasrser {
 		nodeSubcommand.addArgument("--status").action(Arguments.storeTrue());
 		nodeSubcommand.addArgument("--window").help("Consumer window size in bytes").type(Integer.class).setDefault(DEFAULT_WINDOW);
 		nodeSubcommand.addArgument("--metrics").help("Log metrics once a minute").action(Arguments.storeTrue());
+		nodeSubcommand.addArgument("--subsample").help("Decode images with subsampling for resizing")
+				.action(Arguments.storeTrue());
+		nodeSubcommand.addArgument("--fast-phash").help("Hash with the in-project pHash implementation")
+				.action(Arguments.storeTrue());
+		nodeSubcommand.addArgument("--exif-thumbnails")
+				.help("Resize the EXIF thumbnail of JPEGs if it matches the image").action(Arguments.storeTrue());
+		nodeSubcommand.addArgument("--difference-hash").help("Also send a difference hash of the resized image")
+				.action(Arguments.storeTrue());
 	}
 
 	/**
@@ -205,11 +217,13 @@ public class ArgumentPasrser {
 		
 		try (ArtemisSession session = new ArtemisSession(locator);) {
 			if (parsedArgs.getBoolean("resize")) {
-				startResizeWorkers(session, parsedArgs.getInt("resize_workers"));
+				startResizeWorkers(session, parsedArgs.getInt("resize_workers"), parsedArgs.getBoolean("subsample"),
+						parsedArgs.getBoolean("exif_thumbnails"));
 			}
 
 			if (parsedArgs.getBoolean("hash")) {
-				startHashWorkers(session, parsedArgs.getInt("hash_workers"));
+				startHashWorkers(session, parsedArgs.getInt("hash_workers"), parsedArgs.getBoolean("fast_phash"),
+						parsedArgs.getBoolean("difference_hash"));
 			}
 
 			if (parsedArgs.getBoolean("status")) {
@@ -239,12 +253,19 @@ public class ArgumentPasrser {
 		}
 	}
 
-	private void startHashWorkers(ArtemisSession session, int workerCount) {
+	private void startHashWorkers(ArtemisSession session, int workerCount, boolean fastPHash,
+			boolean differenceHash) {
 		for (int i = 0; i < workerCount; i++) {
 			LOGGER.info("Starting hash worker {} ...", i);
 			try {
-				HasherNode consumer = new HasherNode(session.getSession(), new ImagePHash(),
+				ImagePHash hasher = fastPHash ? new FastImagePHash() : new ImagePHash();
+				HasherNode consumer = new HasherNode(session.getSession(), hasher,
 						ArtemisQueue.QueueAddress.HASH_REQUEST.toString(), ArtemisQueue.QueueAddress.RESULT.toString(), metrics);
+
+				if (differenceHash) {
+					consumer.setDifferenceHash(new DifferenceHash());
+				}
+
 				hashWorkers.add(consumer);
 			} catch (ActiveMQException e) {
 				LOGGER.warn("Failed to create hash consumer: {} cause:", e.toString(), e.getCause().getMessage());
@@ -252,11 +273,21 @@ public class ArgumentPasrser {
 		}
 	}
 
-	private void startResizeWorkers(ArtemisSession session, int workerCount) {
+	private void startResizeWorkers(ArtemisSession session, int workerCount, boolean subsample,
+			boolean exifThumbnails) {
 		for (int i = 0; i < workerCount; i++) {
 			LOGGER.info("Starting resize worker {} ...", i);
 			try {
 				ResizerNode arrc = new ResizerNode(session.getSession(), new ImageResizer(32), metrics);
+
+				if (subsample) {
+					arrc.setImageDecoder(new SubsamplingImageDecoder(32));
+				}
+
+				if (exifThumbnails) {
+					arrc.setThumbnailReader(new ExifThumbnailReader(32));
+				}
+
 				resizeWorkers.add(arrc);
 			} catch (Exception e) {
 				LOGGER.warn("Failed to create resize consumer: {} cause:", e.toString(),
@@ -31,4 +31,92 @@ public interface MainSetting {
 	 * @return if true, ignored images will be included in the results
 	 */
 	boolean includeIgnoredImages();
+
+	/**
+	 * If images should be hashed with {@link com.github.dozedoff.similarImage.image.FastImagePHash} instead of the
+	 * library implementation. The hashes are not guaranteed to be identical, a bit can differ if its DCT coefficient
+	 * is within rounding error of the average, e.g. for images of a single color.
+	 * 
+	 * @return if true, the in-project pHash implementation is used
+	 */
+	boolean fastPHash();
+
+	/**
+	 * If local hashing should calculate the DCTs of {@link com.github.dozedoff.similarImage.image.FastImagePHash} in
+	 * batches with a {@link com.github.dozedoff.similarImage.image.kernel.DCTKernel}, on the GPU if one is available.
+	 * 
+	 * @return if true, a kernel is used for local hashing
+	 */
+	boolean dctKernel();
+
+	/**
+	 * If images should be decoded with subsampling for resizing, instead of at full resolution.
+	 * 
+	 * @return if true, only as many pixels as needed for the hash are decoded
+	 */
+	boolean subsampledDecoding();
+
+	/**
+	 * If JPEGs should be hashed from their embedded EXIF thumbnail, if the aspect ratio matches the image.
+	 * 
+	 * @return if true, matching EXIF thumbnails are hashed instead of the image
+	 */
+	boolean exifThumbnails();
+
+	/**
+	 * If images should additionally be hashed with {@link com.github.dozedoff.similarImage.image.DifferenceHash},
+	 * from the same decoded image as the DCT hash.
+	 * 
+	 * @return if true, a difference hash is stored for every hashed image
+	 */
+	boolean differenceHash();
+
+	/**
+	 * The maximum distance between the difference hashes of grouped images. Groups found with the DCT hash are
+	 * confirmed with the difference hash, images without a difference hash are kept.
+	 * 
+	 * @return the maximum distance, -1 to not confirm groups
+	 */
+	int confirmDistance();
+
+	/**
+	 * If sorted images should be grouped into transitive clusters, see
+	 * {@link com.github.dozedoff.similarImage.thread.pipeline.ClusterImagesStage}. Every image is in exactly one
+	 * group, so no pass to remove duplicate groups is needed.
+	 * 
+	 * @return if true, images are grouped into clusters instead of one group per hash
+	 */
+	boolean clusterGroups();
+
+	/**
+	 * If exact matches should be shown while the images are read, see
+	 * {@link com.github.dozedoff.similarImage.thread.pipeline.StreamingImageQueryPipeline}. Only used if the sort
+	 * does not need the persistent search, cached groups or post-processing other than removing groups.
+	 * 
+	 * @return if true, exact matches are streamed
+	 */
+	boolean streamExactMatches();
+
+	/**
+	 * If images should be hashed locally with a {@link com.github.dozedoff.similarImage.thread.HashingPipeline}
+	 * instead of the message queue nodes.
+	 * 
+	 * @return if true, images are hashed locally
+	 */
+	boolean localHashing();
+
+	/**
+	 * The number of threads reading files for local hashing. Hashing uses {@link #threads()}.
+	 * 
+	 * @return the number of I/O threads
+	 */
+	int ioThreads();
+
+	/**
+	 * The number of files that are passed to the handlers at the same time while searching for images, so that slow
+	 * file system calls can overlap.
+	 * 
+	 * @return the number of concurrently handled files, 0 to handle files on the search thread
+	 */
+	int concurrentFiles();
 }
@@ -33,5 +33,17 @@ public class MainSettingValidator {
 		if (mainSetting.threads() < 1) {
 			throw new IllegalArgumentException("Thread number must be greater than zero");
 		}
+
+		if (mainSetting.ioThreads() < 1) {
+			throw new IllegalArgumentException("I/O thread number must be greater than zero");
+		}
+
+		if (mainSetting.concurrentFiles() < 0) {
+			throw new IllegalArgumentException("Number of concurrent files cannot be negative");
+		}
+
+		if (mainSetting.confirmDistance() < -1) {
+			throw new IllegalArgumentException("Confirm distance must be -1 or greater");
+		}
 	}
 }
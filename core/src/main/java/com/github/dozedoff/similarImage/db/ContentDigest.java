@@ -0,0 +1,157 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.util.Arrays;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Database entry for the digest of a file's content. The digest is only valid for the file if the modification time
+ * and size still match.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+@DatabaseTable
+public class ContentDigest {
+	public static final String PATH_COLUMN_NAME = "path";
+
+	@DatabaseField(id = true, canBeNull = false, columnName = PATH_COLUMN_NAME)
+	private String path;
+	@DatabaseField(canBeNull = false)
+	private long modified;
+	@DatabaseField(canBeNull = false)
+	private long size;
+	@DatabaseField(dataType = DataType.BYTE_ARRAY, canBeNull = false)
+	private byte[] digest;
+
+	/**
+	 * Intended for DAO only
+	 * 
+	 * @deprecated Use the constructor with arguments instead
+	 */
+	@Deprecated
+	public ContentDigest() {
+	}
+
+	/**
+	 * Create a new record for the digest of a file.
+	 * 
+	 * @param path
+	 *            of the file
+	 * @param modified
+	 *            last modification time of the file, in milliseconds
+	 * @param size
+	 *            of the file in bytes
+	 * @param digest
+	 *            of the file content
+	 */
+	public ContentDigest(String path, long modified, long size, byte[] digest) {
+		this.path = path;
+		this.modified = modified;
+		this.size = size;
+		this.digest = digest;
+	}
+
+	/**
+	 * Path of the file.
+	 * 
+	 * @return the file path
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Modification time of the file when the digest was calculated.
+	 * 
+	 * @return time in milliseconds
+	 */
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * Size of the file when the digest was calculated.
+	 * 
+	 * @return size in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Digest of the file content.
+	 * 
+	 * @return the raw digest
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Check if the digest is still valid for a file with the given modification time and size.
+	 * 
+	 * @param modified
+	 *            current modification time of the file, in milliseconds
+	 * @param size
+	 *            current size of the file in bytes
+	 * @return true if both values match the values when the digest was calculated
+	 */
+	public boolean isValidFor(long modified, long size) {
+		return this.modified == modified && this.size == size;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(digest);
+		result = prime * result + (int) (modified ^ (modified >>> 32));
+		result = prime * result + ((path == null) ? 0 : path.hashCode());
+		result = prime * result + (int) (size ^ (size >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		ContentDigest other = (ContentDigest) obj;
+		if (!Arrays.equals(digest, other.digest)) {
+			return false;
+		}
+		if (modified != other.modified || size != other.size) {
+			return false;
+		}
+		if (path == null) {
+			return other.path == null;
+		}
+		return path.equals(other.path);
+	}
+}
@@ -28,6 +28,8 @@ public final class ImageRecord implements Comparable<ImageRecord> {
 	String path;
 	@DatabaseField(canBeNull = false)
 	long pHash;
+	@DatabaseField
+	HashSource hashSource;
 
 	/**
 	 * Intended for DAO
@@ -41,6 +43,22 @@ public final class ImageRecord implements Comparable<ImageRecord> {
 		this.pHash = pHash;
 	}
 
+	/**
+	 * Create a record for a hash that was calculated from the given source. The source is not part of the identity
+	 * of the record, so it does not affect {@link #equals(Object)} and {@link #hashCode()}.
+	 * 
+	 * @param path
+	 *            of the image
+	 * @param pHash
+	 *            of the image
+	 * @param hashSource
+	 *            image data the hash was calculated from
+	 */
+	public ImageRecord(String path, long pHash, HashSource hashSource) {
+		this(path, pHash);
+		this.hashSource = hashSource;
+	}
+
 	public String getPath() {
 		return path;
 	}
@@ -49,6 +67,16 @@ public final class ImageRecord implements Comparable<ImageRecord> {
 		return pHash;
 	}
 
+	/**
+	 * Get the image data the hash was calculated from. Records stored without a source were hashed from the decoded
+	 * image.
+	 * 
+	 * @return the source of the hash
+	 */
+	public HashSource getHashSource() {
+		return hashSource == null ? HashSource.IMAGE : hashSource;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,241 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Compact, append only store for image records. Hashes are kept in a primitive array and paths are stored as UTF-8 in
+ * a shared byte array, so a record costs a few bytes plus the length of the path. Records are identified by their
+ * position, and {@link ImageRecord} instances are only created when a record is accessed with {@link #get(int)}.
+ * <p>
+ * If the records are added in hash order, the records for a hash can be found with a binary search, see
+ * {@link #withHash(long)}.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public final class ImageRecordStore extends AbstractList<ImageRecord> implements RandomAccess {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int AVERAGE_PATH_LENGTH = 64;
+
+	private long[] hashes;
+	private int[] pathOffsets;
+	private byte[] paths;
+	private int size;
+	private int pathsLength;
+	private boolean sortedByHash;
+
+	/**
+	 * Create a new empty store.
+	 */
+	public ImageRecordStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Create a new empty store with space for the given number of records.
+	 * 
+	 * @param capacity
+	 *            initial number of records
+	 */
+	public ImageRecordStore(int capacity) {
+		int initial = Math.max(capacity, 1);
+
+		this.hashes = new long[initial];
+		this.pathOffsets = new int[initial + 1];
+		this.paths = new byte[initial * AVERAGE_PATH_LENGTH];
+		this.sortedByHash = true;
+	}
+
+	/**
+	 * Append a record to the store.
+	 * 
+	 * @param path
+	 *            of the image
+	 * @param hash
+	 *            of the image
+	 */
+	public void add(String path, long hash) {
+		byte[] encoded = path.getBytes(StandardCharsets.UTF_8);
+
+		ensureCapacity(encoded.length);
+
+		if (size > 0 && hashes[size - 1] > hash) {
+			sortedByHash = false;
+		}
+
+		hashes[size] = hash;
+		System.arraycopy(encoded, 0, paths, pathsLength, encoded.length);
+		pathsLength += encoded.length;
+		size++;
+		pathOffsets[size] = pathsLength;
+		modCount++;
+	}
+
+	/**
+	 * Append a record to the store. The record is copied, later access will return a new instance.
+	 * 
+	 * @param record
+	 *            to append
+	 * @return always true
+	 */
+	@Override
+	public boolean add(ImageRecord record) {
+		add(record.getPath(), record.getpHash());
+		return true;
+	}
+
+	private void ensureCapacity(int pathBytes) {
+		if (size == hashes.length) {
+			int newCapacity = hashes.length * 2;
+			hashes = Arrays.copyOf(hashes, newCapacity);
+			pathOffsets = Arrays.copyOf(pathOffsets, newCapacity + 1);
+		}
+
+		if (pathsLength + pathBytes > paths.length) {
+			paths = Arrays.copyOf(paths, Math.max(paths.length * 2, pathsLength + pathBytes));
+		}
+	}
+
+	/**
+	 * Create a new {@link ImageRecord} for the record at the given position.
+	 * 
+	 * @param id
+	 *            position of the record
+	 * @return a new instance for the record
+	 */
+	@Override
+	public ImageRecord get(int id) {
+		return new ImageRecord(getPath(id), getHash(id));
+	}
+
+	/**
+	 * Get the hash of the record at the given position.
+	 * 
+	 * @param id
+	 *            position of the record
+	 * @return the hash of the record
+	 */
+	public long getHash(int id) {
+		checkId(id);
+		return hashes[id];
+	}
+
+	/**
+	 * Get the path of the record at the given position.
+	 * 
+	 * @param id
+	 *            position of the record
+	 * @return the path of the record
+	 */
+	public String getPath(int id) {
+		checkId(id);
+		return new String(paths, pathOffsets[id], pathOffsets[id + 1] - pathOffsets[id], StandardCharsets.UTF_8);
+	}
+
+	private void checkId(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Check if the records were added in ascending hash order.
+	 * 
+	 * @return true if the records are sorted by hash
+	 */
+	public boolean isSortedByHash() {
+		return sortedByHash;
+	}
+
+	/**
+	 * Get the distinct hashes of all records, in ascending order.
+	 * 
+	 * @return a new array with the distinct hashes
+	 */
+	public long[] distinctHashes() {
+		if (!sortedByHash) {
+			long[] sorted = Arrays.copyOf(hashes, size);
+			Arrays.sort(sorted);
+			return Arrays.stream(sorted).distinct().toArray();
+		}
+
+		long[] distinct = new long[size];
+		int count = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (count == 0 || distinct[count - 1] != hashes[i]) {
+				distinct[count++] = hashes[i];
+			}
+		}
+
+		return Arrays.copyOf(distinct, count);
+	}
+
+	/**
+	 * Get a view of all records with the given hash. Records are created when the view is accessed.
+	 * 
+	 * @param hash
+	 *            to look up
+	 * @return a list of records with the hash, empty if there are none
+	 * @throws IllegalStateException
+	 *             if the records are not sorted by hash
+	 */
+	public List<ImageRecord> withHash(long hash) {
+		if (!sortedByHash) {
+			throw new IllegalStateException("Records are not sorted by hash");
+		}
+
+		int from = firstWithHash(hash);
+		int to = from;
+
+		while (to < size && hashes[to] == hash) {
+			to++;
+		}
+
+		return subList(from, to);
+	}
+
+	private int firstWithHash(long hash) {
+		int low = 0;
+		int high = size;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (hashes[middle] < hash) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+}
@@ -0,0 +1,490 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db.repository;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.thread.NamedThreadFactory;
+import com.j256.ormlite.misc.TransactionManager;
+
+/**
+ * Write-behind decorator for a {@link ImageRepository}. Stored images and additional hashes are collected and written
+ * to the wrapped repository, once the batch size is reached, the flush interval has elapsed or the repository is
+ * closed. The images of a batch are stored in a single transaction with {@link ImageRepository#store(Collection)}, so
+ * listeners only see images that have been committed. Reads flush pending writes first, so they see the same data as
+ * the wrapped repository would.
+ * <p>
+ * If the transaction fails, the images of the batch are stored one by one. Images that still cannot be stored are
+ * discarded and passed to the discarded image consumer, no matter which thread wrote the batch.
+ * </p>
+ */
+public class BatchingImageRepository implements ImageRepository, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BatchingImageRepository.class);
+
+	private final ImageRepository imageRepository;
+	private final TransactionManager transactionManager;
+	private final int batchSize;
+	private final Consumer<ImageRecord> discardedImages;
+	private final ScheduledExecutorService flushTimer;
+
+	private final Map<String, ImageRecord> pendingImages;
+	private final List<AdditionalHash> pendingHashes;
+	private boolean closed;
+
+	/**
+	 * Create a new batching repository that wraps the given repository.
+	 * 
+	 * @param imageRepository
+	 *            to write batches to
+	 * @param transactionManager
+	 *            used to write a batch in one transaction
+	 * @param batchSize
+	 *            number of stored images that will cause the batch to be written
+	 * @param flushInterval
+	 *            maximum time in milliseconds between writes of the batch
+	 * @throws IllegalArgumentException
+	 *             if the batch size or flush interval are less than 1
+	 */
+	public BatchingImageRepository(ImageRepository imageRepository, TransactionManager transactionManager,
+			int batchSize, long flushInterval) {
+		this(imageRepository, transactionManager, batchSize, flushInterval, image -> {
+		});
+	}
+
+	/**
+	 * Create a new batching repository that wraps the given repository and reports images that could not be stored.
+	 * 
+	 * @param imageRepository
+	 *            to write batches to
+	 * @param transactionManager
+	 *            used to write the additional hashes of a batch in one transaction
+	 * @param batchSize
+	 *            number of stored images that will cause the batch to be written
+	 * @param flushInterval
+	 *            maximum time in milliseconds between writes of the batch
+	 * @param discardedImages
+	 *            called with every image that could not be stored
+	 * @throws IllegalArgumentException
+	 *             if the batch size or flush interval are less than 1
+	 */
+	public BatchingImageRepository(ImageRepository imageRepository, TransactionManager transactionManager,
+			int batchSize, long flushInterval, Consumer<ImageRecord> discardedImages) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+
+		if (flushInterval < 1) {
+			throw new IllegalArgumentException("Flush interval must be at least 1");
+		}
+
+		this.imageRepository = imageRepository;
+		this.transactionManager = transactionManager;
+		this.batchSize = batchSize;
+		this.discardedImages = discardedImages;
+		this.pendingImages = new LinkedHashMap<>();
+		this.pendingHashes = new ArrayList<>();
+
+		ThreadFactory threadFactory = new NamedThreadFactory(BatchingImageRepository.class.getSimpleName());
+		this.flushTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = threadFactory.newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		flushTimer.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Add the image to the batch. The batch is written if it has reached the batch size. Once the repository is
+	 * closed, images are written directly.
+	 * 
+	 * @param image
+	 *            to store
+	 * @throws RepositoryException
+	 *             if the image could not be written after the repository was closed
+	 */
+	@Override
+	public void store(ImageRecord image) throws RepositoryException {
+		boolean full;
+
+		synchronized (this) {
+			if (closed) {
+				imageRepository.store(image);
+				return;
+			}
+
+			pendingImages.put(image.getPath(), image);
+			full = pendingImages.size() >= batchSize;
+		}
+
+		if (full) {
+			flush();
+		}
+	}
+
+	/**
+	 * Add the images to the batch. The batch is written if it has reached the batch size. Once the repository is
+	 * closed, images are written directly.
+	 * 
+	 * @param images
+	 *            to store
+	 * @throws RepositoryException
+	 *             if the images could not be written after the repository was closed
+	 */
+	@Override
+	public void store(Collection<ImageRecord> images) throws RepositoryException {
+		boolean full;
+
+		synchronized (this) {
+			if (closed) {
+				imageRepository.store(images);
+				return;
+			}
+
+			for (ImageRecord image : images) {
+				pendingImages.put(image.getPath(), image);
+			}
+
+			full = pendingImages.size() >= batchSize;
+		}
+
+		if (full) {
+			flush();
+		}
+	}
+
+	/**
+	 * Add the additional hash to the batch, it will be written together with the images. Once the repository is
+	 * closed, hashes are written directly.
+	 * 
+	 * @param image
+	 *            the hash belongs to
+	 * @param algorithm
+	 *            name of the algorithm used to calculate the hash
+	 * @param hash
+	 *            the additional hash
+	 * @throws RepositoryException
+	 *             if the hash could not be written after the repository was closed
+	 */
+	@Override
+	public synchronized void storeAdditionalHash(ImageRecord image, String algorithm, long hash)
+			throws RepositoryException {
+		if (closed) {
+			imageRepository.storeAdditionalHash(image, algorithm, hash);
+		} else {
+			pendingHashes.add(new AdditionalHash(image, algorithm, hash));
+		}
+	}
+
+	/**
+	 * Write all pending images and hashes to the wrapped repository. Images that cannot be stored are passed to the
+	 * discarded image consumer, their additional hashes are dropped.
+	 */
+	public synchronized void flush() {
+		if (pendingImages.isEmpty() && pendingHashes.isEmpty()) {
+			return;
+		}
+
+		List<ImageRecord> images = new ArrayList<>(pendingImages.values());
+		List<AdditionalHash> hashes = new ArrayList<>(pendingHashes);
+
+		pendingImages.clear();
+		pendingHashes.clear();
+
+		Set<ImageRecord> discarded = storeImages(images);
+		hashes.removeIf(hash -> discarded.contains(hash.image));
+		storeHashes(hashes);
+
+		discarded.forEach(discardedImages);
+		LOGGER.debug("Stored batch of {} images and {} additional hashes, discarded {} images",
+				images.size() - discarded.size(), hashes.size(), discarded.size());
+	}
+
+	private Set<ImageRecord> storeImages(List<ImageRecord> images) {
+		if (images.isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		try {
+			imageRepository.store(images);
+			return Collections.emptySet();
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to store batch of {} images, storing them one by one: {}", images.size(),
+					e.toString());
+		}
+
+		Set<ImageRecord> discarded = new HashSet<>();
+
+		for (ImageRecord image : images) {
+			try {
+				imageRepository.store(image);
+			} catch (RepositoryException e) {
+				LOGGER.warn("Failed to store {}, discarding it: {}", image.getPath(), e.toString());
+				discarded.add(image);
+			}
+		}
+
+		return discarded;
+	}
+
+	private void storeHashes(List<AdditionalHash> hashes) {
+		if (hashes.isEmpty()) {
+			return;
+		}
+
+		try {
+			transactionManager.callInTransaction(() -> {
+				for (AdditionalHash hash : hashes) {
+					imageRepository.storeAdditionalHash(hash.image, hash.algorithm, hash.hash);
+				}
+
+				return null;
+			});
+
+			return;
+		} catch (SQLException e) {
+			LOGGER.warn("Failed to store batch of {} additional hashes, storing them one by one: {}", hashes.size(),
+					e.toString());
+		}
+
+		for (AdditionalHash hash : hashes) {
+			try {
+				imageRepository.storeAdditionalHash(hash.image, hash.algorithm, hash.hash);
+			} catch (RepositoryException e) {
+				LOGGER.warn("Failed to store {} hash for {}: {}", hash.algorithm, hash.image.getPath(), e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Get the number of images waiting to be written.
+	 * 
+	 * @return number of pending images
+	 */
+	public synchronized int getPendingCount() {
+		return pendingImages.size();
+	}
+
+	/**
+	 * Get the number of stored images that will cause the batch to be written.
+	 * 
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Stop the flush timer and write all pending images. Images stored after closing are written directly.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+
+			closed = true;
+		}
+
+		flushTimer.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * Pending images are returned without accessing the wrapped repository.
+	 * 
+	 * @param path
+	 *            to search for
+	 * @return the matching {@link ImageRecord} or null if there is no match
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	@Override
+	public ImageRecord getByPath(Path path) throws RepositoryException {
+		synchronized (this) {
+			ImageRecord pending = pendingImages.get(path.toString());
+
+			if (pending != null) {
+				return pending;
+			}
+		}
+
+		return imageRepository.getByPath(path);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<ImageRecord> getByHash(long hash) throws RepositoryException {
+		flush();
+		return imageRepository.getByHash(hash);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<ImageRecord> startsWithPath(Path directory) throws RepositoryException {
+		flush();
+		return imageRepository.startsWithPath(directory);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void remove(ImageRecord image) throws RepositoryException {
+		flush();
+		imageRepository.remove(image);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void remove(Collection<ImageRecord> images) throws RepositoryException {
+		flush();
+		imageRepository.remove(images);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<ImageRecord> getAll() throws RepositoryException {
+		flush();
+		return imageRepository.getAll();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<ImageRecord> getAllWithoutIgnored() throws RepositoryException {
+		flush();
+		return imageRepository.getAllWithoutIgnored();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<ImageRecord> getAllWithoutIgnored(Path directory) throws RepositoryException {
+		flush();
+		return imageRepository.getAllWithoutIgnored(directory);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ImageRecordStore getCompact(Path directory, boolean withoutIgnored) throws RepositoryException {
+		flush();
+		return imageRepository.getCompact(directory, withoutIgnored);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachSortedByHash(Path directory, boolean withoutIgnored, ObjLongConsumer<String> consumer)
+			throws RepositoryException {
+		flush();
+		imageRepository.forEachSortedByHash(directory, withoutIgnored, consumer);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> getAdditionalHashes(String algorithm, Collection<ImageRecord> images)
+			throws RepositoryException {
+		flush();
+		return imageRepository.getAdditionalHashes(algorithm, images);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isIgnored(ImageRecord image) throws RepositoryException {
+		return imageRepository.isIgnored(image);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getGeneration() throws RepositoryException {
+		flush();
+		return imageRepository.getGeneration();
+	}
+
+	/**
+	 * Listeners are notified when the batch has been committed.
+	 * 
+	 * @param listener
+	 *            to notify
+	 */
+	@Override
+	public void addListener(ImageRepositoryListener listener) {
+		imageRepository.addListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeListener(ImageRepositoryListener listener) {
+		imageRepository.removeListener(listener);
+	}
+
+	private static final class AdditionalHash {
+		private final ImageRecord image;
+		private final String algorithm;
+		private final long hash;
+
+		AdditionalHash(ImageRecord image, String algorithm, long hash) {
+			this.image = image;
+			this.algorithm = algorithm;
+			this.hash = hash;
+		}
+	}
+}
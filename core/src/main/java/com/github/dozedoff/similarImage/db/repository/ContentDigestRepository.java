@@ -0,0 +1,59 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db.repository;
+
+import com.github.dozedoff.similarImage.db.ContentDigest;
+
+/**
+ * Repository for cached digests of file contents.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public interface ContentDigestRepository extends Repository {
+	/**
+	 * Store a {@link ContentDigest} in the repository. If there already is a digest for the path, it will be updated.
+	 * 
+	 * @param digest
+	 *            to store
+	 * @throws RepositoryException
+	 *             if there is an error accessing the datasource
+	 */
+	void store(ContentDigest digest) throws RepositoryException;
+
+	/**
+	 * Get the {@link ContentDigest} for the path, if any.
+	 * 
+	 * @param path
+	 *            of the file
+	 * @return the stored digest, or null if there is none
+	 * @throws RepositoryException
+	 *             if there is an error accessing the datasource
+	 */
+	ContentDigest getByPath(String path) throws RepositoryException;
+
+	/**
+	 * Remove the {@link ContentDigest} from the datasource.
+	 * 
+	 * @param digest
+	 *            to remove
+	 * @throws RepositoryException
+	 *             if there is an error accessing the datasource
+	 */
+	void remove(ContentDigest digest) throws RepositoryException;
+}
@@ -20,8 +20,11 @@ package com.github.dozedoff.similarImage.db.repository;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
 
 public interface ImageRepository extends Repository {
 	/**
@@ -33,6 +36,18 @@ public interface ImageRepository extends Repository {
 	 */
 	void store(ImageRecord image) throws RepositoryException;
 
+	/**
+	 * Store all {@link ImageRecord}s in the {@link Collection} in a single transaction. Existing images will be
+	 * updated. Listeners are notified once the transaction has been committed, if it fails, no image is stored and no
+	 * listener is notified.
+	 * 
+	 * @param images
+	 *            to store
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	void store(Collection<ImageRecord> images) throws RepositoryException;
+
 	/**
 	 * Return all {@link ImageRecord} that match the given hash.
 	 * 
@@ -115,4 +130,101 @@ public interface ImageRepository extends Repository {
 	 *             if there is a error accessing the datasource
 	 */
 	List<ImageRecord> getAllWithoutIgnored(Path directory) throws RepositoryException;
+
+	/**
+	 * Get images as a compact {@link ImageRecordStore}, sorted by hash. Records are added to the store as they are
+	 * read, without creating {@link ImageRecord} instances.
+	 * 
+	 * @param directory
+	 *            only include images from the directory and it's sub-directories, if null all images are included
+	 * @param withoutIgnored
+	 *            if true, ignored images are not included
+	 * @return a store with the found images
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	ImageRecordStore getCompact(Path directory, boolean withoutIgnored) throws RepositoryException;
+
+	/**
+	 * Read images with a cursor, sorted by hash, and pass the path and hash of each image to the consumer. Only the
+	 * current row is held in memory.
+	 * 
+	 * @param directory
+	 *            only include images from the directory and it's sub-directories, if null all images are included
+	 * @param withoutIgnored
+	 *            if true, ignored images are not included
+	 * @param consumer
+	 *            called with the path and hash of every image, in ascending hash order
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	void forEachSortedByHash(Path directory, boolean withoutIgnored, ObjLongConsumer<String> consumer)
+			throws RepositoryException;
+
+	/**
+	 * Store an additional hash for the image, calculated with a different algorithm than the hash of the
+	 * {@link ImageRecord}. If the image already has a hash for the algorithm, it will be replaced. Additional hashes
+	 * are removed together with the image.
+	 * 
+	 * @param image
+	 *            the hash belongs to
+	 * @param algorithm
+	 *            name of the algorithm used to calculate the hash
+	 * @param hash
+	 *            the additional hash
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	void storeAdditionalHash(ImageRecord image, String algorithm, long hash) throws RepositoryException;
+
+	/**
+	 * Get the additional hashes of the given images for an algorithm.
+	 * 
+	 * @param algorithm
+	 *            name of the algorithm used to calculate the hashes
+	 * @param images
+	 *            to get the hashes for
+	 * @return a map of image paths to hashes, images without a hash for the algorithm are not included
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	Map<String, Long> getAdditionalHashes(String algorithm, Collection<ImageRecord> images)
+			throws RepositoryException;
+
+	/**
+	 * Check if the image is ignored.
+	 * 
+	 * @param image
+	 *            to check
+	 * @return true if there is a ignore record for the path of the image
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	boolean isIgnored(ImageRecord image) throws RepositoryException;
+
+	/**
+	 * Get the generation of the image data. The generation changes whenever images or ignored images are added,
+	 * updated or removed, so it can be used to check if data derived from the datasource is still current.
+	 * 
+	 * @return the current generation
+	 * @throws RepositoryException
+	 *             if there is a error accessing the datasource
+	 */
+	long getGeneration() throws RepositoryException;
+
+	/**
+	 * Register a listener that will be notified of stored and removed images.
+	 * 
+	 * @param listener
+	 *            to notify
+	 */
+	void addListener(ImageRepositoryListener listener);
+
+	/**
+	 * Remove a previously registered listener.
+	 * 
+	 * @param listener
+	 *            to remove
+	 */
+	void removeListener(ImageRepositoryListener listener);
 }
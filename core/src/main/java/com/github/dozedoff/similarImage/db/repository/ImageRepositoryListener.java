@@ -0,0 +1,47 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db.repository;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+
+/**
+ * Receives changes made to the {@link ImageRecord}s of a {@link ImageRepository}. Every notification corresponds to
+ * exactly one changed row.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public interface ImageRepositoryListener {
+	/**
+	 * Called after an image was stored.
+	 * 
+	 * @param image
+	 *            the stored image
+	 * @param previous
+	 *            the image that was replaced, or null if the image is new
+	 */
+	void imageStored(ImageRecord image, ImageRecord previous);
+
+	/**
+	 * Called after an image was removed.
+	 * 
+	 * @param image
+	 *            the removed image, as it was stored
+	 */
+	void imageRemoved(ImageRecord image);
+}
@@ -0,0 +1,81 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db.repository.ormlite;
+
+import java.sql.SQLException;
+
+import com.github.dozedoff.similarImage.db.ContentDigest;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.j256.ormlite.dao.Dao;
+
+/**
+ * Repository for accessing the {@link ContentDigest} database table via ORMlite.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class OrmliteContentDigestRepository implements ContentDigestRepository {
+	private final Dao<ContentDigest, String> digestDao;
+
+	/**
+	 * Create a repository using ORMlite DAO to access the database.
+	 * 
+	 * @param digestDao
+	 *            for the {@link ContentDigest} table
+	 */
+	public OrmliteContentDigestRepository(Dao<ContentDigest, String> digestDao) {
+		this.digestDao = digestDao;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void store(ContentDigest digest) throws RepositoryException {
+		try {
+			digestDao.createOrUpdate(digest);
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to store digest", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ContentDigest getByPath(String path) throws RepositoryException {
+		try {
+			return digestDao.queryForId(path);
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to query digest for path", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void remove(ContentDigest digest) throws RepositoryException {
+		try {
+			digestDao.delete(digest);
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to remove digest", e);
+		}
+	}
+}
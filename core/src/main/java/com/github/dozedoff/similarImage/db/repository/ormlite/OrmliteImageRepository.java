@@ -19,21 +19,51 @@ package com.github.dozedoff.similarImage.db.repository.ormlite;
 
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ObjLongConsumer;
 
 import com.github.dozedoff.similarImage.db.IgnoreRecord;
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.ImageRepositoryListener;
 import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.collect.Iterables;
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.SelectArg;
 
 public class OrmliteImageRepository implements ImageRepository {
 	private static final String STRING_QUERY_WILDCARD = "%";
+	private static final String QUERY_GENERATION = "SELECT `generation` FROM `imagegeneration`";
+	private static final String QUERY_COMPACT = "SELECT `imagerecord`.`path`, `imagerecord`.`pHash` FROM `imagerecord`";
+	private static final String JOIN_IGNORED = " LEFT JOIN `ignorerecord` ON `imagerecord`.`path` = `ignorerecord`.`path`"
+			+ " WHERE `ignorerecord`.`path` IS NULL";
+	private static final String CONDITION_PATH = " `imagerecord`.`path` LIKE ?";
+	private static final String ORDER_BY_HASH = " ORDER BY `imagerecord`.`pHash`";
+	private static final String STORE_ADDITIONAL_HASH = "INSERT OR REPLACE INTO `imagehash` (`path`, `algorithm`, `hash`)"
+			+ " VALUES (?, ?, ?)";
+	private static final String QUERY_ADDITIONAL_HASHES = "SELECT `path`, `hash` FROM `imagehash`"
+			+ " WHERE `algorithm` = ? AND `path` IN (";
+	/**
+	 * Number of paths per additional hash query, SQLite limits the number of arguments of a statement.
+	 */
+	private static final int ADDITIONAL_HASH_BATCH = 500;
+	private static final DataType[] COMPACT_COLUMN_TYPES = { DataType.STRING, DataType.LONG };
 	private final Dao<ImageRecord, String> imageDao;
+	private final Dao<IgnoreRecord, String> ignoreDao;
+	private final List<ImageRepositoryListener> listeners;
+	private final Object writeLock = new Object();
 
 	private PreparedQuery<ImageRecord> queryStartsWithPath;
 	private PreparedQuery<ImageRecord> queryNotIgnored;
@@ -52,7 +82,9 @@ public class OrmliteImageRepository implements ImageRepository {
 	 */
 	public OrmliteImageRepository(Dao<ImageRecord, String> imageDao, Dao<IgnoreRecord, String> ignoreDao) throws RepositoryException {
 		this.imageDao = imageDao;
-		
+		this.ignoreDao = ignoreDao;
+		this.listeners = new CopyOnWriteArrayList<>();
+
 		argStartsWithPath = new SelectArg();
 
 		try {
@@ -69,17 +101,81 @@ public class OrmliteImageRepository implements ImageRepository {
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Store the image and notify the listeners. Stores and removes are serialised, so the previous record passed to
+	 * the listeners is the one that was replaced.
+	 * 
+	 * @param image
+	 *            to store
+	 * @throws RepositoryException
+	 *             if there is an error accessing the datasource
 	 */
 	@Override
 	public void store(ImageRecord image) throws RepositoryException {
-		try {
-			imageDao.createOrUpdate(image);
-		} catch (SQLException e) {
-			throw new RepositoryException("Failed to store image", e);
+		synchronized (writeLock) {
+			try {
+				ImageRecord previous = listeners.isEmpty() ? null : copyOf(imageDao.queryForId(image.getPath()));
+				imageDao.createOrUpdate(image);
+
+				for (ImageRepositoryListener listener : listeners) {
+					listener.imageStored(image, previous);
+				}
+			} catch (SQLException e) {
+				throw new RepositoryException("Failed to store image", e);
+			}
+		}
+	}
+
+	/**
+	 * Store the images in a single transaction and notify the listeners after it has been committed. If the
+	 * transaction is rolled back, the DAO object cache is cleared, as it may contain the images that were not stored.
+	 * 
+	 * @param images
+	 *            to store
+	 * @throws RepositoryException
+	 *             if there is an error accessing the datasource
+	 */
+	@Override
+	public void store(Collection<ImageRecord> images) throws RepositoryException {
+		synchronized (writeLock) {
+			List<ImageRecord> previous = new ArrayList<>(images.size());
+
+			try {
+				TransactionManager.callInTransaction(imageDao.getConnectionSource(), () -> {
+					for (ImageRecord image : images) {
+						previous.add(listeners.isEmpty() ? null : copyOf(imageDao.queryForId(image.getPath())));
+						imageDao.createOrUpdate(image);
+					}
+
+					return null;
+				});
+			} catch (SQLException e) {
+				imageDao.clearObjectCache();
+				throw new RepositoryException("Failed to store " + images.size() + " images", e);
+			}
+
+			Iterator<ImageRecord> replaced = previous.iterator();
+
+			for (ImageRecord image : images) {
+				ImageRecord replacedImage = replaced.next();
+
+				for (ImageRepositoryListener listener : listeners) {
+					listener.imageStored(image, replacedImage);
+				}
+			}
 		}
 	}
 
+	/**
+	 * The DAO object cache returns the cached instance, which is updated in place when the image is stored.
+	 */
+	private static ImageRecord copyOf(ImageRecord record) {
+		if (record == null) {
+			return null;
+		}
+
+		return new ImageRecord(record.getPath(), record.getpHash(), record.getHashSource());
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -123,10 +219,17 @@ public class OrmliteImageRepository implements ImageRepository {
 	 */
 	@Override
 	public void remove(ImageRecord image) throws RepositoryException {
-		try {
-			imageDao.delete(image);
-		} catch (SQLException e) {
-			throw new RepositoryException("Failed to remove image", e);
+		synchronized (writeLock) {
+			try {
+				ImageRecord stored = listeners.isEmpty() ? null : imageDao.queryForId(image.getPath());
+				imageDao.delete(image);
+
+				if (stored != null) {
+					notifyRemoved(stored);
+				}
+			} catch (SQLException e) {
+				throw new RepositoryException("Failed to remove image", e);
+			}
 		}
 	}
 
@@ -135,10 +238,34 @@ public class OrmliteImageRepository implements ImageRepository {
 	 */
 	@Override
 	public void remove(Collection<ImageRecord> images) throws RepositoryException {
-		try {
-			imageDao.delete(images);
-		} catch (SQLException e) {
-			throw new RepositoryException("Failed to remove some or all images", e);
+		synchronized (writeLock) {
+			try {
+				List<ImageRecord> stored = new ArrayList<>();
+
+				if (!listeners.isEmpty()) {
+					for (ImageRecord image : images) {
+						ImageRecord record = imageDao.queryForId(image.getPath());
+
+						if (record != null) {
+							stored.add(record);
+						}
+					}
+				}
+
+				imageDao.delete(images);
+
+				for (ImageRecord record : stored) {
+					notifyRemoved(record);
+				}
+			} catch (SQLException e) {
+				throw new RepositoryException("Failed to remove some or all images", e);
+			}
+		}
+	}
+
+	private void notifyRemoved(ImageRecord image) {
+		for (ImageRepositoryListener listener : listeners) {
+			listener.imageRemoved(image);
 		}
 	}
 
@@ -179,4 +306,139 @@ public class OrmliteImageRepository implements ImageRepository {
 			throw new RepositoryException("Failed to query for non-ignored with path", e);
 		}
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ImageRecordStore getCompact(Path directory, boolean withoutIgnored) throws RepositoryException {
+		ImageRecordStore store = new ImageRecordStore();
+		forEachSortedByHash(directory, withoutIgnored, store::add);
+
+		return store;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachSortedByHash(Path directory, boolean withoutIgnored, ObjLongConsumer<String> consumer)
+			throws RepositoryException {
+		StringBuilder query = new StringBuilder(QUERY_COMPACT);
+		String[] arguments = {};
+
+		if (withoutIgnored) {
+			query.append(JOIN_IGNORED);
+		}
+
+		if (directory != null) {
+			query.append(withoutIgnored ? " AND" : " WHERE").append(CONDITION_PATH);
+			arguments = new String[] { directory.toString() + STRING_QUERY_WILDCARD };
+		}
+
+		query.append(ORDER_BY_HASH);
+
+		try {
+			CloseableIterator<Object[]> rows = imageDao.queryRaw(query.toString(), COMPACT_COLUMN_TYPES, arguments)
+					.closeableIterator();
+
+			try {
+				while (rows.hasNext()) {
+					Object[] row = rows.next();
+					consumer.accept((String) row[0], (Long) row[1]);
+				}
+			} finally {
+				rows.closeQuietly();
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to query records sorted by hash", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void storeAdditionalHash(ImageRecord image, String algorithm, long hash) throws RepositoryException {
+		try {
+			imageDao.updateRaw(STORE_ADDITIONAL_HASH, image.getPath(), algorithm, Long.toString(hash));
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to store additional hash", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<String, Long> getAdditionalHashes(String algorithm, Collection<ImageRecord> images)
+			throws RepositoryException {
+		Map<String, Long> hashes = new HashMap<>();
+
+		try {
+			for (List<ImageRecord> batch : Iterables.partition(images, ADDITIONAL_HASH_BATCH)) {
+				StringBuilder query = new StringBuilder(QUERY_ADDITIONAL_HASHES);
+				String[] arguments = new String[batch.size() + 1];
+				arguments[0] = algorithm;
+
+				for (int i = 0; i < batch.size(); i++) {
+					query.append(i == 0 ? "?" : ", ?");
+					arguments[i + 1] = batch.get(i).getPath();
+				}
+
+				query.append(")");
+
+				List<Object[]> rows = imageDao.queryRaw(query.toString(), COMPACT_COLUMN_TYPES, arguments).getResults();
+
+				for (Object[] row : rows) {
+					hashes.put((String) row[0], (Long) row[1]);
+				}
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to query additional hashes", e);
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isIgnored(ImageRecord image) throws RepositoryException {
+		try {
+			return ignoreDao.queryBuilder().where()
+					.eq(IgnoreRecord.IMAGEPATH_FIELD_NAME, new SelectArg(image.getPath())).countOf() > 0;
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to query for ignored image", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getGeneration() throws RepositoryException {
+		try {
+			return imageDao.queryRawValue(QUERY_GENERATION);
+		} catch (SQLException e) {
+			throw new RepositoryException("Failed to query generation", e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addListener(ImageRepositoryListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeListener(ImageRepositoryListener listener) {
+		listeners.remove(listener);
+	}
 }
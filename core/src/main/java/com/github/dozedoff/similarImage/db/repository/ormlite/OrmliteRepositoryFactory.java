@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.similarImage.db.BadFileRecord;
+import com.github.dozedoff.similarImage.db.ContentDigest;
 import com.github.dozedoff.similarImage.db.Database;
 import com.github.dozedoff.similarImage.db.FilterRecord;
 import com.github.dozedoff.similarImage.db.IgnoreRecord;
@@ -32,6 +33,7 @@ import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.PendingHashImage;
 import com.github.dozedoff.similarImage.db.Tag;
 import com.github.dozedoff.similarImage.db.Thumbnail;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.db.repository.IgnoreRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
@@ -62,6 +64,7 @@ public class OrmliteRepositoryFactory implements RepositoryFactory {
 	private Dao<Tag, Long> tagDao;
 	private Dao<PendingHashImage, Integer> pendingDao;
 	private Dao<IgnoreRecord, String> ignoreDao;
+	private Dao<ContentDigest, String> digestDao;
 
 	/**
 	 * Create a new Repository Factory using the given database instance.
@@ -89,6 +92,7 @@ public class OrmliteRepositoryFactory implements RepositoryFactory {
 		tagDao = DaoManager.createDao(cs, Tag.class);
 		pendingDao = DaoManager.createDao(cs, PendingHashImage.class);
 		ignoreDao = DaoManager.createDao(cs, IgnoreRecord.class);
+		digestDao = DaoManager.createDao(cs, ContentDigest.class);
 
 		imageRecordDao.setObjectCache(new LruObjectCache(LARGE_CACHE_SIZE));
 		filterRecordDao.setObjectCache(new LruObjectCache(DEFAULT_CACHE_SIZE));
@@ -96,6 +100,7 @@ public class OrmliteRepositoryFactory implements RepositoryFactory {
 		ignoreRecordDao.setObjectCache(new LruObjectCache(DEFAULT_CACHE_SIZE));
 		pendingDao.setObjectCache(new LruObjectCache(DEFAULT_CACHE_SIZE));
 		ignoreDao.setObjectCache(new LruObjectCache(DEFAULT_CACHE_SIZE));
+		digestDao.setObjectCache(new LruObjectCache(DEFAULT_CACHE_SIZE));
 	}
 
 	/**
@@ -157,4 +162,16 @@ public class OrmliteRepositoryFactory implements RepositoryFactory {
 	public IgnoreRepository buildIgnoreRepository() throws RepositoryException {
 		return new OrmliteIgnoreRepository(ignoreDao);
 	}
+
+	/**
+	 * Create a new {@link ContentDigestRepository}
+	 * 
+	 * @return an initialized {@link OrmliteContentDigestRepository}
+	 * @throws RepositoryException
+	 *             if there was an error with the DAO or database
+	 */
+	@Override
+	public ContentDigestRepository buildContentDigestRepository() throws RepositoryException {
+		return new OrmliteContentDigestRepository(digestDao);
+	}
 }
@@ -17,6 +17,7 @@
  */
 package com.github.dozedoff.similarImage.db.repository.ormlite;
 
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.db.repository.IgnoreRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
@@ -77,4 +78,13 @@ public interface RepositoryFactory {
 	 */
 	IgnoreRepository buildIgnoreRepository() throws RepositoryException;
 
+	/**
+	 * Create a new {@link ContentDigestRepository}
+	 * 
+	 * @return an initialized {@link ContentDigestRepository}
+	 * @throws RepositoryException
+	 *             if there was an error with the datasource
+	 */
+	ContentDigestRepository buildContentDigestRepository() throws RepositoryException;
+
 }
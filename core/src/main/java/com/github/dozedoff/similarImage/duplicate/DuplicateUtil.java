@@ -36,20 +36,20 @@ public abstract class DuplicateUtil {
 	private static final Logger logger = LoggerFactory.getLogger(DuplicateUtil.class);
 
 	/**
-	 * Group records by hash using a one to many map.
+	 * Group records by hash using a one to many map. The records are sorted by hash first, see {@link SortedHashRuns},
+	 * so each group is added in one step.
 	 * 
 	 * @param dbRecords
 	 *            records to sort.
 	 * @return a one to many map with the hash vales as the key.
 	 */
 	public static Multimap<Long, ImageRecord> groupByHash(Collection<ImageRecord> dbRecords) {
-		Multimap<Long, ImageRecord> groupedByHash = MultimapBuilder.hashKeys().hashSetValues().build();
-
 		logger.info("Grouping records by hash...");
 
-		for (ImageRecord ir : dbRecords) {
-			groupedByHash.put(ir.getpHash(), ir);
-		}
+		SortedHashRuns runs = new SortedHashRuns(dbRecords);
+		Multimap<Long, ImageRecord> groupedByHash = MultimapBuilder.hashKeys(runs.runCount()).hashSetValues().build();
+
+		runs.forEachRun(1, (records, hash) -> groupedByHash.putAll(hash, records));
 
 		logger.info("{} records, in {} groups", dbRecords.size(), groupedByHash.keySet().size());
 
@@ -0,0 +1,294 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.ImageRepositoryListener;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.primitives.Longs;
+
+/**
+ * Keeps the groups of image queries in memory, so repeated queries do not need to group the images again. Entries are
+ * tagged with the generation of the {@link ImageRepository}, like the {@link RecordSearchCache}.
+ * <p>
+ * Removed images are removed from the cached groups, and groups keyed by a hash without any remaining images are
+ * dropped. This matches a new grouping only if every group contains the images with its own hash, as done by
+ * {@link com.github.dozedoff.similarImage.thread.pipeline.GroupImagesStage}. Stored images clear the cache, as they may
+ * join any group.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class GroupResultCache implements ImageRepositoryListener {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GroupResultCache.class);
+
+	private final ImageRepository imageRepository;
+	private final Map<String, CacheEntry> entries;
+
+	/**
+	 * Create a new cache. The cache registers itself as a listener with the repository.
+	 * 
+	 * @param imageRepository
+	 *            to query the current generation of the image data
+	 */
+	public GroupResultCache(ImageRepository imageRepository) {
+		this.imageRepository = imageRepository;
+		this.entries = new HashMap<>();
+
+		imageRepository.addListener(this);
+	}
+
+	/**
+	 * Get the groups for the query with the given key. If there is no current entry, the images are grouped and the
+	 * result is stored.
+	 * 
+	 * @param key
+	 *            unique key for the query, including the scope and all grouping parameters
+	 * @param grouper
+	 *            to group the images if there is no current entry
+	 * @return a new {@link Multimap} with the groups
+	 */
+	public synchronized Multimap<Long, ImageRecord> get(String key, Supplier<Multimap<Long, ImageRecord>> grouper) {
+		long generation;
+
+		try {
+			generation = imageRepository.getGeneration();
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to get image generation, bypassing cache: {}, cause: {}", e.toString(), e.getCause());
+			return grouper.get();
+		}
+
+		CacheEntry entry = entries.get(key);
+
+		if (entry != null && entry.generation == generation) {
+			LOGGER.info("Using {} cached groups for {}", entry.groups.groupCount(), key);
+			return entry.groups.toMultimap();
+		}
+
+		Multimap<Long, ImageRecord> groups = grouper.get();
+		entries.put(key, new CacheEntry(generation, new CompactGroups(groups)));
+
+		return groups;
+	}
+
+	/**
+	 * Clear all entries, as the stored image could be part of any group.
+	 * 
+	 * @param image
+	 *            the stored image
+	 * @param previous
+	 *            the image that was replaced, or null if the image is new
+	 */
+	@Override
+	public synchronized void imageStored(ImageRecord image, ImageRecord previous) {
+		entries.clear();
+	}
+
+	/**
+	 * Remove the image from all cached groups.
+	 * 
+	 * @param image
+	 *            the removed image
+	 */
+	@Override
+	public synchronized void imageRemoved(ImageRecord image) {
+		for (CacheEntry entry : entries.values()) {
+			entry.generation++;
+			entry.groups.remove(image);
+		}
+	}
+
+	private static final class CacheEntry {
+		/**
+		 * Expected generation of the repository, incremented for every change that is applied to the groups.
+		 */
+		private long generation;
+		private final CompactGroups groups;
+
+		CacheEntry(long generation, CompactGroups groups) {
+			this.generation = generation;
+			this.groups = groups;
+		}
+	}
+
+	/**
+	 * Groups stored in a single {@link ImageRecordStore}. The images of a group are consecutive and sorted by hash, so
+	 * an image can be found with a binary search per group. Removed images are marked in a {@link BitSet}.
+	 */
+	static final class CompactGroups {
+		private final long[] keys;
+		private final int[] groupStart;
+		private final ImageRecordStore images;
+		private final BitSet removed;
+		private final BitSet removedGroups;
+		/**
+		 * Hashes of all images in ascending order, with the image ids in {@link #idsByHash}, so removing an image only
+		 * needs to look at the images with the same hash instead of every group.
+		 */
+		private final long[] sortedHashes;
+		private final int[] idsByHash;
+
+		CompactGroups(Multimap<Long, ImageRecord> groups) {
+			this.keys = Longs.toArray(groups.keySet());
+			this.groupStart = new int[keys.length + 1];
+			this.images = new ImageRecordStore(groups.size());
+			this.removed = new BitSet();
+			this.removedGroups = new BitSet();
+
+			Comparator<ImageRecord> order = Comparator.comparingLong(ImageRecord::getpHash)
+					.thenComparing(ImageRecord::getPath);
+
+			for (int group = 0; group < keys.length; group++) {
+				List<ImageRecord> members = new ArrayList<>(groups.get(keys[group]));
+				members.sort(order);
+				members.forEach(images::add);
+				groupStart[group + 1] = images.size();
+			}
+
+			this.sortedHashes = new long[images.size()];
+			this.idsByHash = new int[images.size()];
+
+			for (int id = 0; id < sortedHashes.length; id++) {
+				sortedHashes[id] = images.getHash(id);
+				idsByHash[id] = id;
+			}
+
+			SortedHashRuns.radixSort(sortedHashes, idsByHash);
+		}
+
+		void remove(ImageRecord image) {
+			long hash = image.getpHash();
+
+			for (int index = firstIndexWithHash(hash); index < sortedHashes.length
+					&& sortedHashes[index] == hash; index++) {
+				int id = idsByHash[index];
+
+				if (!removed.get(id) && images.getPath(id).equals(image.getPath())) {
+					removed.set(id);
+					int group = groupOf(id);
+
+					if (!containsHash(group, keys[group])) {
+						removedGroups.set(group);
+					}
+				}
+			}
+		}
+
+		private int firstIndexWithHash(long hash) {
+			int low = 0;
+			int high = sortedHashes.length;
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+
+				if (sortedHashes[middle] < hash) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low;
+		}
+
+		private int groupOf(int id) {
+			int low = 0;
+			int high = keys.length - 1;
+
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+
+				if (groupStart[middle] <= id) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+
+			return low;
+		}
+
+		private boolean containsHash(int group, long hash) {
+			for (int id = firstWithHash(group, hash); id < groupStart[group + 1] && images.getHash(id) == hash; id++) {
+				if (!removed.get(id)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private int firstWithHash(int group, long hash) {
+			int low = groupStart[group];
+			int high = groupStart[group + 1];
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+
+				if (images.getHash(middle) < hash) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low;
+		}
+
+		int groupCount() {
+			return keys.length - removedGroups.cardinality();
+		}
+
+		Multimap<Long, ImageRecord> toMultimap() {
+			Multimap<Long, ImageRecord> groups = MultimapBuilder.hashKeys().hashSetValues().build();
+
+			for (int group = 0; group < keys.length; group++) {
+				if (removedGroups.get(group)) {
+					continue;
+				}
+
+				Collection<ImageRecord> members = groups.get(keys[group]);
+
+				for (int id = groupStart[group]; id < groupStart[group + 1]; id++) {
+					if (!removed.get(id)) {
+						members.add(images.get(id));
+					}
+				}
+			}
+
+			return groups;
+		}
+	}
+}
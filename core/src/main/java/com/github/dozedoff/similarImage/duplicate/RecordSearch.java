@@ -18,39 +18,73 @@
 
 package com.github.dozedoff.similarImage.duplicate;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.everpeace.search.BKTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.index.HashIndex;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.github.dozedoff.similarImage.duplicate.index.PersistentHashIndex;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
+import com.google.common.primitives.Longs;
 
 /**
  * Builds the necessary data structures from the supplied data to allow queries
  * for records with hashes at a given hamming-distance.
+ * <p>
+ * Records can be added and removed after the search has been built. Hashes that no longer have any records stay in the
+ * index until enough of them have accumulated, at which point the index is rebuilt. All methods are thread safe.
+ * </p>
  * 
  * @author Nicholas Wright
  *
  */
 public class RecordSearch {
 	private static final Logger logger = LoggerFactory.getLogger(RecordSearch.class);
+	private final IndexType indexType;
+	private final ReadWriteLock lock;
 	private Multimap<Long, ImageRecord> imagesGroupedByHash;
-	private BKTree<Long> bkTree;
+	private HashIndex index;
+	private int staleHashes;
+	private long indexBuildMillis;
 
+	/**
+	 * Create a new search using a {@link IndexType#HAMMING_BK_TREE}.
+	 */
 	public RecordSearch() {
+		this(IndexType.HAMMING_BK_TREE);
+	}
+
+	/**
+	 * Create a new search that uses the given index type for hamming distance queries.
+	 * 
+	 * @param indexType
+	 *            the index implementation to use
+	 */
+	public RecordSearch(IndexType indexType) {
+		this.indexType = indexType;
+		this.lock = new ReentrantReadWriteLock();
 		imagesGroupedByHash = MultimapBuilder.hashKeys().hashSetValues().build();
-		bkTree = new BKTree<Long>(new CompareHammingDistance(), 0L);
+		index = indexType.create();
 	}
 
 	/**
-	 * Sort the given records into groups and build a tree to query them.
+	 * Sort the given records into groups and build a tree to query them. The index is built in parallel if the index
+	 * type supports it, see {@link HashIndex#buildParallel(long[])}.
 	 * 
 	 * @param dbRecords
 	 *            that should eventually be queried.
@@ -58,8 +92,147 @@ public class RecordSearch {
 	public void build(Collection<ImageRecord> dbRecords) {
 		logger.info("Building Record search from {} records...", dbRecords.size());
 
-		groupRecords(dbRecords);
-		buildBkTree();
+		lock.writeLock().lock();
+
+		try {
+			groupRecords(dbRecords);
+			buildIndex();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Sort the given records into groups, and restore the index from data written by {@link #writeIndex(DataOutput)}
+	 * instead of building it. If the index could not be written, it is built from the records.
+	 * 
+	 * @param dbRecords
+	 *            the records the index was written for
+	 * @param indexData
+	 *            positioned at the written index, the position is advanced past the index
+	 * @throws IOException
+	 *             if the index data is invalid or does not contain the hashes of the records
+	 */
+	public void restore(Collection<ImageRecord> dbRecords, ByteBuffer indexData) throws IOException {
+		lock.writeLock().lock();
+
+		try {
+			groupRecords(dbRecords);
+			HashIndex restored = indexType.create();
+			boolean written = indexData.get() != 0;
+
+			if (!written || !(restored instanceof PersistentHashIndex)) {
+				buildIndex();
+				return;
+			}
+
+			Stopwatch sw = Stopwatch.createStarted();
+			((PersistentHashIndex) restored).read(indexData);
+
+			if (restored.size() < numberOfHashes()) {
+				throw new IOException("Index has " + restored.size() + " hashes, but the records have "
+						+ numberOfHashes());
+			}
+
+			index = restored;
+			staleHashes = restored.size() - numberOfHashes();
+			logger.info("Restored {} with {} hashes in {}", indexType, restored.size(), sw);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Write the index of this search, so it can be restored with {@link #restore(Collection, ByteBuffer)}. Index types
+	 * that are not a {@link PersistentHashIndex} only write a marker, and are built again when restored.
+	 * 
+	 * @param out
+	 *            to write the index to
+	 * @throws IOException
+	 *             if the index could not be written
+	 */
+	public void writeIndex(DataOutput out) throws IOException {
+		lock.readLock().lock();
+
+		try {
+			boolean persistent = index instanceof PersistentHashIndex;
+			out.writeBoolean(persistent);
+
+			if (persistent) {
+				((PersistentHashIndex) index).write(out);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Add a record to the search. If the hash is new, it is added to the index.
+	 * 
+	 * @param record
+	 *            to add
+	 */
+	public void add(ImageRecord record) {
+		lock.writeLock().lock();
+
+		try {
+			long hash = record.getpHash();
+
+			if (!imagesGroupedByHash.containsKey(hash)) {
+				index.add(hash);
+			}
+
+			imagesGroupedByHash.put(hash, record);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove a record from the search. The record must have the same path and hash as the added record.
+	 * 
+	 * @param record
+	 *            to remove
+	 * @return true if the record was found and removed
+	 */
+	public boolean remove(ImageRecord record) {
+		lock.writeLock().lock();
+
+		try {
+			long hash = record.getpHash();
+
+			if (!imagesGroupedByHash.remove(hash, record)) {
+				return false;
+			}
+
+			if (!imagesGroupedByHash.containsKey(hash)) {
+				staleHashes++;
+			}
+
+			if (staleHashes > numberOfHashes()) {
+				logger.info("{} hashes without records, rebuilding {}", staleHashes, indexType);
+				buildIndex();
+			}
+
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Get all records in this search.
+	 * 
+	 * @return a new list containing all records
+	 */
+	public List<ImageRecord> getRecords() {
+		lock.readLock().lock();
+
+		try {
+			return new ArrayList<>(imagesGroupedByHash.values());
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
 	private void groupRecords(Collection<ImageRecord> dbRecords) {
@@ -70,19 +243,48 @@ public class RecordSearch {
 		logger.info("Grouped records into {} groups in {}", numberOfHashes(), swGroup);
 	}
 
-	private void buildBkTree() {
+	private void buildIndex() {
+		index = indexType.create();
+		staleHashes = 0;
+
 		if (imagesGroupedByHash.isEmpty()) {
-			logger.warn("No hashes provided, cannot build BK tree!");
+			logger.warn("No hashes provided, cannot build {}!", indexType);
 			return;
 		}
 
-		logger.info("Building BK-Tree from {} hashes", numberOfHashes());
+		logger.info("Building {} from {} hashes", indexType, numberOfHashes());
+
+		Stopwatch swBuildIndex = Stopwatch.createStarted();
+		index.buildParallel(Longs.toArray(imagesGroupedByHash.keySet()));
+		swBuildIndex.stop();
+		indexBuildMillis = swBuildIndex.elapsed(TimeUnit.MILLISECONDS);
 
-		Stopwatch swBuildTree = Stopwatch.createStarted();
-		bkTree = BKTree.build(imagesGroupedByHash.keySet(), new CompareHammingDistance());
-		swBuildTree.stop();
+		logger.info("Took {} to build {} with {} hashes", swBuildIndex, indexType, numberOfHashes());
+	}
+
+	/**
+	 * Get the time it took to build the index the last time it was built. Indexes are built in parallel if the index
+	 * type supports it.
+	 * 
+	 * @return build time in milliseconds, 0 if no index has been built
+	 */
+	public long getIndexBuildMillis() {
+		lock.readLock().lock();
 
-		logger.info("Took {} to build BK-tree with {} hashes", swBuildTree, numberOfHashes());
+		try {
+			return indexBuildMillis;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the type of index used for hamming distance queries.
+	 * 
+	 * @return the index type of this search
+	 */
+	public IndexType getIndexType() {
+		return indexType;
 	}
 
 	private int numberOfHashes() {
@@ -90,13 +292,23 @@ public class RecordSearch {
 	}
 
 	/**
-	 * Return all groups with exact matches and more than one image per match.
+	 * Return all groups with exact matches and more than one image per match. The search is not modified, so it can
+	 * still be used for distance queries. Matches are found by sorting the records, see {@link SortedHashRuns}.
 	 * 
-	 * @return distinct list of matches
+	 * @return distinct list of matches, in ascending order
 	 */
 	public List<Long> exactMatch() {
-		DuplicateUtil.removeSingleImageGroups(imagesGroupedByHash);
-		return new ArrayList<>(imagesGroupedByHash.keySet());
+		List<Long> matches = new ArrayList<>();
+
+		lock.readLock().lock();
+
+		try {
+			new SortedHashRuns(imagesGroupedByHash.values()).forEachRunHash(2, matches::add);
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return matches;
 	}
 
 	/**
@@ -111,12 +323,122 @@ public class RecordSearch {
 	public Multimap<Long, ImageRecord> distanceMatch(long hash, long hammingDistance) {
 		Multimap<Long, ImageRecord> searchResult = MultimapBuilder.hashKeys().hashSetValues().build();
 
-		Set<Long> resultKeys = bkTree.searchWithin(hash, (double) hammingDistance);
+		lock.readLock().lock();
 
-		for (Long key : resultKeys) {
-			searchResult.putAll(key, imagesGroupedByHash.get(key));
+		try {
+			long[] resultKeys = index.searchWithin(hash, (int) Math.min(hammingDistance, Long.SIZE));
+
+			for (long key : resultKeys) {
+				searchResult.putAll(key, imagesGroupedByHash.get(key));
+			}
+		} finally {
+			lock.readLock().unlock();
 		}
 
 		return searchResult;
 	}
+
+	/**
+	 * For each of the given hashes, return the hashes and images for all hashes that are at or within the given hamming
+	 * distance. The index can answer all queries in a single pass, which is faster than separate queries for indexes
+	 * that scan their hashes.
+	 * 
+	 * @param hashes
+	 *            the hashes to search
+	 * @param hammingDistance
+	 *            the maximum hamming distance to match hashes for (up to and including)
+	 * @return a multimap for each hash, in the order of the given hashes
+	 */
+	public List<Multimap<Long, ImageRecord>> distanceMatch(long[] hashes, long hammingDistance) {
+		List<Multimap<Long, ImageRecord>> searchResults = new ArrayList<>(hashes.length);
+
+		lock.readLock().lock();
+
+		try {
+			long[][] resultKeys = index.searchWithin(hashes, (int) Math.min(hammingDistance, Long.SIZE));
+
+			for (long[] keys : resultKeys) {
+				Multimap<Long, ImageRecord> searchResult = MultimapBuilder.hashKeys().hashSetValues().build();
+
+				for (long key : keys) {
+					searchResult.putAll(key, imagesGroupedByHash.get(key));
+				}
+
+				searchResults.add(searchResult);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return searchResults;
+	}
+
+	/**
+	 * Find the records with the hashes closest to the given hash. The search radius starts at an exact match and is
+	 * doubled until enough records have been found, so close matches only query a small part of the index.
+	 * 
+	 * @param hash
+	 *            the hash to search
+	 * @param count
+	 *            the maximum number of records to return
+	 * @return up to count records, sorted by the hamming distance of their hash to the given hash
+	 */
+	public List<ImageRecord> nearestMatch(long hash, int count) {
+		List<ImageRecord> result = new ArrayList<>();
+
+		if (count <= 0) {
+			return result;
+		}
+
+		lock.readLock().lock();
+
+		try {
+			long[] matches = nearestHashes(hash, count);
+			Long[] sorted = Longs.asList(matches).toArray(new Long[matches.length]);
+			Arrays.sort(sorted, Comparator.comparingInt((Long match) -> Long.bitCount(match ^ hash))
+					.thenComparing(Comparator.naturalOrder()));
+
+			for (long match : sorted) {
+				for (ImageRecord record : imagesGroupedByHash.get(match)) {
+					if (result.size() == count) {
+						return result;
+					}
+
+					result.add(record);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Find the hashes in the smallest radius that contains at least the given number of records, or all hashes if there
+	 * are not enough records.
+	 */
+	private long[] nearestHashes(long hash, int count) {
+		int radius = 0;
+
+		while (true) {
+			long[] matches = index.searchWithin(hash, radius);
+
+			if (radius == Long.SIZE || countRecords(matches) >= count) {
+				return matches;
+			}
+
+			radius = Math.min(Math.max(radius * 2, 1), Long.SIZE);
+		}
+	}
+
+	private int countRecords(long[] hashes) {
+		int records = 0;
+
+		for (long hash : hashes) {
+			records += imagesGroupedByHash.get(hash).size();
+		}
+
+		return records;
+	}
 }
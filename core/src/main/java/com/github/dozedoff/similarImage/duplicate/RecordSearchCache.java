@@ -0,0 +1,594 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.ImageRepositoryListener;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.Hashing;
+
+/**
+ * Keeps {@link RecordSearch} instances for image queries in memory and in files, so they only need to be rebuilt when
+ * the image data changes. Entries are tagged with the generation of the {@link ImageRepository}, and are considered
+ * stale once the generation changes.
+ * <p>
+ * Files are only read on the first query for a key, and are memory mapped when loading. A file holds the records
+ * sorted by hash, followed by the built index if the index type can be written, see
+ * {@link com.github.dozedoff.similarImage.duplicate.index.PersistentHashIndex}. Such searches are restored without
+ * building the index again.
+ * </p>
+ * <p>
+ * The cache listens for changes made through the {@link ImageRepository} and applies them to the cached searches, so
+ * entries only need to be rebuilt if the data was changed by other means. Changes are appended to a journal next to
+ * the file, which is replayed when the file is loaded. The file is only rewritten once the journal has grown large
+ * compared to the records.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class RecordSearchCache implements ImageRepositoryListener {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RecordSearchCache.class);
+
+	private static final int MAGIC = 0x53495358;
+	private static final int VERSION = 2;
+	private static final String FILE_EXTENSION = ".search";
+	private static final String JOURNAL_FILE_EXTENSION = ".journal";
+	private static final String TEMP_FILE_EXTENSION = ".tmp";
+	/**
+	 * Minimum number of journaled changes before the file is rewritten.
+	 */
+	private static final int MIN_JOURNAL_CHANGES = 1024;
+	/**
+	 * Rewrite the file once the journal exceeds this fraction of the records.
+	 */
+	private static final int JOURNAL_FRACTION = 8;
+
+	private final ImageRepository imageRepository;
+	private final Path cacheDirectory;
+	private final Map<String, CacheEntry> entries;
+
+	/**
+	 * Create a new cache that stores search files in the given directory. The cache registers itself as a listener
+	 * with the repository.
+	 * 
+	 * @param imageRepository
+	 *            to query the current generation of the image data
+	 * @param cacheDirectory
+	 *            directory for search files, will be created if it does not exist
+	 */
+	public RecordSearchCache(ImageRepository imageRepository, Path cacheDirectory) {
+		this.imageRepository = imageRepository;
+		this.cacheDirectory = cacheDirectory;
+		this.entries = new HashMap<>();
+
+		imageRepository.addListener(this);
+	}
+
+	/**
+	 * Get the records for the query with the given key. If there is no current entry in memory or on disk, the records
+	 * are loaded from the query and a new search is built and stored. New images are
+	 * added whether they are ignored or not.
+	 * 
+	 * @param key
+	 *            unique key for the query
+	 * @param indexType
+	 *            index used by the search
+	 * @param query
+	 *            to load the records if there is no current entry
+	 * @param scope
+	 *            new images that match the scope will be added to the entry
+	 * @return the records for the query
+	 */
+	public List<ImageRecord> get(String key, IndexType indexType, Supplier<? extends Collection<ImageRecord>> query,
+			Predicate<ImageRecord> scope) {
+		return get(key, indexType, query, scope, false);
+	}
+
+	/**
+	 * Get the records for the query with the given key. If there is no current entry in memory or on disk, the records
+	 * are loaded from the query and a new search is built and stored.
+	 * 
+	 * @param key
+	 *            unique key for the query
+	 * @param indexType
+	 *            index used by the search
+	 * @param query
+	 *            to load the records if there is no current entry
+	 * @param scope
+	 *            new images that match the scope will be added to the entry
+	 * @param withoutIgnored
+	 *            if true, new images that are ignored are not added to the entry
+	 * @return the records for the query
+	 */
+	public synchronized List<ImageRecord> get(String key, IndexType indexType,
+			Supplier<? extends Collection<ImageRecord>> query, Predicate<ImageRecord> scope, boolean withoutIgnored) {
+		String fullKey = indexType + ":" + key;
+		long generation;
+
+		try {
+			generation = imageRepository.getGeneration();
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to get image generation, bypassing cache: {}, cause: {}", e.toString(), e.getCause());
+			return new ArrayList<>(query.get());
+		}
+
+		CacheEntry entry = entries.get(fullKey);
+
+		if (entry == null || entry.generation != generation) {
+			entry = load(fullKey, indexType, generation, scope, withoutIgnored);
+		}
+
+		if (entry == null) {
+			entry = build(fullKey, indexType, generation, query.get(), scope, withoutIgnored);
+		}
+
+		if (entry.writtenGeneration != entry.generation) {
+			if (!entry.changes.isEmpty()) {
+				LOGGER.info("Updating records for {} with {} changes", fullKey, entry.changes.size());
+				entry.records = Collections.unmodifiableList(applyChanges(entry.records, entry.changes));
+			}
+
+			appendQuietly(fullKey, entry);
+		}
+
+		entries.put(fullKey, entry);
+		return entry.records;
+	}
+
+	/**
+	 * Apply the stored image to all cached searches. The repository is checked at most once if the image is ignored.
+	 * 
+	 * @param image
+	 *            the stored image
+	 * @param previous
+	 *            the image that was replaced, or null if the image is new
+	 */
+	@Override
+	public synchronized void imageStored(ImageRecord image, ImageRecord previous) {
+		Boolean ignored = null;
+
+		for (CacheEntry entry : entries.values()) {
+			entry.generation++;
+
+			if (previous != null) {
+				if (entry.remove(previous)) {
+					entry.add(image);
+				}
+
+				continue;
+			}
+
+			if (!entry.scope.test(image)) {
+				continue;
+			}
+
+			if (entry.withoutIgnored && ignored == null) {
+				ignored = isIgnored(image);
+			}
+
+			if (!entry.withoutIgnored || !ignored) {
+				entry.add(image);
+			}
+		}
+	}
+
+	private boolean isIgnored(ImageRecord image) {
+		try {
+			return imageRepository.isIgnored(image);
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to check if {} is ignored, adding it to cached searches: {}", image.getPath(),
+					e.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * Remove the image from all cached searches.
+	 * 
+	 * @param image
+	 *            the removed image
+	 */
+	@Override
+	public synchronized void imageRemoved(ImageRecord image) {
+		for (CacheEntry entry : entries.values()) {
+			entry.generation++;
+			entry.remove(image);
+		}
+	}
+
+	/**
+	 * Get the search that was built for the given records. The records must be the same instance that was returned by
+	 * {@link #get(String, IndexType, Supplier, Predicate)}.
+	 * 
+	 * @param records
+	 *            returned by this cache
+	 * @return the matching search, or null if the records did not come from this cache
+	 */
+	public synchronized RecordSearch lookup(Collection<ImageRecord> records) {
+		for (CacheEntry entry : entries.values()) {
+			if (entry.records == records) {
+				return entry.search;
+			}
+		}
+
+		return null;
+	}
+
+	private CacheEntry build(String fullKey, IndexType indexType, long generation, Collection<ImageRecord> records,
+			Predicate<ImageRecord> scope, boolean withoutIgnored) {
+		List<ImageRecord> sorted = new ArrayList<>(records);
+		sorted.sort(Comparator.comparingLong(ImageRecord::getpHash));
+
+		RecordSearch search = new RecordSearch(indexType);
+		search.build(sorted);
+
+		CacheEntry entry = new CacheEntry(generation, Collections.unmodifiableList(sorted), search, scope,
+				withoutIgnored);
+		writeQuietly(fullKey, entry);
+
+		return entry;
+	}
+
+	/**
+	 * Apply the changes to the records sorted by hash. Added records are merged in, so the result is sorted by hash
+	 * without sorting all records again.
+	 */
+	private static List<ImageRecord> applyChanges(List<ImageRecord> records, List<Change> changes) {
+		Map<ImageRecord, Integer> net = new HashMap<>();
+
+		for (Change change : changes) {
+			net.merge(change.record, change.added ? 1 : -1, Integer::sum);
+		}
+
+		List<ImageRecord> added = new ArrayList<>();
+		Map<ImageRecord, Integer> removed = new HashMap<>();
+
+		for (Map.Entry<ImageRecord, Integer> change : net.entrySet()) {
+			for (int i = 0; i < change.getValue(); i++) {
+				added.add(change.getKey());
+			}
+
+			if (change.getValue() < 0) {
+				removed.put(change.getKey(), -change.getValue());
+			}
+		}
+
+		added.sort(Comparator.comparingLong(ImageRecord::getpHash));
+		List<ImageRecord> merged = new ArrayList<>(records.size() + added.size());
+		int next = 0;
+
+		for (ImageRecord record : records) {
+			Integer removals = removed.get(record);
+
+			if (removals != null) {
+				if (removals == 1) {
+					removed.remove(record);
+				} else {
+					removed.put(record, removals - 1);
+				}
+
+				continue;
+			}
+
+			while (next < added.size() && added.get(next).getpHash() < record.getpHash()) {
+				merged.add(added.get(next++));
+			}
+
+			merged.add(record);
+		}
+
+		merged.addAll(added.subList(next, added.size()));
+		return merged;
+	}
+
+	private void writeQuietly(String fullKey, CacheEntry entry) {
+		try {
+			Files.deleteIfExists(journalFile(fullKey));
+			write(cacheFile(fullKey), entry);
+			entry.journalChanges = 0;
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write search file for {}: {}", fullKey, e.toString());
+		}
+	}
+
+	/**
+	 * Append the changes of the entry to the journal, or rewrite the file if the journal has grown too large.
+	 */
+	private void appendQuietly(String fullKey, CacheEntry entry) {
+		entry.journalChanges += entry.changes.size();
+
+		if (entry.journalChanges > Math.max(MIN_JOURNAL_CHANGES, entry.records.size() / JOURNAL_FRACTION)) {
+			LOGGER.info("Journal for {} has {} changes, rewriting search file", fullKey, entry.journalChanges);
+			writeQuietly(fullKey, entry);
+		} else {
+			try {
+				appendJournal(journalFile(fullKey), entry);
+			} catch (IOException e) {
+				LOGGER.warn("Failed to append to journal for {}: {}", fullKey, e.toString());
+			}
+		}
+
+		entry.changes.clear();
+		entry.writtenGeneration = entry.generation;
+	}
+
+	private CacheEntry load(String fullKey, IndexType indexType, long generation, Predicate<ImageRecord> scope,
+			boolean withoutIgnored) {
+		Path file = cacheFile(fullKey);
+
+		if (!Files.exists(file)) {
+			return null;
+		}
+
+		try {
+			CacheEntry entry = read(file, journalFile(fullKey), indexType, generation, scope, withoutIgnored);
+
+			if (entry == null) {
+				LOGGER.info("Search file for {} is stale", fullKey);
+			}
+
+			return entry;
+		} catch (IOException | BufferUnderflowException e) {
+			LOGGER.warn("Failed to read search file {}: {}", file, e.toString());
+			return null;
+		}
+	}
+
+	private Path cacheFile(String fullKey) {
+		return cacheDirectory
+				.resolve(Hashing.murmur3_128().hashString(fullKey, StandardCharsets.UTF_8).toString() + FILE_EXTENSION);
+	}
+
+	private Path journalFile(String fullKey) {
+		Path file = cacheFile(fullKey);
+		return file.resolveSibling(file.getFileName() + JOURNAL_FILE_EXTENSION);
+	}
+
+	private void write(Path file, CacheEntry entry) throws IOException {
+		Files.createDirectories(cacheDirectory);
+		Path tempFile = file.resolveSibling(file.getFileName() + TEMP_FILE_EXTENSION);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(entry.generation);
+			out.writeInt(entry.records.size());
+
+			for (ImageRecord record : entry.records) {
+				writeRecord(out, record);
+			}
+
+			entry.search.writeIndex(out);
+		}
+
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void writeRecord(DataOutputStream out, ImageRecord record) throws IOException {
+		byte[] path = record.getPath().getBytes(StandardCharsets.UTF_8);
+
+		out.writeLong(record.getpHash());
+		out.writeInt(path.length);
+		out.write(path);
+	}
+
+	private ImageRecord readRecord(ByteBuffer buffer) {
+		long hash = buffer.getLong();
+		byte[] path = new byte[buffer.getInt()];
+		buffer.get(path);
+
+		return new ImageRecord(new String(path, StandardCharsets.UTF_8), hash);
+	}
+
+	/**
+	 * Append the changes of the entry as one batch. A batch records the generation before and after the changes, so
+	 * batches that do not follow on from the file are detected when replaying the journal.
+	 */
+	private void appendJournal(Path journal, CacheEntry entry) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journal,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)))) {
+			out.writeLong(entry.writtenGeneration);
+			out.writeLong(entry.generation);
+			out.writeInt(entry.changes.size());
+
+			for (Change change : entry.changes) {
+				out.writeBoolean(change.added);
+				writeRecord(out, change.record);
+			}
+		}
+	}
+
+	/**
+	 * Read the entry from the file and replay the journal.
+	 * 
+	 * @return the entry, or null if the file and journal do not add up to the given generation
+	 */
+	private CacheEntry read(Path file, Path journal, IndexType indexType, long generation,
+			Predicate<ImageRecord> scope, boolean withoutIgnored) throws IOException {
+		Stopwatch sw = Stopwatch.createStarted();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+
+			long fileGeneration = buffer.getLong();
+			List<Change> changes = new ArrayList<>();
+			long journalGeneration = readJournal(journal, fileGeneration, changes);
+
+			if (journalGeneration != generation) {
+				return null;
+			}
+
+			int count = buffer.getInt();
+			List<ImageRecord> records = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				records.add(readRecord(buffer));
+			}
+
+			RecordSearch search = new RecordSearch(indexType);
+			search.restore(records, buffer);
+
+			for (Change change : changes) {
+				if (change.added) {
+					search.add(change.record);
+				} else {
+					search.remove(change.record);
+				}
+			}
+
+			CacheEntry entry = new CacheEntry(generation,
+					Collections.unmodifiableList(applyChanges(records, changes)), search, scope, withoutIgnored);
+			entry.journalChanges = changes.size();
+
+			LOGGER.info("Loaded {} records and {} changes from {} in {}", count, changes.size(), file, sw);
+			return entry;
+		}
+	}
+
+	/**
+	 * Read the batches of the journal that follow on from the given generation. Reading stops at the first batch that
+	 * does not follow on, or that is incomplete.
+	 * 
+	 * @return the generation after the last batch that was read
+	 */
+	private long readJournal(Path journal, long fileGeneration, List<Change> changes) throws IOException {
+		if (!Files.exists(journal)) {
+			return fileGeneration;
+		}
+
+		long generation = fileGeneration;
+
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			while (buffer.hasRemaining()) {
+				List<Change> batch = new ArrayList<>();
+				long before = buffer.getLong();
+				long after = buffer.getLong();
+				int count = buffer.getInt();
+
+				if (before != generation) {
+					break;
+				}
+
+				for (int i = 0; i < count; i++) {
+					boolean added = buffer.get() != 0;
+					batch.add(new Change(added, readRecord(buffer)));
+				}
+
+				changes.addAll(batch);
+				generation = after;
+			}
+		} catch (BufferUnderflowException e) {
+			LOGGER.warn("Journal {} ends with an incomplete batch", journal);
+		}
+
+		return generation;
+	}
+
+	/**
+	 * A record that was added to or removed from a search.
+	 */
+	private static final class Change {
+		private final boolean added;
+		private final ImageRecord record;
+
+		Change(boolean added, ImageRecord record) {
+			this.added = added;
+			this.record = record;
+		}
+	}
+
+	private static final class CacheEntry {
+		/**
+		 * Expected generation of the repository, incremented for every change that is applied to the search.
+		 */
+		private long generation;
+		/**
+		 * Generation of the file and journal.
+		 */
+		private long writtenGeneration;
+		private List<ImageRecord> records;
+		/**
+		 * Changes applied to the search, but not yet to the records and the journal.
+		 */
+		private final List<Change> changes;
+		private int journalChanges;
+		private final RecordSearch search;
+		private final Predicate<ImageRecord> scope;
+		private final boolean withoutIgnored;
+
+		CacheEntry(long generation, List<ImageRecord> records, RecordSearch search, Predicate<ImageRecord> scope,
+				boolean withoutIgnored) {
+			this.generation = generation;
+			this.writtenGeneration = generation;
+			this.records = records;
+			this.changes = new ArrayList<>();
+			this.search = search;
+			this.scope = scope;
+			this.withoutIgnored = withoutIgnored;
+		}
+
+		void add(ImageRecord record) {
+			search.add(record);
+			changes.add(new Change(true, record));
+		}
+
+		boolean remove(ImageRecord record) {
+			if (!search.remove(record)) {
+				return false;
+			}
+
+			changes.add(new Change(false, record));
+			return true;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.ImageRepositoryListener;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+
+/**
+ * Splits the images into one {@link RecordSearch} per directory at a fixed depth below the indexed root directories.
+ * Shards are built from all images of their directory and kept in memory, so sorting a sub-directory reuses the shards
+ * of earlier sorts, and shards are built and queried in parallel.
+ * <p>
+ * Like {@link RecordSearchCache}, shards are tagged with the generation of the {@link ImageRepository}. Changes made
+ * through the repository are applied to the shards. The repository has a single generation for all images, so any
+ * other change causes all shards to be rebuilt when they are next used.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class ShardedRecordSearch implements ImageRepositoryListener {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ShardedRecordSearch.class);
+	private static final Path NO_DIRECTORY = Paths.get("");
+
+	private final ImageRepository imageRepository;
+	private final Map<String, Shard> shards;
+	private final List<Path> indexedRoots;
+	private final int depth;
+
+	/**
+	 * Create a new sharded search with one shard per top-level directory. The search registers itself as a listener
+	 * with the repository.
+	 * 
+	 * @param imageRepository
+	 *            to query the current generation of the image data
+	 */
+	public ShardedRecordSearch(ImageRepository imageRepository) {
+		this(imageRepository, Collections.emptyList(), 1);
+	}
+
+	/**
+	 * Create a new sharded search with one shard per directory at the given depth below the indexed roots. Images
+	 * outside of the roots are sharded by the depth below the file system root. The search registers itself as a
+	 * listener with the repository.
+	 * 
+	 * @param imageRepository
+	 *            to query the current generation of the image data
+	 * @param indexedRoots
+	 *            the directories that were indexed
+	 * @param depth
+	 *            number of directories below a root that make up the shard key
+	 * @throws IllegalArgumentException
+	 *             if the depth is less than 1
+	 */
+	public ShardedRecordSearch(ImageRepository imageRepository, Collection<Path> indexedRoots, int depth)
+			throws IllegalArgumentException {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Shard depth must be greater than zero");
+		}
+
+		this.imageRepository = imageRepository;
+		this.shards = new HashMap<>();
+		this.depth = depth;
+		this.indexedRoots = new ArrayList<>(indexedRoots);
+		this.indexedRoots.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+
+		imageRepository.addListener(this);
+	}
+
+	/**
+	 * Get the shard key for a path, which is the directory of the path at the configured depth below the deepest
+	 * indexed root that contains the path. Files that are less deep use their parent directory as key.
+	 * 
+	 * @param path
+	 *            of an image
+	 * @return the directory of the shard
+	 */
+	public Path shardKey(String path) {
+		Path file = Paths.get(path);
+		Path base = file.getRoot();
+
+		for (Path root : indexedRoots) {
+			if (file.startsWith(root)) {
+				base = root;
+				break;
+			}
+		}
+
+		int start = base == null ? 0 : base.getNameCount();
+		int end = Math.min(start + depth, file.getNameCount() - 1);
+
+		if (end <= start) {
+			Path parent = file.getParent();
+			return parent == null ? NO_DIRECTORY : parent;
+		}
+
+		Path directory = file.subpath(start, end);
+
+		return base == null ? directory : base.resolve(directory);
+	}
+
+	/**
+	 * Get the shards that contain the given records. Shards that are missing or stale are loaded with the query and
+	 * built in parallel.
+	 * 
+	 * @param records
+	 *            to get the shards for
+	 * @param indexType
+	 *            index used by the shards
+	 * @param shardQuery
+	 *            query for all images in a directory
+	 * @return the searches of the shards containing the records
+	 */
+	public synchronized List<RecordSearch> getShards(Collection<ImageRecord> records, IndexType indexType,
+			Function<Path, ? extends Collection<ImageRecord>> shardQuery) {
+		Set<Path> keys = new LinkedHashSet<>();
+
+		for (ImageRecord record : records) {
+			keys.add(shardKey(record.getPath()));
+		}
+
+		long generation;
+
+		try {
+			generation = imageRepository.getGeneration();
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to get image generation, bypassing shards: {}, cause: {}", e.toString(), e.getCause());
+			RecordSearch search = new RecordSearch(indexType);
+			search.build(records);
+			return Collections.singletonList(search);
+		}
+
+		String prefix = shardQuery.getClass().getName() + ":" + indexType + ":";
+		List<Shard> missing = new ArrayList<>();
+
+		for (Path key : keys) {
+			Shard shard = shards.get(prefix + key);
+
+			if (shard == null || shard.generation != generation) {
+				missing.add(new Shard(key, generation, loadRecords(key, shardQuery), indexType));
+			}
+		}
+
+		if (!missing.isEmpty()) {
+			Stopwatch sw = Stopwatch.createStarted();
+			missing.parallelStream().forEach(Shard::build);
+
+			for (Shard shard : missing) {
+				shards.put(prefix + shard.key, shard);
+			}
+
+			LOGGER.info("Built {} of {} shards in {}", missing.size(), keys.size(), sw);
+		}
+
+		return keys.stream().map(key -> shards.get(prefix + key).search).collect(Collectors.toList());
+	}
+
+	/**
+	 * Load the records of a shard. The query can return images outside of the shard, e.g. if another directory starts
+	 * with the same name, so the records are filtered by key.
+	 */
+	private List<ImageRecord> loadRecords(Path key, Function<Path, ? extends Collection<ImageRecord>> shardQuery) {
+		List<ImageRecord> records = new ArrayList<>();
+
+		for (ImageRecord record : shardQuery.apply(key)) {
+			if (key.equals(shardKey(record.getPath()))) {
+				records.add(record);
+			}
+		}
+
+		return records;
+	}
+
+	/**
+	 * Query all shards in parallel and merge the results. For each of the given hashes, the hashes and images of all
+	 * shards that are at or within the given hamming distance are returned.
+	 * 
+	 * @param shardSearches
+	 *            the shards to query
+	 * @param hashes
+	 *            the hashes to search
+	 * @param hammingDistance
+	 *            the maximum hamming distance to match hashes for (up to and including)
+	 * @return a multimap for each hash, in the order of the given hashes
+	 */
+	public static List<Multimap<Long, ImageRecord>> distanceMatch(Collection<RecordSearch> shardSearches,
+			long[] hashes, long hammingDistance) {
+		List<List<Multimap<Long, ImageRecord>>> shardResults = shardSearches.parallelStream()
+				.map(search -> search.distanceMatch(hashes, hammingDistance)).collect(Collectors.toList());
+
+		if (shardResults.size() == 1) {
+			return shardResults.get(0);
+		}
+
+		List<Multimap<Long, ImageRecord>> merged = new ArrayList<>(hashes.length);
+
+		for (int i = 0; i < hashes.length; i++) {
+			Multimap<Long, ImageRecord> matches = MultimapBuilder.hashKeys().hashSetValues().build();
+
+			for (List<Multimap<Long, ImageRecord>> shardResult : shardResults) {
+				matches.putAll(shardResult.get(i));
+			}
+
+			merged.add(matches);
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Add the stored image to its shards.
+	 * 
+	 * @param image
+	 *            the stored image
+	 * @param previous
+	 *            the image that was replaced, or null if the image is new
+	 */
+	@Override
+	public synchronized void imageStored(ImageRecord image, ImageRecord previous) {
+		Path key = shardKey(image.getPath());
+
+		for (Shard shard : shards.values()) {
+			shard.generation++;
+			boolean inShard = previous == null ? key.equals(shard.key) : shard.search.remove(previous);
+
+			if (inShard) {
+				shard.search.add(image);
+			}
+		}
+	}
+
+	/**
+	 * Remove the image from all shards.
+	 * 
+	 * @param image
+	 *            the removed image
+	 */
+	@Override
+	public synchronized void imageRemoved(ImageRecord image) {
+		for (Shard shard : shards.values()) {
+			shard.generation++;
+			shard.search.remove(image);
+		}
+	}
+
+	/**
+	 * Get the number of shards held in memory.
+	 * 
+	 * @return number of shards
+	 */
+	public synchronized int getShardCount() {
+		return shards.size();
+	}
+
+	private static final class Shard {
+		private final Path key;
+		/**
+		 * Expected generation of the repository, incremented for every change that is applied to the search.
+		 */
+		private long generation;
+		private final RecordSearch search;
+		private List<ImageRecord> records;
+
+		Shard(Path key, long generation, List<ImageRecord> records, IndexType indexType) {
+			this.key = key;
+			this.generation = generation;
+			this.records = records;
+			this.search = new RecordSearch(indexType);
+		}
+
+		void build() {
+			search.build(records);
+			records = null;
+		}
+	}
+}
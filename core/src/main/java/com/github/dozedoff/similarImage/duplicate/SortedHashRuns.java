@@ -0,0 +1,229 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Multimap;
+
+/**
+ * Finds exact hash matches by sorting the hashes, instead of grouping the records in a {@link Multimap}. Hashes and
+ * record positions are kept in primitive arrays and sorted with a radix sort, records with the same hash then form a
+ * run of consecutive entries.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public final class SortedHashRuns {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SortedHashRuns.class);
+
+	private static final int RADIX_BITS = 8;
+	private static final int BUCKETS = 1 << RADIX_BITS;
+	private static final int BUCKET_MASK = BUCKETS - 1;
+
+	private final ImageRecord[] records;
+	private final long[] hashes;
+	private final int[] ids;
+
+	/**
+	 * Sort the given records by hash.
+	 * 
+	 * @param records
+	 *            to sort
+	 */
+	public SortedHashRuns(Collection<ImageRecord> records) {
+		Stopwatch sw = Stopwatch.createStarted();
+
+		this.records = records.toArray(new ImageRecord[records.size()]);
+		this.hashes = new long[this.records.length];
+		this.ids = new int[this.records.length];
+
+		for (int id = 0; id < this.records.length; id++) {
+			hashes[id] = this.records[id].getpHash();
+			ids[id] = id;
+		}
+
+		radixSort(hashes, ids);
+
+		LOGGER.info("Sorted {} records by hash in {}", this.records.length, sw);
+	}
+
+	/**
+	 * Sort the keys in ascending signed order, and move the values with their keys. Passes where all keys have the same
+	 * digit are skipped.
+	 * 
+	 * @param keys
+	 *            to sort
+	 * @param values
+	 *            with the same length as the keys
+	 */
+	static void radixSort(long[] keys, int[] values) {
+		long[] keyBuffer = new long[keys.length];
+		int[] valueBuffer = new int[values.length];
+		long[] sourceKeys = keys;
+		int[] sourceValues = values;
+
+		for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+			int[] offsets = new int[BUCKETS + 1];
+
+			for (long key : sourceKeys) {
+				offsets[digit(key, shift) + 1]++;
+			}
+
+			if (isSingleBucket(offsets, sourceKeys.length)) {
+				continue;
+			}
+
+			for (int i = 1; i < offsets.length; i++) {
+				offsets[i] += offsets[i - 1];
+			}
+
+			for (int i = 0; i < sourceKeys.length; i++) {
+				int target = offsets[digit(sourceKeys[i], shift)]++;
+				keyBuffer[target] = sourceKeys[i];
+				valueBuffer[target] = sourceValues[i];
+			}
+
+			long[] swapKeys = sourceKeys;
+			sourceKeys = keyBuffer;
+			keyBuffer = swapKeys;
+
+			int[] swapValues = sourceValues;
+			sourceValues = valueBuffer;
+			valueBuffer = swapValues;
+		}
+
+		if (sourceKeys != keys) {
+			System.arraycopy(sourceKeys, 0, keys, 0, keys.length);
+			System.arraycopy(sourceValues, 0, values, 0, values.length);
+		}
+	}
+
+	/**
+	 * The sign bit is flipped, so negative hashes sort before positive ones.
+	 */
+	private static int digit(long key, int shift) {
+		return (int) (((key ^ Long.MIN_VALUE) >>> shift) & BUCKET_MASK);
+	}
+
+	private static boolean isSingleBucket(int[] counts, int total) {
+		for (int count : counts) {
+			if (count == total) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Pass every run of records with the same hash to the consumer, in ascending hash order.
+	 * 
+	 * @param minimumSize
+	 *            runs with fewer records are skipped, use 2 to only get duplicates
+	 * @param consumer
+	 *            for the records and their hash
+	 */
+	public void forEachRun(int minimumSize, ObjLongConsumer<List<ImageRecord>> consumer) {
+		int start = 0;
+
+		while (start < hashes.length) {
+			int end = runEnd(start);
+
+			if (end - start >= minimumSize) {
+				List<ImageRecord> run = new ArrayList<>(end - start);
+
+				for (int i = start; i < end; i++) {
+					run.add(records[ids[i]]);
+				}
+
+				consumer.accept(run, hashes[start]);
+			}
+
+			start = end;
+		}
+	}
+
+	/**
+	 * Pass the hash of every run of records with the same hash to the consumer, in ascending hash order. No lists of
+	 * records are created.
+	 * 
+	 * @param minimumSize
+	 *            runs with fewer records are skipped, use 2 to only get duplicates
+	 * @param consumer
+	 *            for the hash of the run
+	 */
+	public void forEachRunHash(int minimumSize, LongConsumer consumer) {
+		int start = 0;
+
+		while (start < hashes.length) {
+			int end = runEnd(start);
+
+			if (end - start >= minimumSize) {
+				consumer.accept(hashes[start]);
+			}
+
+			start = end;
+		}
+	}
+
+	/**
+	 * Get the number of runs, which is the number of distinct hashes.
+	 * 
+	 * @return number of runs
+	 */
+	public int runCount() {
+		int count = 0;
+
+		for (int i = 0; i < hashes.length; i++) {
+			if (i == 0 || hashes[i] != hashes[i - 1]) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private int runEnd(int start) {
+		int end = start + 1;
+
+		while (end < hashes.length && hashes[end] == hashes[start]) {
+			end++;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Get the number of sorted records.
+	 * 
+	 * @return number of records
+	 */
+	public int size() {
+		return records.length;
+	}
+}
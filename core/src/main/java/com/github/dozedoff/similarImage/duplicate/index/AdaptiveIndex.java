@@ -0,0 +1,211 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Index that chooses between a {@link LinearScanIndex} and {@link MultiIndexHashing} for every query, based on the
+ * number of hashes and the hamming distance. The linear scan is always kept, the multi-index tables are only built
+ * once a query is expected to be faster with them.
+ * <p>
+ * The cost of multi-index hashing is estimated from the number of probed buckets and the expected number of
+ * candidates. A linear scan costs one comparison per hash, so it wins for small indexes and for distances where most
+ * hashes become candidates anyway.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class AdaptiveIndex implements PersistentHashIndex {
+	/**
+	 * Indexes up to this size are always scanned.
+	 */
+	private static final int SMALL_INDEX = 1024;
+	/**
+	 * Cost of probing a single bucket, relative to comparing a hash in a linear scan.
+	 */
+	private static final double PROBE_COST = 16;
+	/**
+	 * Cost of verifying a candidate found in a bucket, relative to comparing a hash in a linear scan.
+	 */
+	private static final double CANDIDATE_COST = 4;
+
+	private final LinearScanIndex linearScan;
+	private volatile MultiIndexHashing multiIndex;
+
+	/**
+	 * Create a new empty index.
+	 */
+	public AdaptiveIndex() {
+		this.linearScan = new LinearScanIndex();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void build(long[] hashes) {
+		linearScan.build(hashes);
+		multiIndex = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void buildParallel(long[] hashes) {
+		linearScan.buildParallel(hashes);
+		multiIndex = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void add(long hash) {
+		linearScan.add(hash);
+
+		if (multiIndex != null) {
+			multiIndex.add(hash);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] searchWithin(long hash, int hammingDistance) {
+		if (preferLinearScan(size(), hammingDistance)) {
+			return linearScan.searchWithin(hash, hammingDistance);
+		}
+
+		return getMultiIndex().searchWithin(hash, hammingDistance);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[][] searchWithin(long[] hashes, int hammingDistance) {
+		if (preferLinearScan(size(), hammingDistance)) {
+			return linearScan.searchWithin(hashes, hammingDistance);
+		}
+
+		return getMultiIndex().searchWithin(hashes, hammingDistance);
+	}
+
+	private MultiIndexHashing getMultiIndex() {
+		MultiIndexHashing index = multiIndex;
+
+		if (index == null) {
+			synchronized (this) {
+				index = multiIndex;
+
+				if (index == null) {
+					index = new MultiIndexHashing();
+					index.build(linearScan.getHashes());
+					multiIndex = index;
+				}
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return linearScan.size();
+	}
+
+	/**
+	 * Write the linear scan, and the multi-index tables if they have been built.
+	 * 
+	 * @param out
+	 *            to write the index to
+	 * @throws IOException
+	 *             if the index could not be written
+	 */
+	@Override
+	public synchronized void write(DataOutput out) throws IOException {
+		linearScan.write(out);
+		out.writeBoolean(multiIndex != null);
+
+		if (multiIndex != null) {
+			multiIndex.write(out);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void read(ByteBuffer in) throws IOException {
+		linearScan.read(in);
+		MultiIndexHashing storedMultiIndex = null;
+
+		if (in.get() != 0) {
+			storedMultiIndex = new MultiIndexHashing();
+			storedMultiIndex.read(in);
+		}
+
+		multiIndex = storedMultiIndex;
+	}
+
+	/**
+	 * Check if a linear scan is expected to be faster than multi-index hashing for the given query.
+	 * 
+	 * @param hashes
+	 *            number of hashes in the index
+	 * @param hammingDistance
+	 *            the distance of the query
+	 * @return true if the hashes should be scanned
+	 */
+	public static boolean preferLinearScan(int hashes, int hammingDistance) {
+		if (hashes <= SMALL_INDEX) {
+			return true;
+		}
+
+		int substrings = MultiIndexHashing.DEFAULT_SUBSTRINGS;
+		int substringBits = Long.SIZE / substrings;
+		int tableRadius = hammingDistance / substrings;
+
+		if (tableRadius >= substringBits) {
+			return true;
+		}
+
+		double bucketsPerTable = 0;
+		double combinations = 1;
+
+		for (int flips = 0; flips <= tableRadius; flips++) {
+			bucketsPerTable += combinations;
+			combinations = combinations * (substringBits - flips) / (flips + 1);
+		}
+
+		double probes = substrings * bucketsPerTable;
+		double candidateFraction = Math.min(1, probes / (1L << substringBits));
+		double multiIndexCost = probes * PROBE_COST + hashes * candidateFraction * CANDIDATE_COST;
+
+		return hashes <= multiIndexCost;
+	}
+}
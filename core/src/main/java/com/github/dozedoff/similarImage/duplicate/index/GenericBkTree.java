@@ -0,0 +1,91 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.everpeace.search.BKTree;
+
+import com.github.dozedoff.similarImage.duplicate.CompareHammingDistance;
+import com.google.common.primitives.Longs;
+
+/**
+ * Adapter for the generic {@link BKTree} using {@link CompareHammingDistance} as the metric. Hashes are boxed for
+ * every node and distance evaluation, use {@link HammingBkTree} unless the generic implementation is required.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class GenericBkTree implements HashIndex {
+	private BKTree<Long> bkTree;
+	private int size;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void build(long[] hashes) {
+		if (hashes.length == 0) {
+			bkTree = null;
+			size = 0;
+			return;
+		}
+
+		Set<Long> distinctHashes = new HashSet<>(Longs.asList(hashes));
+		bkTree = BKTree.build(distinctHashes, new CompareHammingDistance());
+		size = distinctHashes.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(long hash) {
+		if (bkTree == null) {
+			build(new long[] { hash });
+			return;
+		}
+
+		if (bkTree.searchWithin(hash, 0d).isEmpty()) {
+			bkTree.insert(hash);
+			size++;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] searchWithin(long hash, int hammingDistance) {
+		if (bkTree == null) {
+			return new long[0];
+		}
+
+		Set<Long> result = bkTree.searchWithin(hash, (double) hammingDistance);
+		return Longs.toArray(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+}
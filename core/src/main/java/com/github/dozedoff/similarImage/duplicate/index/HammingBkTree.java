@@ -0,0 +1,343 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A BK-tree specialised for hamming distances of 64 bit hashes. Nodes are stored in primitive arrays, so neither
+ * building nor searching the tree boxes any values. The tree is safe for concurrent searches once it has been built.
+ * <p>
+ * For a parallel build, the hashes are partitioned by their distance to the first hash, which becomes the root. Each
+ * partition is built into a subtree concurrently, and the subtrees are then copied below the root.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class HammingBkTree implements PersistentHashIndex {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NO_NODE = -1;
+	/**
+	 * Partitions with up to this many hashes are built sequentially.
+	 */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private long[] hashes;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private byte[] parentDistance;
+	private int nodeCount;
+
+	/**
+	 * Create a new empty tree.
+	 */
+	public HammingBkTree() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		hashes = new long[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		parentDistance = new byte[capacity];
+		nodeCount = 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void build(long[] hashes) {
+		allocate(Math.max(INITIAL_CAPACITY, hashes.length));
+
+		for (long hash : hashes) {
+			add(hash);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void buildParallel(long[] hashes) {
+		HammingBkTree tree = ForkJoinPool.commonPool().invoke(new BuildTask(hashes));
+
+		this.hashes = tree.hashes;
+		this.firstChild = tree.firstChild;
+		this.nextSibling = tree.nextSibling;
+		this.parentDistance = tree.parentDistance;
+		this.nodeCount = tree.nodeCount;
+	}
+
+	/**
+	 * Copy the subtree below the root of this tree. The capacity of this tree must be large enough for the subtree.
+	 */
+	private void attach(HammingBkTree subtree, int distance) {
+		int offset = nodeCount;
+
+		for (int node = 0; node < subtree.nodeCount; node++) {
+			hashes[offset + node] = subtree.hashes[node];
+			firstChild[offset + node] = offsetNode(subtree.firstChild[node], offset);
+			nextSibling[offset + node] = offsetNode(subtree.nextSibling[node], offset);
+			parentDistance[offset + node] = subtree.parentDistance[node];
+		}
+
+		parentDistance[offset] = (byte) distance;
+		nextSibling[offset] = firstChild[0];
+		firstChild[0] = offset;
+		nodeCount += subtree.nodeCount;
+	}
+
+	private static int offsetNode(int node, int offset) {
+		return node == NO_NODE ? NO_NODE : node + offset;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(long hash) {
+		if (nodeCount == 0) {
+			addNode(hash, 0);
+			return;
+		}
+
+		int node = 0;
+
+		while (true) {
+			int distance = Long.bitCount(hashes[node] ^ hash);
+
+			if (distance == 0) {
+				return;
+			}
+
+			int child = findChild(node, distance);
+
+			if (child == NO_NODE) {
+				int newNode = addNode(hash, distance);
+				nextSibling[newNode] = firstChild[node];
+				firstChild[node] = newNode;
+				return;
+			}
+
+			node = child;
+		}
+	}
+
+	private int findChild(int node, int distance) {
+		int child = firstChild[node];
+
+		while (child != NO_NODE && parentDistance[child] != distance) {
+			child = nextSibling[child];
+		}
+
+		return child;
+	}
+
+	private int addNode(long hash, int distance) {
+		if (nodeCount == hashes.length) {
+			grow();
+		}
+
+		int node = nodeCount++;
+		hashes[node] = hash;
+		firstChild[node] = NO_NODE;
+		nextSibling[node] = NO_NODE;
+		parentDistance[node] = (byte) distance;
+
+		return node;
+	}
+
+	private void grow() {
+		int capacity = hashes.length * 2;
+
+		hashes = Arrays.copyOf(hashes, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		nextSibling = Arrays.copyOf(nextSibling, capacity);
+		parentDistance = Arrays.copyOf(parentDistance, capacity);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] searchWithin(long hash, int hammingDistance) {
+		if (nodeCount == 0) {
+			return new long[0];
+		}
+
+		long[] result = new long[INITIAL_CAPACITY];
+		int resultCount = 0;
+
+		int[] stack = new int[INITIAL_CAPACITY];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			int distance = Long.bitCount(hashes[node] ^ hash);
+
+			if (distance <= hammingDistance) {
+				if (resultCount == result.length) {
+					result = Arrays.copyOf(result, resultCount * 2);
+				}
+
+				result[resultCount++] = hashes[node];
+			}
+
+			int lower = distance - hammingDistance;
+			int upper = distance + hammingDistance;
+
+			for (int child = firstChild[node]; child != NO_NODE; child = nextSibling[child]) {
+				int edge = parentDistance[child];
+
+				if (edge >= lower && edge <= upper) {
+					if (stackSize == stack.length) {
+						stack = Arrays.copyOf(stack, stackSize * 2);
+					}
+
+					stack[stackSize++] = child;
+				}
+			}
+		}
+
+		return Arrays.copyOf(result, resultCount);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return nodeCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		IndexFormat.writeLongs(out, hashes, nodeCount);
+		IndexFormat.writeInts(out, firstChild, nodeCount);
+		IndexFormat.writeInts(out, nextSibling, nodeCount);
+		IndexFormat.writeBytes(out, parentDistance, nodeCount);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void read(ByteBuffer in) throws IOException {
+		long[] storedHashes = IndexFormat.readLongs(in);
+		int[] storedFirstChild = IndexFormat.readInts(in);
+		int[] storedNextSibling = IndexFormat.readInts(in);
+		byte[] storedParentDistance = IndexFormat.readBytes(in);
+		int count = storedHashes.length;
+
+		if (storedFirstChild.length != count || storedNextSibling.length != count
+				|| storedParentDistance.length != count) {
+			throw new IOException("Node arrays of the stored tree differ in length");
+		}
+
+		int capacity = Math.max(INITIAL_CAPACITY, count);
+
+		this.hashes = Arrays.copyOf(storedHashes, capacity);
+		this.firstChild = Arrays.copyOf(storedFirstChild, capacity);
+		this.nextSibling = Arrays.copyOf(storedNextSibling, capacity);
+		this.parentDistance = Arrays.copyOf(storedParentDistance, capacity);
+		this.nodeCount = count;
+	}
+
+	/**
+	 * Builds the tree for a partition of hashes. Larger partitions are split by the distance to the first hash.
+	 */
+	private static final class BuildTask extends RecursiveTask<HammingBkTree> {
+		private static final long serialVersionUID = 1L;
+
+		private final long[] hashes;
+
+		BuildTask(long[] hashes) {
+			this.hashes = hashes;
+		}
+
+		@Override
+		protected HammingBkTree compute() {
+			HammingBkTree tree = new HammingBkTree();
+
+			if (hashes.length <= PARALLEL_THRESHOLD) {
+				tree.build(hashes);
+				return tree;
+			}
+
+			long root = hashes[0];
+			long[][] partitions = partition(root);
+			List<BuildTask> tasks = new ArrayList<>();
+
+			for (int distance = 1; distance < partitions.length; distance++) {
+				if (partitions[distance].length > 0) {
+					tasks.add(new BuildTask(partitions[distance]));
+				}
+			}
+
+			invokeAll(tasks);
+
+			tree.allocate(hashes.length);
+			tree.addNode(root, 0);
+
+			for (BuildTask task : tasks) {
+				HammingBkTree subtree = task.join();
+				tree.attach(subtree, Long.bitCount(subtree.hashes[0] ^ root));
+			}
+
+			return tree;
+		}
+
+		/**
+		 * Split the hashes by their distance to the root, hashes equal to the root are dropped.
+		 */
+		private long[][] partition(long root) {
+			int[] counts = new int[Long.SIZE + 1];
+
+			for (long hash : hashes) {
+				counts[Long.bitCount(hash ^ root)]++;
+			}
+
+			long[][] partitions = new long[Long.SIZE + 1][];
+
+			for (int distance = 0; distance < partitions.length; distance++) {
+				partitions[distance] = new long[counts[distance]];
+				counts[distance] = 0;
+			}
+
+			for (long hash : hashes) {
+				int distance = Long.bitCount(hash ^ root);
+				partitions[distance][counts[distance]++] = hash;
+			}
+
+			return partitions;
+		}
+	}
+}
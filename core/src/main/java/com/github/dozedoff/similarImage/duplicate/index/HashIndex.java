@@ -0,0 +1,91 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+/**
+ * An index over distinct 64 bit hashes that can be queried for all hashes within a given hamming distance.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public interface HashIndex {
+	/**
+	 * Build the index from the given hashes, replacing any previous content. Duplicate hashes are ignored.
+	 * 
+	 * @param hashes
+	 *            to add to the index
+	 */
+	void build(long[] hashes);
+
+	/**
+	 * Build the index from the given hashes like {@link #build(long[])}, using the common
+	 * {@link java.util.concurrent.ForkJoinPool} if the index supports a parallel build.
+	 * 
+	 * @param hashes
+	 *            to add to the index
+	 */
+	default void buildParallel(long[] hashes) {
+		build(hashes);
+	}
+
+	/**
+	 * Add a single hash to the index. If the hash is already present, the index is not modified.
+	 * 
+	 * @param hash
+	 *            to add
+	 */
+	void add(long hash);
+
+	/**
+	 * Find all hashes in the index that are at or within the given hamming distance of the query hash.
+	 * 
+	 * @param hash
+	 *            to search for
+	 * @param hammingDistance
+	 *            the maximum hamming distance to match hashes for (up to and including)
+	 * @return the matching hashes, in no particular order
+	 */
+	long[] searchWithin(long hash, int hammingDistance);
+
+	/**
+	 * Find all hashes in the index that are at or within the given hamming distance of each query hash. Indexes that
+	 * can answer several queries in one pass over their data should override this method.
+	 * 
+	 * @param hashes
+	 *            to search for
+	 * @param hammingDistance
+	 *            the maximum hamming distance to match hashes for (up to and including)
+	 * @return the matching hashes for each query hash, in the order of the query hashes
+	 */
+	default long[][] searchWithin(long[] hashes, int hammingDistance) {
+		long[][] results = new long[hashes.length][];
+
+		for (int i = 0; i < hashes.length; i++) {
+			results[i] = searchWithin(hashes[i], hammingDistance);
+		}
+
+		return results;
+	}
+
+	/**
+	 * The number of distinct hashes in the index.
+	 * 
+	 * @return number of stored hashes
+	 */
+	int size();
+}
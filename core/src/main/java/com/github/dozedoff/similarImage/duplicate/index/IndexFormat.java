@@ -0,0 +1,90 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the primitive arrays of {@link PersistentHashIndex} implementations. Arrays are prefixed with their
+ * length.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+final class IndexFormat {
+	private IndexFormat() {
+	}
+
+	static void writeLongs(DataOutput out, long[] values, int count) throws IOException {
+		out.writeInt(count);
+
+		for (int i = 0; i < count; i++) {
+			out.writeLong(values[i]);
+		}
+	}
+
+	static void writeInts(DataOutput out, int[] values, int count) throws IOException {
+		out.writeInt(count);
+
+		for (int i = 0; i < count; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	static void writeBytes(DataOutput out, byte[] values, int count) throws IOException {
+		out.writeInt(count);
+		out.write(values, 0, count);
+	}
+
+	static long[] readLongs(ByteBuffer in) throws IOException {
+		long[] values = new long[readCount(in, Long.BYTES)];
+
+		in.asLongBuffer().get(values);
+		in.position(in.position() + values.length * Long.BYTES);
+
+		return values;
+	}
+
+	static int[] readInts(ByteBuffer in) throws IOException {
+		int[] values = new int[readCount(in, Integer.BYTES)];
+
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * Integer.BYTES);
+
+		return values;
+	}
+
+	static byte[] readBytes(ByteBuffer in) throws IOException {
+		byte[] values = new byte[readCount(in, Byte.BYTES)];
+		in.get(values);
+
+		return values;
+	}
+
+	private static int readCount(ByteBuffer in, int elementBytes) throws IOException {
+		int count = in.getInt();
+
+		if (count < 0 || (long) count * elementBytes > in.remaining()) {
+			throw new IOException("Invalid array length " + count);
+		}
+
+		return count;
+	}
+}
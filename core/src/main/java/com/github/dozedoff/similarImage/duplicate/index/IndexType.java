@@ -0,0 +1,80 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+/**
+ * Available {@link HashIndex} implementations.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public enum IndexType {
+	/**
+	 * BK-tree on primitive arrays, see {@link HammingBkTree}.
+	 */
+	HAMMING_BK_TREE {
+		@Override
+		public HashIndex create() {
+			return new HammingBkTree();
+		}
+	},
+	/**
+	 * Multi-index hashing, see {@link MultiIndexHashing}. Suited for larger hamming distances.
+	 */
+	MULTI_INDEX_HASHING {
+		@Override
+		public HashIndex create() {
+			return new MultiIndexHashing();
+		}
+	},
+	/**
+	 * The generic BK-tree library implementation, see {@link GenericBkTree}.
+	 */
+	GENERIC_BK_TREE {
+		@Override
+		public HashIndex create() {
+			return new GenericBkTree();
+		}
+	},
+	/**
+	 * Brute force scan over all hashes, see {@link LinearScanIndex}. Suited for small indexes and very large hamming
+	 * distances.
+	 */
+	LINEAR_SCAN {
+		@Override
+		public HashIndex create() {
+			return new LinearScanIndex();
+		}
+	},
+	/**
+	 * Chooses between a linear scan and multi-index hashing for every query, see {@link AdaptiveIndex}.
+	 */
+	AUTOMATIC {
+		@Override
+		public HashIndex create() {
+			return new AdaptiveIndex();
+		}
+	};
+
+	/**
+	 * Create a new, empty index of this type.
+	 * 
+	 * @return a new index instance
+	 */
+	public abstract HashIndex create();
+}
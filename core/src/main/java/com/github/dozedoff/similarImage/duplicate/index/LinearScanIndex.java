@@ -0,0 +1,206 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Brute force index that compares the query with every stored hash. Hashes are kept in a single sorted array, so a
+ * scan is a tight loop over contiguous memory that the JIT compiles to hardware population counts. For small indexes
+ * or large hamming distances, this is faster than traversing a tree.
+ * <p>
+ * Batched queries scan the hashes in blocks that fit into the CPU cache, and compare every query of the batch with a
+ * block before moving on to the next one. The index is safe for concurrent searches once it has been built.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class LinearScanIndex implements PersistentHashIndex {
+	/**
+	 * Number of hashes scanned per block in batched queries, 32 KiB of hashes.
+	 */
+	private static final int BLOCK_SIZE = 4096;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] hashes;
+	private int size;
+
+	/**
+	 * Create a new empty index.
+	 */
+	public LinearScanIndex() {
+		build(new long[0]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void build(long[] hashes) {
+		build(hashes, false);
+	}
+
+	/**
+	 * Sorts the hashes with {@link Arrays#parallelSort(long[], int, int)}.
+	 * 
+	 * @param hashes
+	 *            to add to the index
+	 */
+	@Override
+	public void buildParallel(long[] hashes) {
+		build(hashes, true);
+	}
+
+	private void build(long[] hashes, boolean parallel) {
+		long[] distinct = Arrays.copyOf(hashes, Math.max(hashes.length, INITIAL_CAPACITY));
+
+		if (parallel) {
+			Arrays.parallelSort(distinct, 0, hashes.length);
+		} else {
+			Arrays.sort(distinct, 0, hashes.length);
+		}
+
+		int distinctCount = 0;
+
+		for (int i = 0; i < hashes.length; i++) {
+			if (i == 0 || distinct[i] != distinct[i - 1]) {
+				distinct[distinctCount++] = distinct[i];
+			}
+		}
+
+		this.hashes = distinct;
+		this.size = distinctCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(long hash) {
+		int position = Arrays.binarySearch(hashes, 0, size, hash);
+
+		if (position >= 0) {
+			return;
+		}
+
+		int insert = -(position + 1);
+
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+
+		System.arraycopy(hashes, insert, hashes, insert + 1, size - insert);
+		hashes[insert] = hash;
+		size++;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] searchWithin(long hash, int hammingDistance) {
+		ResultBuffer result = new ResultBuffer();
+		scan(hash, hammingDistance, 0, size, result);
+
+		return result.toArray();
+	}
+
+	/**
+	 * Scan the hashes in blocks, and compare every query hash with a block while it is in the cache.
+	 * 
+	 * @param queries
+	 *            to search for
+	 * @param hammingDistance
+	 *            the maximum hamming distance to match hashes for (up to and including)
+	 * @return the matching hashes for each query hash, in the order of the query hashes
+	 */
+	@Override
+	public long[][] searchWithin(long[] queries, int hammingDistance) {
+		ResultBuffer[] results = new ResultBuffer[queries.length];
+
+		for (int i = 0; i < queries.length; i++) {
+			results[i] = new ResultBuffer();
+		}
+
+		for (int from = 0; from < size; from += BLOCK_SIZE) {
+			int to = Math.min(from + BLOCK_SIZE, size);
+
+			for (int i = 0; i < queries.length; i++) {
+				scan(queries[i], hammingDistance, from, to, results[i]);
+			}
+		}
+
+		long[][] matches = new long[queries.length][];
+
+		for (int i = 0; i < queries.length; i++) {
+			matches[i] = results[i].toArray();
+		}
+
+		return matches;
+	}
+
+	private void scan(long hash, int hammingDistance, int from, int to, ResultBuffer result) {
+		long[] candidates = hashes;
+
+		for (int i = from; i < to; i++) {
+			if (Long.bitCount(candidates[i] ^ hash) <= hammingDistance) {
+				result.add(candidates[i]);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		IndexFormat.writeLongs(out, hashes, size);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void read(ByteBuffer in) throws IOException {
+		long[] stored = IndexFormat.readLongs(in);
+
+		this.hashes = Arrays.copyOf(stored, Math.max(stored.length, INITIAL_CAPACITY));
+		this.size = stored.length;
+	}
+
+	/**
+	 * Get the stored hashes.
+	 * 
+	 * @return a new array with the hashes, in ascending order
+	 */
+	long[] getHashes() {
+		return Arrays.copyOf(hashes, size);
+	}
+}
@@ -0,0 +1,382 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-index hashing for hamming distance range queries. Each 64 bit hash is split into a number of disjoint
+ * substrings and one table is kept per substring. A query with distance r only needs to probe every table for
+ * substrings within r / m (integer division) of the query substring, as by the pigeonhole principle, at least one
+ * substring of a matching hash will be within that distance. Candidates are then verified with the full hash.
+ * <p>
+ * Tables use counting sort buckets over primitive arrays, so the index is compact and safe for concurrent searches once
+ * it has been built. Hashes added after the build are kept in a pending buffer that is scanned linearly, and merged into
+ * the tables once it grows too large.
+ * </p>
+ * 
+ * @see <a href="https://www.cs.toronto.edu/~norouzi/research/papers/multi_index_hashing.pdf">Fast Search in Hamming
+ *      Space with Multi-Index Hashing</a>
+ * @author Nicholas Wright
+ *
+ */
+public class MultiIndexHashing implements PersistentHashIndex {
+	/**
+	 * Default number of substrings, each with 16 bits.
+	 */
+	public static final int DEFAULT_SUBSTRINGS = 4;
+	private static final int MIN_SUBSTRINGS = 4;
+	private static final int MAX_SUBSTRINGS = 16;
+	/**
+	 * Minimum number of added hashes that are kept in the pending buffer before the tables are rebuilt.
+	 */
+	private static final int MIN_PENDING = 1024;
+	/**
+	 * Rebuild the tables once the pending buffer exceeds this fraction of the indexed hashes.
+	 */
+	private static final int PENDING_FRACTION = 8;
+
+	private final int substrings;
+	private final int[] shift;
+	private final long[] mask;
+
+	private long[] hashes;
+	private int[][] bucketStart;
+	private int[][] bucketEntries;
+	private long[] pending;
+	private int pendingCount;
+	/**
+	 * True while hashes were added to the pending buffer in ascending order, so it can be searched with a binary search.
+	 */
+	private boolean pendingSorted;
+
+	/**
+	 * Create a new index with {@link #DEFAULT_SUBSTRINGS} substrings.
+	 */
+	public MultiIndexHashing() {
+		this(DEFAULT_SUBSTRINGS);
+	}
+
+	/**
+	 * Create a new index that splits hashes into the given number of substrings.
+	 * 
+	 * @param substrings
+	 *            number of substrings, more substrings reduce the number of probes per table at the cost of more
+	 *            candidates
+	 * @throws IllegalArgumentException
+	 *             if the number of substrings is not between 4 and 16
+	 */
+	public MultiIndexHashing(int substrings) throws IllegalArgumentException {
+		if (substrings < MIN_SUBSTRINGS || substrings > MAX_SUBSTRINGS) {
+			throw new IllegalArgumentException(
+					"Number of substrings must be between " + MIN_SUBSTRINGS + " and " + MAX_SUBSTRINGS);
+		}
+
+		this.substrings = substrings;
+		this.shift = new int[substrings];
+		this.mask = new long[substrings];
+
+		initSubstrings();
+		build(new long[0]);
+	}
+
+	private void initSubstrings() {
+		int bitsPerSubstring = Long.SIZE / substrings;
+		int extraBits = Long.SIZE % substrings;
+		int offset = 0;
+
+		for (int i = 0; i < substrings; i++) {
+			int bits = bitsPerSubstring + (i < extraBits ? 1 : 0);
+
+			shift[i] = offset;
+			mask[i] = (1L << bits) - 1;
+			offset += bits;
+		}
+	}
+
+	private int substring(long hash, int table) {
+		return (int) ((hash >>> shift[table]) & mask[table]);
+	}
+
+	private int substringBits(int table) {
+		return Long.bitCount(mask[table]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void build(long[] hashes) {
+		build(hashes, false);
+	}
+
+	/**
+	 * Sorts the hashes with {@link Arrays#parallelSort(long[])} and builds the tables concurrently.
+	 * 
+	 * @param hashes
+	 *            to add to the index
+	 */
+	@Override
+	public void buildParallel(long[] hashes) {
+		build(hashes, true);
+	}
+
+	private void build(long[] hashes, boolean parallel) {
+		long[] distinct = Arrays.copyOf(hashes, hashes.length);
+
+		if (parallel) {
+			Arrays.parallelSort(distinct);
+		} else {
+			Arrays.sort(distinct);
+		}
+
+		int distinctCount = 0;
+
+		for (int i = 0; i < distinct.length; i++) {
+			if (i == 0 || distinct[i] != distinct[i - 1]) {
+				distinct[distinctCount++] = distinct[i];
+			}
+		}
+
+		this.hashes = Arrays.copyOf(distinct, distinctCount);
+		this.pending = new long[MIN_PENDING];
+		this.pendingCount = 0;
+		this.pendingSorted = true;
+		this.bucketStart = new int[substrings][];
+		this.bucketEntries = new int[substrings][];
+
+		if (parallel) {
+			IntStream.range(0, substrings).parallel().forEach(this::buildTable);
+		} else {
+			for (int table = 0; table < substrings; table++) {
+				buildTable(table);
+			}
+		}
+	}
+
+	private void buildTable(int table) {
+		int[] start = new int[(int) mask[table] + 2];
+		int[] entries = new int[hashes.length];
+
+		for (long hash : hashes) {
+			start[substring(hash, table) + 1]++;
+		}
+
+		for (int i = 1; i < start.length; i++) {
+			start[i] += start[i - 1];
+		}
+
+		int[] fill = Arrays.copyOf(start, start.length - 1);
+
+		for (int id = 0; id < hashes.length; id++) {
+			entries[fill[substring(hashes[id], table)]++] = id;
+		}
+
+		bucketStart[table] = start;
+		bucketEntries[table] = entries;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(long hash) {
+		if (Arrays.binarySearch(hashes, hash) >= 0) {
+			return;
+		}
+
+		boolean appended = pendingCount == 0 || hash > pending[pendingCount - 1];
+
+		if (!appended && isPending(hash)) {
+			return;
+		}
+
+		if (pendingCount == pending.length) {
+			pending = Arrays.copyOf(pending, pendingCount * 2);
+		}
+
+		pending[pendingCount++] = hash;
+		pendingSorted &= appended;
+
+		if (pendingCount > Math.max(MIN_PENDING, hashes.length / PENDING_FRACTION)) {
+			long[] merged = Arrays.copyOf(hashes, hashes.length + pendingCount);
+			System.arraycopy(pending, 0, merged, hashes.length, pendingCount);
+			build(merged);
+		}
+	}
+
+	private boolean isPending(long hash) {
+		if (pendingSorted) {
+			return Arrays.binarySearch(pending, 0, pendingCount, hash) >= 0;
+		}
+
+		for (int i = 0; i < pendingCount; i++) {
+			if (pending[i] == hash) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long[] searchWithin(long hash, int hammingDistance) {
+		int tableRadius = hammingDistance / substrings;
+		ResultBuffer result = new ResultBuffer();
+
+		if (tableRadius >= substringBits(substrings - 1)) {
+			scan(hashes, hashes.length, hash, hammingDistance, result);
+		} else {
+			for (int table = 0; table < substrings; table++) {
+				probe(hash, hammingDistance, table, substring(hash, table), 0, tableRadius, result);
+			}
+		}
+
+		scan(pending, pendingCount, hash, hammingDistance, result);
+
+		return result.toArray();
+	}
+
+	private void scan(long[] candidates, int count, long hash, int hammingDistance, ResultBuffer result) {
+		for (int i = 0; i < count; i++) {
+			if (Long.bitCount(candidates[i] ^ hash) <= hammingDistance) {
+				result.add(candidates[i]);
+			}
+		}
+	}
+
+	/**
+	 * Visit every bucket with a key within the remaining number of bit flips of the given key.
+	 */
+	private void probe(long hash, int hammingDistance, int table, int key, int fromBit, int remainingFlips,
+			ResultBuffer result) {
+		verifyBucket(hash, hammingDistance, table, key, result);
+
+		if (remainingFlips == 0) {
+			return;
+		}
+
+		int bits = substringBits(table);
+
+		for (int bit = fromBit; bit < bits; bit++) {
+			probe(hash, hammingDistance, table, key ^ (1 << bit), bit + 1, remainingFlips - 1, result);
+		}
+	}
+
+	private void verifyBucket(long hash, int hammingDistance, int table, int key, ResultBuffer result) {
+		int[] start = bucketStart[table];
+		int[] entries = bucketEntries[table];
+		int tableRadius = hammingDistance / substrings;
+
+		for (int i = start[key]; i < start[key + 1]; i++) {
+			long candidate = hashes[entries[i]];
+
+			if (Long.bitCount(candidate ^ hash) <= hammingDistance
+					&& !foundInPreviousTable(candidate, hash, table, tableRadius)) {
+				result.add(candidate);
+			}
+		}
+	}
+
+	/**
+	 * A candidate is reported by the first table where its substring is within the probe radius, this avoids duplicate
+	 * results without tracking visited candidates.
+	 */
+	private boolean foundInPreviousTable(long candidate, long hash, int table, int tableRadius) {
+		for (int previous = 0; previous < table; previous++) {
+			if (Integer.bitCount(substring(candidate, previous) ^ substring(hash, previous)) <= tableRadius) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return hashes.length + pendingCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(substrings);
+		IndexFormat.writeLongs(out, hashes, hashes.length);
+
+		for (int table = 0; table < substrings; table++) {
+			IndexFormat.writeInts(out, bucketStart[table], bucketStart[table].length);
+			IndexFormat.writeInts(out, bucketEntries[table], bucketEntries[table].length);
+		}
+
+		IndexFormat.writeLongs(out, pending, pendingCount);
+		out.writeBoolean(pendingSorted);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void read(ByteBuffer in) throws IOException {
+		if (in.getInt() != substrings) {
+			throw new IOException("Stored index uses a different number of substrings");
+		}
+
+		long[] storedHashes = IndexFormat.readLongs(in);
+		int[][] storedStart = new int[substrings][];
+		int[][] storedEntries = new int[substrings][];
+
+		for (int table = 0; table < substrings; table++) {
+			storedStart[table] = IndexFormat.readInts(in);
+			storedEntries[table] = IndexFormat.readInts(in);
+
+			if (storedStart[table].length != mask[table] + 2 || storedEntries[table].length != storedHashes.length) {
+				throw new IOException("Table " + table + " of the stored index does not match the hashes");
+			}
+		}
+
+		long[] storedPending = IndexFormat.readLongs(in);
+
+		this.hashes = storedHashes;
+		this.bucketStart = storedStart;
+		this.bucketEntries = storedEntries;
+		this.pending = Arrays.copyOf(storedPending, Math.max(MIN_PENDING, storedPending.length));
+		this.pendingCount = storedPending.length;
+		this.pendingSorted = in.get() != 0;
+	}
+
+	/**
+	 * Get the number of substrings hashes are split into.
+	 * 
+	 * @return number of substrings
+	 */
+	public int getSubstrings() {
+		return substrings;
+	}
+}
@@ -0,0 +1,51 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link HashIndex} that can write its structure, so it can be restored without being rebuilt from the hashes.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public interface PersistentHashIndex extends HashIndex {
+	/**
+	 * Write the structure of the index.
+	 * 
+	 * @param out
+	 *            to write the index to
+	 * @throws IOException
+	 *             if the index could not be written
+	 */
+	void write(DataOutput out) throws IOException;
+
+	/**
+	 * Replace the content of the index with a structure written by {@link #write(DataOutput)}. The position of the
+	 * buffer is advanced past the index.
+	 * 
+	 * @param in
+	 *            to read the index from
+	 * @throws IOException
+	 *             if the data was not written by an index of the same type and configuration
+	 */
+	void read(ByteBuffer in) throws IOException;
+}
@@ -0,0 +1,45 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import java.util.Arrays;
+
+/**
+ * Growable buffer for the hashes found by a search.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+final class ResultBuffer {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] buffer = new long[INITIAL_CAPACITY];
+	private int count;
+
+	void add(long hash) {
+		if (count == buffer.length) {
+			buffer = Arrays.copyOf(buffer, count * 2);
+		}
+
+		buffer[count++] = hash;
+	}
+
+	long[] toArray() {
+		return Arrays.copyOf(buffer, count);
+	}
+}
@@ -0,0 +1,49 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.event;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+
+/**
+ * Event that requests the images closest to the given image.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class GuiNearestMatchEvent {
+	private final ImageRecord image;
+
+	/**
+	 * Create a new event for the given image.
+	 * 
+	 * @param image
+	 *            to find the closest images for
+	 */
+	public GuiNearestMatchEvent(ImageRecord image) {
+		this.image = image;
+	}
+
+	/**
+	 * Get the image to find the closest images for.
+	 * 
+	 * @return the image of this event
+	 */
+	public final ImageRecord getImage() {
+		return image;
+	}
+}
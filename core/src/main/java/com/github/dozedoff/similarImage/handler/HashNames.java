@@ -28,4 +28,5 @@ public class HashNames {
 	}
 
 	public static final String DEFAULT_DCT_HASH_2 = "default_dct_2";
+	public static final String DIFFERENCE_HASH = "difference_hash";
 }
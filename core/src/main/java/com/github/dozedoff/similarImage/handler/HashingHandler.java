@@ -25,6 +25,9 @@ import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.commonj.hash.ImagePHash;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
 import com.github.dozedoff.similarImage.io.HashAttribute;
 import com.github.dozedoff.similarImage.io.Statistics;
 import com.github.dozedoff.similarImage.thread.ImageHashJob;
@@ -43,6 +46,9 @@ public class HashingHandler implements HashHandler {
 	private final Statistics statistics;
 	private final HashAttribute hashAttribute;
 	private final ExecutorService threadPool;
+	private final DifferenceHash differenceHash;
+	private SubsamplingImageDecoder imageDecoder;
+	private ExifThumbnailReader thumbnailReader;
 
 	/**
 	 * Setup the handler so it can hash files and update the database.
@@ -61,11 +67,57 @@ public class HashingHandler implements HashHandler {
 	 */
 	public HashingHandler(ExecutorService threadPool, ImagePHash hasher, ImageRepository imageRepository,
 			Statistics statistics, HashAttribute hashAttribute) {
+		this(threadPool, hasher, imageRepository, statistics, hashAttribute, null);
+	}
+
+	/**
+	 * Setup the handler so it can hash files and update the database. Images are additionally hashed with the
+	 * {@link DifferenceHash}, using the same decoded image.
+	 * 
+	 * @param threadPool
+	 *            used to execute hashing jobs
+	 * 
+	 * @param hasher
+	 *            class that does the hash computation
+	 * @param imageRepository
+	 *            access to the image datasource
+	 * @param statistics
+	 *            tracking file stats
+	 * @param hashAttribute
+	 *            used to store hashes as extended attributes
+	 * @param differenceHash
+	 *            used to calculate additional difference hashes, can be null
+	 */
+	public HashingHandler(ExecutorService threadPool, ImagePHash hasher, ImageRepository imageRepository,
+			Statistics statistics, HashAttribute hashAttribute, DifferenceHash differenceHash) {
 		this.hasher = hasher;
 		this.statistics = statistics;
 		this.hashAttribute = hashAttribute;
 		this.threadPool = threadPool;
 		this.imageRepository = imageRepository;
+		this.differenceHash = differenceHash;
+	}
+
+	/**
+	 * Set a {@link SubsamplingImageDecoder} for the jobs, so images are decoded with subsampling instead of at full
+	 * resolution.
+	 * 
+	 * @param imageDecoder
+	 *            to use for decoding images, can be null
+	 */
+	public final void setImageDecoder(SubsamplingImageDecoder imageDecoder) {
+		this.imageDecoder = imageDecoder;
+	}
+
+	/**
+	 * Set a {@link ExifThumbnailReader} for the jobs, so JPEGs are hashed from their EXIF thumbnail if it matches the
+	 * image.
+	 * 
+	 * @param thumbnailReader
+	 *            to use for reading thumbnails, can be null
+	 */
+	public final void setThumbnailReader(ExifThumbnailReader thumbnailReader) {
+		this.thumbnailReader = thumbnailReader;
 	}
 
 	/**
@@ -81,6 +133,9 @@ public class HashingHandler implements HashHandler {
 
 		ImageHashJob job = new ImageHashJob(file, hasher, imageRepository, statistics);
 		job.setHashAttribute(hashAttribute);
+		job.setDifferenceHash(differenceHash);
+		job.setImageDecoder(imageDecoder);
+		job.setThumbnailReader(thumbnailReader);
 		threadPool.execute(job);
 		return true;
 	}
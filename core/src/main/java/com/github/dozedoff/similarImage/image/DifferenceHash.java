@@ -0,0 +1,78 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import javax.imageio.IIOException;
+
+/**
+ * Calculates a 64 bit difference hash (dHash). The image is reduced to a 9x8 grayscale image, and every bit of the
+ * hash is set if a pixel is brighter than its right neighbour. The hash is cheap to calculate from an already decoded
+ * image and is independent of the DCT based hash, so it can be used to confirm matches of the other hash.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class DifferenceHash {
+	private static final int HASH_WIDTH = 9;
+	private static final int HASH_HEIGHT = 8;
+
+	/**
+	 * Calculate the difference hash of the image.
+	 * 
+	 * @param image
+	 *            to hash
+	 * @return the 64 bit hash
+	 * @throws IIOException
+	 *             if the image is null
+	 */
+	public long getLongHash(BufferedImage image) throws IIOException {
+		if (image == null) {
+			throw new IIOException("Image is null. Did ImageIO fail to decode the image?");
+		}
+
+		BufferedImage reduced = new BufferedImage(HASH_WIDTH, HASH_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D graphics = reduced.createGraphics();
+
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, HASH_WIDTH, HASH_HEIGHT, null);
+		} finally {
+			graphics.dispose();
+		}
+
+		int[] pixels = reduced.getRaster().getPixels(0, 0, HASH_WIDTH, HASH_HEIGHT, (int[]) null);
+		long hash = 0;
+
+		for (int y = 0; y < HASH_HEIGHT; y++) {
+			for (int x = 0; x < HASH_WIDTH - 1; x++) {
+				int pixel = y * HASH_WIDTH + x;
+				hash <<= 1;
+
+				if (pixels[pixel] > pixels[pixel + 1]) {
+					hash |= 1;
+				}
+			}
+		}
+
+		return hash;
+	}
+}
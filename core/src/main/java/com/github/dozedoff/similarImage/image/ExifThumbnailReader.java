@@ -0,0 +1,165 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the thumbnail embedded in a JPEG. Thumbnails are read with the {@link ImageReader} of the image, so the
+ * TwelveMonkeys JPEG reader provides EXIF, JFIF and JFXX thumbnails. Only the headers of the image are read, the image
+ * data itself is never decoded.
+ * <p>
+ * A thumbnail is only returned if its aspect ratio matches the main image, as some cameras pad thumbnails of other
+ * aspect ratios with black bars, and if both sides are at least the minimum size.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class ExifThumbnailReader {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ExifThumbnailReader.class);
+
+	/**
+	 * Maximum relative difference between the aspect ratios of thumbnail and main image.
+	 */
+	private static final double ASPECT_RATIO_TOLERANCE = 0.02;
+
+	private final int minimumSize;
+
+	/**
+	 * Create a reader for thumbnails that will be scaled to the given size.
+	 * 
+	 * @param minimumSize
+	 *            minimum width and height of the thumbnail
+	 * @throws IllegalArgumentException
+	 *             if the size is less than 1
+	 */
+	public ExifThumbnailReader(int minimumSize) throws IllegalArgumentException {
+		if (minimumSize < 1) {
+			throw new IllegalArgumentException("Minimum size must be 1 or greater");
+		}
+
+		this.minimumSize = minimumSize;
+	}
+
+	/**
+	 * Read the thumbnail of a JPEG.
+	 * 
+	 * @param is
+	 *            stream of the image data, positioned at the start of the image
+	 * @return the decoded thumbnail, or null if there is no reader for the image, no usable thumbnail or the aspect
+	 *         ratio does not match
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public BufferedImage read(InputStream is) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+			Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+
+			if (readers == null || !readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(iis);
+				return read(reader);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Read the thumbnail of the first image of the reader. The reader can still be used to read the image afterwards,
+	 * so the image data only needs to be read once if there is no usable thumbnail.
+	 * 
+	 * @param reader
+	 *            with the input set to the image
+	 * @return the decoded thumbnail, or null if the reader does not support thumbnails, there is no usable thumbnail
+	 *         or the aspect ratio does not match
+	 */
+	public BufferedImage read(ImageReader reader) {
+		try {
+			if (!reader.readerSupportsThumbnails()) {
+				return null;
+			}
+
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+
+			for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+				int thumbnailWidth = reader.getThumbnailWidth(0, i);
+				int thumbnailHeight = reader.getThumbnailHeight(0, i);
+
+				if (thumbnailWidth >= minimumSize && thumbnailHeight >= minimumSize
+						&& isSameAspectRatio(thumbnailWidth, thumbnailHeight, width, height)) {
+					return reader.readThumbnail(0, i);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Failed to read thumbnail, the image may still be readable: {}", e.toString());
+		}
+
+		return null;
+	}
+
+	/**
+	 * Check if two images have the same aspect ratio, allowing for rounding of the thumbnail size.
+	 * 
+	 * @param thumbnailWidth
+	 *            width of the thumbnail
+	 * @param thumbnailHeight
+	 *            height of the thumbnail
+	 * @param width
+	 *            of the main image
+	 * @param height
+	 *            of the main image
+	 * @return true if the aspect ratios are within the tolerance
+	 */
+	static boolean isSameAspectRatio(int thumbnailWidth, int thumbnailHeight, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+
+		double thumbnailRatio = (double) thumbnailWidth / thumbnailHeight;
+		double ratio = (double) width / height;
+
+		return Math.abs(thumbnailRatio - ratio) <= ratio * ASPECT_RATIO_TOLERANCE;
+	}
+
+	/**
+	 * Get the minimum size of thumbnails.
+	 * 
+	 * @return the minimum width and height
+	 */
+	public int getMinimumSize() {
+		return minimumSize;
+	}
+}
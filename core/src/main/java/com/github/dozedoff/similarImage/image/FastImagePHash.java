@@ -0,0 +1,327 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+
+import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.image.kernel.DCTKernel;
+
+/**
+ * Faster alternative to {@link ImagePHash} for 64 bit hashes. The image is prepared the same way, but the DCT is
+ * separated into a row and a column pass over a precomputed cosine table, and only the 8x8 low frequency block used
+ * for the hash is calculated. This replaces about a million cosine calls per image with about ten thousand
+ * multiplications.
+ * <p>
+ * The hashes are not guaranteed to be identical to those of {@link ImagePHash}. The sums are calculated in a different
+ * order, so coefficients can differ in the last bits, and a bit of the hash flips if its coefficient is within that
+ * rounding error of the average, e.g. for images of a single color. Exact matches between hashes of both classes can
+ * be missed because of this.
+ * </p>
+ * <p>
+ * Multiple images can be hashed with {@link #getLongHashes(List)}. If a {@link DCTKernel} is set, the DCTs of all
+ * images are calculated with a single kernel dispatch. To collect a batch without keeping the decoded images in
+ * memory, reduce each image with {@link #reduce(BufferedImage)} and hash the batch with
+ * {@link #getLongHashes(double[][])}.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class FastImagePHash extends ImagePHash {
+	private static final int SIZE = 32;
+	private static final int SMALLER_SIZE = 8;
+
+	/**
+	 * Cosine terms of the DCT, indexed by [frequency][pixel].
+	 */
+	private static final double[][] COSINES = new double[SMALLER_SIZE][SIZE];
+	/**
+	 * DCT scaling factor for each frequency.
+	 */
+	private static final double[] COEFFICIENTS = new double[SMALLER_SIZE];
+
+	static {
+		for (int u = 0; u < SMALLER_SIZE; u++) {
+			for (int i = 0; i < SIZE; i++) {
+				COSINES[u][i] = Math.cos(((2 * i + 1) / (2.0 * SIZE)) * u * Math.PI);
+			}
+
+			COEFFICIENTS[u] = 1;
+		}
+
+		COEFFICIENTS[0] = 1 / Math.sqrt(2.0);
+	}
+
+	private final DCTKernel kernel;
+
+	/**
+	 * Create a hasher that calculates the DCT on the CPU.
+	 */
+	public FastImagePHash() {
+		this.kernel = null;
+	}
+
+	/**
+	 * Create a hasher that uses the kernel for batches of images.
+	 * 
+	 * @param kernel
+	 *            for 32x32 matrices with a 8x8 result
+	 * @throws IllegalArgumentException
+	 *             if the kernel has the wrong sizes
+	 */
+	public FastImagePHash(DCTKernel kernel) throws IllegalArgumentException {
+		if (kernel.getMatrixSize() != SIZE || kernel.getResultSize() != SMALLER_SIZE) {
+			throw new IllegalArgumentException("Kernel must transform " + SIZE + "x" + SIZE + " matrices into "
+					+ SMALLER_SIZE + "x" + SMALLER_SIZE + " results");
+		}
+
+		this.kernel = kernel;
+	}
+
+	/**
+	 * Decode the image from the stream and calculate the hash.
+	 * 
+	 * @param is
+	 *            stream of the image data
+	 * @return the 64 bit hash
+	 * @throws IOException
+	 *             if the image could not be read
+	 */
+	@Override
+	public long getLongHash(InputStream is) throws IOException {
+		return getLongHash(ImageIO.read(is));
+	}
+
+	/**
+	 * Calculate the hash of the image.
+	 * 
+	 * @param image
+	 *            to hash
+	 * @return the 64 bit hash
+	 * @throws IIOException
+	 *             if the image is null
+	 */
+	@Override
+	public long getLongHash(BufferedImage image) throws IIOException {
+		if (image == null) {
+			throw new IIOException("Image is null. Did ImageIO fail to decode the image?");
+		}
+
+		return hash(transformDCT(grayscalePixels(image)));
+	}
+
+	/**
+	 * Check if the DCTs of a batch are calculated with a kernel.
+	 * 
+	 * @return true if a {@link DCTKernel} is set
+	 */
+	public boolean hasKernel() {
+		return kernel != null;
+	}
+
+	/**
+	 * Calculate the hashes of all images. With a kernel, the DCTs are calculated in one batch.
+	 * 
+	 * @param images
+	 *            to hash
+	 * @return the 64 bit hashes, in the order of the images
+	 * @throws IIOException
+	 *             if an image is null
+	 */
+	public long[] getLongHashes(List<BufferedImage> images) throws IIOException {
+		double[][] reduced = new double[images.size()][];
+
+		for (int i = 0; i < reduced.length; i++) {
+			reduced[i] = reduce(images.get(i));
+		}
+
+		return getLongHashes(reduced);
+	}
+
+	/**
+	 * Reduce the image to the 32x32 gray values the hash is calculated from.
+	 * 
+	 * @param image
+	 *            to reduce
+	 * @return the gray values in row-major order
+	 * @throws IIOException
+	 *             if the image is null
+	 */
+	public double[] reduce(BufferedImage image) throws IIOException {
+		if (image == null) {
+			throw new IIOException("Image is null. Did ImageIO fail to decode the image?");
+		}
+
+		return flatten(grayscalePixels(image));
+	}
+
+	/**
+	 * Calculate the hashes of reduced images. With a kernel, the DCTs are calculated in one batch.
+	 * 
+	 * @param reduced
+	 *            images reduced with {@link #reduce(BufferedImage)}
+	 * @return the 64 bit hashes, in the order of the reduced images
+	 */
+	public long[] getLongHashes(double[][] reduced) {
+		long[] hashes = new long[reduced.length];
+
+		if (kernel == null) {
+			for (int i = 0; i < hashes.length; i++) {
+				hashes[i] = hash(transformDCT(unflatten(reduced[i], SIZE)));
+			}
+
+			return hashes;
+		}
+
+		double[][] transformed = kernel.transformDCT(reduced);
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = hash(unflatten(transformed[i], SMALLER_SIZE));
+		}
+
+		return hashes;
+	}
+
+	private static double[] flatten(double[][] matrix) {
+		double[] flat = new double[SIZE * SIZE];
+
+		for (int x = 0; x < SIZE; x++) {
+			System.arraycopy(matrix[x], 0, flat, x * SIZE, SIZE);
+		}
+
+		return flat;
+	}
+
+	private static double[][] unflatten(double[] flat, int size) {
+		double[][] matrix = new double[size][size];
+
+		for (int u = 0; u < size; u++) {
+			System.arraycopy(flat, u * size, matrix[u], 0, size);
+		}
+
+		return matrix;
+	}
+
+	/**
+	 * Build the hash from the low frequency block, one bit per coefficient that is above the average.
+	 */
+	private static long hash(double[][] dct) {
+		double total = -dct[0][0];
+
+		for (int x = 0; x < SMALLER_SIZE; x++) {
+			for (int y = 0; y < SMALLER_SIZE; y++) {
+				total += dct[x][y];
+			}
+		}
+
+		double average = total / ((SMALLER_SIZE * SMALLER_SIZE) - 1);
+		long hash = 0;
+
+		for (int x = 0; x < SMALLER_SIZE; x++) {
+			for (int y = 0; y < SMALLER_SIZE; y++) {
+				hash += dct[x][y] > average ? 1 : 0;
+				hash = Long.rotateLeft(hash, 1);
+			}
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Resize the image to 32x32 and convert it to grayscale, the same way {@link ImagePHash} does.
+	 * 
+	 * @param image
+	 *            to convert
+	 * @return gray values indexed by [x][y]
+	 */
+	static double[][] grayscalePixels(BufferedImage image) {
+		BufferedImage resized = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = resized.createGraphics();
+
+		try {
+			graphics.drawImage(image, 0, 0, SIZE, SIZE, null);
+		} finally {
+			graphics.dispose();
+		}
+
+		new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null).filter(resized, resized);
+
+		double[][] pixels = new double[SIZE][SIZE];
+
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				pixels[x][y] = resized.getRGB(x, y) & 0xff;
+			}
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Calculate the 8x8 low frequency block of the DCT of a 32x32 matrix. The first pass transforms along the first
+	 * index, the second pass along the second index.
+	 * 
+	 * @param matrix
+	 *            to transform, indexed by [x][y]
+	 * @return the low frequency coefficients, indexed by [u][v]
+	 */
+	static double[][] transformDCT(double[][] matrix) {
+		double[][] rows = new double[SMALLER_SIZE][SIZE];
+
+		for (int u = 0; u < SMALLER_SIZE; u++) {
+			double[] cosines = COSINES[u];
+			double[] row = rows[u];
+
+			for (int i = 0; i < SIZE; i++) {
+				double cosine = cosines[i];
+				double[] column = matrix[i];
+
+				for (int j = 0; j < SIZE; j++) {
+					row[j] += cosine * column[j];
+				}
+			}
+		}
+
+		double[][] result = new double[SMALLER_SIZE][SMALLER_SIZE];
+
+		for (int u = 0; u < SMALLER_SIZE; u++) {
+			for (int v = 0; v < SMALLER_SIZE; v++) {
+				double[] cosines = COSINES[v];
+				double sum = 0.0;
+
+				for (int j = 0; j < SIZE; j++) {
+					sum += cosines[j] * rows[u][j];
+				}
+
+				result[u][v] = sum * ((COEFFICIENTS[u] * COEFFICIENTS[v]) / 4.0);
+			}
+		}
+
+		return result;
+	}
+}
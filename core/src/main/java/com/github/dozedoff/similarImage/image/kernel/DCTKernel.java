@@ -17,22 +17,46 @@
  */
 package com.github.dozedoff.similarImage.image.kernel;
 
+import java.util.Arrays;
+
 import com.aparapi.Kernel;
 import com.aparapi.Range;
 import com.aparapi.device.Device;
+import com.aparapi.device.JavaDevice;
 import com.aparapi.internal.kernel.KernelManager;
-import com.google.common.primitives.Doubles;
 
+/**
+ * Kernel that calculates the DCT of square matrices. Matrices are transformed in batches with a single dispatch, so
+ * the overhead of a dispatch is shared by the whole batch. Only the low frequency block of the given result size is
+ * calculated.
+ * <p>
+ * The DCT is separable, so it is calculated in two passes over a precomputed cosine table. The first pass transforms
+ * the rows of each matrix, the second pass transforms the columns of that result. The kernel does not call cos.
+ * </p>
+ * <p>
+ * The kernel runs on the best available device, and on the Java thread pool if there is none.
+ * </p>
+ */
 public class DCTKernel extends Kernel {
 	public static final int DEFAULT_MATRIX_SIZE = 8;
 	private final int N; // matrix size
 	private final int matrixArea;
+	private final int resultSize;
+	private final int resultArea;
+	/**
+	 * Size of the row pass result of a single matrix.
+	 */
+	private final int rowArea;
 	private final double[] dctCoefficients;
-	private final double[] matrix;
-	private final double[] result;
+	/**
+	 * Cosine terms of the DCT, indexed by [frequency * N + element].
+	 */
+	private final double[] cosines;
+	private double[] matrices;
+	private double[] rows;
+	private double[] results;
 
 	private Device device;
-	private Range range;
 
 	/**
 	 * Create a new DCT kernel for a 8x8 matrix;
@@ -48,18 +72,48 @@ public class DCTKernel extends Kernel {
 	 *            size of the matrix that this kernel will opoerate on
 	 */
 	public DCTKernel(int matrixSize) {
+		this(matrixSize, matrixSize);
+	}
+
+	/**
+	 * Create a new DCT kernel for the given size, that only calculates the low frequency block of the result.
+	 * 
+	 * @param matrixSize
+	 *            size of the matrix that this kernel will opoerate on
+	 * @param resultSize
+	 *            size of the low frequency block to calculate
+	 * @throws IllegalArgumentException
+	 *             if the result size is not between 1 and the matrix size
+	 */
+	public DCTKernel(int matrixSize, int resultSize) throws IllegalArgumentException {
+		if (resultSize < 1 || resultSize > matrixSize) {
+			throw new IllegalArgumentException("Result size must be between 1 and " + matrixSize);
+		}
+
 		this.N = matrixSize;
 		this.matrixArea = N*N;
-		this.matrix = new double[matrixArea];
-		this.result = new double[matrixArea];
+		this.resultSize = resultSize;
+		this.resultArea = resultSize * resultSize;
+		this.rowArea = N * resultSize;
+		this.matrices = new double[matrixArea];
+		this.rows = new double[rowArea];
+		this.results = new double[resultArea];
 		this.dctCoefficients = new double[N];
+		this.cosines = new double[rowArea];
 		initCoefficients();
+		initCosines();
 
 		setDevice(KernelManager.instance().bestDevice());
 	}
 
-	public void setDevice(Device device) {
-		range = Range.create2D(device, N, N);
+	/**
+	 * Set the device to run the kernel on.
+	 * 
+	 * @param device
+	 *            to use, if null the Java thread pool is used
+	 */
+	public synchronized void setDevice(Device device) {
+		this.device = device == null ? JavaDevice.THREAD_POOL : device;
 	}
 
 	private void initCoefficients() {
@@ -70,37 +124,119 @@ public class DCTKernel extends Kernel {
 		dctCoefficients[0] = 1 / Math.sqrt(2.0);
 	}
 
+	private void initCosines() {
+		for (int frequency = 0; frequency < resultSize; frequency++) {
+			for (int element = 0; element < N; element++) {
+				cosines[frequency * N + element] = Math.cos(((2 * element + 1) / (2.0 * N)) * frequency * Math.PI);
+			}
+		}
+	}
+
+	/**
+	 * Every work item belongs to one matrix. In the first pass, a work item calculates one frequency of one row. In
+	 * the second pass, work items within the result area calculate one coefficient from the columns of the first pass.
+	 */
 	@Override
 	public void run() {
-		int u = getGlobalId(0);
-		int v = getGlobalId(1);
-
-		double sum = 0.0;
-
-		for (int g = 0; g < matrixArea; g++) {
-			sum += cos(((2 * (g / N) + 1) / (2.0 * N)) * u * Math.PI)
-					* cos(((2 * (g % N) + 1) / (2.0 * N)) * v * Math.PI) * (matrix[g]);
+		int id = getGlobalId(0);
+		int matrix = id / rowArea;
+		int item = id % rowArea;
+
+		if (getPassId() == 0) {
+			int row = matrix * matrixArea + (item / resultSize) * N;
+			int cosine = (item % resultSize) * N;
+			double sum = 0.0;
+
+			for (int y = 0; y < N; y++) {
+				sum += cosines[cosine + y] * matrices[row + y];
+			}
+
+			rows[id] = sum;
+		} else if (item < resultArea) {
+			int u = item / resultSize;
+			int v = item % resultSize;
+			int column = matrix * rowArea + v;
+			int cosine = u * N;
+			double sum = 0.0;
+
+			for (int x = 0; x < N; x++) {
+				sum += cosines[cosine + x] * rows[column + x * resultSize];
+			}
+
+			results[matrix * resultArea + item] = sum * ((dctCoefficients[u] * dctCoefficients[v]) / 4.0);
 		}
-
-		sum *= ((dctCoefficients[u] * dctCoefficients[v]) / 4.0);
-
-		result[u * N + v] = sum;
 	}
 
 	/**
+	 * Transform a single matrix. Prefer {@link #transformDCT(double[][])} for multiple matrices.
 	 * 
 	 * @param matrix
-	 * @return
+	 *            to transform, in row-major order
+	 * @return the low frequency block of the DCT, in row-major order
 	 * 
 	 * @see DCT function from http://stackoverflow.com/questions/4240490/problems-with-dct-and-idct-algorithm-in-java
 	 */
-	public synchronized double[] transformDCT(double[] matrix) {
-		for (int i = 0; i < matrixArea; i++) {
-			this.matrix[i] = matrix[i];
+	public double[] transformDCT(double[] matrix) {
+		return transformDCT(new double[][] { matrix })[0];
+	}
+
+	/**
+	 * Transform all matrices with a single kernel dispatch.
+	 * 
+	 * @param batch
+	 *            matrices to transform, each in row-major order
+	 * @return the low frequency block of the DCT for each matrix, in row-major order
+	 * @throws IllegalArgumentException
+	 *             if a matrix does not have the size of this kernel
+	 */
+	public synchronized double[][] transformDCT(double[][] batch) throws IllegalArgumentException {
+		int count = batch.length;
+
+		if (count == 0) {
+			return new double[0][];
 		}
 
-		execute(range);
+		if (matrices.length < count * matrixArea) {
+			matrices = new double[count * matrixArea];
+			rows = new double[count * rowArea];
+			results = new double[count * resultArea];
+		}
+
+		for (int i = 0; i < count; i++) {
+			if (batch[i].length != matrixArea) {
+				throw new IllegalArgumentException("Matrix " + i + " has " + batch[i].length + " elements, expected "
+						+ matrixArea);
+			}
+
+			System.arraycopy(batch[i], 0, matrices, i * matrixArea, matrixArea);
+		}
+
+		execute(Range.create(device, count * rowArea), 2);
+
+		double[][] transformed = new double[count][];
 
-		return Doubles.concat(result);
+		for (int i = 0; i < count; i++) {
+			transformed[i] = Arrays.copyOfRange(results, i * resultArea, (i + 1) * resultArea);
+		}
+
+		return transformed;
+	}
+
+	/**
+	 * Get the size of the matrices this kernel transforms.
+	 * 
+	 * @return the matrix size
+	 */
+	public int getMatrixSize() {
+		return N;
+	}
+
+	/**
+	 * Get the size of the low frequency block that is calculated.
+	 * 
+	 * @return the result size
+	 */
+	public int getResultSize() {
+		return resultSize;
 	}
 }
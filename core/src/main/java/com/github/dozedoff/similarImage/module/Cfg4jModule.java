@@ -62,6 +62,17 @@ public class Cfg4jModule {
 
 		props.put("all.threads", Runtime.getRuntime().availableProcessors());
 		props.put("all.includeIgnoredImages", false);
+		props.put("all.fastPHash", false);
+		props.put("all.dctKernel", false);
+		props.put("all.subsampledDecoding", false);
+		props.put("all.exifThumbnails", false);
+		props.put("all.differenceHash", false);
+		props.put("all.confirmDistance", -1);
+		props.put("all.clusterGroups", false);
+		props.put("all.streamExactMatches", false);
+		props.put("all.localHashing", false);
+		props.put("all.ioThreads", 4);
+		props.put("all.concurrentFiles", 0);
 
 		return props;
 	}
@@ -25,6 +25,7 @@ import javax.inject.Singleton;
 
 import com.github.dozedoff.similarImage.db.Database;
 import com.github.dozedoff.similarImage.db.SQLiteDatabase;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.db.repository.IgnoreRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
@@ -127,6 +128,16 @@ public class SQLitePersistenceModule {
 		}
 	}
 
+	@Singleton
+	@Provides
+	public ContentDigestRepository provideContentDigestRepository(RepositoryFactory repositoryFactory) {
+		try {
+			return repositoryFactory.buildContentDigestRepository();
+		} catch (RepositoryException e) {
+			throw runtimeException(ContentDigestRepository.class, e);
+		}
+	}
+
 	@Singleton
 	@Provides
 	public TransactionManager provideTransactionManager(ConnectionSource cs) {
@@ -81,6 +81,18 @@ public class GroupList {
 		}
 	}
 
+	/**
+	 * Add a single {@link ResultGroup} to this {@link GroupList}, keeping the existing groups.
+	 * 
+	 * @param group
+	 *            the {@link ResultGroup} to add
+	 */
+	public void addGroup(ResultGroup group) {
+		groups.add(group);
+		hashToGroup.put(group.getHash(), group);
+		mapResultsToGroups(group);
+	}
+
 	/**
 	 * Get the number of groups.
 	 * 
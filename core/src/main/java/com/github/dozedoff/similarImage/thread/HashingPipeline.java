@@ -0,0 +1,688 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.db.HashSource;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.handler.HashHandler;
+import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.FastImagePHash;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
+import com.github.dozedoff.similarImage.io.HashAttribute;
+import com.github.dozedoff.similarImage.io.Statistics;
+import com.google.common.base.Stopwatch;
+
+import at.dhyan.open_imaging.GifDecoder;
+import at.dhyan.open_imaging.GifDecoder.GifImage;
+
+/**
+ * Hashes files in stages connected by bounded queues: files are read by a pool of I/O threads, decoded and hashed by
+ * a pool of CPU threads, and the results are stored in batches by a single thread. When a queue is full, the stage
+ * feeding it blocks, so {@link #handle(Path)} blocks the thread walking the file tree instead of queuing a job for
+ * every file that is found.
+ * <p>
+ * Files are read into memory whole, so the read stage is also limited by a byte budget. A file is only read once its
+ * size can be taken from the budget, and the bytes are returned once the image has been decoded. A file larger than the
+ * budget takes all of it, so it is read when no other file data is held.
+ * </p>
+ * <p>
+ * Call {@link #close()} when all files have been submitted, it waits until all files have been processed.
+ * </p>
+ * <p>
+ * If the hasher is a {@link FastImagePHash} with a kernel, each hash thread drains up to {@link #KERNEL_BATCH_SIZE}
+ * files from its queue, and the DCTs of the batch are calculated with a single kernel dispatch. Decoded images are
+ * reduced right away, so a batch does not keep them in memory.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class HashingPipeline implements HashHandler, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HashingPipeline.class);
+
+	private static final Path END_OF_FILES = Paths.get("");
+	private static final FileData END_OF_DATA = new FileData(END_OF_FILES, new byte[0], 0);
+	private static final HashResult END_OF_RESULTS = new HashResult(null, null);
+
+	/**
+	 * Maximum number of images hashed with one kernel dispatch.
+	 */
+	public static final int KERNEL_BATCH_SIZE = 64;
+
+	/**
+	 * Default number of bytes of file data held in memory between the read and the hash stage.
+	 */
+	public static final int DEFAULT_READ_BUDGET = 64 * 1024 * 1024;
+
+	/**
+	 * Stages of the pipeline. Each stage takes its input from its own queue.
+	 */
+	public enum Stage {
+		/**
+		 * Read the file into memory.
+		 */
+		READ,
+		/**
+		 * Decode and hash the image.
+		 */
+		HASH,
+		/**
+		 * Store the hashes.
+		 */
+		STORE
+	}
+
+	private final ImagePHash hasher;
+	private final FastImagePHash batchHasher;
+	private final ImageRepository imageRepository;
+	private final Statistics statistics;
+	private final int ioThreads;
+	private final int cpuThreads;
+	private final int batchSize;
+	private final int hashBatchSize;
+	private final int readBudgetBytes;
+
+	private final BlockingQueue<Path> files;
+	private final BlockingQueue<FileData> fileData;
+	private final BlockingQueue<HashResult> results;
+	private final Map<Stage, AtomicLong> processed;
+	private final AtomicInteger activeReaders;
+	private final AtomicInteger activeHashers;
+	private final Semaphore readBudget;
+
+	private final ExecutorService ioPool;
+	private final ExecutorService cpuPool;
+	private final ExecutorService storePool;
+	private final Stopwatch stopwatch;
+
+	private HashAttribute hashAttribute;
+	private DifferenceHash differenceHash;
+	private SubsamplingImageDecoder imageDecoder;
+	private ExifThumbnailReader thumbnailReader;
+	private volatile boolean closed;
+
+	/**
+	 * Create a pipeline and start the threads of all stages.
+	 * 
+	 * @param hasher
+	 *            class that does the hash computation
+	 * @param imageRepository
+	 *            access to the image datasource
+	 * @param statistics
+	 *            tracking file stats
+	 * @param ioThreads
+	 *            number of threads reading files
+	 * @param cpuThreads
+	 *            number of threads decoding and hashing images
+	 * @param queueSize
+	 *            capacity of each queue, also the maximum number of records stored in one batch
+	 * @throws IllegalArgumentException
+	 *             if a thread count or the queue size is less than 1
+	 */
+	public HashingPipeline(ImagePHash hasher, ImageRepository imageRepository, Statistics statistics, int ioThreads,
+			int cpuThreads, int queueSize) throws IllegalArgumentException {
+		this(hasher, imageRepository, statistics, ioThreads, cpuThreads, queueSize, DEFAULT_READ_BUDGET);
+	}
+
+	/**
+	 * Create a pipeline and start the threads of all stages.
+	 * 
+	 * @param hasher
+	 *            class that does the hash computation
+	 * @param imageRepository
+	 *            access to the image datasource
+	 * @param statistics
+	 *            tracking file stats
+	 * @param ioThreads
+	 *            number of threads reading files
+	 * @param cpuThreads
+	 *            number of threads decoding and hashing images
+	 * @param queueSize
+	 *            capacity of each queue, also the maximum number of records stored in one batch
+	 * @param readBudget
+	 *            maximum number of bytes of file data held in memory between the read and the hash stage
+	 * @throws IllegalArgumentException
+	 *             if a thread count, the queue size or the read budget is less than 1
+	 */
+	public HashingPipeline(ImagePHash hasher, ImageRepository imageRepository, Statistics statistics, int ioThreads,
+			int cpuThreads, int queueSize, int readBudget) throws IllegalArgumentException {
+		if (ioThreads < 1 || cpuThreads < 1) {
+			throw new IllegalArgumentException("Thread counts must be 1 or greater");
+		}
+
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("Queue size must be 1 or greater");
+		}
+
+		if (readBudget < 1) {
+			throw new IllegalArgumentException("Read budget must be 1 or greater");
+		}
+
+		this.hasher = hasher;
+		this.imageRepository = imageRepository;
+		this.statistics = statistics;
+		this.ioThreads = ioThreads;
+		this.cpuThreads = cpuThreads;
+		this.batchSize = queueSize;
+		this.batchHasher = isKernelHasher(hasher) ? (FastImagePHash) hasher : null;
+		this.hashBatchSize = batchHasher == null ? 1 : Math.min(KERNEL_BATCH_SIZE, queueSize);
+
+		this.files = new ArrayBlockingQueue<>(queueSize);
+		this.fileData = new ArrayBlockingQueue<>(queueSize);
+		this.results = new ArrayBlockingQueue<>(queueSize);
+		this.processed = new EnumMap<>(Stage.class);
+
+		for (Stage stage : Stage.values()) {
+			processed.put(stage, new AtomicLong());
+		}
+
+		this.activeReaders = new AtomicInteger(ioThreads);
+		this.activeHashers = new AtomicInteger(cpuThreads);
+		this.readBudgetBytes = readBudget;
+		this.readBudget = new Semaphore(readBudget);
+
+		this.ioPool = Executors.newFixedThreadPool(ioThreads, new NamedThreadFactory("Hashing pipeline read"));
+		this.cpuPool = Executors.newFixedThreadPool(cpuThreads, new NamedThreadFactory("Hashing pipeline hash"));
+		this.storePool = Executors.newSingleThreadExecutor(new NamedThreadFactory("Hashing pipeline store"));
+		this.stopwatch = Stopwatch.createStarted();
+
+		for (int i = 0; i < ioThreads; i++) {
+			ioPool.execute(this::readFiles);
+		}
+
+		for (int i = 0; i < cpuThreads; i++) {
+			cpuPool.execute(this::hashImages);
+		}
+
+		storePool.execute(this::storeResults);
+	}
+
+	/**
+	 * Set a {@link HashAttribute} to additionally write the hash as an extended attribute.
+	 * 
+	 * @param hashAttribute
+	 *            to use for writing extended attributes
+	 */
+	public final void setHashAttribute(HashAttribute hashAttribute) {
+		this.hashAttribute = hashAttribute;
+	}
+
+	/**
+	 * Set a {@link DifferenceHash} to additionally calculate a difference hash from the decoded image.
+	 * 
+	 * @param differenceHash
+	 *            to use for calculating difference hashes
+	 */
+	public final void setDifferenceHash(DifferenceHash differenceHash) {
+		this.differenceHash = differenceHash;
+	}
+
+	/**
+	 * Set a {@link SubsamplingImageDecoder} to decode images with subsampling instead of at full resolution.
+	 * 
+	 * @param imageDecoder
+	 *            to use for decoding images
+	 */
+	public final void setImageDecoder(SubsamplingImageDecoder imageDecoder) {
+		this.imageDecoder = imageDecoder;
+	}
+
+	/**
+	 * Set a {@link ExifThumbnailReader} to hash matching EXIF thumbnails of JPEGs instead of the image.
+	 * 
+	 * @param thumbnailReader
+	 *            to use for reading thumbnails
+	 */
+	public final void setThumbnailReader(ExifThumbnailReader thumbnailReader) {
+		this.thumbnailReader = thumbnailReader;
+	}
+
+	/**
+	 * Queue the file for hashing. Blocks while the queue of the read stage is full.
+	 * 
+	 * @param file
+	 *            the image to hash
+	 * @return true if the file was queued, false if the pipeline is closed or the thread was interrupted
+	 */
+	@Override
+	public boolean handle(Path file) {
+		if (closed) {
+			return false;
+		}
+
+		try {
+			files.put(file);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void readFiles() {
+		try {
+			Path file;
+
+			while ((file = files.take()) != END_OF_FILES) {
+				statistics.incrementProcessedFiles();
+				int permits = 0;
+
+				try {
+					permits = (int) Math.min(Files.size(file), readBudgetBytes);
+					readBudget.acquire(permits);
+					fileData.put(new FileData(file, Files.readAllBytes(file), permits));
+				} catch (IOException e) {
+					readBudget.release(permits);
+					LOGGER.warn("Failed to load file {}: {}", file, e.toString());
+					statistics.incrementFailedFiles();
+				}
+
+				processed.get(Stage.READ).incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (activeReaders.decrementAndGet() == 0) {
+				endStage(fileData, END_OF_DATA, cpuThreads);
+			}
+		}
+	}
+
+	private static boolean isKernelHasher(ImagePHash hasher) {
+		return hasher instanceof FastImagePHash && ((FastImagePHash) hasher).hasKernel();
+	}
+
+	private void hashImages() {
+		List<FileData> batch = new ArrayList<>(hashBatchSize);
+		boolean done = false;
+
+		try {
+			while (!done) {
+				batch.add(fileData.take());
+				fileData.drainTo(batch, hashBatchSize - 1);
+				done = removeEndOfData(batch);
+
+				if (batchHasher == null) {
+					hashEach(batch);
+				} else {
+					hashBatch(batch);
+				}
+
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (activeHashers.decrementAndGet() == 0) {
+				endStage(results, END_OF_RESULTS, 1);
+			}
+		}
+	}
+
+	/**
+	 * Remove the end marker and everything after it from the batch. Every hash thread needs its own end marker, so
+	 * additional markers are put back.
+	 */
+	private boolean removeEndOfData(List<FileData> batch) throws InterruptedException {
+		int end = batch.indexOf(END_OF_DATA);
+
+		if (end < 0) {
+			return false;
+		}
+
+		for (int i = end + 1; i < batch.size(); i++) {
+			fileData.put(END_OF_DATA);
+		}
+
+		batch.subList(end, batch.size()).clear();
+		return true;
+	}
+
+	private void hashEach(List<FileData> batch) throws InterruptedException {
+		for (FileData data : batch) {
+			try {
+				DecodedImage decoded = decodeImage(data);
+				ImageRecord record = new ImageRecord(data.path.toString(), hasher.getLongHash(decoded.image),
+						decoded.source);
+
+				results.put(new HashResult(record, decoded.dHash));
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Failed to process image {}: {}", data.path, e.toString());
+				statistics.incrementFailedFiles();
+			} finally {
+				readBudget.release(data.permits);
+			}
+
+			processed.get(Stage.HASH).incrementAndGet();
+		}
+	}
+
+	private void hashBatch(List<FileData> batch) throws InterruptedException {
+		List<DecodedImage> decodedImages = new ArrayList<>(batch.size());
+		List<double[]> reduced = new ArrayList<>(batch.size());
+
+		for (FileData data : batch) {
+			try {
+				DecodedImage decoded = decodeImage(data);
+				reduced.add(batchHasher.reduce(decoded.image));
+				decodedImages.add(decoded.withoutImage());
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Failed to process image {}: {}", data.path, e.toString());
+				statistics.incrementFailedFiles();
+				processed.get(Stage.HASH).incrementAndGet();
+			} finally {
+				readBudget.release(data.permits);
+			}
+		}
+
+		long[] hashes;
+
+		try {
+			hashes = batchHasher.getLongHashes(reduced.toArray(new double[reduced.size()][]));
+		} catch (RuntimeException e) {
+			LOGGER.warn("Failed to hash batch of {} images: {}", reduced.size(), e.toString());
+
+			for (int i = 0; i < decodedImages.size(); i++) {
+				statistics.incrementFailedFiles();
+				processed.get(Stage.HASH).incrementAndGet();
+			}
+
+			return;
+		}
+
+		for (int i = 0; i < hashes.length; i++) {
+			DecodedImage decoded = decodedImages.get(i);
+			ImageRecord record = new ImageRecord(decoded.path.toString(), hashes[i], decoded.source);
+
+			results.put(new HashResult(record, decoded.dHash));
+			processed.get(Stage.HASH).incrementAndGet();
+		}
+	}
+
+	/**
+	 * Decode the image and calculate the difference hash, the decoded image is only kept until it has been hashed.
+	 */
+	private DecodedImage decodeImage(FileData data) throws IOException {
+		BufferedImage image = null;
+		HashSource source = HashSource.IMAGE;
+
+		if (thumbnailReader != null && !isGif(data.path)) {
+			image = thumbnailReader.read(data.stream());
+			source = image == null ? HashSource.IMAGE : HashSource.EXIF_THUMBNAIL;
+		}
+
+		if (image == null) {
+			image = decode(data);
+		}
+
+		if (image == null) {
+			throw new IIOException("Image is null. Did ImageIO fail to decode the image?");
+		}
+
+		Long dHash = differenceHash == null ? null : differenceHash.getLongHash(image);
+
+		return new DecodedImage(data.path, image, source, dHash);
+	}
+
+	private BufferedImage decode(FileData data) throws IOException {
+		if (isGif(data.path)) {
+			GifImage gi = GifDecoder.read(data.stream());
+			return gi.getFrame(0);
+		} else if (imageDecoder != null) {
+			return imageDecoder.read(data.stream());
+		} else {
+			return ImageIO.read(data.stream());
+		}
+	}
+
+	private boolean isGif(Path file) {
+		Path filename = file.getFileName();
+		return filename != null && filename.toString().toLowerCase().endsWith(".gif");
+	}
+
+	private void storeResults() {
+		List<HashResult> batch = new ArrayList<>(batchSize);
+		boolean done = false;
+
+		try {
+			while (!done) {
+				batch.add(results.take());
+				results.drainTo(batch, batchSize - 1);
+
+				for (HashResult result : batch) {
+					if (result == END_OF_RESULTS) {
+						done = true;
+					} else {
+						store(result);
+					}
+				}
+
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void store(HashResult result) {
+		ImageRecord record = result.record;
+
+		try {
+			imageRepository.store(record);
+
+			if (result.dHash != null) {
+				imageRepository.storeAdditionalHash(record, HashNames.DIFFERENCE_HASH, result.dHash);
+			}
+
+			if (hashAttribute != null) {
+				hashAttribute.writeHash(Paths.get(record.getPath()), record.getpHash());
+			}
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to store hash for {}: {}", record.getPath(), e.toString());
+			statistics.incrementFailedFiles();
+		}
+
+		processed.get(Stage.STORE).incrementAndGet();
+	}
+
+	private static <T> void endStage(BlockingQueue<T> queue, T end, int consumers) {
+		try {
+			for (int i = 0; i < consumers; i++) {
+				queue.put(end);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the number of items waiting in the input queue of a stage.
+	 * 
+	 * @param stage
+	 *            to query
+	 * @return current size of the queue
+	 */
+	public int getQueueDepth(Stage stage) {
+		switch (stage) {
+		case READ:
+			return files.size();
+		case HASH:
+			return fileData.size();
+		default:
+			return results.size();
+		}
+	}
+
+	/**
+	 * Get the number of bytes of file data that have been read, but not yet decoded.
+	 * 
+	 * @return bytes taken from the read budget
+	 */
+	public int getBufferedBytes() {
+		return readBudgetBytes - readBudget.availablePermits();
+	}
+
+	/**
+	 * Get the number of items a stage has processed, including failed items.
+	 * 
+	 * @param stage
+	 *            to query
+	 * @return number of processed items
+	 */
+	public long getProcessed(Stage stage) {
+		return processed.get(stage).get();
+	}
+
+	/**
+	 * Get the average throughput of a stage since the pipeline was created.
+	 * 
+	 * @param stage
+	 *            to query
+	 * @return processed items per second
+	 */
+	public double getThroughput(Stage stage) {
+		long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+		return elapsed == 0 ? 0 : getProcessed(stage) * 1000.0 / elapsed;
+	}
+
+	/**
+	 * Get the number of threads reading files.
+	 * 
+	 * @return number of I/O threads
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * Get the number of threads decoding and hashing images.
+	 * 
+	 * @return number of CPU threads
+	 */
+	public int getCpuThreads() {
+		return cpuThreads;
+	}
+
+	/**
+	 * Stop accepting files and wait until all queued files have been hashed and stored. If the calling thread is
+	 * interrupted, the stages are left to finish in the background.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		try {
+			for (int i = 0; i < ioThreads; i++) {
+				files.put(END_OF_FILES);
+			}
+
+			ioPool.shutdown();
+			cpuPool.shutdown();
+			storePool.shutdown();
+			storePool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			LOGGER.warn("Interrupted while waiting for the hashing pipeline to finish");
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		for (Stage stage : Stage.values()) {
+			LOGGER.info("Stage {} processed {} items at {} items/s", stage, getProcessed(stage),
+					String.format("%.1f", getThroughput(stage)));
+		}
+	}
+
+	private static final class FileData {
+		private final Path path;
+		private final byte[] data;
+		private final int permits;
+
+		FileData(Path path, byte[] data, int permits) {
+			this.path = path;
+			this.data = data;
+			this.permits = permits;
+		}
+
+		InputStream stream() {
+			return new ByteArrayInputStream(data);
+		}
+	}
+
+	private static final class DecodedImage {
+		private final Path path;
+		private final BufferedImage image;
+		private final HashSource source;
+		private final Long dHash;
+
+		DecodedImage(Path path, BufferedImage image, HashSource source, Long dHash) {
+			this.path = path;
+			this.image = image;
+			this.source = source;
+			this.dHash = dHash;
+		}
+
+		DecodedImage withoutImage() {
+			return new DecodedImage(path, null, source, dHash);
+		}
+	}
+
+	private static final class HashResult {
+		private final ImageRecord record;
+		private final Long dHash;
+
+		HashResult(ImageRecord record, Long dHash) {
+			this.record = record;
+			this.dHash = dHash;
+		}
+	}
+}
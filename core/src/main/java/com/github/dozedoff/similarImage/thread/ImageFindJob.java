@@ -70,8 +70,19 @@ public class ImageFindJob implements Runnable {
 
 		} catch (IOException e) {
 			logger.error("Failed to walk file tree", e);
+		} finally {
+			awaitHandlers();
 		}
 
 		logger.info("Finished scanning for images in {}, found {} images", searchPath, visitor.getFileCount());
 	}
+
+	private void awaitHandlers() {
+		try {
+			visitor.awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.info("Image find job interrupted while waiting for handlers");
+		}
+	}
 }
@@ -24,6 +24,10 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +37,9 @@ import com.github.dozedoff.similarImage.io.Statistics;
 
 /**
  * For every file that is found, check the file extension. A valid file is passed to the handlers for processing.
+ * Handlers are called on the visiting thread, unless the visitor is created with a limit of concurrently handled files.
+ * Then the handlers for each file are called on a separate thread, so that blocking I/O of the handlers can overlap.
+ * The handler threads are started with the first accepted file and stopped by {@link #awaitCompletion()}.
  * 
  * @author Nicholas Wright
  *
@@ -43,6 +50,10 @@ public class ImageFindJobVisitor extends SimpleFileVisitor<Path> {
 	private final Statistics statistics;
 	private int fileCount;
 	private Collection<HashHandler> handlers;
+	private final int concurrentFiles;
+	private final Semaphore handlerPermits;
+	private ExecutorService handlerPool;
+	private boolean completed;
 
 	/**
 	 * Creates a visitor that will pass the accepted files to the handlers.
@@ -55,14 +66,41 @@ public class ImageFindJobVisitor extends SimpleFileVisitor<Path> {
 	 *            for tracking stats about files
 	 */
 	public ImageFindJobVisitor(Filter<Path> fileFilter, Collection<HashHandler> handlers, Statistics statistics) {
+		this(fileFilter, handlers, statistics, 0);
+	}
+
+	/**
+	 * Creates a visitor that will pass the accepted files to the handlers, handling up to the given number of files
+	 * concurrently. Handlers must be thread safe if files are handled concurrently.
+	 * 
+	 * @param fileFilter
+	 *            filter which specifies the accepted files
+	 * @param handlers
+	 *            for processing the files
+	 * @param statistics
+	 *            for tracking stats about files
+	 * @param concurrentFiles
+	 *            maximum number of files handled at the same time, 0 to handle files on the visiting thread
+	 * @throws IllegalArgumentException
+	 *             if the number of concurrent files is negative
+	 */
+	public ImageFindJobVisitor(Filter<Path> fileFilter, Collection<HashHandler> handlers, Statistics statistics,
+			int concurrentFiles) {
+		if (concurrentFiles < 0) {
+			throw new IllegalArgumentException("Number of concurrent files cannot be negative");
+		}
+
 		this.fileFilter = fileFilter;
 		this.statistics = statistics;
 		this.handlers = handlers;
-	}
+		this.concurrentFiles = concurrentFiles;
 
+		this.handlerPermits = concurrentFiles > 0 ? new Semaphore(concurrentFiles) : null;
+	}
 
 	/**
-	 * Visit a file and if it is accepted, pass it to the handlers.
+	 * Visit a file and if it is accepted, pass it to the handlers. Terminates the walk if the thread is interrupted
+	 * while waiting to hand over the file.
 	 * 
 	 * @param {@inheritDoc}
 	 * @return {@inheritDoc}
@@ -74,24 +112,94 @@ public class ImageFindJobVisitor extends SimpleFileVisitor<Path> {
 			statistics.incrementFoundFiles();
 			fileCount++;
 
-			boolean isHandled = false;
+			if (handlerPermits == null) {
+				handleFile(file);
+			} else if (!submitFile(file)) {
+				return FileVisitResult.TERMINATE;
+			}
+		}
 
-			for (HashHandler handler : handlers) {
-				if (handler.handle(file)) {
-					isHandled = true;
-					break;
-				}
+		return FileVisitResult.CONTINUE;
+	}
+
+	private void handleFile(Path file) {
+		boolean isHandled = false;
+
+		for (HashHandler handler : handlers) {
+			if (handler.handle(file)) {
+				isHandled = true;
+				break;
 			}
+		}
 
-			statistics.incrementProcessedFiles();
+		statistics.incrementProcessedFiles();
 
-			if (!isHandled) {
+		if (!isHandled) {
+			statistics.incrementFailedFiles();
+			LOGGER.error("No handler was able to process {}", file);
+		}
+	}
+
+	private boolean submitFile(Path file) {
+		if (completed) {
+			throw new RejectedExecutionException("Cannot handle " + file + ", the visitor has completed");
+		}
+
+		if (handlerPool == null) {
+			handlerPool = Executors.newCachedThreadPool(new NamedThreadFactory("File handler"));
+		}
+
+		try {
+			handlerPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.info("Interrupted while waiting to handle {}", file);
+			return false;
+		}
+
+		handlerPool.execute(() -> {
+			try {
+				handleFile(file);
+			} catch (RuntimeException e) {
 				statistics.incrementFailedFiles();
-				LOGGER.error("No handler was able to process {}", file);
+				LOGGER.error("Failed to handle {}: {}", file, e.toString());
+			} finally {
+				handlerPermits.release();
 			}
+		});
+
+		return true;
+	}
+
+	/**
+	 * Wait until all files passed to the handlers have been handled, then shut down the handler threads. Returns
+	 * immediately if files are handled on the visiting thread. The visitor cannot hand over files after this call.
+	 * 
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		completed = true;
+
+		if (handlerPool == null) {
+			return;
 		}
 
-		return FileVisitResult.CONTINUE;
+		try {
+			handlerPermits.acquire(concurrentFiles);
+			handlerPermits.release(concurrentFiles);
+		} finally {
+			handlerPool.shutdown();
+		}
+	}
+
+	/**
+	 * Get the maximum number of files that are handled at the same time.
+	 * 
+	 * @return number of concurrent files, 0 if files are handled on the visiting thread
+	 */
+	public int getConcurrentFiles() {
+		return concurrentFiles;
 	}
 
 	private boolean isAcceptedFile(Path file) throws IOException {
@@ -17,21 +17,32 @@
  */
 package com.github.dozedoff.similarImage.thread;
 
+import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
 
 import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
 import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
 import com.github.dozedoff.similarImage.io.HashAttribute;
 import com.github.dozedoff.similarImage.io.Statistics;
 
@@ -53,6 +64,9 @@ public class ImageHashJob implements Runnable {
 	private final ImagePHash hasher;
 	private final Statistics statistics;
 	private HashAttribute hashAttribute;
+	private DifferenceHash differenceHash;
+	private SubsamplingImageDecoder imageDecoder;
+	private ExifThumbnailReader thumbnailReader;
 
 	/**
 	 * Create a class that will hash an image an store the result.
@@ -83,6 +97,40 @@ public class ImageHashJob implements Runnable {
 		this.hashAttribute = hashAttribute;
 	}
 
+	/**
+	 * Set a {@link DifferenceHash} to additionally calculate a difference hash from the decoded image and store it
+	 * with the image.
+	 * 
+	 * @param differenceHash
+	 *            to use for calculating difference hashes
+	 */
+	public final void setDifferenceHash(DifferenceHash differenceHash) {
+		this.differenceHash = differenceHash;
+	}
+
+	/**
+	 * Set a {@link SubsamplingImageDecoder} to decode images with subsampling instead of at full resolution. GIFs are
+	 * always decoded in full.
+	 * 
+	 * @param imageDecoder
+	 *            to use for decoding images
+	 */
+	public final void setImageDecoder(SubsamplingImageDecoder imageDecoder) {
+		this.imageDecoder = imageDecoder;
+	}
+
+	/**
+	 * Set a {@link ExifThumbnailReader} to hash the embedded EXIF thumbnail of JPEGs instead of the image, if the
+	 * aspect ratio of the thumbnail matches. Images without a usable thumbnail are decoded with the same reader, so the
+	 * file is only read once.
+	 * 
+	 * @param thumbnailReader
+	 *            to use for reading thumbnails
+	 */
+	public final void setThumbnailReader(ExifThumbnailReader thumbnailReader) {
+		this.thumbnailReader = thumbnailReader;
+	}
+
 	@Override
 	public void run() {
 		try {
@@ -112,13 +160,20 @@ public class ImageHashJob implements Runnable {
 		statistics.incrementProcessedFiles();
 
 		Path filename = next.getFileName();
+
+		if (thumbnailReader != null && !isGif(filename)) {
+			return processWithThumbnail(next);
+		}
+
 		try (InputStream bis = new BufferedInputStream(Files.newInputStream(next))) {
-			if (filename != null && filename.toString().toLowerCase().endsWith(".gif")) {
+			if (isGif(filename)) {
 				GifImage gi = GifDecoder.read(bis);
 
-				long hash = hasher.getLongHash(gi.getFrame(0));
-				imageRepository.store(new ImageRecord(next.toString(), hash));
-				return hash;
+				return doHash(next, gi.getFrame(0), HashSource.IMAGE);
+			} else if (imageDecoder != null) {
+				return doHash(next, imageDecoder.read(bis), HashSource.IMAGE);
+			} else if (differenceHash != null) {
+				return doHash(next, ImageIO.read(bis), HashSource.IMAGE);
 			} else {
 
 				return doHash(next, bis);
@@ -126,10 +181,59 @@ public class ImageHashJob implements Runnable {
 		}
 	}
 
+	/**
+	 * Read the thumbnail, and the image if there is no usable thumbnail, with the same reader.
+	 */
+	private long processWithThumbnail(Path next) throws RepositoryException, IOException {
+		try (ImageInputStream iis = new FileImageInputStream(next.toFile())) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+
+			if (!readers.hasNext()) {
+				throw new IIOException("No reader found for the image");
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(iis);
+				BufferedImage thumbnail = thumbnailReader.read(reader);
+
+				if (thumbnail != null) {
+					return doHash(next, thumbnail, HashSource.EXIF_THUMBNAIL);
+				}
+
+				BufferedImage decoded = imageDecoder == null ? reader.read(0) : imageDecoder.read(reader);
+				return doHash(next, decoded, HashSource.IMAGE);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private boolean isGif(Path filename) {
+		return filename != null && filename.toString().toLowerCase().endsWith(".gif");
+	}
+
 	private long doHash(Path next, InputStream is) throws IOException, RepositoryException {
 		long hash = hasher.getLongHash(is);
 		imageRepository.store(new ImageRecord(next.toString(), hash));
 		return hash;
 	}
 
+	private long doHash(Path next, BufferedImage image, HashSource source) throws IOException, RepositoryException {
+		if (image == null) {
+			throw new IIOException("Image is null. Did ImageIO fail to decode the image?");
+		}
+
+		long hash = hasher.getLongHash(image);
+		ImageRecord record = new ImageRecord(next.toString(), hash, source);
+		imageRepository.store(record);
+
+		if (differenceHash != null) {
+			imageRepository.storeAdditionalHash(record, HashNames.DIFFERENCE_HASH, differenceHash.getLongHash(image));
+		}
+
+		return hash;
+	}
+
 }
@@ -17,6 +17,7 @@
  */
 package com.github.dozedoff.similarImage.thread;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -55,7 +56,7 @@ public class TagFilter {
 	}
 
 	/**
-	 * Query the the records for matches against tagged hashes.
+	 * Query the the records for matches against tagged hashes. Filters that share a hash are only queried once.
 	 * 
 	 * @param recordSearch
 	 *            the images to filter
@@ -79,10 +80,13 @@ public class TagFilter {
 		}
 
 		Multimap<Long, ImageRecord> parallelGroups = Multimaps.synchronizedMultimap(uniqueGroups);
+		long[] hashes = matchingFilters.stream().mapToLong(FilterRecord::getpHash).distinct().toArray();
 
-		matchingFilters.parallelStream().forEach(filter -> {
-			Multimap<Long, ImageRecord> match = recordSearch.distanceMatch(filter.getpHash(), hammingDistance);
-			parallelGroups.putAll(filter.getpHash(), match.values());
+		LOGGER.debug("Querying {} distinct hashes for {} filters", hashes.length, matchingFilters.size());
+
+		Arrays.stream(hashes).parallel().forEach(hash -> {
+			Multimap<Long, ImageRecord> match = recordSearch.distanceMatch(hash, hammingDistance);
+			parallelGroups.putAll(hash, match.values());
 		});
 
 		return uniqueGroups;
@@ -0,0 +1,115 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+
+/**
+ * Stage that returns the images of another query stage from a {@link RecordSearchCache}. The query stage is only used
+ * if the cache has no current entry for the query. New images within the path are added to the cached entry, unless
+ * the query is a {@link IgnoreAwareQuery} without ignored images and the image is ignored. Images that are ignored
+ * later on are handled by the cache generation.
+ * <p>
+ * An image is within the path if it matches the database query {@code path LIKE 'directory%'}, so the path is a
+ * string prefix that ignores ASCII case, and {@code %} and {@code _} in the directory are wildcards.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class CachedImageQueryStage implements Function<Path, List<ImageRecord>> {
+	private final Function<Path, List<ImageRecord>> imageQuery;
+	private final RecordSearchCache searchCache;
+	private final IndexType indexType;
+
+	/**
+	 * Create a new stage that caches the results of the given query stage.
+	 * 
+	 * @param imageQuery
+	 *            the stage to use if there is no current entry
+	 * @param searchCache
+	 *            cache for image records and searches
+	 * @param indexType
+	 *            index used for the cached search
+	 */
+	public CachedImageQueryStage(Function<Path, List<ImageRecord>> imageQuery, RecordSearchCache searchCache,
+			IndexType indexType) {
+		this.imageQuery = imageQuery;
+		this.searchCache = searchCache;
+		this.indexType = indexType;
+	}
+
+	/**
+	 * Query images for the given path, using the cache if possible.
+	 * 
+	 * @param path
+	 *            path to limit query. If null or empty, all images will be returned.
+	 * 
+	 * @return a list of images
+	 */
+	@Override
+	public List<ImageRecord> apply(Path path) {
+		String scope = path == null ? "" : path.toString();
+		String key = imageQuery.getClass().getName() + ":" + isWithoutIgnored() + ":" + scope;
+
+		return searchCache.get(key, indexType, () -> imageQuery.apply(path), pathScope(scope), isWithoutIgnored());
+	}
+
+	private boolean isWithoutIgnored() {
+		return imageQuery instanceof IgnoreAwareQuery && ((IgnoreAwareQuery) imageQuery).isWithoutIgnored();
+	}
+
+	/**
+	 * Match image paths the same way as the database query {@code path LIKE 'scope%'}.
+	 */
+	private static Predicate<ImageRecord> pathScope(String scope) {
+		StringBuilder regex = new StringBuilder();
+		int literalStart = 0;
+
+		for (int i = 0; i < scope.length(); i++) {
+			char c = scope.charAt(i);
+
+			if (c == '%' || c == '_') {
+				regex.append(Pattern.quote(scope.substring(literalStart, i))).append(c == '%' ? ".*" : ".");
+				literalStart = i + 1;
+			}
+		}
+
+		regex.append(Pattern.quote(scope.substring(literalStart))).append(".*");
+		Pattern pattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+		return image -> pattern.matcher(image.getPath()).matches();
+	}
+
+	/**
+	 * Get the query stage used if there is no current entry.
+	 * 
+	 * @return the wrapped query stage
+	 */
+	public Function<Path, List<ImageRecord>> getImageQuery() {
+		return imageQuery;
+	}
+}
@@ -0,0 +1,181 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.duplicate.DuplicateUtil;
+import com.github.dozedoff.similarImage.duplicate.index.HashIndex;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.primitives.Longs;
+
+/**
+ * Stage to group images into clusters. Two hashes within the hamming distance are in the same cluster, and clusters
+ * are transitive, i.e. if A matches B and B matches C, then A, B and C are in the same cluster, even if A and C do not
+ * match. Every image is in exactly one group, so there are no duplicate groups to remove.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class ClusterImagesStage implements Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClusterImagesStage.class);
+
+	private final int hammingDistance;
+	private final IndexType indexType;
+
+	/**
+	 * Clusters images by hashes that are within the given hamming distance.
+	 * 
+	 * @param hammingDistance
+	 *            link all images within this distance
+	 */
+	public ClusterImagesStage(int hammingDistance) {
+		this(hammingDistance, IndexType.HAMMING_BK_TREE);
+	}
+
+	/**
+	 * Clusters images by hashes that are within the given hamming distance, using the given index for queries.
+	 * 
+	 * @param hammingDistance
+	 *            link all images within this distance
+	 * @param indexType
+	 *            the index used for hash queries
+	 */
+	public ClusterImagesStage(int hammingDistance, IndexType indexType) {
+		this.hammingDistance = hammingDistance;
+		this.indexType = indexType;
+	}
+
+	/**
+	 * Cluster images by hash. Each group is keyed by the smallest hash in the cluster. If the images are in a
+	 * {@link ImageRecordStore} sorted by hash, {@link ImageRecord}s are only created when the clusters are filled.
+	 * 
+	 * @param toGroup
+	 *            images to cluster
+	 * @return a {@link Multimap} of disjoint image clusters
+	 */
+	@Override
+	public Multimap<Long, ImageRecord> apply(Collection<ImageRecord> toGroup) {
+		LongFunction<Collection<ImageRecord>> recordsForHash;
+		long[] hashes;
+
+		if (toGroup instanceof ImageRecordStore && ((ImageRecordStore) toGroup).isSortedByHash()) {
+			ImageRecordStore store = (ImageRecordStore) toGroup;
+			hashes = store.distinctHashes();
+			recordsForHash = store::withHash;
+		} else {
+			Multimap<Long, ImageRecord> groupedByHash = DuplicateUtil.groupByHash(toGroup);
+			hashes = Longs.toArray(groupedByHash.keySet());
+			Arrays.sort(hashes);
+			recordsForHash = groupedByHash::get;
+		}
+
+		HashIndex index = indexType.create();
+		index.buildParallel(hashes);
+
+		Stopwatch sw = Stopwatch.createStarted();
+		UnionFind clusters = new UnionFind(hashes.length);
+
+		for (int id = 0; id < hashes.length; id++) {
+			for (long match : index.searchWithin(hashes[id], hammingDistance)) {
+				int matchId = Arrays.binarySearch(hashes, match);
+
+				if (matchId > id) {
+					clusters.union(id, matchId);
+				}
+			}
+		}
+
+		Multimap<Long, ImageRecord> resultMap = MultimapBuilder.hashKeys().hashSetValues().build();
+
+		for (int id = 0; id < hashes.length; id++) {
+			resultMap.putAll(hashes[clusters.find(id)], recordsForHash.apply(hashes[id]));
+		}
+
+		LOGGER.info("Built {} clusters from {} hashes in {}, using hamming distance {}", resultMap.keySet().size(),
+				hashes.length, sw, hammingDistance);
+
+		return resultMap;
+	}
+
+	/**
+	 * Get the hamming distance set for this clustering function.
+	 * 
+	 * @return the set hamming distance
+	 */
+	public int getHammingDistance() {
+		return hammingDistance;
+	}
+
+	/**
+	 * Get the index type used for hash queries.
+	 * 
+	 * @return the index type
+	 */
+	public IndexType getIndexType() {
+		return indexType;
+	}
+
+	/**
+	 * Disjoint set over hash ids, using path halving. The root of a set is always the smallest id of the set.
+	 */
+	private static final class UnionFind {
+		private final int[] parent;
+
+		UnionFind(int elements) {
+			parent = new int[elements];
+
+			for (int i = 0; i < elements; i++) {
+				parent[i] = i;
+			}
+		}
+
+		int find(int id) {
+			int current = id;
+
+			while (parent[current] != current) {
+				parent[current] = parent[parent[current]];
+				current = parent[current];
+			}
+
+			return current;
+		}
+
+		void union(int a, int b) {
+			int rootA = find(a);
+			int rootB = find(b);
+
+			if (rootA == rootB) {
+				return;
+			}
+
+			parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+		}
+	}
+}
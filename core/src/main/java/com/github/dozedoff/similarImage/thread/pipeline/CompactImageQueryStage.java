@@ -0,0 +1,95 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+
+/**
+ * Stage to get image records as a {@link ImageRecordStore} sorted by hash. Grouping stages use the hashes of the store
+ * directly, and only create {@link ImageRecord}s for the images they group.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class CompactImageQueryStage implements Function<Path, List<ImageRecord>>, IgnoreAwareQuery {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompactImageQueryStage.class);
+
+	private final ImageRepository imageRepository;
+	private final boolean withoutIgnored;
+
+	/**
+	 * Create a new stage to get images based on path.
+	 * 
+	 * @param imageRepository
+	 *            datasource to query for images
+	 * @param withoutIgnored
+	 *            if true, ignored images are not included
+	 */
+	public CompactImageQueryStage(ImageRepository imageRepository, boolean withoutIgnored) {
+		this.imageRepository = imageRepository;
+		this.withoutIgnored = withoutIgnored;
+	}
+
+	/**
+	 * Query for the given path.
+	 * 
+	 * @param path
+	 *            path to limit query. If null or empty, all images will be returned.
+	 * 
+	 * @return a {@link ImageRecordStore} with the images, or a empty list on error
+	 */
+	@Override
+	public List<ImageRecord> apply(Path path) {
+		List<ImageRecord> result = Collections.emptyList();
+		Path directory = path;
+
+		if (Paths.get("").equals(path)) {
+			directory = null;
+		}
+
+		try {
+			result = imageRepository.getCompact(directory, withoutIgnored);
+		} catch (RepositoryException e) {
+			LOGGER.error("Failed to query images: {}, cause: {}", e.toString(), e.getCause());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Check if ignored images are excluded from the result.
+	 * 
+	 * @return true if ignored images are not included
+	 */
+	@Override
+	public boolean isWithoutIgnored() {
+		return withoutIgnored;
+	}
+}
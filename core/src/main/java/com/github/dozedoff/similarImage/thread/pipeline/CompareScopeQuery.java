@@ -0,0 +1,174 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.DuplicateUtil;
+import com.github.dozedoff.similarImage.duplicate.RecordSearch;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.primitives.Longs;
+
+/**
+ * Query to compare the images of one scope against the images of a reference scope. The search is only built (or
+ * loaded from the {@link RecordSearchCache}) for the reference scope and only queried with the distinct hashes of the
+ * compared scope, so the images of the reference scope are not grouped among themselves.
+ * <p>
+ * Each group is keyed by a hash of the compared scope and contains the compared images with that hash and all
+ * reference images within the hamming distance. Groups without a reference image are dropped. The post-processing
+ * stages are applied to the groups.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class CompareScopeQuery {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompareScopeQuery.class);
+
+	private final Function<Path, List<ImageRecord>> imageQuery;
+	private final RecordSearchCache searchCache;
+	private final IndexType indexType;
+	private final int hammingDistance;
+	private final Collection<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> postProcessingStages;
+
+	/**
+	 * Create a new query that compares the images of the given query stage.
+	 * 
+	 * @param imageQuery
+	 *            stage to load the images of both scopes
+	 * @param searchCache
+	 *            cache for the search of the reference scope, can be null
+	 * @param indexType
+	 *            index used for the search
+	 * @param hammingDistance
+	 *            maximum distance between the hashes of compared and reference images
+	 * @param postProcessingStages
+	 *            stages for performing post-processing
+	 */
+	public CompareScopeQuery(Function<Path, List<ImageRecord>> imageQuery, RecordSearchCache searchCache,
+			IndexType indexType, int hammingDistance,
+			Collection<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> postProcessingStages) {
+		this.imageQuery = imageQuery;
+		this.searchCache = searchCache;
+		this.indexType = indexType;
+		this.hammingDistance = hammingDistance;
+		this.postProcessingStages = postProcessingStages;
+	}
+
+	/**
+	 * Find the images of the compared scope that match images of the reference scope.
+	 * 
+	 * @param scope
+	 *            path of the images to compare. If null or empty, all images will be compared.
+	 * @param reference
+	 *            path of the images to compare against. If null or empty, all images will be searched.
+	 * @return groups of compared images and their matches in the reference scope, keyed by the compared hash
+	 */
+	public Multimap<Long, ImageRecord> apply(Path scope, Path reference) {
+		RecordSearch search = referenceSearch(reference);
+		Multimap<Long, ImageRecord> compared = DuplicateUtil.groupByHash(imageQuery.apply(scope));
+
+		Stopwatch sw = Stopwatch.createStarted();
+		long[] hashes = Longs.toArray(compared.keySet());
+		List<Multimap<Long, ImageRecord>> matches = search.distanceMatch(hashes, hammingDistance);
+		Multimap<Long, ImageRecord> groups = MultimapBuilder.hashKeys().hashSetValues().build();
+
+		for (int i = 0; i < hashes.length; i++) {
+			Collection<ImageRecord> images = compared.get(hashes[i]);
+			Collection<ImageRecord> referenceImages = matches.get(i).values();
+
+			if (!images.containsAll(referenceImages)) {
+				groups.putAll(hashes[i], images);
+				groups.putAll(hashes[i], referenceImages);
+			}
+		}
+
+		LOGGER.info("Found {} of {} hashes with matches in {} within distance {} in {}", groups.keySet().size(),
+				hashes.length, reference, hammingDistance, sw);
+
+		return postProcessing(groups);
+	}
+
+	private RecordSearch referenceSearch(Path reference) {
+		RecordSearch search = null;
+		List<ImageRecord> records;
+
+		if (searchCache != null) {
+			records = new CachedImageQueryStage(imageQuery, searchCache, indexType).apply(reference);
+			search = searchCache.lookup(records);
+		} else {
+			records = imageQuery.apply(reference);
+		}
+
+		if (search == null) {
+			search = new RecordSearch(indexType);
+			search.build(records);
+		}
+
+		return search;
+	}
+
+	private Multimap<Long, ImageRecord> postProcessing(Multimap<Long, ImageRecord> groups) {
+		Multimap<Long, ImageRecord> step = groups;
+
+		for (Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>> ppStage : postProcessingStages) {
+			step = ppStage.apply(step);
+		}
+
+		return step;
+	}
+
+	/**
+	 * Get the hamming distance used to match images.
+	 * 
+	 * @return the set hamming distance
+	 */
+	public int getHammingDistance() {
+		return hammingDistance;
+	}
+
+	/**
+	 * Get the index type used for the search.
+	 * 
+	 * @return the index type
+	 */
+	public IndexType getIndexType() {
+		return indexType;
+	}
+
+	/**
+	 * Returns the post-processing stages of this query.
+	 * 
+	 * @return an immutable list of the post-processing stages
+	 */
+	public Collection<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> getPostProcessingStages() {
+		return ImmutableList.copyOf(postProcessingStages);
+	}
+}
@@ -0,0 +1,150 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Multimap;
+
+/**
+ * Stage to confirm grouped images with an additional hash. The groups found with the image hash act as a prefilter,
+ * and images are only kept in a group if their additional hash is also within the hamming distance of the additional
+ * hash of an image with the group hash. This allows larger distances for the image hash without flooding the results.
+ * <p>
+ * Images without an additional hash cannot be confirmed and are kept, as are groups without an image that has the
+ * group hash and an additional hash.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class ConfirmHashStage implements Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConfirmHashStage.class);
+
+	private final ImageRepository imageRepository;
+	private final String algorithm;
+	private final int hammingDistance;
+
+	/**
+	 * Create a stage that confirms groups with the additional hash of the given algorithm.
+	 * 
+	 * @param imageRepository
+	 *            to query the additional hashes
+	 * @param algorithm
+	 *            name of the additional hash
+	 * @param hammingDistance
+	 *            maximum distance between additional hashes
+	 */
+	public ConfirmHashStage(ImageRepository imageRepository, String algorithm, int hammingDistance) {
+		this.imageRepository = imageRepository;
+		this.algorithm = algorithm;
+		this.hammingDistance = hammingDistance;
+	}
+
+	/**
+	 * Remove images from groups if they cannot be confirmed with the additional hash. The operation is performed on
+	 * the parameter.
+	 * 
+	 * @param toConfirm
+	 *            the groups to confirm
+	 * @return the same map that was passed as a parameter
+	 */
+	@Override
+	public Multimap<Long, ImageRecord> apply(Multimap<Long, ImageRecord> toConfirm) {
+		Stopwatch sw = Stopwatch.createStarted();
+		Map<String, Long> hashes;
+
+		try {
+			hashes = imageRepository.getAdditionalHashes(algorithm, new HashSet<>(toConfirm.values()));
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to query {} hashes, groups will not be confirmed: {}", algorithm, e.toString());
+			return toConfirm;
+		}
+
+		int removed = 0;
+
+		for (Entry<Long, Collection<ImageRecord>> group : toConfirm.asMap().entrySet()) {
+			long groupHash = group.getKey();
+			long[] references = group.getValue().stream().filter(image -> image.getpHash() == groupHash)
+					.map(image -> hashes.get(image.getPath())).filter(Objects::nonNull).mapToLong(Long::longValue)
+					.toArray();
+
+			if (references.length == 0) {
+				continue;
+			}
+
+			Iterator<ImageRecord> iter = group.getValue().iterator();
+
+			while (iter.hasNext()) {
+				ImageRecord image = iter.next();
+				Long hash = hashes.get(image.getPath());
+
+				if (image.getpHash() != groupHash && hash != null && !isConfirmed(hash, references)) {
+					iter.remove();
+					removed++;
+				}
+			}
+		}
+
+		LOGGER.info("Removed {} images that did not match {} hashes within distance {} in {}", removed, algorithm,
+				hammingDistance, sw);
+
+		return toConfirm;
+	}
+
+	private boolean isConfirmed(long hash, long[] references) {
+		for (long reference : references) {
+			if (Long.bitCount(hash ^ reference) <= hammingDistance) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get the name of the additional hash used to confirm groups.
+	 * 
+	 * @return the name of the hash algorithm
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Get the hamming distance for the additional hash.
+	 * 
+	 * @return the set hamming distance
+	 */
+	public int getHammingDistance() {
+		return hammingDistance;
+	}
+}
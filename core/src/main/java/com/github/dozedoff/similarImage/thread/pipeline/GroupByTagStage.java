@@ -24,6 +24,8 @@ import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.Tag;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.duplicate.RecordSearch;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 import com.github.dozedoff.similarImage.thread.TagFilter;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
@@ -39,6 +41,7 @@ public class GroupByTagStage implements Function<Collection<ImageRecord>, Multim
 	private final int hammingDistance;
 	private final FilterRepository filterRepository;
 	private final RecordSearch rs;
+	private final RecordSearchCache searchCache;
 
 	/**
 	 * Create a grouper that will only group images that match tagged hashs.
@@ -51,10 +54,47 @@ public class GroupByTagStage implements Function<Collection<ImageRecord>, Multim
 	 *            in which hashes are considered a match
 	 */
 	public GroupByTagStage(FilterRepository filterRepository, Tag tag, int hammingDistance) {
+		this(filterRepository, tag, hammingDistance, IndexType.HAMMING_BK_TREE);
+	}
+
+	/**
+	 * Create a grouper that will only group images that match tagged hashs, using the given index for queries.
+	 * 
+	 * @param filterRepository
+	 *            to access the filter datasource
+	 * @param tag
+	 *            to use for hash query
+	 * @param hammingDistance
+	 *            in which hashes are considered a match
+	 * @param indexType
+	 *            the index used for hash queries
+	 */
+	public GroupByTagStage(FilterRepository filterRepository, Tag tag, int hammingDistance, IndexType indexType) {
+		this(filterRepository, tag, hammingDistance, indexType, null);
+	}
+
+	/**
+	 * Create a grouper that will only group images that match tagged hashs, using the given index for queries. If the
+	 * images were returned by the search cache, the cached search is used instead of building a new one.
+	 * 
+	 * @param filterRepository
+	 *            to access the filter datasource
+	 * @param tag
+	 *            to use for hash query
+	 * @param hammingDistance
+	 *            in which hashes are considered a match
+	 * @param indexType
+	 *            the index used for hash queries
+	 * @param searchCache
+	 *            cache to look up prebuilt searches, can be null
+	 */
+	public GroupByTagStage(FilterRepository filterRepository, Tag tag, int hammingDistance, IndexType indexType,
+			RecordSearchCache searchCache) {
 		this.filterRepository = filterRepository;
 		this.tag = tag;
 		this.hammingDistance = hammingDistance;
-		this.rs = new RecordSearch();
+		this.rs = new RecordSearch(indexType);
+		this.searchCache = searchCache;
 	}
 
 	/**
@@ -80,11 +120,15 @@ public class GroupByTagStage implements Function<Collection<ImageRecord>, Multim
 	@Override
 	public Multimap<Long, ImageRecord> apply(Collection<ImageRecord> t) {
 		Multimap<Long, ImageRecord> result = MultimapBuilder.hashKeys().hashSetValues().build();
-		
-		rs.build(t);
-		
+		RecordSearch search = searchCache == null ? null : searchCache.lookup(t);
+
+		if (search == null) {
+			rs.build(t);
+			search = rs;
+		}
+
 		TagFilter tagFilter = new TagFilter(filterRepository);
-		result = tagFilter.getFilterMatches(rs, tag, hammingDistance);
+		result = tagFilter.getFilterMatches(search, tag, hammingDistance);
 
 		return result;
 	}
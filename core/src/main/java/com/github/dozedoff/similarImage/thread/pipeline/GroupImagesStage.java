@@ -17,15 +17,29 @@
  */
 package com.github.dozedoff.similarImage.thread.pipeline;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.function.Consumer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
 import com.github.dozedoff.similarImage.duplicate.RecordSearch;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.ShardedRecordSearch;
+import com.github.dozedoff.similarImage.duplicate.SortedHashRuns;
+import com.github.dozedoff.similarImage.duplicate.index.HashIndex;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
@@ -38,9 +52,22 @@ import com.google.common.collect.MultimapBuilder;
  */
 public class GroupImagesStage implements Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GroupImagesStage.class);
+	/**
+	 * Number of hashes queried by a single task before it is split further.
+	 */
+	private static final int PARALLEL_THRESHOLD = 256;
+	/**
+	 * Number of hashes passed to the index in a single batched query.
+	 */
+	private static final int QUERY_BATCH = 64;
 
 	private final RecordSearch rs;
 	private final int hammingDistance;
+	private final boolean parallel;
+	private final RecordSearchCache searchCache;
+	private final ShardedRecordSearch shardedSearch;
+	private final Function<Path, ? extends Collection<ImageRecord>> shardQuery;
+	private long queriesSaved;
 
 	/**
 	 * Groups images by hashes that are a exact match, i.e. have a hamming distance of 0;
@@ -56,12 +83,91 @@ public class GroupImagesStage implements Function<Collection<ImageRecord>, Multi
 	 *            group all images within this distance
 	 */
 	public GroupImagesStage(int hammingDistance) {
+		this(hammingDistance, IndexType.HAMMING_BK_TREE);
+	}
+
+	/**
+	 * Groups images by hashes that are within the given hamming distance, using the given index for queries.
+	 * 
+	 * @param hammingDistance
+	 *            group all images within this distance
+	 * @param indexType
+	 *            the index used for hash queries
+	 */
+	public GroupImagesStage(int hammingDistance, IndexType indexType) {
+		this(hammingDistance, indexType, false);
+	}
+
+	/**
+	 * Groups images by hashes that are within the given hamming distance, using the given index for queries. In
+	 * parallel mode, the queries are split across the common {@link ForkJoinPool}.
+	 * 
+	 * @param hammingDistance
+	 *            group all images within this distance
+	 * @param indexType
+	 *            the index used for hash queries
+	 * @param parallel
+	 *            if true, run the queries in parallel
+	 */
+	public GroupImagesStage(int hammingDistance, IndexType indexType, boolean parallel) {
+		this(hammingDistance, indexType, parallel, null);
+	}
+
+	/**
+	 * Groups images by hashes that are within the given hamming distance, using the given index for queries. If the
+	 * images were returned by the search cache, the cached search is used instead of building a new one.
+	 * 
+	 * @param hammingDistance
+	 *            group all images within this distance
+	 * @param indexType
+	 *            the index used for hash queries
+	 * @param parallel
+	 *            if true, run the queries in parallel
+	 * @param searchCache
+	 *            cache to look up prebuilt searches, can be null
+	 */
+	public GroupImagesStage(int hammingDistance, IndexType indexType, boolean parallel,
+			RecordSearchCache searchCache) {
+		this(hammingDistance, indexType, parallel, searchCache, null, null);
+	}
+
+	/**
+	 * Groups images by hashes that are within the given hamming distance, using the shards of the images to query
+	 * them. The shards are queried in parallel, and only images that were passed to the stage are grouped.
+	 * 
+	 * @param hammingDistance
+	 *            group all images within this distance
+	 * @param indexType
+	 *            the index used for hash queries
+	 * @param parallel
+	 *            if true, run the queries in parallel
+	 * @param shardedSearch
+	 *            holds the shards
+	 * @param shardQuery
+	 *            query for all images in the directory of a shard
+	 */
+	public GroupImagesStage(int hammingDistance, IndexType indexType, boolean parallel,
+			ShardedRecordSearch shardedSearch, Function<Path, ? extends Collection<ImageRecord>> shardQuery) {
+		this(hammingDistance, indexType, parallel, null, shardedSearch, shardQuery);
+	}
+
+	private GroupImagesStage(int hammingDistance, IndexType indexType, boolean parallel,
+			RecordSearchCache searchCache, ShardedRecordSearch shardedSearch,
+			Function<Path, ? extends Collection<ImageRecord>> shardQuery) {
 		this.hammingDistance = hammingDistance;
-		this.rs = new RecordSearch();
+		this.rs = new RecordSearch(indexType);
+		this.parallel = parallel;
+		this.searchCache = searchCache;
+		this.shardedSearch = shardedSearch;
+		this.shardQuery = shardQuery;
 	}
 
 	/**
-	 * Group images by hash. The group will contain a distinct set of images.
+	 * Group images by hash. The group will contain a distinct set of images. Only one query is run per distinct hash.
+	 * If the images are in a {@link ImageRecordStore} sorted by hash, the hashes are indexed directly from the store
+	 * and {@link ImageRecord}s are only created for the matches. Exact matches without a cached search are found by
+	 * sorting the hashes, see {@link SortedHashRuns}, and only hashes shared by at least two images are grouped. If the
+	 * stage uses shards, all images are queried with the shards instead.
 	 * 
 	 * @param toGroup
 	 *            imagese to group
@@ -69,16 +175,46 @@ public class GroupImagesStage implements Function<Collection<ImageRecord>, Multi
 	 */
 	@Override
 	public Multimap<Long, ImageRecord> apply(Collection<ImageRecord> toGroup) {
-		Multimap<Long, ImageRecord> resultMap = MultimapBuilder.hashKeys().hashSetValues().build();
-		rs.build(toGroup);
+		Multimap<Long, ImageRecord> resultMap;
+		RecordSearch cached = findCachedSearch(toGroup);
 
-		Stopwatch sw = Stopwatch.createStarted();
-		toGroup.forEach(new Consumer<ImageRecord>() {
-			@Override
-			public void accept(ImageRecord t) {
-				resultMap.putAll(t.getpHash(), rs.distanceMatch(t.getpHash(), hammingDistance).values());
+		if (shardedSearch == null && cached == null && hammingDistance == 0 && !isSortedStore(toGroup)) {
+			return groupExact(toGroup);
+		}
+
+		Function<long[], List<Collection<ImageRecord>>> matcher;
+		long[] hashes;
+
+		if (shardedSearch != null) {
+			hashes = toGroup.stream().mapToLong(ImageRecord::getpHash).distinct().toArray();
+			matcher = shardMatcher(toGroup);
+		} else if (cached == null && isSortedStore(toGroup)) {
+			ImageRecordStore store = (ImageRecordStore) toGroup;
+			hashes = store.distinctHashes();
+			matcher = storeMatcher(store, hashes);
+		} else {
+			RecordSearch search = cached;
+
+			if (search == null) {
+				rs.build(toGroup);
+				search = rs;
 			}
-		});
+
+			hashes = toGroup.stream().mapToLong(ImageRecord::getpHash).distinct().toArray();
+			matcher = searchMatcher(search);
+		}
+
+		Stopwatch sw = Stopwatch.createStarted();
+		queriesSaved = toGroup.size() - hashes.length;
+
+		LOGGER.info("Querying {} distinct hashes for {} images, saved {} queries", hashes.length, toGroup.size(),
+				queriesSaved);
+
+		if (parallel) {
+			resultMap = ForkJoinPool.commonPool().invoke(new GroupTask(matcher, hashes, 0, hashes.length));
+		} else {
+			resultMap = groupSequential(matcher, hashes);
+		}
 
 		LOGGER.info("Built result map with {} pairs in {}, using hamming distance {}", resultMap.size(), sw,
 				hammingDistance);
@@ -86,6 +222,156 @@ public class GroupImagesStage implements Function<Collection<ImageRecord>, Multi
 		return resultMap;
 	}
 
+	/**
+	 * Group images with the same hash by sorting them, without building a search.
+	 */
+	private Multimap<Long, ImageRecord> groupExact(Collection<ImageRecord> toGroup) {
+		Stopwatch sw = Stopwatch.createStarted();
+		Multimap<Long, ImageRecord> resultMap = MultimapBuilder.hashKeys().hashSetValues().build();
+		SortedHashRuns runs = new SortedHashRuns(toGroup);
+
+		runs.forEachRun(2, (records, hash) -> resultMap.putAll(hash, records));
+		queriesSaved = toGroup.size() - runs.runCount();
+
+		LOGGER.info("Grouped {} images into {} exact matches in {}", toGroup.size(), resultMap.keySet().size(), sw);
+
+		return resultMap;
+	}
+
+	private RecordSearch findCachedSearch(Collection<ImageRecord> toGroup) {
+		if (searchCache != null) {
+			RecordSearch cached = searchCache.lookup(toGroup);
+
+			if (cached != null) {
+				LOGGER.info("Using cached search for {} images", toGroup.size());
+				return cached;
+			}
+		}
+
+		return null;
+	}
+
+	private boolean isSortedStore(Collection<ImageRecord> toGroup) {
+		return toGroup instanceof ImageRecordStore && ((ImageRecordStore) toGroup).isSortedByHash();
+	}
+
+	private Function<long[], List<Collection<ImageRecord>>> searchMatcher(RecordSearch search) {
+		return batch -> search.distanceMatch(batch, hammingDistance).stream().map(Multimap::values)
+				.collect(Collectors.toList());
+	}
+
+	private Function<long[], List<Collection<ImageRecord>>> shardMatcher(Collection<ImageRecord> toGroup) {
+		List<RecordSearch> shards = shardedSearch.getShards(toGroup, rs.getIndexType(), shardQuery);
+		Set<ImageRecord> inScope = new HashSet<>(toGroup);
+
+		LOGGER.info("Querying {} shards for {} images", shards.size(), toGroup.size());
+
+		return batch -> ShardedRecordSearch.distanceMatch(shards, batch, hammingDistance).stream()
+				.map(matches -> matches.values().stream().filter(inScope::contains).collect(Collectors.toList()))
+				.collect(Collectors.toList());
+	}
+
+	private Function<long[], List<Collection<ImageRecord>>> storeMatcher(ImageRecordStore store, long[] hashes) {
+		IndexType indexType = rs.getIndexType();
+		Stopwatch sw = Stopwatch.createStarted();
+		HashIndex index = indexType.create();
+		index.buildParallel(hashes);
+
+		LOGGER.info("Took {} to build {} with {} hashes from store", sw, indexType, hashes.length);
+
+		int distance = Math.min(hammingDistance, Long.SIZE);
+
+		return batch -> {
+			List<Collection<ImageRecord>> batchMatches = new ArrayList<>(batch.length);
+
+			for (long[] hashMatches : index.searchWithin(batch, distance)) {
+				List<ImageRecord> matches = new ArrayList<>();
+
+				for (long match : hashMatches) {
+					matches.addAll(store.withHash(match));
+				}
+
+				batchMatches.add(matches);
+			}
+
+			return batchMatches;
+		};
+	}
+
+	private Multimap<Long, ImageRecord> groupSequential(Function<long[], List<Collection<ImageRecord>>> matcher,
+			long[] hashes) {
+		Multimap<Long, ImageRecord> resultMap = MultimapBuilder.hashKeys().hashSetValues().build();
+		queryRange(matcher, hashes, 0, hashes.length, resultMap);
+
+		return resultMap;
+	}
+
+	/**
+	 * Query the hashes in the given range in batches, and add the matches to the result.
+	 */
+	private static void queryRange(Function<long[], List<Collection<ImageRecord>>> matcher, long[] hashes, int from,
+			int to, Multimap<Long, ImageRecord> result) {
+		for (int batchStart = from; batchStart < to; batchStart += QUERY_BATCH) {
+			long[] batch = Arrays.copyOfRange(hashes, batchStart, Math.min(batchStart + QUERY_BATCH, to));
+			List<Collection<ImageRecord>> matches = matcher.apply(batch);
+
+			for (int i = 0; i < batch.length; i++) {
+				result.putAll(batch[i], matches.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Queries a range of distinct hashes. Each task collects its matches in its own {@link Multimap}, results of
+	 * split tasks are merged when they are joined. As every hash is only queried once, the keys of the merged maps do
+	 * not overlap.
+	 */
+	private final class GroupTask extends RecursiveTask<Multimap<Long, ImageRecord>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Function<long[], List<Collection<ImageRecord>>> matcher;
+		private final long[] hashes;
+		private final int from;
+		private final int to;
+
+		GroupTask(Function<long[], List<Collection<ImageRecord>>> matcher, long[] hashes, int from, int to) {
+			this.matcher = matcher;
+			this.hashes = hashes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Multimap<Long, ImageRecord> compute() {
+			if (to - from <= PARALLEL_THRESHOLD) {
+				return query();
+			}
+
+			int middle = (from + to) >>> 1;
+			GroupTask left = new GroupTask(matcher, hashes, from, middle);
+			GroupTask right = new GroupTask(matcher, hashes, middle, to);
+
+			left.fork();
+			Multimap<Long, ImageRecord> rightResult = right.compute();
+			Multimap<Long, ImageRecord> leftResult = left.join();
+
+			if (leftResult.size() < rightResult.size()) {
+				rightResult.putAll(leftResult);
+				return rightResult;
+			}
+
+			leftResult.putAll(rightResult);
+			return leftResult;
+		}
+
+		private Multimap<Long, ImageRecord> query() {
+			Multimap<Long, ImageRecord> result = MultimapBuilder.hashKeys().hashSetValues().build();
+			queryRange(matcher, hashes, from, to, result);
+
+			return result;
+		}
+	}
+
 	/**
 	 * Get the hamming distance set for this grouping function.
 	 * 
@@ -94,4 +380,41 @@ public class GroupImagesStage implements Function<Collection<ImageRecord>, Multi
 	public int getHammingDistance() {
 		return hammingDistance;
 	}
+
+	/**
+	 * Get the index type used for hash queries.
+	 * 
+	 * @return the index type
+	 */
+	public IndexType getIndexType() {
+		return rs.getIndexType();
+	}
+
+	/**
+	 * Get the number of queries that were skipped during the last {@link #apply(Collection)}, because the image shared
+	 * the hash with an image that was already queried.
+	 * 
+	 * @return number of saved queries
+	 */
+	public long getQueriesSaved() {
+		return queriesSaved;
+	}
+
+	/**
+	 * Check if images are queried with shards, see {@link ShardedRecordSearch}.
+	 * 
+	 * @return true if the stage uses shards
+	 */
+	public boolean isSharded() {
+		return shardedSearch != null;
+	}
+
+	/**
+	 * Check if hash queries are run in parallel.
+	 * 
+	 * @return true if queries are run in parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
 }
@@ -0,0 +1,178 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ContentDigest;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+
+/**
+ * Stage to find byte-identical files in the groups. Files in a group are first compared by size, and only files with
+ * a matching size are compared by a digest of their content. Digests are stored in a {@link ContentDigestRepository}
+ * together with the modification time and size of the file, so files are only read again if they have changed. Images
+ * are never decoded.
+ * <p>
+ * Every set of identical files is passed to a consumer once per query, the groups are not changed.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class IdenticalFileStage implements Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(IdenticalFileStage.class);
+
+	private final ContentDigestRepository digestRepository;
+	private final Consumer<Collection<ImageRecord>> identicalFiles;
+
+	/**
+	 * Create a stage that reports identical files to the consumer.
+	 * 
+	 * @param digestRepository
+	 *            used to cache content digests
+	 * @param identicalFiles
+	 *            called with every set of byte-identical files
+	 */
+	public IdenticalFileStage(ContentDigestRepository digestRepository,
+			Consumer<Collection<ImageRecord>> identicalFiles) {
+		this.digestRepository = digestRepository;
+		this.identicalFiles = identicalFiles;
+	}
+
+	/**
+	 * Find byte-identical files in the groups and pass them to the consumer.
+	 * 
+	 * @param groups
+	 *            to check for identical files
+	 * @return the same map that was passed as a parameter
+	 */
+	@Override
+	public Multimap<Long, ImageRecord> apply(Multimap<Long, ImageRecord> groups) {
+		Stopwatch sw = Stopwatch.createStarted();
+		Map<String, BasicFileAttributes> attributes = new HashMap<>();
+		Map<String, HashCode> digests = new HashMap<>();
+		Set<Set<ImageRecord>> reported = new HashSet<>();
+
+		for (Collection<ImageRecord> group : groups.asMap().values()) {
+			if (group.size() < 2) {
+				continue;
+			}
+
+			Multimap<Long, ImageRecord> bySize = MultimapBuilder.hashKeys().arrayListValues().build();
+
+			for (ImageRecord image : group) {
+				BasicFileAttributes attr = attributes.computeIfAbsent(image.getPath(), this::readAttributes);
+
+				if (attr != null) {
+					bySize.put(attr.size(), image);
+				}
+			}
+
+			for (Collection<ImageRecord> sameSize : bySize.asMap().values()) {
+				if (sameSize.size() < 2) {
+					continue;
+				}
+
+				Multimap<HashCode, ImageRecord> byDigest = MultimapBuilder.hashKeys().hashSetValues().build();
+
+				for (ImageRecord image : sameSize) {
+					HashCode digest = digests.computeIfAbsent(image.getPath(),
+							path -> digest(path, attributes.get(path)));
+
+					if (digest != null) {
+						byDigest.put(digest, image);
+					}
+				}
+
+				for (Collection<ImageRecord> identical : byDigest.asMap().values()) {
+					if (identical.size() > 1 && reported.add(new HashSet<>(identical))) {
+						identicalFiles.accept(identical);
+					}
+				}
+			}
+		}
+
+		LOGGER.info("Found {} sets of identical files, compared {} digests in {}", reported.size(), digests.size(),
+				sw);
+
+		return groups;
+	}
+
+	private BasicFileAttributes readAttributes(String path) {
+		try {
+			return Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read attributes for {}: {}", path, e.toString());
+			return null;
+		}
+	}
+
+	private HashCode digest(String path, BasicFileAttributes attributes) {
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		try {
+			ContentDigest cached = digestRepository.getByPath(path);
+
+			if (cached != null && cached.isValidFor(modified, attributes.size())) {
+				return HashCode.fromBytes(cached.getDigest());
+			}
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to query digest for {}: {}", path, e.toString());
+		}
+
+		HashCode digest;
+		Path file = Paths.get(path);
+
+		try {
+			digest = MoreFiles.asByteSource(file).hash(Hashing.murmur3_128());
+		} catch (IOException e) {
+			LOGGER.warn("Failed to calculate digest for {}: {}", path, e.toString());
+			return null;
+		}
+
+		try {
+			digestRepository.store(new ContentDigest(path, modified, attributes.size(), digest.asBytes()));
+		} catch (RepositoryException e) {
+			LOGGER.warn("Failed to store digest for {}: {}", path, e.toString());
+		}
+
+		return digest;
+	}
+}
@@ -0,0 +1,34 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+/**
+ * Implemented by image query stages that can leave out ignored images, so cached results can be updated with new
+ * images without running the query again.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public interface IgnoreAwareQuery {
+	/**
+	 * Check if ignored images are left out of the query result.
+	 * 
+	 * @return true if ignored images are not included
+	 */
+	boolean isWithoutIgnored();
+}
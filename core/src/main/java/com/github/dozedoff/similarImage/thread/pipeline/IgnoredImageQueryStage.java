@@ -36,7 +36,7 @@ import com.github.dozedoff.similarImage.db.repository.RepositoryException;
  * @author Nicholas Wright
  *
  */
-public class IgnoredImageQueryStage implements Function<Path, List<ImageRecord>> {
+public class IgnoredImageQueryStage implements Function<Path, List<ImageRecord>>, IgnoreAwareQuery {
 	private static final Logger LOGGER = LoggerFactory.getLogger(IgnoredImageQueryStage.class);
 
 	private final ImageRepository imageRepository;
@@ -75,4 +75,14 @@ public class IgnoredImageQueryStage implements Function<Path, List<ImageRecord>>
 
 		return result;
 	}
+
+	/**
+	 * Ignored images are never included.
+	 * 
+	 * @return always true
+	 */
+	@Override
+	public boolean isWithoutIgnored() {
+		return true;
+	}
 }
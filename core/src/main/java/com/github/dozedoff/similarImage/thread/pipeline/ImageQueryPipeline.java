@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.function.Function;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.GroupResultCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multimap;
 
@@ -42,7 +43,9 @@ public class ImageQueryPipeline implements Function<Path, Multimap<Long, ImageRe
 	private final Function<Path, List<ImageRecord>> imageQueryStage;
 	private final Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> imageGrouper;
 	private Collection<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> postProcessingStages;
-	
+	private final GroupResultCache groupCache;
+	private final String groupKey;
+
 	/**
 	 * Create a new pipeline that uses the given stages for processing queries.
 	 * 
@@ -56,9 +59,33 @@ public class ImageQueryPipeline implements Function<Path, Multimap<Long, ImageRe
 	public ImageQueryPipeline(Function<Path, List<ImageRecord>> imageQueryStage,
 			Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> imageGrouper,
 			Collection<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> postProcessingStages) {
+		this(imageQueryStage, imageGrouper, postProcessingStages, null, null);
+	}
+
+	/**
+	 * Create a new pipeline that uses the given stages for processing queries, and keeps the groups in a cache.
+	 * Post-processing is applied to the cached groups for every query.
+	 * 
+	 * @param imageQueryStage
+	 *            how images will be queried from a datasource
+	 * @param imageGrouper
+	 *            how images will be grouped
+	 * @param postProcessingStages
+	 *            stages for performing post-processing
+	 * @param groupCache
+	 *            cache for the groups, can be null
+	 * @param groupKey
+	 *            describes the query and grouping parameters, the scope is added for the cache key
+	 */
+	public ImageQueryPipeline(Function<Path, List<ImageRecord>> imageQueryStage,
+			Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> imageGrouper,
+			Collection<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> postProcessingStages,
+			GroupResultCache groupCache, String groupKey) {
 		this.imageQueryStage = imageQueryStage;
 		this.imageGrouper = imageGrouper;
 		this.postProcessingStages = postProcessingStages;
+		this.groupCache = groupCache;
+		this.groupKey = groupKey;
 	}
 
 	/**
@@ -71,11 +98,23 @@ public class ImageQueryPipeline implements Function<Path, Multimap<Long, ImageRe
 	 */
 	@Override
 	public Multimap<Long, ImageRecord> apply(Path path) {
-		List<ImageRecord> images = imageQueryStage.apply(path);
-		Multimap<Long, ImageRecord> groups = imageGrouper.apply(images);
+		Multimap<Long, ImageRecord> groups;
+
+		if (groupCache == null) {
+			groups = group(path);
+		} else {
+			String scope = path == null ? "" : path.toString();
+			groups = groupCache.get(groupKey + ":" + scope, () -> group(path));
+		}
+
 		return postProcessing(groups);
 	}
 
+	private Multimap<Long, ImageRecord> group(Path path) {
+		List<ImageRecord> images = imageQueryStage.apply(path);
+		return imageGrouper.apply(images);
+	}
+
 	private Multimap<Long, ImageRecord> postProcessing(Multimap<Long, ImageRecord> groups) {
 		Multimap<Long, ImageRecord> step = groups;
 
@@ -103,4 +142,13 @@ public class ImageQueryPipeline implements Function<Path, Multimap<Long, ImageRe
 	public Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> getImageGrouper() {
 		return imageGrouper;
 	}
+
+	/**
+	 * Returns the cache used for the groups.
+	 * 
+	 * @return the group cache, or null if groups are not cached
+	 */
+	public GroupResultCache getGroupCache() {
+		return groupCache;
+	}
 }
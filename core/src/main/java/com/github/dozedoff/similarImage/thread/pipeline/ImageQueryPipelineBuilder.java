@@ -21,15 +21,22 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
 import com.github.dozedoff.similarImage.db.Tag;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.duplicate.GroupResultCache;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.ShardedRecordSearch;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 import com.google.common.collect.Multimap;
 
 /**
@@ -45,8 +52,16 @@ public class ImageQueryPipelineBuilder {
 	private final FilterRepository filterRepository;
 
 	private Function<Path, List<ImageRecord>> imageQuery;
+	private boolean excludeIgnored;
+	private boolean compact;
+	private boolean removeSingleImageGroups;
+	private boolean removeDuplicateGroups;
 	private List<Function<Multimap<Long, ImageRecord>, Multimap<Long, ImageRecord>>> postProcessing;
 	private int hammingDistance;
+	private IndexType indexType;
+	private RecordSearchCache searchCache;
+	private GroupResultCache groupCache;
+	private ShardedRecordSearch shardedSearch;
 	private Function<Collection<ImageRecord>, Multimap<Long, ImageRecord>> imageGrouper;
 
 	/**
@@ -63,6 +78,7 @@ public class ImageQueryPipelineBuilder {
 		this.imageQuery = new ImageQueryStage(imageRepository);
 		this.postProcessing = new LinkedList<>();
 		this.hammingDistance = 0;
+		this.indexType = IndexType.HAMMING_BK_TREE;
 	}
 
 	/**
@@ -84,7 +100,11 @@ public class ImageQueryPipelineBuilder {
 	 * @return instance of this builder for method chaining
 	 */
 	public ImageQueryPipelineBuilder excludeIgnored(boolean exclude) {
-		if (exclude) {
+		this.excludeIgnored = exclude;
+
+		if (compact) {
+			this.imageQuery = new CompactImageQueryStage(imageRepository, exclude);
+		} else if (exclude) {
 			this.imageQuery = new IgnoredImageQueryStage(imageRepository);
 		} else {
 			this.imageQuery = new ImageQueryStage(imageRepository);
@@ -93,6 +113,17 @@ public class ImageQueryPipelineBuilder {
 		return this;
 	}
 
+	/**
+	 * Query images into a compact {@link ImageRecordStore}. Grouping stages work on the stored hashes and only create
+	 * {@link ImageRecord}s for grouped images.
+	 * 
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder compactRecords() {
+		this.compact = true;
+		return excludeIgnored(excludeIgnored);
+	}
+
 	/**
 	 * Remove single image groups during post processing.
 	 * 
@@ -100,6 +131,7 @@ public class ImageQueryPipelineBuilder {
 	 */
 	public ImageQueryPipelineBuilder removeSingleImageGroups() {
 		this.postProcessing.add(new RemoveSingleImageSetStage());
+		this.removeSingleImageGroups = true;
 		return this;
 	}
 
@@ -110,6 +142,99 @@ public class ImageQueryPipelineBuilder {
 	 */
 	public ImageQueryPipelineBuilder removeDuplicateGroups() {
 		this.postProcessing.add(new RemoveDuplicateSetStage());
+		this.removeDuplicateGroups = true;
+		return this;
+	}
+
+	/**
+	 * Confirm grouped images with an additional hash. The groups of the image hash act as a prefilter, images are only
+	 * kept if the additional hash is also within the given distance. Runs before all other post-processing stages.
+	 * 
+	 * @param algorithm
+	 *            name of the additional hash
+	 * @param distance
+	 *            maximum hamming distance between additional hashes
+	 * @return instance of this builder for method chaining
+	 * @throws IllegalArgumentException
+	 *             if the distance is negative
+	 */
+	public ImageQueryPipelineBuilder confirmWith(String algorithm, int distance) throws IllegalArgumentException {
+		if (distance < 0) {
+			throw new IllegalArgumentException("Distance must be 0 or greater");
+		}
+
+		this.postProcessing.add(0, new ConfirmHashStage(imageRepository, algorithm, distance));
+		return this;
+	}
+
+	/**
+	 * Find byte-identical files in the groups during post processing. Digests of the file content are cached in the
+	 * repository, so unchanged files are not read again on later queries. The groups are not changed.
+	 * 
+	 * @param digestRepository
+	 *            used to cache content digests
+	 * @param identicalFiles
+	 *            called with every set of byte-identical files
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder flagIdenticalFiles(ContentDigestRepository digestRepository,
+			Consumer<Collection<ImageRecord>> identicalFiles) {
+		this.postProcessing.add(new IdenticalFileStage(digestRepository, identicalFiles));
+		return this;
+	}
+
+	/**
+	 * Keep the queried images and their searches in the given directory, so they are only loaded from the datasource
+	 * and rebuilt when the images have changed. Must be set before the grouping stage.
+	 * 
+	 * @param cacheDirectory
+	 *            directory for the search files
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder persistentSearch(Path cacheDirectory) {
+		this.searchCache = new RecordSearchCache(imageRepository, cacheDirectory);
+		return this;
+	}
+
+	/**
+	 * Keep the groups of {@link #groupAll()} queries in memory, so repeated queries with the same scope and parameters
+	 * do not need to group the images again. Removed images are removed from the cached groups.
+	 * 
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder cacheGroups() {
+		this.groupCache = new GroupResultCache(imageRepository);
+		return this;
+	}
+
+	/**
+	 * Split the search of {@link #groupAll()} into shards by top-level directory. Shards are kept in memory and built
+	 * from all images in their directory, so sorting a sub-directory reuses the shards of earlier sorts. Shards are
+	 * built and queried in parallel. Must be set before the grouping stage, replaces the persistent search for
+	 * grouping.
+	 * 
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder shardByDirectory() {
+		this.shardedSearch = new ShardedRecordSearch(imageRepository);
+		return this;
+	}
+
+	/**
+	 * Like {@link #shardByDirectory()}, but shard by the directories at the given depth below the indexed roots, so
+	 * that images under a common root are split into several shards.
+	 * 
+	 * @param indexedRoots
+	 *            the directories that were indexed
+	 * @param depth
+	 *            number of directories below a root that make up a shard
+	 * @return instance of this builder for method chaining
+	 * @throws IllegalArgumentException
+	 *             if the depth is less than 1
+	 */
+	public ImageQueryPipelineBuilder shardByDirectory(Collection<Path> indexedRoots, int depth)
+			throws IllegalArgumentException {
+		this.shardedSearch = new ShardedRecordSearch(imageRepository, indexedRoots, depth);
 		return this;
 	}
 
@@ -124,11 +249,29 @@ public class ImageQueryPipelineBuilder {
 	 *             if the distance is negative
 	 */
 	public ImageQueryPipelineBuilder distance(int distance) throws IllegalArgumentException {
+		return distance(distance, IndexType.HAMMING_BK_TREE);
+	}
+
+	/**
+	 * Set the hamming distance for the query and the index used to search for hashes within that distance.
+	 * {@link IndexType#MULTI_INDEX_HASHING} is recommended for larger distances.
+	 * 
+	 * @param distance
+	 *            hashes within this distance count as a match
+	 * @param indexType
+	 *            the index used for hash queries
+	 * 
+	 * @return instance of this builder for method chaining
+	 * @throws IllegalArgumentException
+	 *             if the distance is negative
+	 */
+	public ImageQueryPipelineBuilder distance(int distance, IndexType indexType) throws IllegalArgumentException {
 		if (distance < 0) {
 			throw new IllegalArgumentException("Distance must be 0 or greater");
 		}
 
 		this.hammingDistance = distance;
+		this.indexType = indexType;
 		return this;
 	}
 
@@ -140,7 +283,7 @@ public class ImageQueryPipelineBuilder {
 	 * @return instance of this builder for method chaining
 	 */
 	public ImageQueryPipelineBuilder groupByTag(Tag tag) {
-		this.imageGrouper = new GroupByTagStage(filterRepository, tag, hammingDistance);
+		this.imageGrouper = new GroupByTagStage(filterRepository, tag, hammingDistance, indexType, searchCache);
 		return this;
 	}
 
@@ -150,7 +293,34 @@ public class ImageQueryPipelineBuilder {
 	 * @return instance of this builder for method chaining
 	 */
 	public ImageQueryPipelineBuilder groupAll() {
-		this.imageGrouper = new GroupImagesStage(hammingDistance);
+		return groupAll(false);
+	}
+
+	/**
+	 * Group matches for every image.
+	 * 
+	 * @param parallel
+	 *            if true, the hash queries are run in parallel
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder groupAll(boolean parallel) {
+		if (shardedSearch != null) {
+			this.imageGrouper = new GroupImagesStage(hammingDistance, indexType, parallel, shardedSearch, imageQuery);
+		} else {
+			this.imageGrouper = new GroupImagesStage(hammingDistance, indexType, parallel, searchCache);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Group images into transitive clusters of matching hashes. The resulting groups are disjoint, so
+	 * {@link #removeDuplicateGroups()} is not needed.
+	 * 
+	 * @return instance of this builder for method chaining
+	 */
+	public ImageQueryPipelineBuilder groupClusters() {
+		this.imageGrouper = new ClusterImagesStage(hammingDistance, indexType);
 		return this;
 	}
 
@@ -161,11 +331,80 @@ public class ImageQueryPipelineBuilder {
 	 */
 	public ImageQueryPipeline build() {
 		if (imageGrouper == null) {
-			imageGrouper = new GroupImagesStage(hammingDistance);
+			imageGrouper = new GroupImagesStage(hammingDistance, indexType, false, searchCache);
 			LOGGER.warn("No image group stage set, using {}", imageGrouper.getClass().getSimpleName());
 		}
 
-		return new ImageQueryPipeline(imageQuery, imageGrouper, postProcessing);
+		Function<Path, List<ImageRecord>> query = imageQuery;
+
+		if (searchCache != null) {
+			query = new CachedImageQueryStage(imageQuery, searchCache, indexType);
+		}
+
+		if (groupCache != null && imageGrouper instanceof GroupImagesStage) {
+			int groupDistance = ((GroupImagesStage) imageGrouper).getHammingDistance();
+			String groupKey = imageQuery.getClass().getName() + ":" + groupDistance + ":" + excludeIgnored;
+			return new ImageQueryPipeline(query, imageGrouper, postProcessing, groupCache, groupKey);
+		}
+
+		return new ImageQueryPipeline(query, imageGrouper, postProcessing);
+	}
+
+	/**
+	 * Check if the configuration of this builder can be built with {@link #buildStreaming()}. This is only the case if
+	 * images are grouped like {@link #groupAll()} without a cache, compact records or shards, and the only
+	 * post-processing stages remove single image groups or duplicate groups.
+	 * 
+	 * @return true if a streaming pipeline produces the same groups as {@link #build()}
+	 */
+	public boolean isStreamable() {
+		if (searchCache != null || groupCache != null || shardedSearch != null || compact) {
+			return false;
+		}
+
+		if (imageGrouper != null && !(imageGrouper instanceof GroupImagesStage)) {
+			return false;
+		}
+
+		return postProcessing.stream().allMatch(
+				stage -> stage instanceof RemoveSingleImageSetStage || stage instanceof RemoveDuplicateSetStage);
+	}
+
+	/**
+	 * Build a {@link StreamingImageQueryPipeline} with the configuration of this builder. Images are grouped like
+	 * {@link #groupAll()}.
+	 * 
+	 * @return the configured {@link StreamingImageQueryPipeline}
+	 * @throws IllegalStateException
+	 *             if the configuration uses stages the streaming pipeline does not support, see
+	 *             {@link #isStreamable()}
+	 */
+	public StreamingImageQueryPipeline buildStreaming() throws IllegalStateException {
+		if (!isStreamable()) {
+			throw new IllegalStateException("Configured stages cannot be used with a streaming pipeline");
+		}
+
+		return new StreamingImageQueryPipeline(imageRepository, excludeIgnored, hammingDistance, indexType,
+				removeSingleImageGroups, removeDuplicateGroups);
+	}
+
+	/**
+	 * Build a {@link NearestImageQuery} with the image query, index and persistent search of this builder.
+	 * 
+	 * @return the configured {@link NearestImageQuery}
+	 */
+	public NearestImageQuery buildNearest() {
+		return new NearestImageQuery(imageQuery, searchCache, indexType);
+	}
+
+	/**
+	 * Build a {@link CompareScopeQuery} with the image query, distance, index, persistent search and post-processing
+	 * stages of this builder. The grouping stage is not used.
+	 * 
+	 * @return the configured {@link CompareScopeQuery}
+	 */
+	public CompareScopeQuery buildCompare() {
+		return new CompareScopeQuery(imageQuery, searchCache, indexType, hammingDistance, postProcessing);
 	}
 
 	/**
@@ -0,0 +1,107 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.RecordSearch;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Query for the images closest to a single hash. Unlike an {@link ImageQueryPipeline}, the images are not grouped, only
+ * the search for the given hash is run. If a {@link RecordSearchCache} is set, the cached search for the scope is used,
+ * otherwise a new search is built for every query.
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class NearestImageQuery {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NearestImageQuery.class);
+
+	private final Function<Path, List<ImageRecord>> imageQuery;
+	private final RecordSearchCache searchCache;
+	private final IndexType indexType;
+
+	/**
+	 * Create a new query that searches the images of the given query stage.
+	 * 
+	 * @param imageQuery
+	 *            stage to load the images to search
+	 * @param searchCache
+	 *            cache for image records and searches, can be null
+	 * @param indexType
+	 *            index used for the search
+	 */
+	public NearestImageQuery(Function<Path, List<ImageRecord>> imageQuery, RecordSearchCache searchCache,
+			IndexType indexType) {
+		this.imageQuery = imageQuery;
+		this.searchCache = searchCache;
+		this.indexType = indexType;
+	}
+
+	/**
+	 * Find the images with the hashes closest to the given hash.
+	 * 
+	 * @param scope
+	 *            path to limit query. If null or empty, all images will be searched.
+	 * @param hash
+	 *            the hash to search
+	 * @param count
+	 *            the maximum number of images to return
+	 * @return up to count images, sorted by the hamming distance of their hash to the given hash
+	 */
+	public List<ImageRecord> apply(Path scope, long hash, int count) {
+		RecordSearch search = null;
+		List<ImageRecord> records;
+
+		if (searchCache != null) {
+			records = new CachedImageQueryStage(imageQuery, searchCache, indexType).apply(scope);
+			search = searchCache.lookup(records);
+		} else {
+			records = imageQuery.apply(scope);
+		}
+
+		if (search == null) {
+			search = new RecordSearch(indexType);
+			search.build(records);
+		}
+
+		Stopwatch sw = Stopwatch.createStarted();
+		List<ImageRecord> nearest = search.nearestMatch(hash, count);
+		LOGGER.info("Found {} nearest images for hash {} in {}", nearest.size(), hash, sw);
+
+		return nearest;
+	}
+
+	/**
+	 * Get the index type used for the search.
+	 * 
+	 * @return the index type
+	 */
+	public IndexType getIndexType() {
+		return indexType;
+	}
+}
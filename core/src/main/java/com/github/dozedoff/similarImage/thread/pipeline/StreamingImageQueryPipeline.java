@@ -0,0 +1,272 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.ObjLongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.HashIndex;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.base.Stopwatch;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Pipeline that reads images with a cursor and passes each group to a consumer as soon as it is complete, instead of
+ * building a {@link com.google.common.collect.Multimap} of all groups.
+ * <p>
+ * Images are read in hash order. For exact matches, a group is complete as soon as the next hash is read, so only the
+ * current group is held in memory. For a hamming distance greater than 0, images are kept in a
+ * {@link ImageRecordStore} and their hashes are indexed as they arrive. Groups are emitted one by one once all images
+ * have been read, as any later image could still be within the distance.
+ * </p>
+ * 
+ * @author Nicholas Wright
+ *
+ */
+public class StreamingImageQueryPipeline {
+	private static final Logger LOGGER = LoggerFactory.getLogger(StreamingImageQueryPipeline.class);
+
+	private final ImageRepository imageRepository;
+	private final boolean withoutIgnored;
+	private final int hammingDistance;
+	private final IndexType indexType;
+	private final boolean removeSingleImageGroups;
+	private final boolean removeDuplicateGroups;
+
+	/**
+	 * Create a new streaming pipeline.
+	 * 
+	 * @param imageRepository
+	 *            datasource to read images from
+	 * @param withoutIgnored
+	 *            if true, ignored images are not included
+	 * @param hammingDistance
+	 *            group all images within this distance
+	 * @param indexType
+	 *            the index used for hash queries
+	 * @param removeSingleImageGroups
+	 *            if true, groups with a single image are not emitted
+	 * @param removeDuplicateGroups
+	 *            if true, groups with the same images as an already emitted group are not emitted
+	 */
+	public StreamingImageQueryPipeline(ImageRepository imageRepository, boolean withoutIgnored, int hammingDistance,
+			IndexType indexType, boolean removeSingleImageGroups, boolean removeDuplicateGroups) {
+		this.imageRepository = imageRepository;
+		this.withoutIgnored = withoutIgnored;
+		this.hammingDistance = hammingDistance;
+		this.indexType = indexType;
+		this.removeSingleImageGroups = removeSingleImageGroups;
+		this.removeDuplicateGroups = removeDuplicateGroups;
+	}
+
+	/**
+	 * Query images with the path and pass every group to the consumer. The consumer is called on the thread running
+	 * this method.
+	 * 
+	 * @param path
+	 *            to limit the images by scope, if null or empty, all images will be used
+	 * @param groupConsumer
+	 *            called with the hash and images of every group
+	 * @return the number of groups passed to the consumer
+	 */
+	public long apply(Path path, BiConsumer<Long, Collection<ImageRecord>> groupConsumer) {
+		Path directory = path;
+
+		if (Paths.get("").equals(path)) {
+			directory = null;
+		}
+
+		Stopwatch sw = Stopwatch.createStarted();
+		GroupEmitter emitter = new GroupEmitter(groupConsumer);
+
+		try {
+			if (hammingDistance == 0) {
+				ExactGrouper grouper = new ExactGrouper(emitter);
+				imageRepository.forEachSortedByHash(directory, withoutIgnored, grouper);
+				grouper.finish();
+			} else {
+				DistanceGrouper grouper = new DistanceGrouper(emitter);
+				imageRepository.forEachSortedByHash(directory, withoutIgnored, grouper);
+				grouper.finish();
+			}
+		} catch (RepositoryException e) {
+			LOGGER.error("Failed to query images: {}, cause: {}", e.toString(), e.getCause());
+		}
+
+		LOGGER.info("Emitted {} groups in {}, using hamming distance {}", emitter.emitted, sw, hammingDistance);
+		return emitter.emitted;
+	}
+
+	/**
+	 * Get the hamming distance set for this pipeline.
+	 * 
+	 * @return the set hamming distance
+	 */
+	public int getHammingDistance() {
+		return hammingDistance;
+	}
+
+	/**
+	 * Get the index type used for hash queries.
+	 * 
+	 * @return the index type
+	 */
+	public IndexType getIndexType() {
+		return indexType;
+	}
+
+	/**
+	 * Applies the post-processing filters and passes groups on to the consumer.
+	 */
+	private final class GroupEmitter {
+		private final BiConsumer<Long, Collection<ImageRecord>> consumer;
+		private final Set<HashCode> emittedGroups;
+		private long emitted;
+
+		GroupEmitter(BiConsumer<Long, Collection<ImageRecord>> consumer) {
+			this.consumer = consumer;
+			this.emittedGroups = new HashSet<>();
+		}
+
+		/**
+		 * Emit a group that does not share images with any other group.
+		 */
+		void emit(long hash, Collection<ImageRecord> group) {
+			if (removeSingleImageGroups && group.size() < 2) {
+				return;
+			}
+
+			consumer.accept(hash, group);
+			emitted++;
+		}
+
+		/**
+		 * Emit a group. The matched hashes identify the images in the group, and are used to detect duplicate groups.
+		 */
+		void emit(long hash, Collection<ImageRecord> group, long[] matchedHashes) {
+			if (removeDuplicateGroups && group.size() > 1 && !emittedGroups.add(fingerprint(matchedHashes))) {
+				return;
+			}
+
+			emit(hash, group);
+		}
+
+		private HashCode fingerprint(long[] matchedHashes) {
+			long[] sorted = Arrays.copyOf(matchedHashes, matchedHashes.length);
+			Arrays.sort(sorted);
+
+			Hasher hasher = Hashing.murmur3_128().newHasher().putInt(sorted.length);
+
+			for (long matched : sorted) {
+				hasher.putLong(matched);
+			}
+
+			return hasher.hash();
+		}
+	}
+
+	/**
+	 * Collects images with the same hash, and emits the group once the next hash is read.
+	 */
+	private final class ExactGrouper implements ObjLongConsumer<String> {
+		private final GroupEmitter emitter;
+		private List<ImageRecord> current;
+		private long currentHash;
+
+		ExactGrouper(GroupEmitter emitter) {
+			this.emitter = emitter;
+			this.current = new ArrayList<>();
+		}
+
+		@Override
+		public void accept(String path, long hash) {
+			if (!current.isEmpty() && hash != currentHash) {
+				finish();
+			}
+
+			currentHash = hash;
+			current.add(new ImageRecord(path, hash));
+		}
+
+		void finish() {
+			if (!current.isEmpty()) {
+				emitter.emit(currentHash, current);
+				current = new ArrayList<>();
+			}
+		}
+	}
+
+	/**
+	 * Stores images and indexes every new hash as it is read. Groups are queried and emitted once all images have been
+	 * read.
+	 */
+	private final class DistanceGrouper implements ObjLongConsumer<String> {
+		private final GroupEmitter emitter;
+		private final ImageRecordStore store;
+		private final HashIndex index;
+
+		DistanceGrouper(GroupEmitter emitter) {
+			this.emitter = emitter;
+			this.store = new ImageRecordStore();
+			this.index = indexType.create();
+		}
+
+		@Override
+		public void accept(String path, long hash) {
+			if (store.isEmpty() || store.getHash(store.size() - 1) != hash) {
+				index.add(hash);
+			}
+
+			store.add(path, hash);
+		}
+
+		void finish() {
+			int distance = Math.min(hammingDistance, Long.SIZE);
+
+			LOGGER.info("Read {} images with {} distinct hashes", store.size(), index.size());
+
+			for (long hash : store.distinctHashes()) {
+				long[] matches = index.searchWithin(hash, distance);
+				List<ImageRecord> group = new ArrayList<>();
+
+				for (long match : matches) {
+					group.addAll(store.withHash(match));
+				}
+
+				emitter.emit(hash, group, matches);
+			}
+		}
+	}
+}
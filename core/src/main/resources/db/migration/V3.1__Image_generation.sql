@@ -0,0 +1,18 @@
+CREATE TABLE `imagegeneration`
+-- Incremented whenever image or ignore records change, used to detect stale search caches
+(`generation` BIGINT NOT NULL );
+INSERT INTO `imagegeneration` (`generation`) VALUES (0);
+
+CREATE TRIGGER `imagerecord_insert_generation` AFTER INSERT ON `imagerecord`
+BEGIN UPDATE `imagegeneration` SET `generation` = `generation` + 1; END;
+CREATE TRIGGER `imagerecord_update_generation` AFTER UPDATE ON `imagerecord`
+BEGIN UPDATE `imagegeneration` SET `generation` = `generation` + 1; END;
+CREATE TRIGGER `imagerecord_delete_generation` AFTER DELETE ON `imagerecord`
+BEGIN UPDATE `imagegeneration` SET `generation` = `generation` + 1; END;
+
+CREATE TRIGGER `ignorerecord_insert_generation` AFTER INSERT ON `ignorerecord`
+BEGIN UPDATE `imagegeneration` SET `generation` = `generation` + 1; END;
+CREATE TRIGGER `ignorerecord_update_generation` AFTER UPDATE ON `ignorerecord`
+BEGIN UPDATE `imagegeneration` SET `generation` = `generation` + 1; END;
+CREATE TRIGGER `ignorerecord_delete_generation` AFTER DELETE ON `ignorerecord`
+BEGIN UPDATE `imagegeneration` SET `generation` = `generation` + 1; END;
@@ -0,0 +1,6 @@
+CREATE TABLE `imagehash`
+-- Additional hashes of images, calculated when the image is hashed
+(`path` VARCHAR NOT NULL , `algorithm` VARCHAR NOT NULL , `hash` BIGINT NOT NULL , PRIMARY KEY (`path`, `algorithm`) );
+
+CREATE TRIGGER `imagerecord_delete_hashes` AFTER DELETE ON `imagerecord`
+BEGIN DELETE FROM `imagehash` WHERE `path` = OLD.`path`; END;
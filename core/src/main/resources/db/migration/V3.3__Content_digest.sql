@@ -0,0 +1,6 @@
+CREATE TABLE `contentdigest`
+-- Digests of the file content, only valid as long as the modification time and size of the file match
+(`path` VARCHAR NOT NULL , `modified` BIGINT NOT NULL , `size` BIGINT NOT NULL , `digest` BLOB NOT NULL , PRIMARY KEY (`path`) );
+
+CREATE TRIGGER `imagerecord_delete_digest` AFTER DELETE ON `imagerecord`
+BEGIN DELETE FROM `contentdigest` WHERE `path` = OLD.`path`; END;
@@ -0,0 +1,3 @@
+ALTER TABLE `imagerecord`
+-- Image data the hash was calculated from, NULL for the decoded image
+ADD COLUMN `hashSource` VARCHAR;
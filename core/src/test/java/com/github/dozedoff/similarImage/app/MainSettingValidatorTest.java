@@ -23,9 +23,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
-import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.junit.MockitoJUnitRunner;
 
-@RunWith(MockitoJUnitRunner.class)
+@RunWith(MockitoJUnitRunner.Silent.class)
 public class MainSettingValidatorTest {
 	@Mock
 	private MainSetting mainSetting;
@@ -33,6 +33,7 @@ public class MainSettingValidatorTest {
 	@Before
 	public void setup() {
 		when(mainSetting.threads()).thenReturn(1);
+		when(mainSetting.ioThreads()).thenReturn(1);
 	}
 
 	@Test
@@ -53,4 +54,39 @@ public class MainSettingValidatorTest {
 
 		MainSettingValidator.validate(mainSetting);
 	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValidateZeroIoThreads() throws Exception {
+		when(mainSetting.ioThreads()).thenReturn(0);
+
+		MainSettingValidator.validate(mainSetting);
+	}
+
+	@Test
+	public void testValidateConcurrentFiles() throws Exception {
+		when(mainSetting.concurrentFiles()).thenReturn(8);
+
+		MainSettingValidator.validate(mainSetting);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValidateNegativeConcurrentFiles() throws Exception {
+		when(mainSetting.concurrentFiles()).thenReturn(-1);
+
+		MainSettingValidator.validate(mainSetting);
+	}
+
+	@Test
+	public void testValidateConfirmDisabled() throws Exception {
+		when(mainSetting.confirmDistance()).thenReturn(-1);
+
+		MainSettingValidator.validate(mainSetting);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testValidateNegativeConfirmDistance() throws Exception {
+		when(mainSetting.confirmDistance()).thenReturn(-2);
+
+		MainSettingValidator.validate(mainSetting);
+	}
 }
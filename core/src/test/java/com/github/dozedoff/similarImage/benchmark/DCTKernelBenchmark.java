@@ -71,11 +71,19 @@ public class DCTKernelBenchmark {
 		}
 	}
 
+	private void computeBatch() {
+		results = kernel.transformDCT(samples);
+	}
+
 	private void runBenchmark() {
+		runBenchmark(this::computeMatrix);
+	}
+
+	private void runBenchmark(Runnable compute) {
 		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
 			Stopwatch sw = Stopwatch.createStarted();
 
-			computeMatrix();
+			compute.run();
 
 			sw.stop();
 			LOGGER.info("Interation: {}, time: {}", i + 1, sw);
@@ -99,4 +107,22 @@ public class DCTKernelBenchmark {
 
 		runBenchmark();
 	}
+
+	@Test
+	public void cpuOpenClBatch() {
+		device = KernelManager.instance().bestDevice();
+		LOGGER.info("OpenCL CPU batch: {}", device);
+		kernel.setDevice(device);
+
+		runBenchmark(this::computeBatch);
+	}
+
+	@Test
+	public void jtpBatch() {
+		device = KernelManagers.JTP_ONLY.bestDevice();
+		LOGGER.info("JTP batch: {}", device);
+		kernel.setDevice(device);
+
+		runBenchmark(this::computeBatch);
+	}
 }
@@ -0,0 +1,106 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.image.FastImagePHash;
+import com.google.common.base.Stopwatch;
+
+public class FastImagePHashBenchmark {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FastImagePHashBenchmark.class);
+
+	private static final int SAMPLES = 200;
+	private static final int IMAGE_SIZE = 256;
+	private static final int BENCHMARK_ITERATIONS = 4;
+	private static final long SEED = 42L;
+
+	private static BufferedImage[] samples;
+	private long[] results;
+
+	private Stopwatch sw;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		createSamples();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		results = new long[SAMPLES];
+		sw = Stopwatch.createStarted();
+	}
+
+	@After
+	public void tearDown() {
+		LOGGER.info(sw.toString());
+	}
+
+	private static void createSamples() {
+		Random random = new Random(SEED);
+		samples = new BufferedImage[SAMPLES];
+
+		for (int i = 0; i < SAMPLES; i++) {
+			BufferedImage image = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+
+			for (int x = 0; x < IMAGE_SIZE; x++) {
+				for (int y = 0; y < IMAGE_SIZE; y++) {
+					image.setRGB(x, y, random.nextInt());
+				}
+			}
+
+			samples[i] = image;
+		}
+	}
+
+	private void hashImages(ImagePHash hasher) throws Exception {
+		for (int i = 0; i < SAMPLES; i++) {
+			results[i] = hasher.getLongHash(samples[i]);
+		}
+	}
+
+	private void runBenchmark(ImagePHash hasher) throws Exception {
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			Stopwatch sw = Stopwatch.createStarted();
+
+			hashImages(hasher);
+
+			sw.stop();
+			LOGGER.info("{} iteration: {}, time: {}", hasher.getClass().getSimpleName(), i + 1, sw);
+		}
+	}
+
+	@Test
+	public void imagePHash() throws Exception {
+		runBenchmark(new ImagePHash());
+	}
+
+	@Test
+	public void fastImagePHash() throws Exception {
+		runBenchmark(new FastImagePHash());
+	}
+}
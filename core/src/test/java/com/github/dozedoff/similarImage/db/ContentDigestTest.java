@@ -0,0 +1,69 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentDigestTest {
+	private static final String PATH = "foo";
+	private static final long MODIFIED = 42;
+	private static final long SIZE = 12;
+	private static final byte[] DIGEST = { 1, 2, 3 };
+
+	private ContentDigest cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new ContentDigest(PATH, MODIFIED, SIZE, DIGEST);
+	}
+
+	@Test
+	public void testValidFor() throws Exception {
+		assertThat(cut.isValidFor(MODIFIED, SIZE), is(true));
+	}
+
+	@Test
+	public void testNotValidForModified() throws Exception {
+		assertThat(cut.isValidFor(MODIFIED + 1, SIZE), is(false));
+	}
+
+	@Test
+	public void testNotValidForSize() throws Exception {
+		assertThat(cut.isValidFor(MODIFIED, SIZE + 1), is(false));
+	}
+
+	@Test
+	public void testEqualsSameValues() throws Exception {
+		assertThat(cut, is(new ContentDigest(PATH, MODIFIED, SIZE, new byte[] { 1, 2, 3 })));
+	}
+
+	@Test
+	public void testEqualsDifferentDigest() throws Exception {
+		assertThat(cut, is(not(new ContentDigest(PATH, MODIFIED, SIZE, new byte[] { 3, 2, 1 }))));
+	}
+
+	@Test
+	public void testHashCodeSameValues() throws Exception {
+		assertThat(cut.hashCode(), is(new ContentDigest(PATH, MODIFIED, SIZE, new byte[] { 1, 2, 3 }).hashCode()));
+	}
+}
@@ -19,6 +19,8 @@ package com.github.dozedoff.similarImage.db;
 
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
@@ -104,4 +106,41 @@ public class FlyWayMigrationTest {
 		assertThat(ignored, hasItems(new IgnoreRecord(new ImageRecord(PATH_1, 1)),
 				new IgnoreRecord(new ImageRecord(PATH_2, 1)), new IgnoreRecord(new ImageRecord(PATH_3, 2))));
 	}
+
+	@Test
+	public void testMigrationTo3v1generation() throws Exception {
+		flywayConfig.target("3.1").load().migrate();
+
+		Dao<ImageRecord, String> image = DaoManager.createDao(cs, ImageRecord.class);
+		long generation = image.queryRawValue("SELECT `generation` FROM `imagegeneration`");
+
+		image.create(new ImageRecord("path4", 4));
+
+		assertThat(image.queryRawValue("SELECT `generation` FROM `imagegeneration`"), is(generation + 1));
+	}
+
+	@Test
+	public void testMigrationTo3v2additionalHashRemoved() throws Exception {
+		flywayConfig.target("3.2").load().migrate();
+
+		Dao<ImageRecord, String> image = DaoManager.createDao(cs, ImageRecord.class);
+		image.executeRaw("INSERT INTO `imagehash` (`path`, `algorithm`, `hash`) VALUES ('path1', 'test', 1)");
+
+		image.deleteById(PATH_1);
+
+		assertThat(image.queryRawValue("SELECT COUNT(*) FROM `imagehash`"), is(0L));
+	}
+
+	@Test
+	public void testMigrationTo3v3digestRemoved() throws Exception {
+		flywayConfig.target("3.3").load().migrate();
+
+		Dao<ContentDigest, String> digest = DaoManager.createDao(cs, ContentDigest.class);
+		Dao<ImageRecord, String> image = DaoManager.createDao(cs, ImageRecord.class);
+		digest.create(new ContentDigest(PATH_1, 1, 2, new byte[] { 3 }));
+
+		image.deleteById(PATH_1);
+
+		assertThat(digest.queryForId(PATH_1), is(nullValue()));
+	}
 }
@@ -0,0 +1,136 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageRecordStoreTest {
+	private static final String PATH_A = "a";
+	private static final String PATH_B = "b/äöü";
+	private static final String PATH_C = "";
+	private static final long HASH_A = -5L;
+	private static final long HASH_B = 2L;
+
+	private ImageRecordStore cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new ImageRecordStore(1);
+
+		cut.add(PATH_A, HASH_A);
+		cut.add(PATH_B, HASH_B);
+		cut.add(PATH_C, HASH_B);
+	}
+
+	@Test
+	public void testSize() throws Exception {
+		assertThat(cut.size(), is(3));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		assertThat(cut.get(1), is(new ImageRecord(PATH_B, HASH_B)));
+	}
+
+	@Test
+	public void testGetEmptyPath() throws Exception {
+		assertThat(cut.getPath(2), is(PATH_C));
+	}
+
+	@Test
+	public void testGetHash() throws Exception {
+		assertThat(cut.getHash(0), is(HASH_A));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetOutOfBounds() throws Exception {
+		cut.get(3);
+	}
+
+	@Test
+	public void testAddImageRecord() throws Exception {
+		cut.add(new ImageRecord(PATH_A, HASH_B));
+
+		assertThat(cut.get(3), is(new ImageRecord(PATH_A, HASH_B)));
+	}
+
+	@Test
+	public void testEqualsList() throws Exception {
+		assertThat(cut, is(Arrays.asList(new ImageRecord(PATH_A, HASH_A), new ImageRecord(PATH_B, HASH_B),
+				new ImageRecord(PATH_C, HASH_B))));
+	}
+
+	@Test
+	public void testSortedByHash() throws Exception {
+		assertThat(cut.isSortedByHash(), is(true));
+	}
+
+	@Test
+	public void testNotSortedByHash() throws Exception {
+		cut.add(PATH_A, HASH_A);
+
+		assertThat(cut.isSortedByHash(), is(false));
+	}
+
+	@Test
+	public void testDistinctHashes() throws Exception {
+		assertThat(cut.distinctHashes(), is(new long[] { HASH_A, HASH_B }));
+	}
+
+	@Test
+	public void testDistinctHashesNotSorted() throws Exception {
+		cut.add(PATH_A, HASH_A);
+
+		assertThat(cut.distinctHashes(), is(new long[] { HASH_A, HASH_B }));
+	}
+
+	@Test
+	public void testWithHash() throws Exception {
+		assertThat(cut.withHash(HASH_B), contains(new ImageRecord(PATH_B, HASH_B), new ImageRecord(PATH_C, HASH_B)));
+	}
+
+	@Test
+	public void testWithHashNotFound() throws Exception {
+		assertThat(cut.withHash(0L), is(empty()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testWithHashNotSorted() throws Exception {
+		cut.add(PATH_A, HASH_A);
+
+		cut.withHash(HASH_A);
+	}
+
+	@Test
+	public void testGrowPaths() throws Exception {
+		char[] longPath = new char[1000];
+		Arrays.fill(longPath, 'x');
+
+		cut.add(new String(longPath), HASH_B);
+
+		assertThat(cut.getPath(3), is(new String(longPath)));
+	}
+}
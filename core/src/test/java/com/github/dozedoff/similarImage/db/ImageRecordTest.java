@@ -46,6 +46,17 @@ public class ImageRecordTest {
 		assertThat(imageRecord.getpHash(), is(42L));
 	}
 
+	@Test
+	public void testGetHashSourceDefault() throws Exception {
+		assertThat(imageRecord.getHashSource(), is(HashSource.IMAGE));
+	}
+
+	@Test
+	public void testGetHashSource() throws Exception {
+		assertThat(new ImageRecord("foo", 42, HashSource.EXIF_THUMBNAIL).getHashSource(),
+				is(HashSource.EXIF_THUMBNAIL));
+	}
+
 	@Test
 	public void testCompareToSelf() throws Exception {
 		assertThat(imageRecord.compareTo(imageRecord), is(0));
@@ -73,7 +84,8 @@ public class ImageRecordTest {
 
 	@Test
 	public void testEquals() throws Exception {
-		EqualsVerifier.forClass(ImageRecord.class).suppress(Warning.NONFINAL_FIELDS).verify();
+		EqualsVerifier.forClass(ImageRecord.class).withIgnoredFields("hashSource").suppress(Warning.NONFINAL_FIELDS)
+				.verify();
 	}
 
 	@Test
@@ -0,0 +1,332 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db.repository;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.j256.ormlite.misc.TransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchingImageRepositoryTest {
+	private static final int BATCH_SIZE = 3;
+	private static final long FLUSH_INTERVAL = 60000;
+	private static final long SHORT_FLUSH_INTERVAL = 10;
+	private static final long CONCURRENT_TIMEOUT = 5000;
+	private static final String ALGORITHM = "foo";
+	private static final long HASH = 42L;
+
+	@Mock
+	private ImageRepository imageRepository;
+
+	@Mock
+	private TransactionManager transactionManager;
+
+	private BatchingImageRepository cut;
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private ImageRecord imageC;
+	private Path pathA;
+	private List<ImageRecord> discarded;
+
+	@Before
+	public void setUp() throws Exception {
+		pathA = Paths.get("a");
+		imageA = new ImageRecord(pathA.toString(), 1L);
+		imageB = new ImageRecord("b", 2L);
+		imageC = new ImageRecord("c", 3L);
+		discarded = Collections.synchronizedList(new ArrayList<>());
+
+		cut = new BatchingImageRepository(imageRepository, transactionManager, BATCH_SIZE, FLUSH_INTERVAL,
+				discarded::add);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cut.close();
+	}
+
+	private void runTransactions() throws SQLException {
+		when(transactionManager.callInTransaction(any())).thenAnswer(invocation -> {
+			Callable<?> callable = invocation.getArgument(0);
+			return callable.call();
+		});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBatchSize() throws Exception {
+		new BatchingImageRepository(imageRepository, transactionManager, 0, FLUSH_INTERVAL);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidFlushInterval() throws Exception {
+		new BatchingImageRepository(imageRepository, transactionManager, BATCH_SIZE, 0);
+	}
+
+	@Test
+	public void testStoreIsDeferred() throws Exception {
+		cut.store(imageA);
+
+		verify(imageRepository, never()).store(any(ImageRecord.class));
+		verify(imageRepository, never()).store(anyCollection());
+		assertThat(cut.getPendingCount(), is(1));
+	}
+
+	@Test
+	public void testStoreSamePathOnce() throws Exception {
+		cut.store(imageA);
+		cut.store(imageA);
+
+		assertThat(cut.getPendingCount(), is(1));
+	}
+
+	@Test
+	public void testFlushWhenBatchIsFull() throws Exception {
+		cut.store(imageA);
+		cut.store(imageB);
+		cut.store(imageC);
+
+		verify(imageRepository).store(Arrays.asList(imageA, imageB, imageC));
+		assertThat(cut.getPendingCount(), is(0));
+	}
+
+	@Test
+	public void testStoreCollectionFlushWhenBatchIsFull() throws Exception {
+		cut.store(Arrays.asList(imageA, imageB, imageC));
+
+		verify(imageRepository).store(Arrays.asList(imageA, imageB, imageC));
+		assertThat(cut.getPendingCount(), is(0));
+	}
+
+	@Test
+	public void testFlushAfterInterval() throws Exception {
+		cut.close();
+		cut = new BatchingImageRepository(imageRepository, transactionManager, BATCH_SIZE, SHORT_FLUSH_INTERVAL);
+
+		cut.store(imageA);
+
+		verify(imageRepository, timeout(CONCURRENT_TIMEOUT)).store(Collections.singletonList(imageA));
+	}
+
+	@Test
+	public void testFlushOnClose() throws Exception {
+		cut.store(imageA);
+
+		cut.close();
+
+		verify(imageRepository).store(Collections.singletonList(imageA));
+	}
+
+	@Test
+	public void testStoreAfterCloseIsDirect() throws Exception {
+		cut.close();
+
+		cut.store(imageA);
+
+		verify(imageRepository).store(imageA);
+		verify(transactionManager, never()).callInTransaction(any());
+	}
+
+	@Test
+	public void testEmptyFlushHasNoTransaction() throws Exception {
+		cut.flush();
+
+		verify(transactionManager, never()).callInTransaction(any());
+	}
+
+	@Test
+	public void testAdditionalHashStoredAfterImages() throws Exception {
+		runTransactions();
+		cut.store(imageA);
+		cut.storeAdditionalHash(imageA, ALGORITHM, HASH);
+
+		cut.flush();
+
+		InOrder inOrder = inOrder(imageRepository);
+		inOrder.verify(imageRepository).store(Collections.singletonList(imageA));
+		inOrder.verify(imageRepository).storeAdditionalHash(imageA, ALGORITHM, HASH);
+	}
+
+	@Test
+	public void testStoreAdditionalHashAfterCloseIsDirect() throws Exception {
+		cut.close();
+
+		cut.storeAdditionalHash(imageA, ALGORITHM, HASH);
+
+		verify(imageRepository).storeAdditionalHash(imageA, ALGORITHM, HASH);
+	}
+
+	@Test
+	public void testFailedBatchStoredOneByOne() throws Exception {
+		doThrow(new RepositoryException("test")).when(imageRepository).store(anyCollection());
+		cut.store(imageA);
+		cut.store(imageB);
+
+		cut.flush();
+
+		verify(imageRepository).store(imageA);
+		verify(imageRepository).store(imageB);
+		assertThat(discarded, is(empty()));
+	}
+
+	@Test
+	public void testFailedImageIsDiscarded() throws Exception {
+		doThrow(new RepositoryException("test")).when(imageRepository).store(anyCollection());
+		doThrow(new RepositoryException("test")).when(imageRepository).store(imageA);
+		cut.store(imageA);
+
+		cut.flush();
+
+		assertThat(cut.getPendingCount(), is(0));
+		assertThat(discarded, contains(imageA));
+	}
+
+	@Test
+	public void testHashOfDiscardedImageNotStored() throws Exception {
+		doThrow(new RepositoryException("test")).when(imageRepository).store(anyCollection());
+		doThrow(new RepositoryException("test")).when(imageRepository).store(imageA);
+		cut.store(imageA);
+		cut.storeAdditionalHash(imageA, ALGORITHM, HASH);
+
+		cut.flush();
+
+		verify(imageRepository, never()).storeAdditionalHash(imageA, ALGORITHM, HASH);
+	}
+
+	@Test
+	public void testFailedHashBatchStoredOneByOne() throws Exception {
+		when(transactionManager.callInTransaction(any())).thenThrow(new SQLException("test"));
+		cut.store(imageA);
+		cut.storeAdditionalHash(imageA, ALGORITHM, HASH);
+
+		cut.flush();
+
+		verify(imageRepository).storeAdditionalHash(imageA, ALGORITHM, HASH);
+	}
+
+	@Test
+	public void testTimedFlushReportsDiscardedImages() throws Exception {
+		doThrow(new RepositoryException("test")).when(imageRepository).store(anyCollection());
+		doThrow(new RepositoryException("test")).when(imageRepository).store(imageA);
+		cut.close();
+		cut = new BatchingImageRepository(imageRepository, transactionManager, BATCH_SIZE, SHORT_FLUSH_INTERVAL,
+				discarded::add);
+
+		cut.store(imageA);
+
+		await().atMost(CONCURRENT_TIMEOUT, TimeUnit.MILLISECONDS).until(discarded::size, is(1));
+		assertThat(discarded, contains(imageA));
+	}
+
+	@Test
+	public void testGetByPathPending() throws Exception {
+		cut.store(imageA);
+
+		assertThat(cut.getByPath(pathA), is(imageA));
+		verify(imageRepository, never()).getByPath(any());
+	}
+
+	@Test
+	public void testGetByPathNotPending() throws Exception {
+		assertThat(cut.getByPath(pathA), is(nullValue()));
+		verify(imageRepository).getByPath(pathA);
+	}
+
+	@Test
+	public void testReadFlushesPending() throws Exception {
+		cut.store(imageA);
+
+		cut.getAll();
+
+		InOrder inOrder = inOrder(imageRepository);
+		inOrder.verify(imageRepository).store(Collections.singletonList(imageA));
+		inOrder.verify(imageRepository).getAll();
+	}
+
+	@Test
+	public void testRemoveFlushesPending() throws Exception {
+		cut.store(imageA);
+
+		cut.remove(imageA);
+
+		InOrder inOrder = inOrder(imageRepository);
+		inOrder.verify(imageRepository).store(Collections.singletonList(imageA));
+		inOrder.verify(imageRepository).remove(imageA);
+	}
+
+	@Test
+	public void testIsIgnored() throws Exception {
+		when(imageRepository.isIgnored(imageA)).thenReturn(true);
+
+		assertThat(cut.isIgnored(imageA), is(true));
+	}
+
+	@Test
+	public void testGetGeneration() throws Exception {
+		cut.getGeneration();
+
+		verify(imageRepository).getGeneration();
+	}
+
+	@Test
+	public void testStoreFailureInBatch() throws Exception {
+		doThrow(new RepositoryException("test")).when(imageRepository).store(anyCollection());
+		doThrow(new RepositoryException("test")).when(imageRepository).store(imageB);
+
+		cut.store(imageA);
+		cut.store(imageB);
+		cut.store(imageC);
+
+		verify(imageRepository, times(1)).store(imageA);
+		verify(imageRepository, times(1)).store(imageC);
+		assertThat(discarded, contains(imageB));
+	}
+}
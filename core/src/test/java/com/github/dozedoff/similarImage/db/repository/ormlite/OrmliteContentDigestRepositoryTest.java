@@ -0,0 +1,89 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.db.repository.ormlite;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ContentDigest;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.table.TableUtils;
+
+public class OrmliteContentDigestRepositoryTest extends OrmliteRepositoryBaseTest {
+	private static final String PATH_EXISTING = "existing";
+	private static final String PATH_NEW = "new";
+
+	private Dao<ContentDigest, String> digestDao;
+
+	private ContentDigest existing;
+	private ContentDigest digestNew;
+
+	private ContentDigestRepository cut;
+
+	@Before
+	public void setUp() throws Exception {
+		digestDao = DaoManager.createDao(getConnectionSource(), ContentDigest.class);
+		TableUtils.createTable(getConnectionSource(), ContentDigest.class);
+
+		existing = new ContentDigest(PATH_EXISTING, 1, 2, new byte[] { 1, 2 });
+		digestNew = new ContentDigest(PATH_NEW, 3, 4, new byte[] { 3, 4 });
+
+		digestDao.create(existing);
+
+		cut = new OrmliteContentDigestRepository(digestDao);
+	}
+
+	@Test
+	public void testStore() throws Exception {
+		cut.store(digestNew);
+
+		assertThat(digestDao.queryForId(PATH_NEW), is(digestNew));
+	}
+
+	@Test
+	public void testStoreUpdates() throws Exception {
+		ContentDigest updated = new ContentDigest(PATH_EXISTING, 5, 6, new byte[] { 5, 6 });
+
+		cut.store(updated);
+
+		assertThat(digestDao.queryForId(PATH_EXISTING), is(updated));
+	}
+
+	@Test
+	public void testGetByPath() throws Exception {
+		assertThat(cut.getByPath(PATH_EXISTING), is(existing));
+	}
+
+	@Test
+	public void testGetByPathNotFound() throws Exception {
+		assertThat(cut.getByPath(PATH_NEW), is(nullValue()));
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		cut.remove(existing);
+
+		assertThat(digestDao.queryForId(PATH_EXISTING), is(nullValue()));
+	}
+}
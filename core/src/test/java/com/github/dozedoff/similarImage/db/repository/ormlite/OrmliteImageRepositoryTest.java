@@ -19,23 +19,38 @@ package com.github.dozedoff.similarImage.db.repository.ormlite;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.IgnoreRecord;
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.db.repository.ImageRepositoryListener;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.io.Resources;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.dao.LruObjectCache;
 import com.j256.ormlite.table.TableUtils;
 
 public class OrmliteImageRepositoryTest extends OrmliteRepositoryBaseTest {
@@ -44,6 +59,13 @@ public class OrmliteImageRepositoryTest extends OrmliteRepositoryBaseTest {
 
 	private static final long HASH_EXISTING_RECORD = 1;
 	private static final long HASH_NEW_RECORD = 2;
+	private static final String GENERATION_MIGRATION = "db/migration/V3.1__Image_generation.sql";
+	private static final String ADDITIONAL_HASHES_MIGRATION = "db/migration/V3.2__Additional_hashes.sql";
+	private static final String ALGORITHM = "test_hash";
+	private static final long ADDITIONAL_HASH = 42;
+	private static final int LARGE_BATCH_SIZE = 600;
+	private static final int OBJECT_CACHE_SIZE = 10;
+	private static final String FAILING_PATH = "fail";
 
 	private String pathExisting;
 	private String pathNew;
@@ -81,6 +103,29 @@ public class OrmliteImageRepositoryTest extends OrmliteRepositoryBaseTest {
 		cut = new OrmliteImageRepository(imageDao, ignoreDao);
 	}
 
+	private void createGenerationTable() throws Exception {
+		executeScript(GENERATION_MIGRATION);
+	}
+
+	private void createAdditionalHashTable() throws Exception {
+		executeScript(ADDITIONAL_HASHES_MIGRATION);
+	}
+
+	private void createFailingInsertTrigger() throws Exception {
+		imageDao.executeRaw("CREATE TRIGGER `fail_insert` BEFORE INSERT ON `imagerecord` WHEN NEW.`"
+				+ ImageRecord.PATH_COLUMN_NAME + "` = '" + FAILING_PATH + "' BEGIN SELECT RAISE(ABORT, 'test'); END");
+	}
+
+	private void executeScript(String resource) throws Exception {
+		String script = Resources.toString(Resources.getResource(resource), StandardCharsets.UTF_8);
+
+		for (String statement : script.split(";\n")) {
+			if (!statement.trim().isEmpty()) {
+				imageDao.executeRaw(statement);
+			}
+		}
+	}
+
 	@Test
 	public void testStore() throws Exception {
 		cut.store(imageNew);
@@ -88,6 +133,40 @@ public class OrmliteImageRepositoryTest extends OrmliteRepositoryBaseTest {
 		assertThat(imageDao.queryForId(pathNew), is(imageNew));
 	}
 
+	@Test
+	public void testStoreCollection() throws Exception {
+		ImageRecord updated = new ImageRecord(pathExisting, HASH_NEW_RECORD);
+
+		cut.store(Arrays.asList(imageNew, updated));
+
+		assertThat(imageDao.queryForAll(), containsInAnyOrder(imageNew, updated));
+	}
+
+	@Test
+	public void testStoreCollectionRolledBack() throws Exception {
+		createFailingInsertTrigger();
+
+		try {
+			cut.store(Arrays.asList(imageNew, new ImageRecord(FAILING_PATH, HASH_NEW_RECORD)));
+		} catch (RepositoryException e) {
+			// expected
+		}
+
+		assertThat(imageDao.queryForId(pathNew), is(nullValue()));
+	}
+
+	@Test
+	public void testStoreHashSource() throws Exception {
+		cut.store(new ImageRecord(pathNew, HASH_NEW_RECORD, HashSource.EXIF_THUMBNAIL));
+
+		assertThat(imageDao.queryForId(pathNew).getHashSource(), is(HashSource.EXIF_THUMBNAIL));
+	}
+
+	@Test
+	public void testStoreWithoutHashSource() throws Exception {
+		assertThat(imageDao.queryForId(pathExisting).getHashSource(), is(HashSource.IMAGE));
+	}
+
 	@Test
 	public void testGetByHashExists() throws Exception {
 		assertThat(cut.getByHash(HASH_EXISTING_RECORD), containsInAnyOrder(imageExisting));
@@ -170,4 +249,270 @@ public class OrmliteImageRepositoryTest extends OrmliteRepositoryBaseTest {
 
 		assertThat(result, is(empty()));
 	}
+
+	@Test
+	public void testGetCompact() throws Exception {
+		imageDao.create(imageNew);
+
+		assertThat(cut.getCompact(null, false), contains(imageExisting, imageNew));
+	}
+
+	@Test
+	public void testGetCompactSortedByHash() throws Exception {
+		imageDao.create(imageNew);
+		imageDao.create(new ImageRecord("first", -1L));
+
+		ImageRecordStore result = cut.getCompact(null, false);
+
+		assertThat(result.isSortedByHash(), is(true));
+		assertThat(result.getHash(0), is(-1L));
+	}
+
+	@Test
+	public void testGetCompactPath() throws Exception {
+		imageDao.create(imageNew);
+
+		assertThat(cut.getCompact(Paths.get(pathExisting), false), contains(imageExisting));
+	}
+
+	@Test
+	public void testGetCompactWithoutIgnored() throws Exception {
+		imageDao.create(imageNew);
+
+		assertThat(cut.getCompact(null, true), contains(imageNew));
+	}
+
+	@Test
+	public void testGetCompactWithoutIgnoredPathNoMatch() throws Exception {
+		imageDao.create(imageNew);
+
+		assertThat(cut.getCompact(Paths.get(pathExisting), true), is(empty()));
+	}
+
+	@Test
+	public void testForEachSortedByHash() throws Exception {
+		imageDao.create(imageNew);
+		imageDao.create(new ImageRecord("first", -1L));
+		List<ImageRecord> result = new LinkedList<>();
+
+		cut.forEachSortedByHash(null, false, (path, hash) -> result.add(new ImageRecord(path, hash)));
+
+		assertThat(result, contains(new ImageRecord("first", -1L), imageExisting, imageNew));
+	}
+
+	@Test
+	public void testForEachSortedByHashWithoutIgnoredPath() throws Exception {
+		imageDao.create(imageNew);
+		List<ImageRecord> result = new LinkedList<>();
+
+		cut.forEachSortedByHash(Paths.get(pathNew), true, (path, hash) -> result.add(new ImageRecord(path, hash)));
+
+		assertThat(result, contains(imageNew));
+	}
+
+	@Test
+	public void testGetGenerationInitial() throws Exception {
+		createGenerationTable();
+
+		assertThat(cut.getGeneration(), is(0L));
+	}
+
+	@Test
+	public void testGetGenerationAfterStore() throws Exception {
+		createGenerationTable();
+
+		cut.store(imageNew);
+
+		assertThat(cut.getGeneration(), is(greaterThan(0L)));
+	}
+
+	@Test
+	public void testGetGenerationAfterRemove() throws Exception {
+		createGenerationTable();
+
+		cut.remove(imageExisting);
+
+		assertThat(cut.getGeneration(), is(greaterThan(0L)));
+	}
+
+	@Test
+	public void testGetGenerationAfterIgnore() throws Exception {
+		createGenerationTable();
+
+		ignoreDao.create(new IgnoreRecord(imageNew));
+
+		assertThat(cut.getGeneration(), is(greaterThan(0L)));
+	}
+
+	@Test(expected = RepositoryException.class)
+	public void testGetGenerationNoTable() throws Exception {
+		cut.getGeneration();
+	}
+
+	@Test
+	public void testListenerStoreNew() throws Exception {
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+
+		cut.store(imageNew);
+
+		verify(listener).imageStored(imageNew, null);
+	}
+
+	@Test
+	public void testListenerStoreUpdate() throws Exception {
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+		ImageRecord updated = new ImageRecord(pathExisting, HASH_NEW_RECORD);
+
+		cut.store(updated);
+
+		verify(listener).imageStored(updated, imageExisting);
+	}
+
+	@Test
+	public void testListenerStoreCollection() throws Exception {
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+		ImageRecord updated = new ImageRecord(pathExisting, HASH_NEW_RECORD);
+
+		cut.store(Arrays.asList(imageNew, updated));
+
+		verify(listener).imageStored(imageNew, null);
+		verify(listener).imageStored(updated, imageExisting);
+	}
+
+	@Test
+	public void testListenerNotNotifiedOnRollback() throws Exception {
+		createFailingInsertTrigger();
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+
+		try {
+			cut.store(Arrays.asList(imageNew, new ImageRecord(FAILING_PATH, HASH_NEW_RECORD)));
+		} catch (RepositoryException e) {
+			// expected
+		}
+
+		verify(listener, never()).imageStored(any(), any());
+	}
+
+	@Test
+	public void testListenerStoreUpdateWithObjectCache() throws Exception {
+		imageDao.setObjectCache(new LruObjectCache(OBJECT_CACHE_SIZE));
+
+		try {
+			ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+			cut.addListener(listener);
+			ImageRecord updated = new ImageRecord(pathExisting, HASH_NEW_RECORD);
+
+			cut.store(updated);
+
+			verify(listener).imageStored(updated, imageExisting);
+		} finally {
+			imageDao.setObjectCache(false);
+		}
+	}
+
+	@Test
+	public void testIsIgnored() throws Exception {
+		assertThat(cut.isIgnored(imageExisting), is(true));
+	}
+
+	@Test
+	public void testIsNotIgnored() throws Exception {
+		assertThat(cut.isIgnored(imageNew), is(false));
+	}
+
+	@Test
+	public void testListenerRemove() throws Exception {
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+
+		cut.remove(imageExisting);
+
+		verify(listener).imageRemoved(imageExisting);
+	}
+
+	@Test
+	public void testListenerRemoveCollection() throws Exception {
+		imageDao.create(imageNew);
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+
+		cut.remove(Arrays.asList(imageExisting, imageNew));
+
+		verify(listener).imageRemoved(imageExisting);
+		verify(listener).imageRemoved(imageNew);
+	}
+
+	@Test
+	public void testRemovedListenerNotNotified() throws Exception {
+		ImageRepositoryListener listener = mock(ImageRepositoryListener.class);
+		cut.addListener(listener);
+		cut.removeListener(listener);
+
+		cut.store(imageNew);
+
+		verify(listener, never()).imageStored(any(), any());
+	}
+
+	@Test
+	public void testStoreAdditionalHash() throws Exception {
+		createAdditionalHashTable();
+
+		cut.storeAdditionalHash(imageExisting, ALGORITHM, ADDITIONAL_HASH);
+
+		assertThat(cut.getAdditionalHashes(ALGORITHM, Arrays.asList(imageExisting, imageNew)),
+				is(Collections.singletonMap(pathExisting, ADDITIONAL_HASH)));
+	}
+
+	@Test
+	public void testStoreAdditionalHashReplaces() throws Exception {
+		createAdditionalHashTable();
+
+		cut.storeAdditionalHash(imageExisting, ALGORITHM, HASH_NEW_RECORD);
+		cut.storeAdditionalHash(imageExisting, ALGORITHM, ADDITIONAL_HASH);
+
+		assertThat(cut.getAdditionalHashes(ALGORITHM, Arrays.asList(imageExisting)),
+				is(Collections.singletonMap(pathExisting, ADDITIONAL_HASH)));
+	}
+
+	@Test
+	public void testGetAdditionalHashesOtherAlgorithm() throws Exception {
+		createAdditionalHashTable();
+
+		cut.storeAdditionalHash(imageExisting, ALGORITHM, ADDITIONAL_HASH);
+
+		assertThat(cut.getAdditionalHashes("other", Arrays.asList(imageExisting)).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testGetAdditionalHashesLargeBatch() throws Exception {
+		createAdditionalHashTable();
+		List<ImageRecord> images = new LinkedList<>();
+
+		for (int i = 0; i < LARGE_BATCH_SIZE; i++) {
+			ImageRecord image = new ImageRecord("batch" + i, i);
+			images.add(image);
+			cut.storeAdditionalHash(image, ALGORITHM, i);
+		}
+
+		assertThat(cut.getAdditionalHashes(ALGORITHM, images).size(), is(LARGE_BATCH_SIZE));
+	}
+
+	@Test
+	public void testAdditionalHashRemovedWithImage() throws Exception {
+		createAdditionalHashTable();
+		cut.storeAdditionalHash(imageExisting, ALGORITHM, ADDITIONAL_HASH);
+
+		cut.remove(imageExisting);
+
+		assertThat(cut.getAdditionalHashes(ALGORITHM, Arrays.asList(imageExisting)).isEmpty(), is(true));
+	}
+
+	@Test(expected = RepositoryException.class)
+	public void testGetAdditionalHashesNoTable() throws Exception {
+		cut.getAdditionalHashes(ALGORITHM, Arrays.asList(imageExisting));
+	}
 }
@@ -24,12 +24,14 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.github.dozedoff.similarImage.db.ContentDigest;
 import com.github.dozedoff.similarImage.db.FilterRecord;
 import com.github.dozedoff.similarImage.db.IgnoreRecord;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.PendingHashImage;
 import com.github.dozedoff.similarImage.db.SQLiteDatabase;
 import com.github.dozedoff.similarImage.db.Tag;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.db.repository.IgnoreRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
@@ -85,4 +87,11 @@ public class OrmliteRepositoryFactoryTest {
 
 		ir.store(new IgnoreRecord(new ImageRecord(TEST_STRING, 0)));
 	}
+
+	@Test
+	public void testBuildContentDigestRepository() throws Exception {
+		ContentDigestRepository cdr = cut.buildContentDigestRepository();
+
+		cdr.store(new ContentDigest(TEST_STRING, 0, 0, new byte[] { 0 }));
+	}
 }
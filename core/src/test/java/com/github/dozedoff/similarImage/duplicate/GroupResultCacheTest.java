@@ -0,0 +1,176 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+
+public class GroupResultCacheTest {
+	private static final String KEY = "all";
+	private static final long GENERATION = 3L;
+
+	private ImageRepository imageRepository;
+	private GroupResultCache cut;
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private ImageRecord imageC;
+	private AtomicInteger groupings;
+	private Supplier<Multimap<Long, ImageRecord>> grouper;
+
+	@Before
+	public void setUp() throws Exception {
+		imageRepository = mock(ImageRepository.class);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION);
+
+		imageA = new ImageRecord("a", 1L);
+		imageB = new ImageRecord("b", 3L);
+		imageC = new ImageRecord("c", 3L);
+
+		groupings = new AtomicInteger();
+		grouper = () -> {
+			groupings.incrementAndGet();
+
+			Multimap<Long, ImageRecord> groups = MultimapBuilder.hashKeys().hashSetValues().build();
+			groups.put(1L, imageA);
+			groups.put(1L, imageB);
+			groups.put(1L, imageC);
+			groups.put(3L, imageA);
+			groups.put(3L, imageB);
+			groups.put(3L, imageC);
+
+			return groups;
+		};
+
+		cut = new GroupResultCache(imageRepository);
+	}
+
+	@Test
+	public void testRegisteredAsListener() throws Exception {
+		verify(imageRepository).addListener(cut);
+	}
+
+	@Test
+	public void testSameGenerationFromMemory() throws Exception {
+		cut.get(KEY, grouper);
+
+		assertThat(cut.get(KEY, grouper).get(3L), containsInAnyOrder(imageA, imageB, imageC));
+		assertThat(groupings.get(), is(1));
+	}
+
+	@Test
+	public void testGenerationChangedGroupsAgain() throws Exception {
+		cut.get(KEY, grouper);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		cut.get(KEY, grouper);
+
+		assertThat(groupings.get(), is(2));
+	}
+
+	@Test
+	public void testDifferentKeyGroupsAgain() throws Exception {
+		cut.get(KEY, grouper);
+		cut.get("other", grouper);
+
+		assertThat(groupings.get(), is(2));
+	}
+
+	@Test
+	public void testRemovedImageRemovedFromGroups() throws Exception {
+		cut.get(KEY, grouper);
+		cut.imageRemoved(imageB);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		Multimap<Long, ImageRecord> groups = cut.get(KEY, grouper);
+
+		assertThat(groups.get(1L), containsInAnyOrder(imageA, imageC));
+		assertThat(groups.get(3L), containsInAnyOrder(imageA, imageC));
+		assertThat(groupings.get(), is(1));
+	}
+
+	@Test
+	public void testGroupWithoutOwnHashDropped() throws Exception {
+		cut.get(KEY, grouper);
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		Multimap<Long, ImageRecord> groups = cut.get(KEY, grouper);
+
+		assertThat(groups.containsKey(1L), is(false));
+		assertThat(groups.get(3L), containsInAnyOrder(imageB, imageC));
+	}
+
+	@Test
+	public void testRemovedImagesWithSameHash() throws Exception {
+		cut.get(KEY, grouper);
+		cut.imageRemoved(imageB);
+		cut.imageRemoved(imageC);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		Multimap<Long, ImageRecord> groups = cut.get(KEY, grouper);
+
+		assertThat(groups.get(1L), containsInAnyOrder(imageA));
+		assertThat(groups.containsKey(3L), is(false));
+	}
+
+	@Test
+	public void testRemovedUnknownImage() throws Exception {
+		cut.get(KEY, grouper);
+		cut.imageRemoved(new ImageRecord("d", 3L));
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, grouper).get(3L), containsInAnyOrder(imageA, imageB, imageC));
+	}
+
+	@Test
+	public void testStoredImageGroupsAgain() throws Exception {
+		cut.get(KEY, grouper);
+		cut.imageStored(new ImageRecord("d", 3L), null);
+
+		cut.get(KEY, grouper);
+
+		assertThat(groupings.get(), is(2));
+	}
+
+	@Test
+	public void testRepositoryErrorBypassesCache() throws Exception {
+		when(imageRepository.getGeneration()).thenThrow(new RepositoryException("just testing!"));
+
+		cut.get(KEY, grouper);
+		cut.get(KEY, grouper);
+
+		assertThat(groupings.get(), is(2));
+	}
+}
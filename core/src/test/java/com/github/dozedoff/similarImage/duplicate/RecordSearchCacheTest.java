@@ -0,0 +1,375 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+
+public class RecordSearchCacheTest {
+	private static final String KEY = "all";
+	private static final long GENERATION = 3L;
+	private static final IndexType INDEX_TYPE = IndexType.HAMMING_BK_TREE;
+	private static final Predicate<ImageRecord> SCOPE = image -> !image.getPath().startsWith("x");
+
+	private ImageRepository imageRepository;
+
+	private Path cacheDirectory;
+	private RecordSearchCache cut;
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private AtomicInteger queries;
+	private Supplier<List<ImageRecord>> query;
+
+	@Before
+	public void setUp() throws Exception {
+		imageRepository = mock(ImageRepository.class);
+		cacheDirectory = Files.createTempDirectory(RecordSearchCacheTest.class.getSimpleName());
+		when(imageRepository.getGeneration()).thenReturn(GENERATION);
+
+		imageA = new ImageRecord("a", 1L);
+		imageB = new ImageRecord("b", 3L);
+
+		queries = new AtomicInteger();
+		query = () -> {
+			queries.incrementAndGet();
+			return Arrays.asList(imageB, imageA);
+		};
+
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(cacheDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testFirstGetQueries() throws Exception {
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), containsInAnyOrder(imageA, imageB));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testSameGenerationFromMemory() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testGenerationChangedQueriesAgain() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testSameGenerationFromFile() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), containsInAnyOrder(imageA, imageB));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testStaleFileQueriesAgain() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testCorruptFileQueriesAgain() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+
+		try (Stream<Path> files = Files.list(cacheDirectory)) {
+			Path file = files.findFirst().get();
+			Files.write(file, Arrays.copyOf(Files.readAllBytes(file), 20));
+		}
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), containsInAnyOrder(imageA, imageB));
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testDifferentKeysQueried() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.get("other", INDEX_TYPE, query, SCOPE);
+
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testLookupCachedSearch() throws Exception {
+		List<ImageRecord> records = cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		RecordSearch search = cut.lookup(records);
+
+		assertThat(search, is(notNullValue()));
+		assertThat(search.distanceMatch(1L, 1L).get(3L), hasItem(imageB));
+	}
+
+	@Test
+	public void testLookupUnknownRecords() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(cut.lookup(Arrays.asList(imageA, imageB)), is(nullValue()));
+	}
+
+	@Test
+	public void testRepositoryErrorBypassesCache() throws Exception {
+		when(imageRepository.getGeneration()).thenThrow(new RepositoryException("just testing!"));
+
+		List<ImageRecord> records = cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(records, containsInAnyOrder(imageA, imageB));
+		assertThat(queries.get(), is(2));
+		assertThat(cut.lookup(records), is(nullValue()));
+	}
+
+	@Test
+	public void testRegisteredAsListener() throws Exception {
+		verify(imageRepository).addListener(cut);
+	}
+
+	@Test
+	public void testStoredImageAdded() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		ImageRecord imageC = new ImageRecord("c", 2L);
+
+		cut.imageStored(imageC, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		List<ImageRecord> records = cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(records, containsInAnyOrder(imageA, imageB, imageC));
+		assertThat(cut.lookup(records).distanceMatch(2L, 0L).get(2L), hasItem(imageC));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testStoredImageOutOfScope() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		ImageRecord imageX = new ImageRecord("x", 2L);
+
+		cut.imageStored(imageX, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), not(hasItem(imageX)));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testStoredIgnoredImageNotAdded() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE, true);
+		ImageRecord imageC = new ImageRecord("c", 2L);
+		when(imageRepository.isIgnored(imageC)).thenReturn(true);
+
+		cut.imageStored(imageC, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE, true), not(hasItem(imageC)));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testStoredIgnoredImageAddedIfIncluded() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		ImageRecord imageC = new ImageRecord("c", 2L);
+
+		cut.imageStored(imageC, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), hasItem(imageC));
+		verify(imageRepository, never()).isIgnored(imageC);
+	}
+
+	@Test
+	public void testIgnoreCheckedOncePerImage() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE, true);
+		cut.get("other", INDEX_TYPE, query, SCOPE, true);
+		ImageRecord imageC = new ImageRecord("c", 2L);
+
+		cut.imageStored(imageC, null);
+
+		verify(imageRepository).isIgnored(imageC);
+	}
+
+	@Test
+	public void testIgnoreCheckFailure() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE, true);
+		ImageRecord imageC = new ImageRecord("c", 2L);
+		when(imageRepository.isIgnored(imageC)).thenThrow(new RepositoryException("just testing!"));
+
+		cut.imageStored(imageC, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE, true), hasItem(imageC));
+	}
+
+	@Test
+	public void testStoredImageReplaced() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		ImageRecord updatedA = new ImageRecord("a", 5L);
+
+		cut.imageStored(updatedA, imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), containsInAnyOrder(updatedA, imageB));
+	}
+
+	@Test
+	public void testRemovedImage() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		List<ImageRecord> records = cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(records, containsInAnyOrder(imageB));
+		assertThat(cut.lookup(records).distanceMatch(1L, 0L).isEmpty(), is(true));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testChangesWrittenToFile() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), containsInAnyOrder(imageB));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testUnknownChangeQueriesAgain() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 2);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(queries.get(), is(2));
+	}
+
+	private long countFiles() throws Exception {
+		try (Stream<Path> files = Files.list(cacheDirectory)) {
+			return files.count();
+		}
+	}
+
+	@Test
+	public void testChangesAppendedToJournal() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(countFiles(), is(2L));
+	}
+
+	@Test
+	public void testJournalBatchesReplayed() throws Exception {
+		ImageRecord imageC = new ImageRecord("c", 2L);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.imageStored(imageC, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 2);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+		List<ImageRecord> records = cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(records, contains(imageC, imageB));
+		assertThat(cut.lookup(records).distanceMatch(2L, 0L).get(2L), hasItem(imageC));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testRecordsStaySortedByHash() throws Exception {
+		ImageRecord imageC = new ImageRecord("c", 2L);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		cut.imageStored(imageC, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		assertThat(cut.get(KEY, INDEX_TYPE, query, SCOPE), contains(imageA, imageC, imageB));
+	}
+
+	@Test
+	public void testGenerationOnlyChangeWritten() throws Exception {
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+		cut.imageStored(new ImageRecord("x", 2L), null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		cut = new RecordSearchCache(imageRepository, cacheDirectory);
+		cut.get(KEY, INDEX_TYPE, query, SCOPE);
+
+		assertThat(queries.get(), is(1));
+	}
+}
@@ -17,17 +17,25 @@
  */
 package com.github.dozedoff.similarImage.duplicate;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -36,6 +44,7 @@ import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.jimfs.Jimfs;
@@ -162,10 +171,166 @@ public class RecordSearchTest {
 		assertThat(result.containsKey(1L), is(true));
 	}
 
+	@Test
+	public void testDefaultIndexType() throws Exception {
+		assertThat(cut.getIndexType(), is(IndexType.HAMMING_BK_TREE));
+	}
+
+	@Test
+	public void testDistanceMatchGenericBkTree() throws Exception {
+		cut = new RecordSearch(IndexType.GENERIC_BK_TREE);
+		cut.build(dbRecords);
+
+		Multimap<Long, ImageRecord> result = cut.distanceMatch(2L, 1L);
+
+		assertThat(result.keySet().size(), is(3));
+	}
+
+	@Test
+	public void testDistanceMatchLargeDistance() throws Exception {
+		Multimap<Long, ImageRecord> result = cut.distanceMatch(2L, Long.MAX_VALUE);
+
+		assertThat(result.keySet().size(), is(4));
+	}
+
 	@Test
 	public void testSortingEmptyCollection() throws Exception {
 		cut.build(Collections.emptyList());
 
 		assertThat(cut.exactMatch(), is(empty()));
 	}
+
+	@Test
+	public void testIndexBuildTimeRecorded() throws Exception {
+		cut.build(dbRecords);
+
+		assertThat(cut.getIndexBuildMillis(), is(greaterThanOrEqualTo(0L)));
+	}
+
+	@Test
+	public void testExactMatch() throws Exception {
+		assertThat(cut.exactMatch(), contains(2L, 3L, 6L));
+	}
+
+	@Test
+	public void testExactMatchKeepsSingleImages() throws Exception {
+		cut.exactMatch();
+
+		assertThat(cut.distanceMatch(1L, 0L).get(1L).size(), is(1));
+	}
+
+	@Test
+	public void testAddNewHash() throws Exception {
+		ImageRecord record = generateRecord(7L);
+
+		cut.add(record);
+
+		assertThat(cut.distanceMatch(7L, 0L).get(7L), containsInAnyOrder(record));
+	}
+
+	@Test
+	public void testAddExistingHash() throws Exception {
+		ImageRecord record = generateRecord(2L);
+
+		cut.add(record);
+
+		assertThat(cut.distanceMatch(2L, 0L).get(2L).size(), is(3));
+	}
+
+	@Test
+	public void testRemoveLastRecordOfHash() throws Exception {
+		ImageRecord record = records.get(1L).iterator().next();
+
+		assertThat(cut.remove(record), is(true));
+		assertThat(cut.distanceMatch(2L, 2L).containsKey(1L), is(false));
+	}
+
+	@Test
+	public void testRemoveUnknownRecord() throws Exception {
+		assertThat(cut.remove(generateRecord(1L)), is(false));
+	}
+
+	@Test
+	public void testRemoveRebuildsIndex() throws Exception {
+		for (ImageRecord record : dbRecords) {
+			cut.remove(record);
+		}
+
+		assertThat(cut.distanceMatch(2L, Long.MAX_VALUE).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testGetRecords() throws Exception {
+		assertThat(cut.getRecords(), containsInAnyOrder(dbRecords.toArray()));
+	}
+
+	@Test
+	public void testBatchedDistanceMatch() throws Exception {
+		List<Multimap<Long, ImageRecord>> result = cut.distanceMatch(new long[] { 2L, 6L }, 1L);
+
+		assertThat(result.get(0).keySet(), containsInAnyOrder(2L, 3L, 6L));
+		assertThat(result.get(1).keySet(), containsInAnyOrder(2L, 6L));
+	}
+
+	@Test
+	public void testNearestMatchExact() throws Exception {
+		assertThat(cut.nearestMatch(2L, 2), containsInAnyOrder(records.get(2L).toArray()));
+	}
+
+	@Test
+	public void testNearestMatchSortedByDistance() throws Exception {
+		List<Long> hashes = cut.nearestMatch(2L, 4).stream().map(ImageRecord::getpHash).collect(Collectors.toList());
+
+		assertThat(hashes, contains(2L, 2L, 3L, 3L));
+	}
+
+	@Test
+	public void testNearestMatchAllRecords() throws Exception {
+		List<ImageRecord> result = cut.nearestMatch(2L, 100);
+
+		assertThat(result.size(), is(8));
+		assertThat(result.get(7).getpHash(), is(1L));
+	}
+
+	@Test
+	public void testNearestMatchNoRecords() throws Exception {
+		assertThat(cut.nearestMatch(2L, 0), is(empty()));
+	}
+
+	private ByteBuffer writtenIndex(RecordSearch search) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			search.writeIndex(out);
+		}
+
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	@Test
+	public void testRestoreWrittenIndex() throws Exception {
+		RecordSearch restored = new RecordSearch();
+		restored.restore(dbRecords, writtenIndex(cut));
+
+		assertThat(restored.distanceMatch(2L, 1L), is(cut.distanceMatch(2L, 1L)));
+	}
+
+	@Test
+	public void testRestoreIndexThatCannotBeWritten() throws Exception {
+		cut = new RecordSearch(IndexType.GENERIC_BK_TREE);
+		cut.build(dbRecords);
+		RecordSearch restored = new RecordSearch(IndexType.GENERIC_BK_TREE);
+
+		restored.restore(dbRecords, writtenIndex(cut));
+
+		assertThat(restored.distanceMatch(2L, 1L), is(cut.distanceMatch(2L, 1L)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testRestoreIndexMissingHashes() throws Exception {
+		RecordSearch empty = new RecordSearch();
+		empty.build(Collections.emptyList());
+
+		new RecordSearch().restore(dbRecords, writtenIndex(empty));
+	}
 }
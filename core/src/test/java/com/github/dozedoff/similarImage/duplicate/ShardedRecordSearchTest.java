@@ -0,0 +1,265 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.collect.Multimap;
+
+public class ShardedRecordSearchTest {
+	private static final long GENERATION = 3L;
+	private static final IndexType INDEX_TYPE = IndexType.HAMMING_BK_TREE;
+	private static final Path SHARD_A = Paths.get("/a");
+	private static final Path SHARD_B = Paths.get("/b");
+	private static final Path INDEXED_ROOT = Paths.get("/home/user/pictures");
+
+	private ImageRepository imageRepository;
+	private ShardedRecordSearch cut;
+
+	private ImageRecord imageA;
+	private ImageRecord imageA2;
+	private ImageRecord imageB;
+	private ImageRecord imageOther;
+
+	private AtomicInteger queries;
+	private Function<Path, Collection<ImageRecord>> query;
+
+	@Before
+	public void setUp() throws Exception {
+		imageRepository = mock(ImageRepository.class);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION);
+
+		imageA = new ImageRecord("/a/one.jpg", 1L);
+		imageA2 = new ImageRecord("/a/sub/two.jpg", 3L);
+		imageB = new ImageRecord("/b/three.jpg", 1L);
+		imageOther = new ImageRecord("/ab/four.jpg", 1L);
+
+		List<ImageRecord> all = Arrays.asList(imageA, imageA2, imageB, imageOther);
+
+		queries = new AtomicInteger();
+		query = directory -> {
+			queries.incrementAndGet();
+			return all.stream().filter(image -> image.getPath().startsWith(directory.toString()))
+					.collect(Collectors.toList());
+		};
+
+		cut = new ShardedRecordSearch(imageRepository);
+	}
+
+	private List<Multimap<Long, ImageRecord>> match(List<RecordSearch> shards, long hash, long distance) {
+		return ShardedRecordSearch.distanceMatch(shards, new long[] { hash }, distance);
+	}
+
+	@Test
+	public void testRegistersListener() throws Exception {
+		verify(imageRepository).addListener(cut);
+	}
+
+	@Test
+	public void testShardKeyTopLevelDirectory() throws Exception {
+		assertThat(cut.shardKey("/a/sub/two.jpg"), is(SHARD_A));
+	}
+
+	@Test
+	public void testShardKeyFileInRoot() throws Exception {
+		assertThat(cut.shardKey("/one.jpg"), is(Paths.get("/")));
+	}
+
+	@Test
+	public void testShardKeyRelative() throws Exception {
+		assertThat(cut.shardKey("a/sub/two.jpg"), is(Paths.get("a")));
+	}
+
+	@Test
+	public void testShardKeyBelowIndexedRoot() throws Exception {
+		cut = new ShardedRecordSearch(imageRepository, Collections.singletonList(INDEXED_ROOT), 1);
+
+		assertThat(cut.shardKey("/home/user/pictures/sub/deeper/one.jpg"), is(Paths.get("/home/user/pictures/sub")));
+	}
+
+	@Test
+	public void testShardKeyDepthBelowIndexedRoot() throws Exception {
+		cut = new ShardedRecordSearch(imageRepository, Collections.singletonList(INDEXED_ROOT), 2);
+
+		assertThat(cut.shardKey("/home/user/pictures/sub/deeper/one.jpg"),
+				is(Paths.get("/home/user/pictures/sub/deeper")));
+	}
+
+	@Test
+	public void testShardKeyFileInIndexedRoot() throws Exception {
+		cut = new ShardedRecordSearch(imageRepository, Collections.singletonList(INDEXED_ROOT), 1);
+
+		assertThat(cut.shardKey("/home/user/pictures/one.jpg"), is(INDEXED_ROOT));
+	}
+
+	@Test
+	public void testShardKeyDeepestIndexedRoot() throws Exception {
+		cut = new ShardedRecordSearch(imageRepository, Arrays.asList(Paths.get("/home"), INDEXED_ROOT), 1);
+
+		assertThat(cut.shardKey("/home/user/pictures/sub/one.jpg"), is(Paths.get("/home/user/pictures/sub")));
+	}
+
+	@Test
+	public void testShardKeyOutsideIndexedRoot() throws Exception {
+		cut = new ShardedRecordSearch(imageRepository, Collections.singletonList(INDEXED_ROOT), 2);
+
+		assertThat(cut.shardKey("/a/sub/deeper/two.jpg"), is(Paths.get("/a/sub")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidDepth() throws Exception {
+		new ShardedRecordSearch(imageRepository, Collections.singletonList(INDEXED_ROOT), 0);
+	}
+
+	@Test
+	public void testShardsBelowIndexedRoot() throws Exception {
+		cut = new ShardedRecordSearch(imageRepository, Collections.singletonList(SHARD_A), 1);
+
+		cut.getShards(Arrays.asList(imageA, imageA2), INDEX_TYPE, query);
+
+		assertThat(cut.getShardCount(), is(2));
+	}
+
+	@Test
+	public void testOneShardPerDirectory() throws Exception {
+		cut.getShards(Arrays.asList(imageA, imageA2, imageB), INDEX_TYPE, query);
+
+		assertThat(cut.getShardCount(), is(2));
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testShardContainsWholeDirectory() throws Exception {
+		List<RecordSearch> shards = cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 1L).get(0).values(), containsInAnyOrder(imageA, imageA2));
+	}
+
+	@Test
+	public void testShardFiltersOtherDirectories() throws Exception {
+		List<RecordSearch> shards = cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 0L).get(0).values(), containsInAnyOrder(imageA));
+	}
+
+	@Test
+	public void testShardsAreReused() throws Exception {
+		cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+		cut.getShards(Arrays.asList(imageA2, imageB), INDEX_TYPE, query);
+
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testGenerationChangedRebuildsShards() throws Exception {
+		cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+
+		cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		assertThat(queries.get(), is(2));
+	}
+
+	@Test
+	public void testGenerationFailureBypassesShards() throws Exception {
+		when(imageRepository.getGeneration()).thenThrow(new RepositoryException("test"));
+
+		List<RecordSearch> shards = cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 1L).get(0).values(), containsInAnyOrder(imageA));
+		assertThat(cut.getShardCount(), is(0));
+	}
+
+	@Test
+	public void testMergedMatches() throws Exception {
+		List<RecordSearch> shards = cut.getShards(Arrays.asList(imageA, imageB), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 0L).get(0).values(), containsInAnyOrder(imageA, imageB));
+	}
+
+	@Test
+	public void testImageStoredAddedToShard() throws Exception {
+		cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+		ImageRecord stored = new ImageRecord("/a/new.jpg", 1L);
+
+		cut.imageStored(stored, null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+		List<RecordSearch> shards = cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 0L).get(0).values(), containsInAnyOrder(imageA, stored));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testImageStoredOtherShardIgnored() throws Exception {
+		cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		cut.imageStored(new ImageRecord("/c/new.jpg", 1L), null);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+		List<RecordSearch> shards = cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 0L).get(0).values(), containsInAnyOrder(imageA));
+	}
+
+	@Test
+	public void testImageRemovedFromShard() throws Exception {
+		cut.getShards(Collections.singletonList(imageA), INDEX_TYPE, query);
+
+		cut.imageRemoved(imageA);
+		when(imageRepository.getGeneration()).thenReturn(GENERATION + 1);
+		List<RecordSearch> shards = cut.getShards(Collections.singletonList(imageA2), INDEX_TYPE, query);
+
+		assertThat(match(shards, 1L, 0L).get(0).values(), is(empty()));
+		assertThat(queries.get(), is(1));
+	}
+
+	@Test
+	public void testDistanceMatchOrderedByHash() throws Exception {
+		List<RecordSearch> shards = cut.getShards(Arrays.asList(imageA, imageB), INDEX_TYPE, query);
+
+		List<Multimap<Long, ImageRecord>> matches = ShardedRecordSearch.distanceMatch(shards, new long[] { 3L, 1L },
+				0L);
+
+		assertThat(matches, hasSize(2));
+		assertThat(matches.get(0).values(), containsInAnyOrder(imageA2));
+	}
+}
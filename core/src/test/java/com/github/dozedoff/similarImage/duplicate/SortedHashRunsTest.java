@@ -0,0 +1,154 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+
+public class SortedHashRunsTest {
+	private static final long SEED = 42L;
+	private static final int RANDOM_KEYS = 10000;
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private ImageRecord imageC;
+	private ImageRecord imageD;
+
+	private SortedHashRuns cut;
+
+	@Before
+	public void setUp() throws Exception {
+		imageA = new ImageRecord("a", 5L);
+		imageB = new ImageRecord("b", -3L);
+		imageC = new ImageRecord("c", 5L);
+		imageD = new ImageRecord("d", 2L);
+
+		cut = new SortedHashRuns(Arrays.asList(imageA, imageB, imageC, imageD));
+	}
+
+	@Test
+	public void testDuplicateRuns() throws Exception {
+		List<Long> hashes = new ArrayList<>();
+
+		cut.forEachRun(2, (records, hash) -> hashes.add(hash));
+
+		assertThat(hashes, contains(5L));
+	}
+
+	@Test
+	public void testRunsInHashOrder() throws Exception {
+		List<Long> hashes = new ArrayList<>();
+
+		cut.forEachRun(1, (records, hash) -> hashes.add(hash));
+
+		assertThat(hashes, contains(-3L, 2L, 5L));
+	}
+
+	@Test
+	public void testRunContainsRecords() throws Exception {
+		List<ImageRecord> duplicates = new ArrayList<>();
+
+		cut.forEachRun(2, (records, hash) -> duplicates.addAll(records));
+
+		assertThat(duplicates, containsInAnyOrder(imageA, imageC));
+	}
+
+	@Test
+	public void testDuplicateRunHashes() throws Exception {
+		List<Long> hashes = new ArrayList<>();
+
+		cut.forEachRunHash(2, hashes::add);
+
+		assertThat(hashes, contains(5L));
+	}
+
+	@Test
+	public void testRunHashesInHashOrder() throws Exception {
+		List<Long> hashes = new ArrayList<>();
+
+		cut.forEachRunHash(1, hashes::add);
+
+		assertThat(hashes, contains(-3L, 2L, 5L));
+	}
+
+	@Test
+	public void testRunCount() throws Exception {
+		assertThat(cut.runCount(), is(3));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		cut = new SortedHashRuns(Collections.emptyList());
+		List<Long> hashes = new ArrayList<>();
+
+		cut.forEachRun(1, (records, hash) -> hashes.add(hash));
+
+		assertThat(hashes, is(empty()));
+		assertThat(cut.size(), is(0));
+		assertThat(cut.runCount(), is(0));
+	}
+
+	@Test
+	public void testRadixSortMatchesSort() throws Exception {
+		Random random = new Random(SEED);
+		long[] keys = new long[RANDOM_KEYS];
+		int[] values = new int[RANDOM_KEYS];
+
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextLong();
+			values[i] = i;
+		}
+
+		long[] original = Arrays.copyOf(keys, keys.length);
+		long[] expected = Arrays.copyOf(keys, keys.length);
+		Arrays.sort(expected);
+
+		SortedHashRuns.radixSort(keys, values);
+
+		assertThat(Arrays.equals(keys, expected), is(true));
+
+		for (int i = 0; i < keys.length; i++) {
+			assertThat(original[values[i]], is(keys[i]));
+		}
+	}
+
+	@Test
+	public void testRadixSortSkipsEqualDigits() throws Exception {
+		long[] keys = { 3L, 1L, 2L };
+		int[] values = { 0, 1, 2 };
+
+		SortedHashRuns.radixSort(keys, values);
+
+		assertThat(Arrays.equals(keys, new long[] { 1L, 2L, 3L }), is(true));
+		assertThat(Arrays.equals(values, new int[] { 1, 2, 0 }), is(true));
+	}
+}
@@ -0,0 +1,127 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.primitives.Longs;
+
+public class AdaptiveIndexTest {
+	private static final long[] HASHES = { 1L, 2L, 3L, 6L, 2L };
+	private static final int RANDOM_HASHES = 20000;
+	private static final long SEED = 42L;
+
+	private AdaptiveIndex cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new AdaptiveIndex();
+		cut.build(HASHES);
+	}
+
+	private Long[] search(long hash, int distance) {
+		return Longs.asList(cut.searchWithin(hash, distance)).toArray(new Long[0]);
+	}
+
+	@Test
+	public void testSearchDistanceOne() throws Exception {
+		assertThat(search(2L, 1), arrayContainingInAnyOrder(2L, 3L, 6L));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		cut.add(-1L);
+
+		assertThat(search(-1L, 0), arrayContainingInAnyOrder(-1L));
+		assertThat(cut.size(), is(5));
+	}
+
+	@Test
+	public void testSmallIndexScanned() throws Exception {
+		assertThat(AdaptiveIndex.preferLinearScan(100, 0), is(true));
+	}
+
+	@Test
+	public void testLargeIndexSmallDistanceUsesMultiIndex() throws Exception {
+		assertThat(AdaptiveIndex.preferLinearScan(1000000, 4), is(false));
+	}
+
+	@Test
+	public void testLargeDistanceScanned() throws Exception {
+		assertThat(AdaptiveIndex.preferLinearScan(1000000, 32), is(true));
+	}
+
+	@Test
+	public void testMatchesMultiIndexHashing() throws Exception {
+		Random random = new Random(SEED);
+		long[] hashes = new long[RANDOM_HASHES];
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = random.nextLong() & random.nextLong();
+		}
+
+		MultiIndexHashing reference = new MultiIndexHashing();
+		reference.build(hashes);
+		cut.build(hashes);
+		cut.add(-1L);
+		reference.add(-1L);
+
+		for (int distance : new int[] { 0, 4, 8, 32 }) {
+			for (int i = 0; i < 20; i++) {
+				long[] expected = reference.searchWithin(hashes[i], distance);
+				long[] actual = cut.searchWithin(hashes[i], distance);
+				Arrays.sort(expected);
+				Arrays.sort(actual);
+
+				assertThat(Arrays.equals(actual, expected), is(true));
+			}
+		}
+	}
+
+	private static ByteBuffer written(PersistentHashIndex index) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.write(out);
+		}
+
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	@Test
+	public void testReadWrittenIndex() throws Exception {
+		AdaptiveIndex restored = new AdaptiveIndex();
+		restored.read(written(cut));
+
+		assertThat(restored.size(), is(cut.size()));
+		assertThat(Longs.asList(restored.searchWithin(2L, 1)).toArray(new Long[0]),
+				arrayContainingInAnyOrder(search(2L, 1)));
+	}
+}
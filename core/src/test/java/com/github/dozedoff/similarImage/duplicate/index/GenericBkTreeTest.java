@@ -0,0 +1,84 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.primitives.Longs;
+
+public class GenericBkTreeTest {
+	private static final long[] HASHES = { 1L, 2L, 3L, 6L, 2L };
+
+	private GenericBkTree cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new GenericBkTree();
+		cut.build(HASHES);
+	}
+
+	private Long[] search(long hash, int distance) {
+		return Longs.asList(cut.searchWithin(hash, distance)).toArray(new Long[0]);
+	}
+
+	@Test
+	public void testDuplicatesIgnored() throws Exception {
+		assertThat(cut.size(), is(4));
+	}
+
+	@Test
+	public void testSearchDistanceOne() throws Exception {
+		assertThat(search(2L, 1), arrayContainingInAnyOrder(2L, 3L, 6L));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		cut.add(-1L);
+
+		assertThat(search(-1L, 0), arrayContainingInAnyOrder(-1L));
+		assertThat(cut.size(), is(5));
+	}
+
+	@Test
+	public void testAddDuplicateIgnored() throws Exception {
+		cut.add(2L);
+
+		assertThat(cut.size(), is(4));
+	}
+
+	@Test
+	public void testAddToEmptyTree() throws Exception {
+		cut.build(new long[0]);
+		cut.add(2L);
+
+		assertThat(search(2L, 0), arrayContainingInAnyOrder(2L));
+	}
+
+	@Test
+	public void testSearchEmptyTree() throws Exception {
+		cut.build(new long[0]);
+
+		assertThat(search(2L, 64), is(emptyArray()));
+	}
+}
@@ -0,0 +1,208 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.primitives.Longs;
+
+public class HammingBkTreeTest {
+	private static final long[] HASHES = { 1L, 2L, 3L, 6L, 2L };
+	private static final int RANDOM_HASHES = 2000;
+	private static final int PARALLEL_HASHES = 50000;
+	private static final long SEED = 42L;
+
+	private HammingBkTree cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new HammingBkTree();
+		cut.build(HASHES);
+	}
+
+	private Long[] search(long hash, int distance) {
+		return Longs.asList(cut.searchWithin(hash, distance)).toArray(new Long[0]);
+	}
+
+	private long[] linearSearch(long[] hashes, long hash, int distance) {
+		return Arrays.stream(hashes).filter(h -> Long.bitCount(h ^ hash) <= distance).distinct().toArray();
+	}
+
+	@Test
+	public void testDuplicatesIgnored() throws Exception {
+		assertThat(cut.size(), is(4));
+	}
+
+	@Test
+	public void testSearchExactMatch() throws Exception {
+		assertThat(search(2L, 0), arrayContainingInAnyOrder(2L));
+	}
+
+	@Test
+	public void testSearchDistanceOne() throws Exception {
+		assertThat(search(2L, 1), arrayContainingInAnyOrder(2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchDistanceTwo() throws Exception {
+		assertThat(search(2L, 2), arrayContainingInAnyOrder(1L, 2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchNoMatch() throws Exception {
+		assertThat(search(-1L, 2), is(emptyArray()));
+	}
+
+	@Test
+	public void testSearchEmptyTree() throws Exception {
+		cut.build(new long[0]);
+
+		assertThat(search(2L, 64), is(emptyArray()));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		cut.add(-1L);
+
+		assertThat(search(-1L, 0), arrayContainingInAnyOrder(-1L));
+	}
+
+	@Test
+	public void testAddDuplicateIgnored() throws Exception {
+		cut.add(2L);
+
+		assertThat(cut.size(), is(4));
+	}
+
+	@Test
+	public void testBuildReplacesContent() throws Exception {
+		cut.build(new long[] { 42L });
+
+		assertThat(cut.size(), is(1));
+	}
+
+	@Test
+	public void testSearchMatchesLinearScan() throws Exception {
+		Random random = new Random(SEED);
+		long[] hashes = new long[RANDOM_HASHES];
+		long base = random.nextLong();
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = base ^ (random.nextLong() & random.nextLong() & random.nextLong());
+		}
+
+		cut.build(hashes);
+
+		for (int distance = 0; distance <= 16; distance += 4) {
+			long[] expected = linearSearch(hashes, base, distance);
+			long[] actual = cut.searchWithin(base, distance);
+
+			Arrays.sort(expected);
+			Arrays.sort(actual);
+
+			assertThat(Arrays.equals(actual, expected), is(true));
+		}
+	}
+
+	@Test
+	public void testBuildParallelMatchesLinearScan() throws Exception {
+		Random random = new Random(SEED);
+		long[] hashes = new long[PARALLEL_HASHES];
+		long base = random.nextLong();
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = base ^ (random.nextLong() & random.nextLong() & random.nextLong());
+		}
+
+		hashes[1] = hashes[0];
+		cut.buildParallel(hashes);
+
+		assertThat(cut.size(), is((int) Arrays.stream(hashes).distinct().count()));
+
+		for (int distance = 0; distance <= 16; distance += 4) {
+			long[] expected = linearSearch(hashes, base, distance);
+			long[] actual = cut.searchWithin(base, distance);
+
+			Arrays.sort(expected);
+			Arrays.sort(actual);
+
+			assertThat(Arrays.equals(actual, expected), is(true));
+		}
+	}
+
+	@Test
+	public void testAddAfterBuildParallel() throws Exception {
+		cut.buildParallel(HASHES);
+		cut.add(-1L);
+
+		assertThat(search(-1L, 0), arrayContainingInAnyOrder(-1L));
+		assertThat(cut.size(), is(5));
+	}
+
+	private static ByteBuffer written(PersistentHashIndex index) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.write(out);
+		}
+
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	@Test
+	public void testReadWrittenTree() throws Exception {
+		HammingBkTree restored = new HammingBkTree();
+		restored.read(written(cut));
+
+		assertThat(restored.size(), is(cut.size()));
+		assertThat(Longs.asList(restored.searchWithin(2L, 1)).toArray(new Long[0]),
+				arrayContainingInAnyOrder(search(2L, 1)));
+	}
+
+	@Test
+	public void testAddAfterRead() throws Exception {
+		HammingBkTree restored = new HammingBkTree();
+		restored.read(written(cut));
+
+		restored.add(7L);
+
+		assertThat(Longs.asList(restored.searchWithin(7L, 0)).toArray(new Long[0]), arrayContainingInAnyOrder(7L));
+	}
+
+	@Test
+	public void testReadConsumesIndex() throws Exception {
+		ByteBuffer buffer = written(cut);
+
+		new HammingBkTree().read(buffer);
+
+		assertThat(buffer.hasRemaining(), is(false));
+	}
+}
@@ -0,0 +1,174 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.primitives.Longs;
+
+public class LinearScanIndexTest {
+	private static final long[] HASHES = { 1L, 2L, 3L, 6L, 2L };
+	private static final int RANDOM_HASHES = 10000;
+	private static final long SEED = 42L;
+
+	private LinearScanIndex cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new LinearScanIndex();
+		cut.build(HASHES);
+	}
+
+	private Long[] search(long hash, int distance) {
+		return Longs.asList(cut.searchWithin(hash, distance)).toArray(new Long[0]);
+	}
+
+	@Test
+	public void testDuplicatesIgnored() throws Exception {
+		assertThat(cut.size(), is(4));
+	}
+
+	@Test
+	public void testSearchExactMatch() throws Exception {
+		assertThat(search(2L, 0), arrayContainingInAnyOrder(2L));
+	}
+
+	@Test
+	public void testSearchDistanceOne() throws Exception {
+		assertThat(search(2L, 1), arrayContainingInAnyOrder(2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchFullRange() throws Exception {
+		assertThat(search(-1L, 64), arrayContainingInAnyOrder(1L, 2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchNoMatch() throws Exception {
+		assertThat(search(-1L, 2), is(emptyArray()));
+	}
+
+	@Test
+	public void testSearchEmptyIndex() throws Exception {
+		cut.build(new long[0]);
+
+		assertThat(search(2L, 8), is(emptyArray()));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		cut.add(-1L);
+		cut.add(4L);
+
+		assertThat(search(-1L, 0), arrayContainingInAnyOrder(-1L));
+		assertThat(search(4L, 0), arrayContainingInAnyOrder(4L));
+		assertThat(cut.size(), is(6));
+	}
+
+	@Test
+	public void testAddDuplicateIgnored() throws Exception {
+		cut.add(2L);
+		cut.add(-1L);
+		cut.add(-1L);
+
+		assertThat(cut.size(), is(5));
+	}
+
+	@Test
+	public void testAddGrowsIndex() throws Exception {
+		cut.build(new long[0]);
+
+		for (long hash = 0; hash < 100; hash++) {
+			cut.add(hash);
+		}
+
+		assertThat(cut.size(), is(100));
+		assertThat(search(99L, 0), arrayContainingInAnyOrder(99L));
+	}
+
+	@Test
+	public void testGetHashesSorted() throws Exception {
+		cut.add(-1L);
+
+		assertThat(Longs.asList(cut.getHashes()).toArray(new Long[0]), is(new Long[] { -1L, 1L, 2L, 3L, 6L }));
+	}
+
+	@Test
+	public void testBatchedSearchMatchesSingleSearch() throws Exception {
+		Random random = new Random(SEED);
+		long[] hashes = new long[RANDOM_HASHES];
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = random.nextLong() & random.nextLong();
+		}
+
+		cut.build(hashes);
+		long[] queries = Arrays.copyOf(hashes, 100);
+		long[][] batched = cut.searchWithin(queries, 20);
+
+		for (int i = 0; i < queries.length; i++) {
+			long[] expected = cut.searchWithin(queries[i], 20);
+			Arrays.sort(expected);
+			Arrays.sort(batched[i]);
+
+			assertThat(Arrays.equals(batched[i], expected), is(true));
+		}
+	}
+
+	private static ByteBuffer written(PersistentHashIndex index) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.write(out);
+		}
+
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	@Test
+	public void testReadWrittenIndex() throws Exception {
+		LinearScanIndex restored = new LinearScanIndex();
+		restored.read(written(cut));
+
+		assertThat(restored.size(), is(cut.size()));
+		assertThat(restored.getHashes(), is(cut.getHashes()));
+	}
+
+	@Test
+	public void testAddAfterRead() throws Exception {
+		LinearScanIndex restored = new LinearScanIndex();
+		restored.read(written(cut));
+
+		restored.add(4L);
+
+		assertThat(restored.getHashes(), is(new long[] { 1L, 2L, 3L, 4L, 6L }));
+	}
+}
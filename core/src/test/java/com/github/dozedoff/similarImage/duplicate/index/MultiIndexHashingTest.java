@@ -0,0 +1,241 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.duplicate.index;
+
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.primitives.Longs;
+
+public class MultiIndexHashingTest {
+	private static final long[] HASHES = { 1L, 2L, 3L, 6L, 2L };
+	private static final int RANDOM_HASHES = 2000;
+	private static final long SEED = 42L;
+
+	private MultiIndexHashing cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new MultiIndexHashing();
+		cut.build(HASHES);
+	}
+
+	private Long[] search(long hash, int distance) {
+		return Longs.asList(cut.searchWithin(hash, distance)).toArray(new Long[0]);
+	}
+
+	private long[] randomHashes(Random random, long base) {
+		long[] hashes = new long[RANDOM_HASHES];
+
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = base ^ (random.nextLong() & random.nextLong() & random.nextLong());
+		}
+
+		return hashes;
+	}
+
+	private void assertMatchesLinearScan(int substrings) {
+		Random random = new Random(SEED);
+		long base = random.nextLong();
+		long[] hashes = randomHashes(random, base);
+
+		cut = new MultiIndexHashing(substrings);
+		cut.build(hashes);
+
+		for (int distance = 0; distance <= 20; distance++) {
+			long query = hashes[distance];
+			int radius = distance;
+			long[] expected = Arrays.stream(hashes).filter(h -> Long.bitCount(h ^ query) <= radius).distinct()
+					.toArray();
+			long[] actual = cut.searchWithin(query, distance);
+
+			Arrays.sort(expected);
+			Arrays.sort(actual);
+
+			assertThat(Arrays.equals(actual, expected), is(true));
+		}
+	}
+
+	@Test
+	public void testDuplicatesIgnored() throws Exception {
+		assertThat(cut.size(), is(4));
+	}
+
+	@Test
+	public void testSearchExactMatch() throws Exception {
+		assertThat(search(2L, 0), arrayContainingInAnyOrder(2L));
+	}
+
+	@Test
+	public void testSearchDistanceOne() throws Exception {
+		assertThat(search(2L, 1), arrayContainingInAnyOrder(2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchDistanceTwo() throws Exception {
+		assertThat(search(2L, 2), arrayContainingInAnyOrder(1L, 2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchFullRange() throws Exception {
+		assertThat(search(-1L, 64), arrayContainingInAnyOrder(1L, 2L, 3L, 6L));
+	}
+
+	@Test
+	public void testSearchNoMatch() throws Exception {
+		assertThat(search(-1L, 2), is(emptyArray()));
+	}
+
+	@Test
+	public void testSearchEmptyIndex() throws Exception {
+		cut.build(new long[0]);
+
+		assertThat(search(2L, 8), is(emptyArray()));
+	}
+
+	@Test
+	public void testAdd() throws Exception {
+		cut.add(-1L);
+
+		assertThat(search(-1L, 0), arrayContainingInAnyOrder(-1L));
+		assertThat(cut.size(), is(5));
+	}
+
+	@Test
+	public void testAddDuplicateIgnored() throws Exception {
+		cut.add(2L);
+		cut.add(-1L);
+		cut.add(-1L);
+
+		assertThat(cut.size(), is(5));
+	}
+
+	@Test
+	public void testAddDuplicateIgnoredAfterUnsorted() throws Exception {
+		cut.add(-1L);
+		cut.add(-3L);
+		cut.add(-2L);
+		cut.add(-3L);
+
+		assertThat(cut.size(), is(7));
+		assertThat(search(-3L, 0), arrayContainingInAnyOrder(-3L));
+	}
+
+	@Test
+	public void testAddMergesPending() throws Exception {
+		Random random = new Random(SEED);
+		long[] added = randomHashes(random, random.nextLong());
+
+		for (long hash : added) {
+			cut.add(hash);
+		}
+
+		long query = added[0];
+		long[] expected = Arrays.stream(Longs.concat(HASHES, added)).filter(h -> Long.bitCount(h ^ query) <= 8)
+				.distinct().sorted().toArray();
+		long[] actual = cut.searchWithin(query, 8);
+		Arrays.sort(actual);
+
+		assertThat(Arrays.equals(actual, expected), is(true));
+	}
+
+	@Test
+	public void testDefaultSubstrings() throws Exception {
+		assertThat(cut.getSubstrings(), is(MultiIndexHashing.DEFAULT_SUBSTRINGS));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooFewSubstrings() throws Exception {
+		new MultiIndexHashing(3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManySubstrings() throws Exception {
+		new MultiIndexHashing(17);
+	}
+
+	@Test
+	public void testSearchMatchesLinearScan() throws Exception {
+		assertMatchesLinearScan(MultiIndexHashing.DEFAULT_SUBSTRINGS);
+	}
+
+	@Test
+	public void testSearchMatchesLinearScanUnevenSubstrings() throws Exception {
+		assertMatchesLinearScan(7);
+	}
+
+	@Test
+	public void testBuildParallel() throws Exception {
+		Random random = new Random(SEED);
+		long[] hashes = randomHashes(random, random.nextLong());
+		MultiIndexHashing sequential = new MultiIndexHashing();
+		sequential.build(hashes);
+
+		cut.buildParallel(hashes);
+
+		assertThat(cut.size(), is(sequential.size()));
+
+		for (int distance = 0; distance <= 20; distance += 5) {
+			long[] expected = sequential.searchWithin(hashes[distance], distance);
+			long[] actual = cut.searchWithin(hashes[distance], distance);
+
+			Arrays.sort(expected);
+			Arrays.sort(actual);
+
+			assertThat(Arrays.equals(actual, expected), is(true));
+		}
+	}
+
+	private static ByteBuffer written(PersistentHashIndex index) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.write(out);
+		}
+
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	@Test
+	public void testReadWrittenIndex() throws Exception {
+		cut.add(7L);
+		MultiIndexHashing restored = new MultiIndexHashing();
+		restored.read(written(cut));
+
+		assertThat(restored.size(), is(cut.size()));
+		assertThat(Longs.asList(restored.searchWithin(3L, 2)).toArray(new Long[0]),
+				arrayContainingInAnyOrder(search(3L, 2)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadOtherSubstrings() throws Exception {
+		new MultiIndexHashing(8).read(written(cut));
+	}
+}
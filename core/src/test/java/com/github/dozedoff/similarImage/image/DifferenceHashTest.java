@@ -0,0 +1,84 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DifferenceHashTest {
+	private static final int WIDTH = 90;
+	private static final int HEIGHT = 80;
+
+	private DifferenceHash cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new DifferenceHash();
+	}
+
+	private BufferedImage gradient(boolean descending) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+		for (int x = 0; x < WIDTH; x++) {
+			int value = descending ? 255 - 2 * x : 2 * x;
+
+			for (int y = 0; y < HEIGHT; y++) {
+				image.setRGB(x, y, (value << 16) | (value << 8) | value);
+			}
+		}
+
+		return image;
+	}
+
+	@Test(expected = IIOException.class)
+	public void testNullImage() throws Exception {
+		cut.getLongHash(null);
+	}
+
+	@Test
+	public void testDescendingGradient() throws Exception {
+		assertThat(cut.getLongHash(gradient(true)), is(-1L));
+	}
+
+	@Test
+	public void testAscendingGradient() throws Exception {
+		assertThat(cut.getLongHash(gradient(false)), is(0L));
+	}
+
+	@Test
+	public void testScaledImageIsSimilar() throws Exception {
+		Path testImage = Paths.get(Thread.currentThread().getContextClassLoader().getResource("testImage.jpg").toURI());
+		BufferedImage image = ImageIO.read(testImage.toFile());
+		BufferedImage scaled = new BufferedImage(image.getWidth() / 2, image.getHeight() / 2,
+				BufferedImage.TYPE_INT_RGB);
+		scaled.createGraphics().drawImage(image, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+
+		assertThat(Long.bitCount(cut.getLongHash(image) ^ cut.getLongHash(scaled)), is(lessThanOrEqualTo(4)));
+	}
+}
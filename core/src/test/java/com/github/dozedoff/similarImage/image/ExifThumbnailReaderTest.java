@@ -0,0 +1,183 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ExifThumbnailReaderTest {
+	private static final int MINIMUM_SIZE = 32;
+	private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+	private static final int THUMBNAIL_OFFSET = 56;
+
+	private static Path thumbnailImage;
+	private static Path testImage;
+
+	private ExifThumbnailReader cut;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		thumbnailImage = Paths
+				.get(Thread.currentThread().getContextClassLoader().getResource("exifThumbnail.jpg").toURI());
+		testImage = Paths.get(Thread.currentThread().getContextClassLoader().getResource("testImage.jpg").toURI());
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new ExifThumbnailReader(MINIMUM_SIZE);
+	}
+
+	private byte[] jpeg(int width, int height) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", out);
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Insert an APP1 segment with an empty IFD0 and an IFD1 pointing to the JPEG thumbnail after the SOI marker.
+	 */
+	private InputStream withThumbnail(byte[] image, byte[] thumbnail, ByteOrder order) throws Exception {
+		byte byteOrder = (byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M');
+		ByteBuffer tiff = ByteBuffer.allocate(THUMBNAIL_OFFSET + thumbnail.length).order(order);
+
+		tiff.put(byteOrder).put(byteOrder).putShort((short) 42).putInt(8);
+		tiff.putShort((short) 0).putInt(14);
+		tiff.putShort((short) 3);
+		tiff.putShort((short) 0x0103).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+		tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(THUMBNAIL_OFFSET);
+		tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+		tiff.putInt(0).put(thumbnail);
+
+		int length = 2 + EXIF_HEADER.length + tiff.capacity();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		out.write(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1 });
+		out.write(length >> 8);
+		out.write(length & 0xFF);
+		out.write(EXIF_HEADER);
+		out.write(tiff.array());
+		out.write(image, 2, image.length - 2);
+
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMinimumSize() throws Exception {
+		new ExifThumbnailReader(0);
+	}
+
+	@Test
+	public void testGetMinimumSize() throws Exception {
+		assertThat(cut.getMinimumSize(), is(MINIMUM_SIZE));
+	}
+
+	@Test
+	public void testReadThumbnail() throws Exception {
+		try (InputStream is = Files.newInputStream(thumbnailImage)) {
+			BufferedImage thumbnail = cut.read(is);
+
+			assertThat(thumbnail.getWidth(), is(160));
+			assertThat(thumbnail.getHeight(), is(120));
+		}
+	}
+
+	@Test
+	public void testReadThumbnailLittleEndian() throws Exception {
+		BufferedImage thumbnail = cut.read(withThumbnail(jpeg(400, 300), jpeg(160, 120), ByteOrder.LITTLE_ENDIAN));
+
+		assertThat(thumbnail, is(notNullValue()));
+	}
+
+	@Test
+	public void testReadThumbnailBigEndian() throws Exception {
+		BufferedImage thumbnail = cut.read(withThumbnail(jpeg(400, 300), jpeg(160, 120), ByteOrder.BIG_ENDIAN));
+
+		assertThat(thumbnail, is(notNullValue()));
+	}
+
+	@Test
+	public void testAspectRatioMismatch() throws Exception {
+		assertThat(cut.read(withThumbnail(jpeg(600, 400), jpeg(160, 120), ByteOrder.BIG_ENDIAN)), is(nullValue()));
+	}
+
+	@Test
+	public void testThumbnailTooSmall() throws Exception {
+		assertThat(cut.read(withThumbnail(jpeg(400, 300), jpeg(16, 12), ByteOrder.BIG_ENDIAN)), is(nullValue()));
+	}
+
+	@Test
+	public void testCorruptThumbnail() throws Exception {
+		byte[] thumbnail = Arrays.copyOf(jpeg(160, 120), 100);
+
+		assertThat(cut.read(withThumbnail(jpeg(400, 300), thumbnail, ByteOrder.BIG_ENDIAN)), is(nullValue()));
+	}
+
+	@Test
+	public void testNoThumbnail() throws Exception {
+		try (InputStream is = Files.newInputStream(testImage)) {
+			assertThat(cut.read(is), is(nullValue()));
+		}
+	}
+
+	@Test
+	public void testNotAJpeg() throws Exception {
+		assertThat(cut.read(new ByteArrayInputStream(new byte[] { 1, 2, 3 })), is(nullValue()));
+	}
+
+	@Test
+	public void testTruncatedImage() throws Exception {
+		byte[] image = Files.readAllBytes(thumbnailImage);
+
+		assertThat(cut.read(new ByteArrayInputStream(Arrays.copyOf(image, 60))), is(nullValue()));
+	}
+
+	@Test
+	public void testSameAspectRatio() throws Exception {
+		assertThat(ExifThumbnailReader.isSameAspectRatio(160, 120, 4000, 3000), is(true));
+	}
+
+	@Test
+	public void testSameAspectRatioRounded() throws Exception {
+		assertThat(ExifThumbnailReader.isSameAspectRatio(160, 107, 6000, 4000), is(true));
+	}
+
+	@Test
+	public void testDifferentAspectRatio() throws Exception {
+		assertThat(ExifThumbnailReader.isSameAspectRatio(160, 120, 6000, 4000), is(false));
+	}
+}
@@ -0,0 +1,239 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aparapi.device.JavaDevice;
+import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.image.kernel.DCTKernel;
+
+public class FastImagePHashTest {
+	private static final int SIZE = 32;
+	private static final int SMALLER_SIZE = 8;
+	private static final int RANDOM_IMAGES = 50;
+	private static final long SEED = 42L;
+	private static final double DELTA = 0.000001;
+
+	private FastImagePHash cut;
+	private ImagePHash reference;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new FastImagePHash();
+		reference = new ImagePHash();
+		random = new Random(SEED);
+	}
+
+	private Path testImage(String name) throws Exception {
+		return Paths.get(Thread.currentThread().getContextClassLoader().getResource(name).toURI());
+	}
+
+	private BufferedImage randomImage() {
+		BufferedImage image = new BufferedImage(100 + random.nextInt(200), 100 + random.nextInt(200),
+				BufferedImage.TYPE_INT_RGB);
+		double frequencyX = 5 + random.nextInt(20);
+		double frequencyY = 5 + random.nextInt(20);
+
+		for (int x = 0; x < image.getWidth(); x++) {
+			for (int y = 0; y < image.getHeight(); y++) {
+				int value = (int) (128 + 100 * Math.sin(x / frequencyX + y / frequencyY));
+				image.setRGB(x, y, (value << 16) | (random.nextInt(256) << 8) | (255 - value));
+			}
+		}
+
+		return image;
+	}
+
+	/**
+	 * Direct DCT as used by {@link ImagePHash}, limited to the low frequency block.
+	 */
+	private double[][] directDCT(double[][] matrix) {
+		double[][] result = new double[SMALLER_SIZE][SMALLER_SIZE];
+
+		for (int u = 0; u < SMALLER_SIZE; u++) {
+			for (int v = 0; v < SMALLER_SIZE; v++) {
+				double sum = 0.0;
+
+				for (int i = 0; i < SIZE; i++) {
+					for (int j = 0; j < SIZE; j++) {
+						sum += Math.cos(((2 * i + 1) / (2.0 * SIZE)) * u * Math.PI)
+								* Math.cos(((2 * j + 1) / (2.0 * SIZE)) * v * Math.PI) * matrix[i][j];
+					}
+				}
+
+				double cu = u == 0 ? 1 / Math.sqrt(2.0) : 1;
+				double cv = v == 0 ? 1 / Math.sqrt(2.0) : 1;
+				result[u][v] = sum * ((cu * cv) / 4.0);
+			}
+		}
+
+		return result;
+	}
+
+	@Test(expected = IIOException.class)
+	public void testNullImage() throws Exception {
+		cut.getLongHash((BufferedImage) null);
+	}
+
+	@Test
+	public void testTransformMatchesDirectDCT() throws Exception {
+		double[][] matrix = new double[SIZE][SIZE];
+
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				matrix[i][j] = random.nextInt(256);
+			}
+		}
+
+		double[][] expected = directDCT(matrix);
+		double[][] result = FastImagePHash.transformDCT(matrix);
+
+		for (int u = 0; u < SMALLER_SIZE; u++) {
+			for (int v = 0; v < SMALLER_SIZE; v++) {
+				assertThat(result[u][v], is(closeTo(expected[u][v], DELTA)));
+			}
+		}
+	}
+
+	@Test
+	public void testSameHashAsImagePHashJpg() throws Exception {
+		BufferedImage image = ImageIO.read(testImage("testImage.jpg").toFile());
+
+		assertThat(cut.getLongHash(image), is(reference.getLongHash(image)));
+	}
+
+	@Test
+	public void testSameHashAsImagePHashGif() throws Exception {
+		BufferedImage image = ImageIO.read(testImage("testImage.gif").toFile());
+
+		assertThat(cut.getLongHash(image), is(reference.getLongHash(image)));
+	}
+
+	@Test
+	public void testSameHashAsImagePHashStream() throws Exception {
+		try (InputStream fast = Files.newInputStream(testImage("testImage.jpg"));
+				InputStream slow = Files.newInputStream(testImage("testImage.jpg"))) {
+			assertThat(cut.getLongHash(fast), is(reference.getLongHash(slow)));
+		}
+	}
+
+	@Test
+	public void testSameHashAsImagePHashRandomImages() throws Exception {
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			BufferedImage image = randomImage();
+
+			assertThat(cut.getLongHash(image), is(reference.getLongHash(image)));
+		}
+	}
+
+	@Test
+	public void testBatchMatchesSingle() throws Exception {
+		List<BufferedImage> images = new ArrayList<>();
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			images.add(randomImage());
+		}
+
+		long[] hashes = cut.getLongHashes(images);
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			assertThat(hashes[i], is(cut.getLongHash(images.get(i))));
+		}
+	}
+
+	@Test
+	public void testKernelBatchMatchesImagePHash() throws Exception {
+		DCTKernel kernel = new DCTKernel(SIZE, SMALLER_SIZE);
+		kernel.setDevice(JavaDevice.THREAD_POOL);
+		cut = new FastImagePHash(kernel);
+		List<BufferedImage> images = new ArrayList<>();
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			images.add(randomImage());
+		}
+
+		long[] hashes = cut.getLongHashes(images);
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			assertThat(hashes[i], is(reference.getLongHash(images.get(i))));
+		}
+	}
+
+	@Test(expected = IIOException.class)
+	public void testKernelBatchNullImage() throws Exception {
+		cut = new FastImagePHash(new DCTKernel(SIZE, SMALLER_SIZE));
+
+		cut.getLongHashes(Collections.singletonList(null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testKernelWrongSize() throws Exception {
+		new FastImagePHash(new DCTKernel(SIZE));
+	}
+
+	@Test
+	public void testReducedBatchMatchesSingle() throws Exception {
+		BufferedImage image = randomImage();
+
+		long[] hashes = cut.getLongHashes(new double[][] { cut.reduce(image) });
+
+		assertThat(hashes[0], is(cut.getLongHash(image)));
+	}
+
+	@Test
+	public void testKernelReducedBatchMatchesImagePHash() throws Exception {
+		DCTKernel kernel = new DCTKernel(SIZE, SMALLER_SIZE);
+		kernel.setDevice(JavaDevice.THREAD_POOL);
+		cut = new FastImagePHash(kernel);
+		BufferedImage image = randomImage();
+
+		long[] hashes = cut.getLongHashes(new double[][] { cut.reduce(image) });
+
+		assertThat(hashes[0], is(reference.getLongHash(image)));
+	}
+
+	@Test
+	public void testHasKernel() throws Exception {
+		assertThat(new FastImagePHash(new DCTKernel(SIZE, SMALLER_SIZE)).hasKernel(), is(true));
+	}
+
+	@Test
+	public void testHasNoKernel() throws Exception {
+		assertThat(cut.hasKernel(), is(false));
+	}
+}
@@ -0,0 +1,162 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.image;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.commonj.hash.ImagePHash;
+
+public class SubsamplingImageDecoderTest {
+	private static final int MINIMUM_SIZE = 32;
+	private static final int HASH_SIZE = 32;
+	private static final int LARGE_IMAGE_SIZE = 1280;
+	/**
+	 * Maximum number of bits that may differ between the hashes of a subsampled and a fully decoded image.
+	 */
+	private static final int MAX_HASH_DRIFT = 2;
+
+	private SubsamplingImageDecoder cut;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new SubsamplingImageDecoder(HASH_SIZE);
+	}
+
+	private Path testImage() throws Exception {
+		return Paths.get(Thread.currentThread().getContextClassLoader().getResource("testImage.jpg").toURI());
+	}
+
+	private byte[] scaledTestImage(int size) throws Exception {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(ImageIO.read(testImage().toFile()), 0, 0, size, size, null);
+		} finally {
+			graphics.dispose();
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+
+		return out.toByteArray();
+	}
+
+	private InputStream jpeg(int width, int height) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", out);
+
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidHashSize() throws Exception {
+		new SubsamplingImageDecoder(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMargin() throws Exception {
+		new SubsamplingImageDecoder(HASH_SIZE, 0);
+	}
+
+	@Test
+	public void testGetMinimumSize() throws Exception {
+		assertThat(cut.getMinimumSize(), is(HASH_SIZE * SubsamplingImageDecoder.DEFAULT_MARGIN));
+	}
+
+	@Test
+	public void testGetMinimumSizeWithMargin() throws Exception {
+		assertThat(new SubsamplingImageDecoder(HASH_SIZE, 4).getMinimumSize(), is(HASH_SIZE * 4));
+	}
+
+	@Test
+	public void testSubsamplingSmallImage() throws Exception {
+		assertThat(SubsamplingImageDecoder.subsampling(40, 40, MINIMUM_SIZE), is(1));
+	}
+
+	@Test
+	public void testSubsamplingExactSize() throws Exception {
+		assertThat(SubsamplingImageDecoder.subsampling(64, 64, MINIMUM_SIZE), is(2));
+	}
+
+	@Test
+	public void testSubsamplingUsesShortSide() throws Exception {
+		assertThat(SubsamplingImageDecoder.subsampling(6000, 4000, MINIMUM_SIZE), is(64));
+	}
+
+	@Test
+	public void testReadSmallImageNotSubsampled() throws Exception {
+		Path testImage = testImage();
+		BufferedImage expected = ImageIO.read(testImage.toFile());
+
+		try (InputStream is = Files.newInputStream(testImage)) {
+			BufferedImage image = cut.read(is);
+
+			assertThat(image.getWidth(), is(expected.getWidth()));
+			assertThat(image.getHeight(), is(expected.getHeight()));
+		}
+	}
+
+	@Test
+	public void testReadLargeImageSubsampled() throws Exception {
+		BufferedImage image = cut.read(jpeg(1200, 800));
+
+		assertThat(image.getWidth(), is(lessThan(1200)));
+		assertThat(image.getHeight(), is(greaterThanOrEqualTo(cut.getMinimumSize())));
+		assertThat(image.getHeight(), is(lessThan(2 * cut.getMinimumSize())));
+	}
+
+	@Test
+	public void testHashDriftWithinLimit() throws Exception {
+		byte[] data = scaledTestImage(LARGE_IMAGE_SIZE);
+		ImagePHash hasher = new ImagePHash();
+
+		BufferedImage subsampled = cut.read(new ByteArrayInputStream(data));
+		long expected = hasher.getLongHash(ImageIO.read(new ByteArrayInputStream(data)));
+
+		assertThat(subsampled.getWidth(), is(lessThan(LARGE_IMAGE_SIZE)));
+		assertThat(Long.bitCount(hasher.getLongHash(subsampled) ^ expected), is(lessThanOrEqualTo(MAX_HASH_DRIFT)));
+	}
+
+	@Test
+	public void testReadNonImage() throws Exception {
+		assertThat(cut.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 })), is(nullValue()));
+	}
+}
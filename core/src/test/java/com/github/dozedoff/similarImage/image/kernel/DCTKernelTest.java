@@ -18,6 +18,7 @@
 package com.github.dozedoff.similarImage.image.kernel;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.arrayWithSize;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 
@@ -25,6 +26,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.aparapi.device.JavaDevice;
 import com.google.common.primitives.Doubles;
 
 public class DCTKernelTest {
@@ -108,4 +110,64 @@ public class DCTKernelTest {
 
 		assertArrayEquals(EXPECTED2, Doubles.concat(result), 0.1);
 	}
+
+	@Test
+	public void testBatchMatchesSingle() throws Exception {
+		double[][] result = cut
+				.transformDCT(new double[][] { Doubles.concat(testMatrix), Doubles.concat(testMatrix2) });
+
+		assertArrayEquals(EXPECTED, result[0], 0.1);
+		assertArrayEquals(EXPECTED2, result[1], 0.1);
+	}
+
+	@Test
+	public void testBatchLargerThanBuffer() throws Exception {
+		double[][] batch = new double[100][];
+
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = Doubles.concat(i % 2 == 0 ? testMatrix : testMatrix2);
+		}
+
+		double[][] result = cut.transformDCT(batch);
+
+		assertArrayEquals(EXPECTED2, result[99], 0.1);
+	}
+
+	@Test
+	public void testEmptyBatch() throws Exception {
+		assertThat(cut.transformDCT(new double[0][]), is(arrayWithSize(0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBatchWrongMatrixSize() throws Exception {
+		cut.transformDCT(new double[][] { new double[DCTKernel.DEFAULT_MATRIX_SIZE] });
+	}
+
+	@Test
+	public void testLowFrequencyBlock() throws Exception {
+		cut = new DCTKernel(DCTKernel.DEFAULT_MATRIX_SIZE, 2);
+
+		double[] result = cut.transformDCT(Doubles.concat(testMatrix));
+
+		assertArrayEquals(new double[] { EXPECTED[0], EXPECTED[1], EXPECTED[8], EXPECTED[9] }, result, 0.1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResultSizeTooLarge() throws Exception {
+		new DCTKernel(DCTKernel.DEFAULT_MATRIX_SIZE, DCTKernel.DEFAULT_MATRIX_SIZE + 1);
+	}
+
+	@Test
+	public void testJavaThreadPool() throws Exception {
+		cut.setDevice(JavaDevice.THREAD_POOL);
+
+		assertArrayEquals(EXPECTED, cut.transformDCT(Doubles.concat(testMatrix)), 0.1);
+	}
+
+	@Test
+	public void testNullDeviceUsesThreadPool() throws Exception {
+		cut.setDevice(null);
+
+		assertArrayEquals(EXPECTED, cut.transformDCT(Doubles.concat(testMatrix)), 0.1);
+	}
 }
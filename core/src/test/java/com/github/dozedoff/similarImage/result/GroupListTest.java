@@ -121,6 +121,16 @@ public class GroupListTest {
 		assertThat(cut.groupCount(), is(1));
 	}
 
+	@Test
+	public void testAddGroup() throws Exception {
+		ResultGroup groupC = new ResultGroup(cut, 44, Arrays.asList(new ImageRecord("c", 44)));
+
+		cut.addGroup(groupC);
+
+		assertThat(cut.groupCount(), is(3));
+		assertThat(cut.getGroup(44), is(groupC));
+	}
+
 	@Test
 	public void testGetGroup() throws Exception {
 		assertThat(cut.getGroup(HASH_A), is(groupA));
@@ -0,0 +1,324 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.aparapi.device.JavaDevice;
+
+import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.db.HashSource;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.FastImagePHash;
+import com.github.dozedoff.similarImage.image.kernel.DCTKernel;
+import com.github.dozedoff.similarImage.io.HashAttribute;
+import com.github.dozedoff.similarImage.io.Statistics;
+import com.github.dozedoff.similarImage.thread.HashingPipeline.Stage;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HashingPipelineTest {
+	private static final int IO_THREADS = 2;
+	private static final int CPU_THREADS = 2;
+	private static final int QUEUE_SIZE = 2;
+	private static final int MANY_FILES = 50;
+	private static final int HASH_IMAGE_SIZE = 32;
+	private static final int HASH_DCT_SIZE = 8;
+
+	@Mock
+	private ImageRepository imageRepository;
+
+	@Mock
+	private ImagePHash phw;
+
+	@Mock
+	private Statistics statistics;
+
+	@Mock
+	private HashAttribute hashAttribute;
+
+	private HashingPipeline cut;
+
+	private static Path testImage;
+	private static Path thumbnailImage;
+
+	private Path notAnImage;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		testImage = Paths.get(Thread.currentThread().getContextClassLoader().getResource("testImage.jpg").toURI());
+		thumbnailImage = Paths
+				.get(Thread.currentThread().getContextClassLoader().getResource("exifThumbnail.jpg").toURI());
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		notAnImage = Files.createTempFile(HashingPipelineTest.class.getSimpleName(), ".jpg");
+		Files.write(notAnImage, new byte[] { 1, 2, 3, 4 });
+
+		cut = new HashingPipeline(phw, imageRepository, statistics, IO_THREADS, CPU_THREADS, QUEUE_SIZE);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cut.close();
+		Files.deleteIfExists(notAnImage);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidIoThreads() throws Exception {
+		new HashingPipeline(phw, imageRepository, statistics, 0, CPU_THREADS, QUEUE_SIZE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCpuThreads() throws Exception {
+		new HashingPipeline(phw, imageRepository, statistics, IO_THREADS, 0, QUEUE_SIZE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidQueueSize() throws Exception {
+		new HashingPipeline(phw, imageRepository, statistics, IO_THREADS, CPU_THREADS, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidReadBudget() throws Exception {
+		new HashingPipeline(phw, imageRepository, statistics, IO_THREADS, CPU_THREADS, QUEUE_SIZE, 0);
+	}
+
+	@Test
+	public void testHandleReturnsTrue() throws Exception {
+		assertThat(cut.handle(testImage), is(true));
+	}
+
+	@Test
+	public void testHandleAfterClose() throws Exception {
+		cut.close();
+
+		assertThat(cut.handle(testImage), is(false));
+	}
+
+	@Test
+	public void testStoreRecord() throws Exception {
+		cut.handle(testImage);
+		cut.close();
+
+		verify(imageRepository).store(new ImageRecord(testImage.toString(), 0));
+	}
+
+	@Test
+	public void testStoreManyRecords() throws Exception {
+		for (int i = 0; i < MANY_FILES; i++) {
+			cut.handle(testImage);
+		}
+
+		cut.close();
+
+		verify(imageRepository, times(MANY_FILES)).store(new ImageRecord(testImage.toString(), 0));
+	}
+
+	@Test
+	public void testProcessedPerStage() throws Exception {
+		for (int i = 0; i < MANY_FILES; i++) {
+			cut.handle(testImage);
+		}
+
+		cut.close();
+
+		assertThat(cut.getProcessed(Stage.READ), is((long) MANY_FILES));
+		assertThat(cut.getProcessed(Stage.HASH), is((long) MANY_FILES));
+		assertThat(cut.getProcessed(Stage.STORE), is((long) MANY_FILES));
+	}
+
+	@Test
+	public void testFilesLargerThanReadBudget() throws Exception {
+		cut.close();
+		cut = new HashingPipeline(phw, imageRepository, statistics, IO_THREADS, CPU_THREADS, QUEUE_SIZE, 1);
+
+		for (int i = 0; i < MANY_FILES; i++) {
+			cut.handle(testImage);
+		}
+
+		cut.close();
+
+		verify(imageRepository, times(MANY_FILES)).store(new ImageRecord(testImage.toString(), 0));
+	}
+
+	@Test
+	public void testReadBudgetReleasedAfterClose() throws Exception {
+		cut.handle(testImage);
+		cut.handle(notAnImage);
+		cut.handle(Paths.get("does", "not", "exist.jpg"));
+		cut.close();
+
+		assertThat(cut.getBufferedBytes(), is(0));
+	}
+
+	@Test
+	public void testQueuesEmptyAfterClose() throws Exception {
+		cut.handle(testImage);
+		cut.close();
+
+		for (Stage stage : Stage.values()) {
+			assertThat(cut.getQueueDepth(stage), is(0));
+		}
+	}
+
+	@Test
+	public void testThroughputAfterClose() throws Exception {
+		cut.handle(testImage);
+		cut.close();
+
+		assertThat(cut.getThroughput(Stage.STORE) > 0, is(true));
+	}
+
+	@Test
+	public void testFileNotFound() throws Exception {
+		cut.handle(Paths.get("does", "not", "exist.jpg"));
+		cut.close();
+
+		verify(statistics).incrementFailedFiles();
+		verify(imageRepository, never()).store(any(ImageRecord.class));
+	}
+
+	@Test
+	public void testNotAnImage() throws Exception {
+		cut.handle(notAnImage);
+		cut.close();
+
+		verify(statistics).incrementFailedFiles();
+		verify(imageRepository, never()).store(any(ImageRecord.class));
+	}
+
+	@Test
+	public void testStoreFailed() throws Exception {
+		doThrow(RepositoryException.class).when(imageRepository).store(any(ImageRecord.class));
+		cut.setHashAttribute(hashAttribute);
+
+		cut.handle(testImage);
+		cut.close();
+
+		verify(statistics).incrementFailedFiles();
+		verify(hashAttribute, never()).writeHash(any(Path.class), anyLong());
+	}
+
+	@Test
+	public void testWriteHashAttribute() throws Exception {
+		cut.setHashAttribute(hashAttribute);
+
+		cut.handle(testImage);
+		cut.close();
+
+		verify(hashAttribute).writeHash(testImage, 0);
+	}
+
+	@Test
+	public void testStoreDifferenceHash() throws Exception {
+		cut.setDifferenceHash(new DifferenceHash());
+
+		cut.handle(testImage);
+		cut.close();
+
+		verify(imageRepository).storeAdditionalHash(eq(new ImageRecord(testImage.toString(), 0)),
+				eq(HashNames.DIFFERENCE_HASH), anyLong());
+	}
+
+	@Test
+	public void testThumbnailHashSource() throws Exception {
+		cut.setThumbnailReader(new ExifThumbnailReader(32));
+
+		cut.handle(thumbnailImage);
+		cut.close();
+
+		ArgumentCaptor<ImageRecord> captor = ArgumentCaptor.forClass(ImageRecord.class);
+		verify(imageRepository).store(captor.capture());
+		assertThat(captor.getValue().getHashSource(), is(HashSource.EXIF_THUMBNAIL));
+	}
+
+	private void useKernelHasher() throws Exception {
+		DCTKernel kernel = new DCTKernel(HASH_IMAGE_SIZE, HASH_DCT_SIZE);
+		kernel.setDevice(JavaDevice.THREAD_POOL);
+
+		cut.close();
+		cut = new HashingPipeline(new FastImagePHash(kernel), imageRepository, statistics, IO_THREADS, CPU_THREADS,
+				MANY_FILES);
+	}
+
+	@Test
+	public void testKernelStoreManyRecords() throws Exception {
+		useKernelHasher();
+		long hash = new ImagePHash().getLongHash(ImageIO.read(testImage.toFile()));
+
+		for (int i = 0; i < MANY_FILES; i++) {
+			cut.handle(testImage);
+		}
+
+		cut.close();
+
+		verify(imageRepository, times(MANY_FILES)).store(new ImageRecord(testImage.toString(), hash));
+		assertThat(cut.getProcessed(Stage.HASH), is((long) MANY_FILES));
+	}
+
+	@Test
+	public void testKernelNotAnImage() throws Exception {
+		useKernelHasher();
+
+		cut.handle(testImage);
+		cut.handle(notAnImage);
+		cut.close();
+
+		verify(statistics).incrementFailedFiles();
+		verify(imageRepository).store(any(ImageRecord.class));
+	}
+
+	@Test
+	public void testGetIoThreads() throws Exception {
+		assertThat(cut.getIoThreads(), is(IO_THREADS));
+	}
+
+	@Test
+	public void testGetCpuThreads() throws Exception {
+		assertThat(cut.getCpuThreads(), is(CPU_THREADS));
+	}
+}
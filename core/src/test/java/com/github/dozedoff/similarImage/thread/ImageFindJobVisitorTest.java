@@ -20,13 +20,16 @@ package com.github.dozedoff.similarImage.thread;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -39,6 +42,8 @@ import com.github.dozedoff.similarImage.io.Statistics;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ImageFindJobVisitorTest {
+	private static final int CONCURRENT_FILES = 2;
+
 	@Mock
 	private Filter<Path> fileFilter;
 
@@ -116,4 +121,92 @@ public class ImageFindJobVisitorTest {
 
 		assertThat(cut.getFileCount(), is(1));
 	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeConcurrentFiles() throws Exception {
+		new ImageFindJobVisitor(fileFilter, handlers, statistics, -1);
+	}
+
+	@Test
+	public void testGetConcurrentFilesDefault() throws Exception {
+		assertThat(cut.getConcurrentFiles(), is(0));
+	}
+
+	@Test
+	public void testGetConcurrentFiles() throws Exception {
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+
+		assertThat(cut.getConcurrentFiles(), is(CONCURRENT_FILES));
+	}
+
+	@Test
+	public void testConcurrentVisitHandlesFile() throws Exception {
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+
+		cut.visitFile(path, attrs);
+		cut.awaitCompletion();
+
+		verify(handler).handle(path);
+	}
+
+	@Test
+	public void testConcurrentVisitProcessedFiles() throws Exception {
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+
+		cut.visitFile(path, attrs);
+		cut.visitFile(path, attrs);
+		cut.visitFile(path, attrs);
+		cut.awaitCompletion();
+
+		assertThat(statistics.getProcessedFiles(), is(3));
+	}
+
+	@Test
+	public void testConcurrentVisitNotHandled() throws Exception {
+		when(handler.handle(path)).thenReturn(false);
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+
+		cut.visitFile(path, attrs);
+		cut.awaitCompletion();
+
+		assertThat(statistics.getFailedFiles(), is(1));
+	}
+
+	@Test
+	public void testConcurrentVisitHandlerException() throws Exception {
+		when(handler.handle(path)).thenThrow(new IllegalStateException("test"));
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+
+		cut.visitFile(path, attrs);
+		cut.awaitCompletion();
+
+		assertThat(statistics.getFailedFiles(), is(1));
+	}
+
+	@Test
+	public void testConcurrentVisitInterrupted() throws Exception {
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+		cut.visitFile(path, attrs);
+
+		Thread.currentThread().interrupt();
+		FileVisitResult result = cut.visitFile(path, attrs);
+		Thread.interrupted();
+		cut.awaitCompletion();
+
+		assertThat(result, is(FileVisitResult.TERMINATE));
+		assertThat(statistics.getProcessedFiles(), is(1));
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testAwaitCompletionShutsDownHandlers() throws Exception {
+		cut = new ImageFindJobVisitor(fileFilter, handlers, statistics, CONCURRENT_FILES);
+		cut.awaitCompletion();
+
+		cut.visitFile(path, attrs);
+	}
+
+	@Test
+	public void testAwaitCompletionWithoutConcurrency() throws Exception {
+		cut.awaitCompletion();
+	}
 }
@@ -17,11 +17,16 @@
  */
 package com.github.dozedoff.similarImage.thread;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -32,15 +37,21 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
 import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
 import com.github.dozedoff.similarImage.io.HashAttribute;
 import com.github.dozedoff.similarImage.io.Statistics;
 
@@ -61,10 +72,13 @@ public class ImageHashJobTest {
 	private ImageHashJob imageLoadJob;
 
 	private static Path testImage;
+	private static Path thumbnailImage;
 
 	@BeforeClass
 	public static void setUpClass() throws Exception {
 		testImage = Paths.get(Thread.currentThread().getContextClassLoader().getResource("testImage.jpg").toURI());
+		thumbnailImage = Paths
+				.get(Thread.currentThread().getContextClassLoader().getResource("exifThumbnail.jpg").toURI());
 	}
 
 	@Before
@@ -105,4 +119,80 @@ public class ImageHashJobTest {
 
 		verify(hashAttributeMock, never()).writeHash(testImage, 0);
 	}
+
+	@Test
+	public void testStoreDifferenceHash() throws Exception {
+		imageLoadJob.setDifferenceHash(new DifferenceHash());
+		imageLoadJob.run();
+
+		ImageRecord expected = new ImageRecord(testImage.toString(), 0);
+		verify(imageRepository).store(expected);
+		verify(imageRepository).storeAdditionalHash(eq(expected), eq(HashNames.DIFFERENCE_HASH), anyLong());
+	}
+
+	@Test
+	public void testDifferenceHashUsesDecodedImage() throws Exception {
+		imageLoadJob.setDifferenceHash(new DifferenceHash());
+		imageLoadJob.run();
+
+		verify(phw, never()).getLongHash(any(InputStream.class));
+	}
+
+	@Test
+	public void testImageDecoderUsesDecodedImage() throws Exception {
+		imageLoadJob.setImageDecoder(new SubsamplingImageDecoder(32));
+		imageLoadJob.run();
+
+		verify(phw).getLongHash(any(BufferedImage.class));
+		verify(phw, never()).getLongHash(any(InputStream.class));
+	}
+
+	@Test
+	public void testImageDecoderStoresRecord() throws Exception {
+		imageLoadJob.setImageDecoder(new SubsamplingImageDecoder(32));
+		imageLoadJob.run();
+
+		verify(imageRepository).store(new ImageRecord(testImage.toString(), 0));
+	}
+
+	@Test
+	public void testThumbnailHashSource() throws Exception {
+		imageLoadJob = new ImageHashJob(thumbnailImage, phw, imageRepository, statistics);
+		imageLoadJob.setThumbnailReader(new ExifThumbnailReader(32));
+		imageLoadJob.run();
+
+		ArgumentCaptor<ImageRecord> captor = ArgumentCaptor.forClass(ImageRecord.class);
+		verify(imageRepository).store(captor.capture());
+		assertThat(captor.getValue().getHashSource(), is(HashSource.EXIF_THUMBNAIL));
+	}
+
+	@Test
+	public void testThumbnailUsesDecodedImage() throws Exception {
+		imageLoadJob = new ImageHashJob(thumbnailImage, phw, imageRepository, statistics);
+		imageLoadJob.setThumbnailReader(new ExifThumbnailReader(32));
+		imageLoadJob.run();
+
+		verify(phw).getLongHash(any(BufferedImage.class));
+		verify(phw, never()).getLongHash(any(InputStream.class));
+	}
+
+	@Test
+	public void testNoThumbnailFallsBackToImage() throws Exception {
+		imageLoadJob.setThumbnailReader(new ExifThumbnailReader(32));
+		imageLoadJob.run();
+
+		ArgumentCaptor<ImageRecord> captor = ArgumentCaptor.forClass(ImageRecord.class);
+		verify(imageRepository).store(captor.capture());
+		assertThat(captor.getValue(), is(new ImageRecord(testImage.toString(), 0)));
+		assertThat(captor.getValue().getHashSource(), is(HashSource.IMAGE));
+	}
+
+	@Test
+	public void testNoThumbnailUsesDecodedImage() throws Exception {
+		imageLoadJob.setThumbnailReader(new ExifThumbnailReader(32));
+		imageLoadJob.run();
+
+		verify(phw).getLongHash(any(BufferedImage.class));
+		verify(phw, never()).getLongHash(any(InputStream.class));
+	}
 }
@@ -21,6 +21,9 @@ import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
@@ -65,6 +68,7 @@ public class TagFilterTest {
 
 	private FilterRecord filter1;
 	private FilterRecord filter2;
+	private FilterRecord filter3;
 
 	private void createImages() {
 		image1 = new ImageRecord(PATH1, 1);
@@ -74,6 +78,7 @@ public class TagFilterTest {
 	private void createFilters() {
 		filter1 = new FilterRecord(1, TAG);
 		filter2 = new FilterRecord(2, new Tag(""));
+		filter3 = new FilterRecord(1, TAG);
 	}
 
 	@Before
@@ -106,4 +111,14 @@ public class TagFilterTest {
 	public void testMatchingTagSecondImageNotIncluded() throws Exception {
 		assertThat(cut.getFilterMatches(recordSearch, TAG, DISTANCE).get(1L), not(hasItem(image2)));
 	}
+
+	@Test
+	public void testSharedHashQueriedOnce() throws Exception {
+		RecordSearch spySearch = spy(recordSearch);
+		when(filterRepository.getByTag(TAG)).thenReturn(Arrays.asList(new FilterRecord[] { filter1, filter3 }));
+
+		cut.getFilterMatches(spySearch, TAG, DISTANCE);
+
+		verify(spySearch, times(1)).distanceMatch(1L, DISTANCE);
+	}
 }
@@ -0,0 +1,136 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachedImageQueryStageTest {
+	private static final Path SCOPE = Paths.get("foo");
+
+	@Mock
+	private ImageRepository imageRepository;
+
+	@Mock
+	private RecordSearchCache searchCache;
+
+	@Captor
+	private ArgumentCaptor<Predicate<ImageRecord>> scopeCaptor;
+
+	@Captor
+	private ArgumentCaptor<Boolean> withoutIgnoredCaptor;
+
+	private ImageRecord inScope;
+	private ImageRecord samePrefix;
+
+	@Before
+	public void setUp() throws Exception {
+		inScope = new ImageRecord(SCOPE.resolve("bar.jpg").toString(), 0);
+		samePrefix = new ImageRecord(Paths.get("foobar", "bar.jpg").toString(), 0);
+	}
+
+	private Predicate<ImageRecord> scopeFor(Function<Path, List<ImageRecord>> query, Path path) {
+		new CachedImageQueryStage(query, searchCache, IndexType.HAMMING_BK_TREE).apply(path);
+		verify(searchCache).get(anyString(), eq(IndexType.HAMMING_BK_TREE), any(), scopeCaptor.capture(),
+				anyBoolean());
+
+		return scopeCaptor.getValue();
+	}
+
+	private boolean withoutIgnored(Function<Path, List<ImageRecord>> query) {
+		new CachedImageQueryStage(query, searchCache, IndexType.HAMMING_BK_TREE).apply(SCOPE);
+		verify(searchCache).get(anyString(), eq(IndexType.HAMMING_BK_TREE), any(), any(),
+				withoutIgnoredCaptor.capture());
+
+		return withoutIgnoredCaptor.getValue();
+	}
+
+	@Test
+	public void testImageInScope() throws Exception {
+		assertThat(scopeFor(new ImageQueryStage(imageRepository), SCOPE).test(inScope), is(true));
+	}
+
+	@Test
+	public void testImageWithSamePrefixInScope() throws Exception {
+		assertThat(scopeFor(new ImageQueryStage(imageRepository), SCOPE).test(samePrefix), is(true));
+	}
+
+	@Test
+	public void testImageWithOtherPrefixNotInScope() throws Exception {
+		ImageRecord otherPrefix = new ImageRecord(Paths.get("bar", "foo.jpg").toString(), 0);
+
+		assertThat(scopeFor(new ImageQueryStage(imageRepository), SCOPE).test(otherPrefix), is(false));
+	}
+
+	@Test
+	public void testScopeIgnoresCase() throws Exception {
+		ImageRecord upperCase = new ImageRecord(Paths.get("FOO", "bar.jpg").toString(), 0);
+
+		assertThat(scopeFor(new ImageQueryStage(imageRepository), SCOPE).test(upperCase), is(true));
+	}
+
+	@Test
+	public void testScopeWildcard() throws Exception {
+		assertThat(scopeFor(new ImageQueryStage(imageRepository), Paths.get("f_o")).test(inScope), is(true));
+	}
+
+	@Test
+	public void testAllImagesInScopeWithoutPath() throws Exception {
+		assertThat(scopeFor(new ImageQueryStage(imageRepository), null).test(samePrefix), is(true));
+	}
+
+	@Test
+	public void testWithoutIgnored() throws Exception {
+		assertThat(withoutIgnored(new IgnoredImageQueryStage(imageRepository)), is(true));
+	}
+
+	@Test
+	public void testWithIgnored() throws Exception {
+		assertThat(withoutIgnored(new CompactImageQueryStage(imageRepository, false)), is(false));
+	}
+
+	@Test
+	public void testNotIgnoreAware() throws Exception {
+		assertThat(withoutIgnored(new ImageQueryStage(imageRepository)), is(false));
+	}
+}
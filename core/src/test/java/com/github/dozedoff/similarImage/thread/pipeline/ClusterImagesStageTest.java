@@ -0,0 +1,122 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.collect.Multimap;
+
+public class ClusterImagesStageTest {
+	private static final long HASH_A = 0b0000L;
+	private static final long HASH_B = 0b0001L;
+	private static final long HASH_C = 0b0011L;
+	private static final long HASH_D = 0b1111_0000L;
+	private static final int DISTANCE = 1;
+
+	private ClusterImagesStage cut;
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private ImageRecord imageB2;
+	private ImageRecord imageC;
+	private ImageRecord imageD;
+
+	private List<ImageRecord> images;
+
+	@Before
+	public void setUp() throws Exception {
+		cut = new ClusterImagesStage(DISTANCE);
+
+		imageA = new ImageRecord("a", HASH_A);
+		imageB = new ImageRecord("b", HASH_B);
+		imageB2 = new ImageRecord("b2", HASH_B);
+		imageC = new ImageRecord("c", HASH_C);
+		imageD = new ImageRecord("d", HASH_D);
+
+		images = Arrays.asList(imageC, imageB, imageD, imageB2, imageA);
+	}
+
+	@Test
+	public void testTransitiveCluster() throws Exception {
+		assertThat(cut.apply(images).get(HASH_A), containsInAnyOrder(imageA, imageB, imageB2, imageC));
+	}
+
+	@Test
+	public void testSeparateCluster() throws Exception {
+		assertThat(cut.apply(images).get(HASH_D), containsInAnyOrder(imageD));
+	}
+
+	@Test
+	public void testClustersAreDisjoint() throws Exception {
+		Multimap<Long, ImageRecord> result = cut.apply(images);
+
+		assertThat(result.keySet(), containsInAnyOrder(HASH_A, HASH_D));
+		assertThat(result.values(), hasSize(images.size()));
+	}
+
+	@Test
+	public void testExactMatchOnly() throws Exception {
+		cut = new ClusterImagesStage(0);
+
+		assertThat(cut.apply(images).get(HASH_B), containsInAnyOrder(imageB, imageB2));
+	}
+
+	@Test
+	public void testMultiIndexHashing() throws Exception {
+		cut = new ClusterImagesStage(DISTANCE, IndexType.MULTI_INDEX_HASHING);
+
+		assertThat(cut.apply(images).get(HASH_A), containsInAnyOrder(imageA, imageB, imageB2, imageC));
+	}
+
+	@Test
+	public void testStore() throws Exception {
+		ImageRecordStore store = new ImageRecordStore();
+		store.addAll(Arrays.asList(imageA, imageB, imageB2, imageC, imageD));
+
+		assertThat(cut.apply(store), is(cut.apply(images)));
+	}
+
+	@Test
+	public void testNoImages() throws Exception {
+		assertThat(cut.apply(Collections.emptyList()).values(), is(empty()));
+	}
+
+	@Test
+	public void testGetHammingDistance() throws Exception {
+		assertThat(cut.getHammingDistance(), is(DISTANCE));
+	}
+
+	@Test
+	public void testDefaultIndexType() throws Exception {
+		assertThat(cut.getIndexType(), is(IndexType.HAMMING_BK_TREE));
+	}
+}
@@ -0,0 +1,146 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.collect.Multimap;
+
+public class CompareScopeQueryTest {
+	private static final Path INCOMING = Paths.get("incoming");
+	private static final Path ARCHIVE = Paths.get("archive");
+	private static final int DISTANCE = 1;
+
+	private ImageRecord incomingA;
+	private ImageRecord incomingB;
+	private ImageRecord archiveA;
+	private ImageRecord archiveB;
+
+	private Function<Path, List<ImageRecord>> imageQuery;
+	private Path cacheDirectory;
+
+	private CompareScopeQuery cut;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setUp() throws Exception {
+		incomingA = new ImageRecord("incoming/a", 0b0000L);
+		incomingB = new ImageRecord("incoming/b", 0b1111L);
+		archiveA = new ImageRecord("archive/a", 0b0001L);
+		archiveB = new ImageRecord("archive/b", 0b0011L);
+
+		imageQuery = mock(Function.class);
+		when(imageQuery.apply(INCOMING)).thenReturn(Arrays.asList(incomingA, incomingB));
+		when(imageQuery.apply(ARCHIVE)).thenReturn(Arrays.asList(archiveA, archiveB));
+		when(imageQuery.apply(null)).thenReturn(Arrays.asList(incomingA, incomingB, archiveA, archiveB));
+
+		cacheDirectory = Files.createTempDirectory(CompareScopeQueryTest.class.getSimpleName());
+
+		cut = new CompareScopeQuery(imageQuery, null, IndexType.HAMMING_BK_TREE, DISTANCE, Collections.emptyList());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(cacheDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testMatchGroupedWithComparedImage() throws Exception {
+		assertThat(cut.apply(INCOMING, ARCHIVE).get(0b0000L), containsInAnyOrder(incomingA, archiveA));
+	}
+
+	@Test
+	public void testNoMatchDropped() throws Exception {
+		assertThat(cut.apply(INCOMING, ARCHIVE).get(0b1111L), is(empty()));
+	}
+
+	@Test
+	public void testReferenceNotGroupedWithItself() throws Exception {
+		assertThat(cut.apply(INCOMING, ARCHIVE).keySet(), containsInAnyOrder(0b0000L));
+	}
+
+	@Test
+	public void testOverlappingScopeOnlyMatchesOthers() throws Exception {
+		Multimap<Long, ImageRecord> groups = cut.apply(INCOMING, null);
+
+		assertThat(groups.keySet(), containsInAnyOrder(0b0000L));
+		assertThat(groups.get(0b0000L), containsInAnyOrder(incomingA, archiveA));
+	}
+
+	@Test
+	public void testPostProcessingApplied() throws Exception {
+		cut = new CompareScopeQuery(imageQuery, null, IndexType.HAMMING_BK_TREE, DISTANCE,
+				Collections.singletonList(groups -> {
+					groups.clear();
+					return groups;
+				}));
+
+		assertThat(cut.apply(INCOMING, ARCHIVE).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testCachedReferenceQueriesOnce() throws Exception {
+		ImageRepository imageRepository = mock(ImageRepository.class);
+		RecordSearchCache searchCache = new RecordSearchCache(imageRepository, cacheDirectory);
+		cut = new CompareScopeQuery(imageQuery, searchCache, IndexType.HAMMING_BK_TREE, DISTANCE,
+				Collections.emptyList());
+
+		cut.apply(INCOMING, ARCHIVE);
+		cut.apply(INCOMING, ARCHIVE);
+
+		verify(imageQuery, times(1)).apply(ARCHIVE);
+		verify(imageQuery, times(2)).apply(INCOMING);
+	}
+
+	@Test
+	public void testGetHammingDistance() throws Exception {
+		assertThat(cut.getHammingDistance(), is(DISTANCE));
+	}
+
+	@Test
+	public void testGetIndexType() throws Exception {
+		assertThat(cut.getIndexType(), is(IndexType.HAMMING_BK_TREE));
+	}
+}
@@ -0,0 +1,123 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+
+public class ConfirmHashStageTest {
+	private static final String ALGORITHM = "test_hash";
+	private static final int DISTANCE = 2;
+
+	private static final long HASH_A = 0;
+	private static final long HASH_B = 1;
+
+	private ImageRepository imageRepository;
+	private Map<String, Long> additionalHashes;
+
+	private ImageRecord reference;
+	private ImageRecord confirmed;
+	private ImageRecord rejected;
+	private ImageRecord unknown;
+
+	private Multimap<Long, ImageRecord> groups;
+
+	private ConfirmHashStage cut;
+
+	@Before
+	public void setUp() throws Exception {
+		imageRepository = mock(ImageRepository.class);
+		additionalHashes = new HashMap<>();
+
+		reference = new ImageRecord("reference", HASH_A);
+		confirmed = new ImageRecord("confirmed", HASH_B);
+		rejected = new ImageRecord("rejected", HASH_B);
+		unknown = new ImageRecord("unknown", HASH_B);
+
+		additionalHashes.put(reference.getPath(), 0b0000L);
+		additionalHashes.put(confirmed.getPath(), 0b0011L);
+		additionalHashes.put(rejected.getPath(), 0b0111L);
+
+		groups = MultimapBuilder.hashKeys().hashSetValues().build();
+		groups.putAll(HASH_A, Arrays.asList(reference, confirmed, rejected, unknown));
+
+		when(imageRepository.getAdditionalHashes(eq(ALGORITHM), any())).thenReturn(additionalHashes);
+
+		cut = new ConfirmHashStage(imageRepository, ALGORITHM, DISTANCE);
+	}
+
+	@Test
+	public void testRejectedRemoved() throws Exception {
+		cut.apply(groups);
+
+		assertThat(groups.get(HASH_A), containsInAnyOrder(reference, confirmed, unknown));
+	}
+
+	@Test
+	public void testGroupWithoutReferenceKept() throws Exception {
+		groups.remove(HASH_A, reference);
+
+		cut.apply(groups);
+
+		assertThat(groups.get(HASH_A), containsInAnyOrder(confirmed, rejected, unknown));
+	}
+
+	@Test
+	public void testImagesWithGroupHashKept() throws Exception {
+		ImageRecord sameHash = new ImageRecord("same", HASH_A);
+		additionalHashes.put(sameHash.getPath(), -1L);
+		groups.put(HASH_A, sameHash);
+
+		cut.apply(groups);
+
+		assertThat(groups.get(HASH_A), containsInAnyOrder(reference, confirmed, unknown, sameHash));
+	}
+
+	@Test
+	public void testRepositoryErrorKeepsGroups() throws Exception {
+		when(imageRepository.getAdditionalHashes(eq(ALGORITHM), any())).thenThrow(new RepositoryException("test"));
+
+		cut.apply(groups);
+
+		assertThat(groups.get(HASH_A), containsInAnyOrder(reference, confirmed, rejected, unknown));
+	}
+
+	@Test
+	public void testParameterReturned() throws Exception {
+		assertThat(cut.apply(groups), is(sameInstance(groups)));
+	}
+}
@@ -20,21 +20,35 @@ package com.github.dozedoff.similarImage.thread.pipeline;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.duplicate.ShardedRecordSearch;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 
 public class GroupImagesStageTest {
 	private static final long HASH_A = 0;
 	private static final long HASH_B = 1;
 	private static final int DISTANCE = 42;
+	private static final int RANDOM_IMAGES = 5000;
+	private static final int RANDOM_CLUSTERS = 100;
+	private static final long SEED = 42L;
+	private static final int SHARDS = 4;
 
 	private GroupImagesStage cut;
 
@@ -66,7 +80,12 @@ public class GroupImagesStageTest {
 
 	@Test
 	public void testSortedByHash() throws Exception {
-		assertThat(cut.apply(images).get(HASH_A), hasItem(imageA));
+		assertThat(cut.apply(images).get(HASH_B), hasItem(imageB));
+	}
+
+	@Test
+	public void testExactMatchWithoutSingleImages() throws Exception {
+		assertThat(cut.apply(images).containsKey(HASH_A), is(false));
 	}
 
 	@Test
@@ -76,6 +95,165 @@ public class GroupImagesStageTest {
 		assertThat(cut.apply(images).get(HASH_B), hasItems(imageA, imageB));
 	}
 
+	@Test
+	public void testHammingDistanceMultiIndexHashing() throws Exception {
+		cut = new GroupImagesStage(1, IndexType.MULTI_INDEX_HASHING);
+
+		assertThat(cut.apply(images).get(HASH_B), hasItems(imageA, imageB));
+	}
+
+	@Test
+	public void testHammingDistanceParallel() throws Exception {
+		cut = new GroupImagesStage(1, IndexType.HAMMING_BK_TREE, true);
+
+		assertThat(cut.apply(images).get(HASH_B), hasItems(imageA, imageB));
+	}
+
+	@Test
+	public void testNoDuplicatesInGroupParallel() throws Exception {
+		cut = new GroupImagesStage(0, IndexType.HAMMING_BK_TREE, true);
+
+		assertThat(cut.apply(images).get(HASH_B), hasSize(1));
+	}
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		Random random = new Random(SEED);
+		List<ImageRecord> randomImages = new ArrayList<>();
+
+		long[] clusters = random.longs(RANDOM_CLUSTERS).toArray();
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			long hash = clusters[random.nextInt(RANDOM_CLUSTERS)] ^ (1L << random.nextInt(Long.SIZE))
+					^ (1L << random.nextInt(Long.SIZE));
+			randomImages.add(new ImageRecord(String.valueOf(i), hash));
+		}
+
+		GroupImagesStage sequential = new GroupImagesStage(4, IndexType.HAMMING_BK_TREE, false);
+		GroupImagesStage parallel = new GroupImagesStage(4, IndexType.HAMMING_BK_TREE, true);
+
+		assertThat(parallel.apply(randomImages), is(sequential.apply(randomImages)));
+	}
+
+	@Test
+	public void testStoreMatchesList() throws Exception {
+		Random random = new Random(SEED);
+		List<ImageRecord> randomImages = new ArrayList<>();
+
+		long[] clusters = random.longs(RANDOM_CLUSTERS).toArray();
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			long hash = clusters[random.nextInt(RANDOM_CLUSTERS)] ^ (1L << random.nextInt(Long.SIZE));
+			randomImages.add(new ImageRecord(String.valueOf(i), hash));
+		}
+
+		ImageRecordStore store = new ImageRecordStore();
+		randomImages.stream().sorted(Comparator.comparingLong(ImageRecord::getpHash)).forEach(store::add);
+
+		cut = new GroupImagesStage(2);
+
+		assertThat(cut.apply(store), is(new GroupImagesStage(2).apply(randomImages)));
+	}
+
+	@Test
+	public void testShardedMatchesUnsharded() throws Exception {
+		Random random = new Random(SEED);
+		List<ImageRecord> randomImages = new ArrayList<>();
+
+		long[] clusters = random.longs(RANDOM_CLUSTERS).toArray();
+
+		for (int i = 0; i < RANDOM_IMAGES; i++) {
+			long hash = clusters[random.nextInt(RANDOM_CLUSTERS)] ^ (1L << random.nextInt(Long.SIZE));
+			randomImages.add(new ImageRecord("/" + random.nextInt(SHARDS) + "/" + i, hash));
+		}
+
+		ShardedRecordSearch shardedSearch = new ShardedRecordSearch(mock(ImageRepository.class));
+		cut = new GroupImagesStage(2, IndexType.HAMMING_BK_TREE, true, shardedSearch,
+				directory -> randomImages.stream().filter(image -> image.getPath().startsWith(directory + "/"))
+						.collect(Collectors.toList()));
+
+		assertThat(cut.apply(randomImages), is(new GroupImagesStage(2).apply(randomImages)));
+	}
+
+	@Test
+	public void testShardedOnlyGroupsScope() throws Exception {
+		ImageRecord outOfScope = new ImageRecord("/a/other", HASH_B);
+		ImageRecord inScope = new ImageRecord("/a/sub/image", HASH_B);
+
+		ShardedRecordSearch shardedSearch = new ShardedRecordSearch(mock(ImageRepository.class));
+		cut = new GroupImagesStage(0, IndexType.HAMMING_BK_TREE, false, shardedSearch,
+				directory -> Arrays.asList(outOfScope, inScope));
+
+		assertThat(cut.apply(Arrays.asList(inScope)).get(HASH_B), containsInAnyOrder(inScope));
+	}
+
+	@Test
+	public void testIsSharded() throws Exception {
+		cut = new GroupImagesStage(DISTANCE, IndexType.HAMMING_BK_TREE, false,
+				new ShardedRecordSearch(mock(ImageRepository.class)), directory -> images);
+
+		assertThat(cut.isSharded(), is(true));
+	}
+
+	@Test
+	public void testNotShardedByDefault() throws Exception {
+		assertThat(cut.isSharded(), is(false));
+	}
+
+	@Test
+	public void testStoreQueriesSaved() throws Exception {
+		ImageRecordStore store = new ImageRecordStore();
+		store.addAll(Arrays.asList(imageA, imageB, imageC));
+
+		cut.apply(store);
+
+		assertThat(cut.getQueriesSaved(), is(1L));
+	}
+
+	@Test
+	public void testUnsortedStore() throws Exception {
+		ImageRecordStore store = new ImageRecordStore();
+		store.addAll(Arrays.asList(imageB, imageA));
+
+		cut = new GroupImagesStage(1);
+
+		assertThat(cut.apply(store).get(HASH_B), hasItems(imageA, imageB));
+	}
+
+	@Test
+	public void testQueriesSaved() throws Exception {
+		cut.apply(images);
+
+		assertThat(cut.getQueriesSaved(), is(1L));
+	}
+
+	@Test
+	public void testQueriesSavedParallel() throws Exception {
+		cut = new GroupImagesStage(0, IndexType.HAMMING_BK_TREE, true);
+		cut.apply(images);
+
+		assertThat(cut.getQueriesSaved(), is(1L));
+	}
+
+	@Test
+	public void testIsParallel() throws Exception {
+		cut = new GroupImagesStage(DISTANCE, IndexType.HAMMING_BK_TREE, true);
+
+		assertThat(cut.isParallel(), is(true));
+	}
+
+	@Test
+	public void testSequentialByDefault() throws Exception {
+		assertThat(cut.isParallel(), is(false));
+	}
+
+	@Test
+	public void testGetIndexType() throws Exception {
+		cut = new GroupImagesStage(DISTANCE, IndexType.MULTI_INDEX_HASHING);
+
+		assertThat(cut.getIndexType(), is(IndexType.MULTI_INDEX_HASHING));
+	}
+
 	@Test
 	public void testGetHammingDistance() throws Exception {
 		cut = new GroupImagesStage(DISTANCE);
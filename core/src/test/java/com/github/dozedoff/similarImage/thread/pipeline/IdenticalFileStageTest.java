@@ -0,0 +1,181 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ContentDigest;
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.hash.Hashing;
+
+public class IdenticalFileStageTest {
+	private static final long HASH_A = 1;
+	private static final long HASH_B = 2;
+
+	private static final String CONTENT = "foo";
+	private static final String OTHER_CONTENT = "bar";
+
+	private Path directory;
+	private ContentDigestRepository digestRepository;
+	private List<Collection<ImageRecord>> identical;
+
+	private ImageRecord original;
+	private ImageRecord copy;
+	private ImageRecord sameSize;
+	private ImageRecord otherSize;
+
+	private Multimap<Long, ImageRecord> groups;
+
+	private IdenticalFileStage cut;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory(IdenticalFileStageTest.class.getSimpleName());
+		digestRepository = mock(ContentDigestRepository.class);
+		identical = new ArrayList<>();
+
+		original = createImage("original", CONTENT);
+		copy = createImage("copy", CONTENT);
+		sameSize = createImage("sameSize", OTHER_CONTENT);
+		otherSize = createImage("otherSize", CONTENT + CONTENT);
+
+		groups = MultimapBuilder.hashKeys().hashSetValues().build();
+		groups.putAll(HASH_A, Arrays.asList(original, copy, sameSize, otherSize));
+
+		cut = new IdenticalFileStage(digestRepository, identical::add);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private ImageRecord createImage(String name, String content) throws Exception {
+		Path file = Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+		return new ImageRecord(file.toString(), HASH_A);
+	}
+
+	@Test
+	public void testIdenticalFilesFound() throws Exception {
+		cut.apply(groups);
+
+		assertThat(identical, hasSize(1));
+		assertThat(identical.get(0), containsInAnyOrder(original, copy));
+	}
+
+	@Test
+	public void testDigestsStored() throws Exception {
+		cut.apply(groups);
+
+		verify(digestRepository, times(3)).store(any(ContentDigest.class));
+	}
+
+	@Test
+	public void testOtherSizeNotRead() throws Exception {
+		cut.apply(groups);
+
+		verify(digestRepository, never()).getByPath(otherSize.getPath());
+	}
+
+	@Test
+	public void testCachedDigestUsed() throws Exception {
+		Path file = directory.resolve("sameSize");
+		byte[] digest = Hashing.murmur3_128().hashString(CONTENT, StandardCharsets.UTF_8).asBytes();
+		when(digestRepository.getByPath(sameSize.getPath())).thenReturn(new ContentDigest(sameSize.getPath(),
+				Files.getLastModifiedTime(file).toMillis(), Files.size(file), digest));
+
+		cut.apply(groups);
+
+		assertThat(identical.get(0), containsInAnyOrder(original, copy, sameSize));
+	}
+
+	@Test
+	public void testStaleDigestIgnored() throws Exception {
+		byte[] digest = Hashing.murmur3_128().hashString(CONTENT, StandardCharsets.UTF_8).asBytes();
+		when(digestRepository.getByPath(anyString()))
+				.thenReturn(new ContentDigest(sameSize.getPath(), 0, 0, digest));
+
+		cut.apply(groups);
+
+		assertThat(identical.get(0), containsInAnyOrder(original, copy));
+	}
+
+	@Test
+	public void testOverlappingGroupsReportedOnce() throws Exception {
+		groups.putAll(HASH_B, Arrays.asList(original, copy));
+
+		cut.apply(groups);
+
+		assertThat(identical, hasSize(1));
+	}
+
+	@Test
+	public void testMissingFileIgnored() throws Exception {
+		groups.put(HASH_B, new ImageRecord(directory.resolve("missing").toString(), HASH_B));
+		groups.put(HASH_B, sameSize);
+
+		cut.apply(groups);
+
+		assertThat(identical, hasSize(1));
+	}
+
+	@Test
+	public void testNoIdenticalFiles() throws Exception {
+		groups.remove(HASH_A, copy);
+
+		cut.apply(groups);
+
+		assertThat(identical, is(empty()));
+	}
+
+	@Test
+	public void testParameterReturned() throws Exception {
+		assertThat(cut.apply(groups), is(sameInstance(groups)));
+	}
+}
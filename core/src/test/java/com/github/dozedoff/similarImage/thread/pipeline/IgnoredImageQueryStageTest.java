@@ -77,4 +77,9 @@ public class IgnoredImageQueryStageTest {
 
 		assertThat(cut.apply(null), is(empty()));
 	}
+
+	@Test
+	public void testIsWithoutIgnored() throws Exception {
+		assertThat(cut.isWithoutIgnored(), is(true));
+	}
 }
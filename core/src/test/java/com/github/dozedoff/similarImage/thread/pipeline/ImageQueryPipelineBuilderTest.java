@@ -20,8 +20,21 @@ package com.github.dozedoff.similarImage.thread.pipeline;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -30,9 +43,12 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.github.dozedoff.similarImage.db.ImageRecordStore;
 import com.github.dozedoff.similarImage.db.Tag;
+import com.github.dozedoff.similarImage.db.repository.ContentDigestRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ImageQueryPipelineBuilderTest {
@@ -80,6 +96,24 @@ public class ImageQueryPipelineBuilderTest {
 				hasItem(instanceOf(RemoveDuplicateSetStage.class)));
 	}
 
+	@Test
+	public void testConfirmWithRunsFirst() throws Exception {
+		ImageQueryPipeline pipeline = cut.removeSingleImageGroups().confirmWith("test_hash", DISTANCE).build();
+
+		assertThat(pipeline.getPostProcessingStages().iterator().next(), is(instanceOf(ConfirmHashStage.class)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConfirmWithNegativeDistance() throws Exception {
+		cut.confirmWith("test_hash", -1);
+	}
+
+	@Test
+	public void testFlagIdenticalFiles() throws Exception {
+		assertThat(cut.flagIdenticalFiles(mock(ContentDigestRepository.class), identical -> {
+		}).build().getPostProcessingStages(), hasItem(instanceOf(IdenticalFileStage.class)));
+	}
+
 	@Test
 	public void testNewBuilder() throws Exception {
 		assertThat(ImageQueryPipelineBuilder.newBuilder(imageRepository, filterRepository),
@@ -99,6 +133,27 @@ public class ImageQueryPipelineBuilderTest {
 		assertThat(grouper.getHammingDistance(), is(DISTANCE));
 	}
 
+	@Test
+	public void testDefaultIndexType() throws Exception {
+		ImageQueryPipeline pipeline = cut.distance(DISTANCE).build();
+		GroupImagesStage grouper = (GroupImagesStage) pipeline.getImageGrouper();
+
+		assertThat(grouper.getIndexType(), is(IndexType.HAMMING_BK_TREE));
+	}
+
+	@Test
+	public void testDistanceWithIndexType() throws Exception {
+		ImageQueryPipeline pipeline = cut.distance(DISTANCE, IndexType.MULTI_INDEX_HASHING).groupAll().build();
+		GroupImagesStage grouper = (GroupImagesStage) pipeline.getImageGrouper();
+
+		assertThat(grouper.getIndexType(), is(IndexType.MULTI_INDEX_HASHING));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDistanceWithIndexTypeNegative() throws Exception {
+		cut.distance(-1, IndexType.MULTI_INDEX_HASHING).build();
+	}
+
 	@Test
 	public void testGroupByTagGrouper() throws Exception {
 		ImageQueryPipeline pipeline = cut.groupByTag(new Tag("")).build();
@@ -113,6 +168,60 @@ public class ImageQueryPipelineBuilderTest {
 		assertThat(pipeline.getImageGrouper(), is(instanceOf(GroupImagesStage.class)));
 	}
 
+	@Test
+	public void testPersistentSearchQueriesOnce() throws Exception {
+		Path cacheDirectory = Files.createTempDirectory(ImageQueryPipelineBuilderTest.class.getSimpleName());
+
+		try {
+			ImageQueryPipeline pipeline = cut.persistentSearch(cacheDirectory).build();
+			pipeline.apply(null);
+			pipeline.apply(null);
+
+			verify(imageRepository, times(1)).getAll();
+		} finally {
+			try (Stream<Path> files = Files.walk(cacheDirectory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+
+	@Test
+	public void testGroupClusters() throws Exception {
+		ImageQueryPipeline pipeline = cut.distance(DISTANCE, IndexType.MULTI_INDEX_HASHING).groupClusters().build();
+		ClusterImagesStage grouper = (ClusterImagesStage) pipeline.getImageGrouper();
+
+		assertThat(grouper.getHammingDistance(), is(DISTANCE));
+		assertThat(grouper.getIndexType(), is(IndexType.MULTI_INDEX_HASHING));
+	}
+
+	@Test
+	public void testGroupAllSequentialByDefault() throws Exception {
+		GroupImagesStage grouper = (GroupImagesStage) cut.groupAll().build().getImageGrouper();
+
+		assertThat(grouper.isParallel(), is(false));
+	}
+
+	@Test
+	public void testGroupAllParallel() throws Exception {
+		GroupImagesStage grouper = (GroupImagesStage) cut.groupAll(true).build().getImageGrouper();
+
+		assertThat(grouper.isParallel(), is(true));
+	}
+
+	@Test
+	public void testGroupAllNotShardedByDefault() throws Exception {
+		GroupImagesStage grouper = (GroupImagesStage) cut.groupAll().build().getImageGrouper();
+
+		assertThat(grouper.isSharded(), is(false));
+	}
+
+	@Test
+	public void testGroupAllShardByDirectory() throws Exception {
+		GroupImagesStage grouper = (GroupImagesStage) cut.shardByDirectory().groupAll().build().getImageGrouper();
+
+		assertThat(grouper.isSharded(), is(true));
+	}
+
 	@Test
 	public void testExcludeIgnoredBooleanSetToFalse() throws Exception {
 		cut.excludeIgnored(false).build().apply(null);
@@ -126,4 +235,133 @@ public class ImageQueryPipelineBuilderTest {
 
 		verify(imageRepository).getAllWithoutIgnored();
 	}
+
+	@Test
+	public void testCompactRecords() throws Exception {
+		when(imageRepository.getCompact(null, false)).thenReturn(new ImageRecordStore());
+
+		cut.compactRecords().build().apply(null);
+
+		verify(imageRepository).getCompact(null, false);
+	}
+
+	@Test
+	public void testCompactRecordsExcludeIgnored() throws Exception {
+		when(imageRepository.getCompact(null, true)).thenReturn(new ImageRecordStore());
+
+		cut.excludeIgnored().compactRecords().build().apply(null);
+
+		verify(imageRepository).getCompact(null, true);
+	}
+
+	@Test
+	public void testExcludeIgnoredAfterCompactRecords() throws Exception {
+		when(imageRepository.getCompact(null, true)).thenReturn(new ImageRecordStore());
+
+		cut.compactRecords().excludeIgnored().build().apply(null);
+
+		verify(imageRepository).getCompact(null, true);
+	}
+
+	@Test
+	public void testBuildStreamingDistance() throws Exception {
+		StreamingImageQueryPipeline pipeline = cut.distance(2, IndexType.MULTI_INDEX_HASHING).buildStreaming();
+
+		assertThat(pipeline.getHammingDistance(), is(2));
+		assertThat(pipeline.getIndexType(), is(IndexType.MULTI_INDEX_HASHING));
+	}
+
+	@Test
+	public void testBuildStreamingExcludeIgnored() throws Exception {
+		cut.excludeIgnored().buildStreaming().apply(null, (hash, images) -> {
+		});
+
+		verify(imageRepository).forEachSortedByHash(isNull(), eq(true), any());
+	}
+
+	@Test
+	public void testStreamableWithRemoveStages() throws Exception {
+		assertThat(cut.groupAll().removeSingleImageGroups().removeDuplicateGroups().isStreamable(), is(true));
+	}
+
+	@Test
+	public void testNotStreamableWithGroupCache() throws Exception {
+		assertThat(cut.cacheGroups().groupAll().isStreamable(), is(false));
+	}
+
+	@Test
+	public void testNotStreamableWithCompactRecords() throws Exception {
+		assertThat(cut.compactRecords().groupAll().isStreamable(), is(false));
+	}
+
+	@Test
+	public void testNotStreamableWithClusters() throws Exception {
+		assertThat(cut.groupClusters().isStreamable(), is(false));
+	}
+
+	@Test
+	public void testNotStreamableWithConfirmStage() throws Exception {
+		assertThat(cut.confirmWith("test_hash", 1).groupAll().isStreamable(), is(false));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBuildStreamingNotStreamable() throws Exception {
+		cut.cacheGroups().buildStreaming();
+	}
+
+	@Test
+	public void testBuildNearestIndexType() throws Exception {
+		NearestImageQuery query = cut.distance(2, IndexType.MULTI_INDEX_HASHING).buildNearest();
+
+		assertThat(query.getIndexType(), is(IndexType.MULTI_INDEX_HASHING));
+	}
+
+	@Test
+	public void testBuildNearestExcludeIgnored() throws Exception {
+		cut.excludeIgnored().buildNearest().apply(null, 0L, 1);
+
+		verify(imageRepository).getAllWithoutIgnored();
+	}
+
+	@Test
+	public void testBuildCompareDistance() throws Exception {
+		CompareScopeQuery query = cut.distance(DISTANCE, IndexType.MULTI_INDEX_HASHING).buildCompare();
+
+		assertThat(query.getHammingDistance(), is(DISTANCE));
+	}
+
+	@Test
+	public void testBuildComparePostProcessing() throws Exception {
+		CompareScopeQuery query = cut.removeSingleImageGroups().buildCompare();
+
+		assertThat(query.getPostProcessingStages(), hasItem(instanceOf(RemoveSingleImageSetStage.class)));
+	}
+
+	@Test
+	public void testCacheGroups() throws Exception {
+		ImageQueryPipeline pipeline = cut.cacheGroups().groupAll().build();
+
+		assertThat(pipeline.getGroupCache(), is(notNullValue()));
+	}
+
+	@Test
+	public void testCacheGroupsQueriesOnce() throws Exception {
+		ImageQueryPipeline pipeline = cut.cacheGroups().groupAll().build();
+		pipeline.apply(null);
+		pipeline.apply(null);
+
+		verify(imageRepository, times(1)).getAll();
+	}
+
+	@Test
+	public void testCacheGroupsNotUsedForClusters() throws Exception {
+		ImageQueryPipeline pipeline = cut.cacheGroups().groupClusters().build();
+
+		assertThat(pipeline.getGroupCache(), is(nullValue()));
+	}
+
+	@Test
+	public void testNoGroupCacheByDefault() throws Exception {
+		assertThat(cut.groupAll().build().getGroupCache(), is(nullValue()));
+	}
 }
@@ -0,0 +1,113 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.duplicate.RecordSearchCache;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+
+public class NearestImageQueryTest {
+	private static final Path PATH = Paths.get("foo");
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private ImageRecord imageC;
+
+	private Function<Path, List<ImageRecord>> imageQuery;
+	private Path cacheDirectory;
+
+	private NearestImageQuery cut;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setUp() throws Exception {
+		imageA = new ImageRecord("foo/a", 0b0000L);
+		imageB = new ImageRecord("foo/b", 0b0111L);
+		imageC = new ImageRecord("foo/c", 0b0001L);
+
+		imageQuery = mock(Function.class);
+		when(imageQuery.apply(PATH)).thenReturn(Arrays.asList(imageA, imageB, imageC));
+
+		cacheDirectory = Files.createTempDirectory(NearestImageQueryTest.class.getSimpleName());
+
+		cut = new NearestImageQuery(imageQuery, null, IndexType.MULTI_INDEX_HASHING);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(cacheDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testSortedByDistance() throws Exception {
+		assertThat(cut.apply(PATH, 0L, 3), contains(imageA, imageC, imageB));
+	}
+
+	@Test
+	public void testLimitedToCount() throws Exception {
+		assertThat(cut.apply(PATH, 0b0011L, 1), contains(imageC));
+	}
+
+	@Test
+	public void testQueriedForScope() throws Exception {
+		cut.apply(PATH, 0L, 1);
+
+		verify(imageQuery).apply(PATH);
+	}
+
+	@Test
+	public void testCachedSearchQueriesOnce() throws Exception {
+		ImageRepository imageRepository = mock(ImageRepository.class);
+		RecordSearchCache searchCache = new RecordSearchCache(imageRepository, cacheDirectory);
+		cut = new NearestImageQuery(imageQuery, searchCache, IndexType.MULTI_INDEX_HASHING);
+
+		cut.apply(PATH, 0L, 1);
+		assertThat(cut.apply(PATH, 0L, 3), contains(imageA, imageC, imageB));
+
+		verify(imageQuery, times(1)).apply(PATH);
+	}
+
+	@Test
+	public void testGetIndexType() throws Exception {
+		assertThat(cut.getIndexType(), is(IndexType.MULTI_INDEX_HASHING));
+	}
+}
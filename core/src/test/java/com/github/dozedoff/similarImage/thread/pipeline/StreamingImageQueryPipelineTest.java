@@ -0,0 +1,187 @@
+/*  Copyright (C) 2017  Nicholas Wright
+    
+    This file is part of similarImage - A similar image finder using pHash
+    
+    similarImage is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.github.dozedoff.similarImage.thread.pipeline;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.dozedoff.similarImage.db.ImageRecord;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
+import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.MultimapBuilder;
+
+public class StreamingImageQueryPipelineTest {
+	private static final Path PATH = Paths.get("foo");
+	private static final long HASH_A = 0b0000L;
+	private static final long HASH_B = 0b0001L;
+	private static final long HASH_C = 0b1111_0000L;
+
+	private ImageRepository imageRepository;
+
+	private StreamingImageQueryPipeline cut;
+
+	private ImageRecord imageA;
+	private ImageRecord imageB;
+	private ImageRecord imageB2;
+	private ImageRecord imageC;
+
+	private Multimap<Long, ImageRecord> groups;
+	private List<Long> emittedHashes;
+
+	@Before
+	public void setUp() throws Exception {
+		imageRepository = mock(ImageRepository.class);
+
+		imageA = new ImageRecord("a", HASH_A);
+		imageB = new ImageRecord("b", HASH_B);
+		imageB2 = new ImageRecord("b2", HASH_B);
+		imageC = new ImageRecord("c", HASH_C);
+
+		List<ImageRecord> sorted = new ArrayList<>(Arrays.asList(imageC, imageB, imageA, imageB2));
+		sorted.sort(Comparator.comparingLong(ImageRecord::getpHash));
+
+		doAnswer(invocation -> {
+			@SuppressWarnings("unchecked")
+			ObjLongConsumer<String> consumer = (ObjLongConsumer<String>) invocation.getArguments()[2];
+
+			for (ImageRecord image : sorted) {
+				consumer.accept(image.getPath(), image.getpHash());
+			}
+
+			return null;
+		}).when(imageRepository).forEachSortedByHash(any(), anyBoolean(), any());
+
+		groups = MultimapBuilder.hashKeys().hashSetValues().build();
+		emittedHashes = new ArrayList<>();
+
+		cut = new StreamingImageQueryPipeline(imageRepository, false, 0, IndexType.HAMMING_BK_TREE, false, false);
+	}
+
+	private long apply() {
+		return cut.apply(null, this::collect);
+	}
+
+	private void collect(long hash, Collection<ImageRecord> images) {
+		emittedHashes.add(hash);
+		groups.putAll(hash, images);
+	}
+
+	@Test
+	public void testExactMatch() throws Exception {
+		apply();
+
+		assertThat(groups.get(HASH_B), containsInAnyOrder(imageB, imageB2));
+	}
+
+	@Test
+	public void testExactMatchEmittedInHashOrder() throws Exception {
+		apply();
+
+		assertThat(emittedHashes, is(Arrays.asList(HASH_A, HASH_B, HASH_C)));
+	}
+
+	@Test
+	public void testExactMatchRemoveSingleImageGroups() throws Exception {
+		cut = new StreamingImageQueryPipeline(imageRepository, false, 0, IndexType.HAMMING_BK_TREE, true, false);
+
+		assertThat(apply(), is(1L));
+		assertThat(groups.keySet(), containsInAnyOrder(HASH_B));
+	}
+
+	@Test
+	public void testDistanceMatch() throws Exception {
+		cut = new StreamingImageQueryPipeline(imageRepository, false, 1, IndexType.HAMMING_BK_TREE, false, false);
+
+		apply();
+
+		assertThat(groups.get(HASH_A), containsInAnyOrder(imageA, imageB, imageB2));
+		assertThat(groups.get(HASH_B), containsInAnyOrder(imageA, imageB, imageB2));
+		assertThat(groups.get(HASH_C), containsInAnyOrder(imageC));
+	}
+
+	@Test
+	public void testDistanceMatchMultiIndexHashing() throws Exception {
+		cut = new StreamingImageQueryPipeline(imageRepository, false, 1, IndexType.MULTI_INDEX_HASHING, false, false);
+
+		apply();
+
+		assertThat(groups.get(HASH_A), containsInAnyOrder(imageA, imageB, imageB2));
+	}
+
+	@Test
+	public void testDistanceMatchRemoveDuplicateGroups() throws Exception {
+		cut = new StreamingImageQueryPipeline(imageRepository, false, 1, IndexType.HAMMING_BK_TREE, true, true);
+
+		assertThat(apply(), is(1L));
+		assertThat(groups.get(HASH_A), containsInAnyOrder(imageA, imageB, imageB2));
+	}
+
+	@Test
+	public void testScope() throws Exception {
+		cut.apply(PATH, this::collect);
+
+		verify(imageRepository).forEachSortedByHash(eq(PATH), eq(false), any());
+	}
+
+	@Test
+	public void testEmptyScope() throws Exception {
+		cut.apply(Paths.get(""), this::collect);
+
+		verify(imageRepository).forEachSortedByHash(isNull(), eq(false), any());
+	}
+
+	@Test
+	public void testWithoutIgnored() throws Exception {
+		cut = new StreamingImageQueryPipeline(imageRepository, true, 0, IndexType.HAMMING_BK_TREE, false, false);
+
+		apply();
+
+		verify(imageRepository).forEachSortedByHash(isNull(), eq(true), any());
+	}
+
+	@Test
+	public void testRepositoryError() throws Exception {
+		doThrow(new RepositoryException("")).when(imageRepository).forEachSortedByHash(any(),
+				anyBoolean(), any());
+
+		assertThat(apply(), is(0L));
+	}
+}
@@ -35,6 +35,7 @@ import com.github.dozedoff.similarImage.module.ArtemisModule;
 import com.github.dozedoff.similarImage.module.NodeModule;
 import com.github.dozedoff.similarImage.module.RepositoryNodeModule;
 import com.github.dozedoff.similarImage.module.StatisticsModule;
+import com.j256.ormlite.misc.TransactionManager;
 
 import dagger.Component;
 
@@ -72,4 +73,6 @@ public interface MessagingComponent {
 
 	IgnoreRepository getIgnoreRepository();
 
+	TransactionManager getTransactionManager();
+
 }
@@ -23,6 +23,8 @@ import java.util.List;
 
 import javax.inject.Inject;
 
+import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.db.repository.BatchingImageRepository;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
 import com.github.dozedoff.similarImage.io.ExtendedAttribute;
 import com.github.dozedoff.similarImage.io.ExtendedAttributeDirectoryCache;
@@ -31,19 +33,28 @@ import com.github.dozedoff.similarImage.io.HashAttribute;
 import com.github.dozedoff.similarImage.io.Statistics;
 import com.github.dozedoff.similarImage.messaging.ArtemisSession;
 import com.github.dozedoff.similarImage.messaging.StorageNode;
+import com.github.dozedoff.similarImage.thread.HashingPipeline;
+import com.j256.ormlite.misc.TransactionManager;
 
 public class HandlerListFactory {
+	private static final int HASHING_QUEUE_SIZE = 256;
+	private static final int WRITE_BATCH_SIZE = 500;
+	private static final long WRITE_BATCH_INTERVAL = 1000;
+
 	private final ImageRepository imageRepository;
 	private final Statistics statistics;
 	private final ArtemisSession session;
 	private final ExtendedAttributeQuery eaQuery;
+	private final TransactionManager transactionManager;
 
 	@Inject
-	public HandlerListFactory(ImageRepository imageRepository, Statistics statistics, ArtemisSession as, ExtendedAttributeQuery eaQuery) {
+	public HandlerListFactory(ImageRepository imageRepository, Statistics statistics, ArtemisSession as,
+			ExtendedAttributeQuery eaQuery, TransactionManager transactionManager) {
 		this.imageRepository = imageRepository;
 		this.statistics = statistics;
 		this.session = as;
 		this.eaQuery = eaQuery;
+		this.transactionManager = transactionManager;
 	}
 
 	public List<HashHandler> withExtendedAttributeSupport(HashAttribute hashAttribute) throws Exception {
@@ -63,4 +74,52 @@ public class HandlerListFactory {
 
 		return handlers;
 	}
+
+	/**
+	 * Create a repository that writes stored images in batches, to reduce the number of transactions. Images that
+	 * could not be stored are counted as failed files.
+	 * 
+	 * @return a repository wrapping the image repository, must be closed to write the last batch
+	 */
+	public BatchingImageRepository batchingImageRepository() {
+		return new BatchingImageRepository(imageRepository, transactionManager, WRITE_BATCH_SIZE, WRITE_BATCH_INTERVAL,
+				image -> statistics.incrementFailedFiles());
+	}
+
+	/**
+	 * Create a pipeline for hashing images locally.
+	 * 
+	 * @param hasher
+	 *            class that does the hash computation
+	 * @param repository
+	 *            to store hashed images in
+	 * @param ioThreads
+	 *            number of threads reading files
+	 * @param cpuThreads
+	 *            number of threads decoding and hashing images
+	 * @return a started pipeline, must be closed once all files have been handled
+	 */
+	public HashingPipeline hashingPipeline(ImagePHash hasher, ImageRepository repository, int ioThreads,
+			int cpuThreads) {
+		return new HashingPipeline(hasher, repository, statistics, ioThreads, cpuThreads, HASHING_QUEUE_SIZE);
+	}
+
+	/**
+	 * Create handlers that hash images with the pipeline, instead of sending them to the message queue.
+	 * 
+	 * @param hashAttribute
+	 *            used to read and write hashes as extended attributes
+	 * @param pipeline
+	 *            used to hash images that have no hash yet
+	 * @return list of handlers
+	 */
+	public List<HashHandler> withLocalHashing(HashAttribute hashAttribute, HashingPipeline pipeline) {
+		List<HashHandler> handlers = new LinkedList<HashHandler>();
+
+		handlers.add(new DatabaseHandler(imageRepository, statistics));
+		handlers.add(new ExtendedAttributeHandler(hashAttribute, imageRepository, eaQuery));
+		handlers.add(pipeline);
+
+		return handlers;
+	}
 }
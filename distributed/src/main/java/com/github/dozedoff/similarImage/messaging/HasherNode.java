@@ -37,6 +37,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
 import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
 import com.github.dozedoff.similarImage.io.ByteBufferInputstream;
 import com.github.dozedoff.similarImage.util.MessagingUtil;
 
@@ -55,6 +56,7 @@ public class HasherNode implements MessageHandler, Node {
 	private final ClientProducer producer;
 	private final ClientSession session;
 	private final ImagePHash hasher;
+	private DifferenceHash differenceHash;
 	private ByteBuffer buffer;
 	private MessageFactory messageFactory;
 
@@ -115,6 +117,17 @@ public class HasherNode implements MessageHandler, Node {
 		this.messageFactory = messageFactory;
 	}
 
+	/**
+	 * Set a {@link DifferenceHash} to additionally calculate a difference hash from the resized image and send it with
+	 * the result.
+	 * 
+	 * @param differenceHash
+	 *            to use for difference hashes, can be null
+	 */
+	public final void setDifferenceHash(DifferenceHash differenceHash) {
+		this.differenceHash = differenceHash;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -163,8 +176,17 @@ public class HasherNode implements MessageHandler, Node {
 			message.getBodyBuffer().readBytes(buffer);
 			buffer.rewind();
 
-			long hash = doHash(ImageIO.read(new ByteBufferInputstream(buffer)));
-			ClientMessage response = messageFactory.resultMessage(hash, most, least);
+			BufferedImage image = ImageIO.read(new ByteBufferInputstream(buffer));
+			long hash = doHash(image);
+			ClientMessage response;
+
+			if (differenceHash == null) {
+				response = messageFactory.resultMessage(hash, most, least, MessageFactory.getHashSource(message));
+			} else {
+				response = messageFactory.resultMessage(hash, most, least, MessageFactory.getHashSource(message),
+						differenceHash.getLongHash(image));
+			}
+
 			producer.send(response);
 
 			if (LOGGER.isTraceEnabled()) {
@@ -30,6 +30,7 @@ import org.apache.activemq.artemis.api.core.ActiveMQBuffer;
 import org.apache.activemq.artemis.api.core.client.ClientMessage;
 import org.apache.activemq.artemis.api.core.client.ClientSession;
 
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.PendingHashImage;
 
 /**
@@ -44,7 +45,7 @@ public class MessageFactory {
 	 * Property name in the message
 	 */
 	public enum MessageProperty {
-		repository_query, hashResult, task, path
+		repository_query, hashResult, task, path, hashSource, differenceHash
 	}
 
 	/**
@@ -81,6 +82,48 @@ public class MessageFactory {
 		message.putStringProperty(MessageProperty.path.toString(), value.toString());
 	}
 
+	private void setHashSource(ClientMessage message, HashSource hashSource) {
+		if (hashSource != null) {
+			message.putStringProperty(MessageProperty.hashSource.toString(), hashSource.name());
+		}
+	}
+
+	/**
+	 * Get the source of the hash set in the message.
+	 * 
+	 * @param message
+	 *            to read the property from
+	 * @return the source of the hash, or null if it is not set or unknown
+	 */
+	public static HashSource getHashSource(ClientMessage message) {
+		String hashSource = message.getStringProperty(MessageProperty.hashSource.toString());
+
+		if (hashSource == null) {
+			return null;
+		}
+
+		try {
+			return HashSource.valueOf(hashSource);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the difference hash set in the message.
+	 * 
+	 * @param message
+	 *            to read the property from
+	 * @return the difference hash, or null if it is not set
+	 */
+	public static Long getDifferenceHash(ClientMessage message) {
+		if (!message.containsProperty(MessageProperty.differenceHash.toString())) {
+			return null;
+		}
+
+		return message.getLongProperty(MessageProperty.differenceHash.toString());
+	}
+
 	/**
 	 * Create a new message for a hashing request.
 	 * 
@@ -100,6 +143,24 @@ public class MessageFactory {
 		return message;
 	}
 
+	/**
+	 * Create a new message for a hashing request, with the source of the resized image.
+	 * 
+	 * @param resizedImage
+	 *            resized image to be hashed
+	 * @param uuid
+	 *            used to track the original path of the image
+	 * @param hashSource
+	 *            image data the resized image was created from, can be null
+	 * @return configured message
+	 */
+	public ClientMessage hashRequestMessage(byte[] resizedImage, UUID uuid, HashSource hashSource) {
+		ClientMessage message = hashRequestMessage(resizedImage, uuid);
+		setHashSource(message, hashSource);
+
+		return message;
+	}
+
 	/**
 	 * Create a new message for the hashing result.
 	 * 
@@ -124,6 +185,50 @@ public class MessageFactory {
 		return message;
 	}
 
+	/**
+	 * Create a new message for the hashing result, with the source of the hash.
+	 * 
+	 * @param hash
+	 *            that was calculated
+	 * @param most
+	 *            most significant bits of the {@link UUID}
+	 * @param least
+	 *            least significant bits of the {@link UUID}
+	 * @param hashSource
+	 *            image data the hash was calculated from, can be null
+	 * @return configured message
+	 */
+	public ClientMessage resultMessage(long hash, long most, long least, HashSource hashSource) {
+		ClientMessage message = resultMessage(hash, most, least);
+		setHashSource(message, hashSource);
+
+		return message;
+	}
+
+	/**
+	 * Create a new message for the hashing result, with the source of the hash and a difference hash of the same
+	 * image.
+	 * 
+	 * @param hash
+	 *            that was calculated
+	 * @param most
+	 *            most significant bits of the {@link UUID}
+	 * @param least
+	 *            least significant bits of the {@link UUID}
+	 * @param hashSource
+	 *            image data the hash was calculated from, can be null
+	 * @param differenceHash
+	 *            difference hash of the image
+	 * @return configured message
+	 */
+	public ClientMessage resultMessage(long hash, long most, long least, HashSource hashSource,
+			long differenceHash) {
+		ClientMessage message = resultMessage(hash, most, least, hashSource);
+		message.putLongProperty(MessageProperty.differenceHash.toString(), differenceHash);
+
+		return message;
+	}
+
 	/**
 	 * Create a new message for a corrupt image.
 	 * 
@@ -36,11 +36,13 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.PendingHashImage;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
 import com.github.dozedoff.similarImage.db.repository.PendingHashImageRepository;
 import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.handler.HashNames;
 import com.github.dozedoff.similarImage.messaging.ArtemisQueue.QueueAddress;
 import com.j256.ormlite.misc.TransactionManager;
 
@@ -200,15 +202,22 @@ public class QueueToDatabaseTransaction implements CollectedMessageConsumer {
 			if (pending != null) {
 				pendingMessages.dec();
 				processedImages.mark();
-				updateRecords(hash, pending);
+				updateRecords(hash, MessageFactory.getHashSource(message), MessageFactory.getDifferenceHash(message),
+						pending);
 			} else {
 				pendingMessagesMissing.inc();
 				LOGGER.warn("No pending hash record found for {}", new UUID(most, least));
 			}
 		}
 
-		private void updateRecords(long hash, PendingHashImage pending) throws RepositoryException {
-			storeHash(pending.getPathAsPath(), hash);
+		private void updateRecords(long hash, HashSource hashSource, Long differenceHash, PendingHashImage pending)
+				throws RepositoryException {
+			ImageRecord record = storeHash(pending.getPathAsPath(), hash, hashSource);
+
+			if (differenceHash != null) {
+				imageRepository.storeAdditionalHash(record, HashNames.DIFFERENCE_HASH, differenceHash);
+			}
+
 			pendingRepository.remove(pending);
 			ClientMessage eaUpdate = messageFactory.eaUpdate(pending.getPathAsPath(), hash);
 
@@ -220,8 +229,11 @@ public class QueueToDatabaseTransaction implements CollectedMessageConsumer {
 			}
 		}
 
-		private void storeHash(Path path, long hash) throws RepositoryException {
+		private ImageRecord storeHash(Path path, long hash, HashSource hashSource) throws RepositoryException {
 			LOGGER.trace("Creating record for {} with hash {}", path, hash);
-			imageRepository.store(new ImageRecord(path.toString(), hash));
+			ImageRecord record = new ImageRecord(path.toString(), hash, hashSource);
+			imageRepository.store(record);
+
+			return record;
 		}
 }
@@ -47,7 +47,10 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
+import com.github.dozedoff.similarImage.db.HashSource;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
 import com.github.dozedoff.similarImage.image.ImageResizer;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
 import com.github.dozedoff.similarImage.io.ByteBufferInputstream;
 import com.github.dozedoff.similarImage.messaging.ArtemisQueue.QueueAddress;
 import com.github.dozedoff.similarImage.messaging.MessageFactory.MessageProperty;
@@ -89,6 +92,8 @@ public class ResizerNode implements MessageHandler, Node {
 	private final ClientProducer producer;
 	private final ImageResizer resizer;
 	private MessageFactory messageFactory;
+	private SubsamplingImageDecoder imageDecoder;
+	private ExifThumbnailReader thumbnailReader;
 
 	private final Cache<String, String> pendingCache;
 	private ByteBuffer messageBuffer;
@@ -183,6 +188,28 @@ public class ResizerNode implements MessageHandler, Node {
 		this.messageFactory = messageFactory;
 	}
 
+	/**
+	 * Set a {@link SubsamplingImageDecoder} to decode images with subsampling before they are resized, instead of
+	 * decoding them at full resolution.
+	 * 
+	 * @param imageDecoder
+	 *            to use for decoding images, can be null
+	 */
+	public final void setImageDecoder(SubsamplingImageDecoder imageDecoder) {
+		this.imageDecoder = imageDecoder;
+	}
+
+	/**
+	 * Set a {@link ExifThumbnailReader} to resize the embedded EXIF thumbnail of JPEGs instead of the image, if the
+	 * aspect ratio of the thumbnail matches.
+	 * 
+	 * @param thumbnailReader
+	 *            to use for reading thumbnails, can be null
+	 */
+	public final void setThumbnailReader(ExifThumbnailReader thumbnailReader) {
+		this.thumbnailReader = thumbnailReader;
+	}
+
 	private void checkBufferCapacity(int messageSize) {
 		if (messageSize > messageBuffer.capacity()) {
 			bufferResize.inc();
@@ -239,14 +266,27 @@ public class ResizerNode implements MessageHandler, Node {
 
 			Path path = Paths.get(pathPropterty);
 			Path filename = path.getFileName();
-			InputStream is = new ByteBufferInputstream(messageBuffer);
+			boolean isGif = filename != null && filename.toString().toLowerCase().endsWith(".gif");
+			BufferedImage originalImage = null;
+			HashSource hashSource = HashSource.IMAGE;
+
+			if (thumbnailReader != null && !isGif) {
+				originalImage = thumbnailReader.read(new ByteBufferInputstream(messageBuffer));
+				messageBuffer.rewind();
+				hashSource = originalImage == null ? HashSource.IMAGE : HashSource.EXIF_THUMBNAIL;
+			}
+
+			if (originalImage == null) {
+				InputStream is = new ByteBufferInputstream(messageBuffer);
+
+				if (isGif) {
+					GifImage gi = GifDecoder.read(is);
+					is = new ByteArrayInputStream(ImageUtil.imageToBytes(gi.getFrame(0)));
+				}
 
-			if (filename != null && filename.toString().toLowerCase().endsWith(".gif")) {
-				GifImage gi = GifDecoder.read(is);
-				is = new ByteArrayInputStream(ImageUtil.imageToBytes(gi.getFrame(0)));
+				originalImage = imageDecoder == null ? ImageIO.read(is) : imageDecoder.read(is);
 			}
 
-			BufferedImage originalImage = ImageIO.read(is);
 			//FIXME nullcheck if image read failed
 			byte[] resizedImageData = resizer.resize(originalImage);
 
@@ -255,7 +295,7 @@ public class ResizerNode implements MessageHandler, Node {
 			producer.send(QueueAddress.RESULT.toString(), trackMessage);
 			LOGGER.trace("Sent tracking message for {} with UUID {}", pathPropterty, uuid);
 
-			ClientMessage response = messageFactory.hashRequestMessage(resizedImageData, uuid);
+			ClientMessage response = messageFactory.hashRequestMessage(resizedImageData, uuid, hashSource);
 
 			LOGGER.trace("Sending hash request with id {} instead of path {}", uuid, path);
 			producer.send(response);
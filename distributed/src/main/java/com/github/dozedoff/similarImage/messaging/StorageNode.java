@@ -1,8 +1,7 @@
 package com.github.dozedoff.similarImage.messaging;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -32,6 +31,10 @@ import com.google.common.cache.CacheBuilder;
 
 /**
  * Reads files and creates resize requests. Listens to extended attribute update messages.
+ * <p>
+ * Files may be processed from several threads, while update messages are handled on the thread of the session. A
+ * {@link ClientSession} is not thread safe, so every use of the session, including message creation, is guarded by a
+ * single lock. Files are read before the lock is taken.
  */
 public class StorageNode implements MessageHandler, Node {
 	private static final Logger LOGGER = LoggerFactory.getLogger(StorageNode.class);
@@ -42,6 +45,7 @@ public class StorageNode implements MessageHandler, Node {
 	private final ClientConsumer consumer;
 	private final MessageFactory messageFactory;
 	private final Cache<Path, Integer> sentRequests;
+	private final Object sessionLock = new Object();
 
 	/**
 	 * Create a instance for handling updates and generating resize requests.
@@ -107,6 +111,13 @@ public class StorageNode implements MessageHandler, Node {
 	@Override
 	public void onMessage(ClientMessage message) {
 		LOGGER.trace("Got message {}", message);
+
+		synchronized (sessionLock) {
+			handleMessage(message);
+		}
+	}
+
+	private void handleMessage(ClientMessage message) {
 		if (isEaUpdate(message)) {
 			Path path = getPath(message);
 			long hash = message.getBodyBuffer().readLong();
@@ -150,9 +161,14 @@ public class StorageNode implements MessageHandler, Node {
 			return true;
 		}
 
-		try (InputStream bis = new BufferedInputStream(Files.newInputStream(path))) {
-			ClientMessage request = messageFactory.resizeRequest(path, bis);
-			producer.send(request);
+		try {
+			byte[] data = Files.readAllBytes(path);
+
+			synchronized (sessionLock) {
+				ClientMessage request = messageFactory.resizeRequest(path, new ByteArrayInputStream(data));
+				producer.send(request);
+			}
+
 			sentRequests.put(path, 0);
 			LOGGER.trace("Sent resize request for {}", path);
 			return true;
@@ -174,8 +190,10 @@ public class StorageNode implements MessageHandler, Node {
 	 */
 	@Override
 	public void stop() {
-		MessagingUtil.silentClose(consumer);
-		MessagingUtil.silentClose(producer);
+		synchronized (sessionLock) {
+			MessagingUtil.silentClose(consumer);
+			MessagingUtil.silentClose(producer);
+		}
 	}
 
 	/**
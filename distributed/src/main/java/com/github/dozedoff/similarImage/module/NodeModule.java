@@ -24,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Consumer;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.activemq.artemis.api.core.ActiveMQException;
@@ -34,7 +35,11 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.MetricRegistry;
 import com.github.dozedoff.commonj.hash.ImagePHash;
 import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.FastImagePHash;
 import com.github.dozedoff.similarImage.image.ImageResizer;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
 import com.github.dozedoff.similarImage.io.ExtendedAttribute;
 import com.github.dozedoff.similarImage.io.ExtendedAttributeDirectoryCache;
 import com.github.dozedoff.similarImage.io.ExtendedAttributeQuery;
@@ -52,11 +57,62 @@ public class NodeModule {
 	private static final int IMAGE_SIZE = 32;
 	private static final Logger LOGGER = LoggerFactory.getLogger(NodeModule.class);
 
+	private final boolean fastPHash;
+	private final boolean subsampledDecoding;
+	private final boolean exifThumbnails;
+	private final boolean differenceHash;
+
+	@Inject
+	public NodeModule() {
+		this(false, false, false);
+	}
+
+	/**
+	 * Create a module that provides nodes with the selected hash implementation and decoding.
+	 * 
+	 * @param fastPHash
+	 *            if true, hasher nodes use {@link FastImagePHash}
+	 * @param subsampledDecoding
+	 *            if true, resizer nodes decode images with a {@link SubsamplingImageDecoder}
+	 * @param exifThumbnails
+	 *            if true, resizer nodes use matching EXIF thumbnails with a {@link ExifThumbnailReader}
+	 */
+	public NodeModule(boolean fastPHash, boolean subsampledDecoding, boolean exifThumbnails) {
+		this(fastPHash, subsampledDecoding, exifThumbnails, false);
+	}
+
+	/**
+	 * Create a module that provides nodes with the selected hash implementation and decoding.
+	 * 
+	 * @param fastPHash
+	 *            if true, hasher nodes use {@link FastImagePHash}
+	 * @param subsampledDecoding
+	 *            if true, resizer nodes decode images with a {@link SubsamplingImageDecoder}
+	 * @param exifThumbnails
+	 *            if true, resizer nodes use matching EXIF thumbnails with a {@link ExifThumbnailReader}
+	 * @param differenceHash
+	 *            if true, hasher nodes also send a {@link DifferenceHash} of the resized image
+	 */
+	public NodeModule(boolean fastPHash, boolean subsampledDecoding, boolean exifThumbnails,
+			boolean differenceHash) {
+		this.fastPHash = fastPHash;
+		this.subsampledDecoding = subsampledDecoding;
+		this.exifThumbnails = exifThumbnails;
+		this.differenceHash = differenceHash;
+	}
+
 	@Provides
 	public HasherNode provideHasherNode(MetricRegistry metrics, @Named("normal") ClientSession session) {
 		try {
-			return new HasherNode(session, new ImagePHash(), QueueAddress.HASH_REQUEST.toString(),
+			ImagePHash hasher = fastPHash ? new FastImagePHash() : new ImagePHash();
+			HasherNode hasherNode = new HasherNode(session, hasher, QueueAddress.HASH_REQUEST.toString(),
 					QueueAddress.RESULT.toString(), metrics);
+
+			if (differenceHash) {
+				hasherNode.setDifferenceHash(new DifferenceHash());
+			}
+
+			return hasherNode;
 		} catch (ActiveMQException e) {
 			throw new RuntimeException("Failed to create " + HasherNode.class.getSimpleName(), e);
 		}
@@ -64,7 +120,17 @@ public class NodeModule {
 
 	@Provides
 	public ResizerNode provideResizerNode(@Named("normal")ClientSession session, MetricRegistry metrics) {
-		return new ResizerNode(session, new ImageResizer(IMAGE_SIZE), metrics);
+		ResizerNode resizerNode = new ResizerNode(session, new ImageResizer(IMAGE_SIZE), metrics);
+
+		if (subsampledDecoding) {
+			resizerNode.setImageDecoder(new SubsamplingImageDecoder(IMAGE_SIZE));
+		}
+
+		if (exifThumbnails) {
+			resizerNode.setThumbnailReader(new ExifThumbnailReader(IMAGE_SIZE));
+		}
+
+		return resizerNode;
 	}
 
 	@Provides
@@ -21,6 +21,7 @@ import static org.awaitility.Awaitility.await;
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.nullable;
@@ -49,12 +50,14 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import com.codahale.metrics.MetricRegistry;
 import com.github.dozedoff.commonj.hash.ImagePHash;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
 
 @RunWith(MockitoJUnitRunner.class)
 public class HasherNodeTest extends MessagingBaseTest {
 	private static final String TEST_ADDRESS_REQUEST = "test_request";
 	private static final String TEST_ADDRESS_RESULT = "test_result";
 	private static final long TEST_HASH = 42L;
+	private static final long TEST_DIFFERENCE_HASH = 24L;
 	private static final byte[] TEST_DATA = { 12, 13, 14, 15, 16 };
 	private static final UUID TEST_UUID = new UUID(12, 42);
 	private static final long WORKER_NUMBER = 10L;
@@ -63,6 +66,9 @@ public class HasherNodeTest extends MessagingBaseTest {
 	@Mock
 	private ImagePHash hasher;
 
+	@Mock
+	private DifferenceHash differenceHash;
+
 	private HasherNode cut;
 	private MessageFactory messageFactory;
 	private MetricRegistry metrics;
@@ -129,6 +135,23 @@ public class HasherNodeTest extends MessagingBaseTest {
 		assertThat(result.getBodyBuffer().readLong(), is(TEST_HASH));
 	}
 
+	@Test
+	public void testMessageWithoutDifferenceHash() throws Exception {
+		ClientMessage result = waitForHashResult();
+
+		assertThat(MessageFactory.getDifferenceHash(result), is(nullValue()));
+	}
+
+	@Test
+	public void testMessageDifferenceHash() throws Exception {
+		when(differenceHash.getLongHash(nullable(BufferedImage.class))).thenReturn(TEST_DIFFERENCE_HASH);
+		cut.setDifferenceHash(differenceHash);
+
+		ClientMessage result = waitForHashResult();
+
+		assertThat(MessageFactory.getDifferenceHash(result), is(TEST_DIFFERENCE_HASH));
+	}
+
 	@Test
 	public void testMessageCorruptImageSent() throws Exception {
 		Mockito.reset(hasher);
@@ -18,6 +18,7 @@
 package com.github.dozedoff.similarImage.messaging;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertArrayEquals;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.when;
@@ -35,6 +36,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.PendingHashImage;
 import com.github.dozedoff.similarImage.messaging.MessageFactory.MessageProperty;
 import com.github.dozedoff.similarImage.messaging.MessageFactory.TaskType;
@@ -43,6 +45,7 @@ import com.github.dozedoff.similarImage.messaging.MessageFactory.TaskType;
 public class MessageFactoryTest extends MessagingBaseTest {
 	private static final int EXPECTED_MESSAGE_SIZE = 54;
 	private static final long HASH = 12L;
+	private static final long DIFFERENCE_HASH = 21L;
 	private static final byte[] IMAGE_DATA = { 0, 1, 2, 3, 4 };
 	private static final Path PATH = Paths.get("foo");
 	private static final UUID UUID = new UUID(99, 100);
@@ -91,6 +94,44 @@ public class MessageFactoryTest extends MessagingBaseTest {
 		assertArrayEquals(data, IMAGE_DATA);
 	}
 
+	@Test
+	public void testHashRequestMessageHashSource() throws Exception {
+		ClientMessage result = cut.hashRequestMessage(IMAGE_DATA, UUID, HashSource.EXIF_THUMBNAIL);
+
+		assertThat(MessageFactory.getHashSource(result), is(HashSource.EXIF_THUMBNAIL));
+	}
+
+	@Test
+	public void testHashRequestMessageNoHashSource() throws Exception {
+		ClientMessage result = cut.hashRequestMessage(IMAGE_DATA, UUID);
+
+		assertThat(MessageFactory.getHashSource(result), is(nullValue()));
+	}
+
+	@Test
+	public void testResultMessageHashSource() throws Exception {
+		ClientMessage result = cut.resultMessage(HASH, UUID.getMostSignificantBits(), UUID.getLeastSignificantBits(),
+				HashSource.EXIF_THUMBNAIL);
+
+		assertThat(MessageFactory.getHashSource(result), is(HashSource.EXIF_THUMBNAIL));
+	}
+
+	@Test
+	public void testResultMessageDifferenceHash() throws Exception {
+		ClientMessage result = cut.resultMessage(HASH, UUID.getMostSignificantBits(), UUID.getLeastSignificantBits(),
+				HashSource.EXIF_THUMBNAIL, DIFFERENCE_HASH);
+
+		assertThat(MessageFactory.getDifferenceHash(result), is(DIFFERENCE_HASH));
+	}
+
+	@Test
+	public void testResultMessageNoDifferenceHash() throws Exception {
+		ClientMessage result = cut.resultMessage(HASH, UUID.getMostSignificantBits(), UUID.getLeastSignificantBits(),
+				HashSource.EXIF_THUMBNAIL);
+
+		assertThat(MessageFactory.getDifferenceHash(result), is(nullValue()));
+	}
+
 	@Test
 	public void testResultMessageTask() throws Exception {
 		ClientMessage result = cut.resultMessage(HASH, UUID.getMostSignificantBits(), UUID.getLeastSignificantBits());
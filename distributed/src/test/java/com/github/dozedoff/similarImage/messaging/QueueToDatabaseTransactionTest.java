@@ -21,8 +21,10 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -48,10 +50,13 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.codahale.metrics.MetricRegistry;
+import com.github.dozedoff.similarImage.db.HashSource;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.PendingHashImage;
 import com.github.dozedoff.similarImage.db.repository.ImageRepository;
 import com.github.dozedoff.similarImage.db.repository.PendingHashImageRepository;
+import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.messaging.MessageFactory.MessageProperty;
 import com.j256.ormlite.misc.TransactionManager;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -62,6 +67,7 @@ public class QueueToDatabaseTransactionTest {
 	private static final long UUID_MOST = 5;
 	private static final long UUID_LEAST = 7;
 	private static final long HASH = 42;
+	private static final long DIFFERENCE_HASH = 24;
 	private static final String PATH = Paths.get("foo/bar").toString();
 
 	@Mock
@@ -217,6 +223,36 @@ public class QueueToDatabaseTransactionTest {
 		verify(imageRepository).store(eq(new ImageRecord(PATH, HASH)));
 	}
 
+	@Test
+	public void testOnCallResultHashSource() throws Exception {
+		when(message.getStringProperty(MessageProperty.hashSource.toString()))
+				.thenReturn(HashSource.EXIF_THUMBNAIL.name());
+		ArgumentCaptor<ImageRecord> record = ArgumentCaptor.forClass(ImageRecord.class);
+
+		cut.onCall(messages);
+
+		verify(imageRepository).store(record.capture());
+		assertThat(record.getValue().getHashSource(), is(HashSource.EXIF_THUMBNAIL));
+	}
+
+	@Test
+	public void testOnCallDifferenceHashStored() throws Exception {
+		when(message.containsProperty(MessageProperty.differenceHash.toString())).thenReturn(true);
+		when(message.getLongProperty(MessageProperty.differenceHash.toString())).thenReturn(DIFFERENCE_HASH);
+
+		cut.onCall(messages);
+
+		verify(imageRepository).storeAdditionalHash(new ImageRecord(PATH, HASH), HashNames.DIFFERENCE_HASH,
+				DIFFERENCE_HASH);
+	}
+
+	@Test
+	public void testOnCallNoDifferenceHash() throws Exception {
+		cut.onCall(messages);
+
+		verify(imageRepository, never()).storeAdditionalHash(any(), anyString(), anyLong());
+	}
+
 	@Test
 	public void testOnCallPendingRemoved() throws Exception {
 		cut.onCall(messages);
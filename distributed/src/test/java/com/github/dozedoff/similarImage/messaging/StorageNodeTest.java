@@ -13,6 +13,8 @@ import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.activemq.artemis.api.core.client.ClientConsumer;
@@ -37,6 +39,7 @@ public class StorageNodeTest extends MessagingBaseTest {
 	
 	private static final Path PATH = Paths.get("foo");
 	private static final long HASH = 42;
+	private static final int CONCURRENT_FILES = 10;
 
 	@Mock
 	private ExtendedAttributeQuery eaQuery;
@@ -135,6 +138,28 @@ public class StorageNodeTest extends MessagingBaseTest {
 		await().pollDelay(1, TimeUnit.SECONDS).until(messages::size, is(0));
 	}
 
+	@Test
+	public void testProcessFileConcurrently() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT_FILES);
+		List<Path> files = new LinkedList<>();
+
+		try {
+			for (int i = 0; i < CONCURRENT_FILES; i++) {
+				Path file = Files.createTempFile("StorageNodeTest", null);
+				files.add(file);
+				pool.execute(() -> cut.processFile(file));
+			}
+
+			await().until(messages::size, is(CONCURRENT_FILES));
+		} finally {
+			pool.shutdown();
+
+			for (Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
 	@Test
 	public void testToString() throws Exception {
 		assertThat(cut.toString(), is("StorageNode"));
@@ -40,6 +40,7 @@ import com.github.dozedoff.similarImage.component.SettingComponent;
 import com.github.dozedoff.similarImage.gui.SimilarImageView;
 import com.github.dozedoff.similarImage.messaging.ArtemisEmbeddedServer;
 import com.github.dozedoff.similarImage.messaging.Node;
+import com.github.dozedoff.similarImage.module.NodeModule;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -120,9 +121,14 @@ public class SimilarImage {
 		logger.info("SimilarImage version " + version);
 		logger.info("System has {} processors", Runtime.getRuntime().availableProcessors());
 
+		logger.info("Loading settings...");
+		SettingComponent settingComponent = DaggerSettingComponent.create();
+		MainSetting settings = settingComponent.getMainSetting();
+
 		PersistenceComponent coreComponent = DaggerPersistenceComponent.create();
 		MessagingComponent messagingComponent = DaggerMessagingComponent.builder().persistenceComponent(coreComponent)
-				.build();
+				.nodeModule(new NodeModule(settings.fastPHash(), settings.subsampledDecoding(),
+						settings.exifThumbnails(), settings.differenceHash())).build();
 
 		aes = messagingComponent.getServer();
 		aes.start();
@@ -141,10 +147,6 @@ public class SimilarImage {
 
 		logImageReaders();
 
-		logger.info("Loading settings...");
-		SettingComponent settingComponent = DaggerSettingComponent.create();
-		MainSetting settings = settingComponent.getMainSetting();
-
 		int threads = settings.threads();
 		logger.info("Using {} threads", threads);
 
@@ -35,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import com.github.dozedoff.similarImage.db.Tag;
 import com.github.dozedoff.similarImage.duplicate.DuplicateOperations;
 import com.github.dozedoff.similarImage.event.GuiEventBus;
+import com.github.dozedoff.similarImage.event.GuiNearestMatchEvent;
 import com.github.dozedoff.similarImage.event.GuiUserTagChangedEvent;
 import com.github.dozedoff.similarImage.result.Result;
 import com.google.common.eventbus.Subscribe;
@@ -54,7 +55,7 @@ public class OperationsMenu {
 	private final HashMap<Operations, ActionListener> actions = new HashMap<OperationsMenu.Operations, ActionListener>();
 
 	private enum Operations {
-		Delete, MarkAndDeleteDNW, MarkBlocked, Ignore, CopyDirectoryPath
+		Delete, MarkAndDeleteDNW, MarkBlocked, Ignore, CopyDirectoryPath, FindNearest
 	};
 
 	private final Result result;
@@ -123,6 +124,13 @@ public class OperationsMenu {
 			}
 		});
 
+		actions.put(Operations.FindNearest, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				GuiEventBus.getInstance().post(new GuiNearestMatchEvent(result.getImageRecord()));
+			}
+		});
+
 		createMenuItems(actions);
 	}
 
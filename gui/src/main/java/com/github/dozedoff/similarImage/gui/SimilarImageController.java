@@ -18,8 +18,12 @@
 package com.github.dozedoff.similarImage.gui;
 
 import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -34,31 +38,45 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.dozedoff.commonj.filefilter.SimpleImageFilter;
+import com.github.dozedoff.commonj.hash.ImagePHash;
 import com.github.dozedoff.similarImage.app.MainSetting;
 import com.github.dozedoff.similarImage.component.ApplicationScope;
 import com.github.dozedoff.similarImage.component.DaggerSettingComponent;
 import com.github.dozedoff.similarImage.db.FilterRecord;
 import com.github.dozedoff.similarImage.db.ImageRecord;
 import com.github.dozedoff.similarImage.db.Tag;
+import com.github.dozedoff.similarImage.db.repository.BatchingImageRepository;
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
+import com.github.dozedoff.similarImage.db.repository.ImageRepository;
 import com.github.dozedoff.similarImage.db.repository.RepositoryException;
+import com.github.dozedoff.similarImage.duplicate.index.IndexType;
 import com.github.dozedoff.similarImage.event.GuiEventBus;
 import com.github.dozedoff.similarImage.event.GuiGroupEvent;
+import com.github.dozedoff.similarImage.event.GuiNearestMatchEvent;
 import com.github.dozedoff.similarImage.handler.HandlerListFactory;
 import com.github.dozedoff.similarImage.handler.HashHandler;
 import com.github.dozedoff.similarImage.handler.HashNames;
+import com.github.dozedoff.similarImage.image.DifferenceHash;
+import com.github.dozedoff.similarImage.image.ExifThumbnailReader;
+import com.github.dozedoff.similarImage.image.FastImagePHash;
+import com.github.dozedoff.similarImage.image.SubsamplingImageDecoder;
+import com.github.dozedoff.similarImage.image.kernel.DCTKernel;
 import com.github.dozedoff.similarImage.io.HashAttribute;
 import com.github.dozedoff.similarImage.io.Statistics;
 import com.github.dozedoff.similarImage.result.GroupList;
 import com.github.dozedoff.similarImage.result.Result;
 import com.github.dozedoff.similarImage.result.ResultGroup;
 import com.github.dozedoff.similarImage.thread.GroupListPopulator;
+import com.github.dozedoff.similarImage.thread.HashingPipeline;
 import com.github.dozedoff.similarImage.thread.ImageFindJob;
 import com.github.dozedoff.similarImage.thread.ImageFindJobVisitor;
 import com.github.dozedoff.similarImage.thread.pipeline.ImageQueryPipeline;
 import com.github.dozedoff.similarImage.thread.pipeline.ImageQueryPipelineBuilder;
+import com.github.dozedoff.similarImage.thread.pipeline.NearestImageQuery;
+import com.github.dozedoff.similarImage.thread.pipeline.StreamingImageQueryPipeline;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.eventbus.Subscribe;
 
@@ -68,12 +86,29 @@ public class SimilarImageController {
 
 	private static final String GUI_MSG_SORTING = "Sorting...";
 	private static final int MAXIMUM_GROUP_SIZE = 50;
+	/**
+	 * Number of streamed groups that are collected before they are added to the list model.
+	 */
+	private static final int STREAMED_GROUP_BATCH = 100;
+	/**
+	 * Number of images shown when searching for the images closest to a single image, including the image itself.
+	 */
+	private static final int NEAREST_MATCH_COUNT = 25;
+	/**
+	 * Size of the image the hash is calculated from.
+	 */
+	private static final int HASH_IMAGE_SIZE = 32;
+	/**
+	 * Size of the low frequency block of the DCT the hash is built from.
+	 */
+	private static final int HASH_DCT_SIZE = 8;
 
 	private GroupList groupList;
 	private SimilarImageView gui;
 	private final Statistics statistics;
 	private final LinkedList<Thread> tasks = new LinkedList<>();
 	private boolean includeIgnoredImages;
+	private final MainSetting settings;
 
 	private final HandlerListFactory handlerCollectionFactory;
 	private final OperationsMenuFactory omf;
@@ -82,6 +117,7 @@ public class SimilarImageController {
 	private final ImageQueryPipelineBuilder imagePipelineBuilder;
 	private final FilterRepository filterRepository;
 	private Tag searchTag;
+	private final List<ResultGroup> streamedGroups = new ArrayList<>();
 
 	/**
 	 * Performs actions initiated by the user
@@ -108,9 +144,13 @@ public class SimilarImageController {
 		this.imagePipelineBuilder = pipelineBuilder;
 		this.filterRepository = filterRepository;
 
-		MainSetting settings = DaggerSettingComponent.create().getMainSetting();
+		settings = DaggerSettingComponent.create().getMainSetting();
 
 		includeIgnoredImages = settings.includeIgnoredImages();
+
+		if (settings.confirmDistance() >= 0) {
+			imagePipelineBuilder.confirmWith(HashNames.DIFFERENCE_HASH, settings.confirmDistance());
+		}
 	}
 
 
@@ -150,6 +190,58 @@ public class SimilarImageController {
 		updateGUI();
 	}
 
+	/**
+	 * Add a single group to the search results. The group is shown in the GUI once enough groups have been collected,
+	 * or when the query has finished.
+	 * 
+	 * @param hash
+	 *            of the group
+	 * @param images
+	 *            in the group
+	 */
+	public synchronized void addResult(long hash, Collection<ImageRecord> images) {
+		streamedGroups.add(new ResultGroup(groupList, hash, images));
+
+		if (streamedGroups.size() >= STREAMED_GROUP_BATCH) {
+			flushStreamedGroups();
+		}
+	}
+
+	/**
+	 * Add the collected groups to the group list and the list model. Both are only changed on the event dispatch
+	 * thread, so the GUI never sees them while they are modified.
+	 */
+	private synchronized void flushStreamedGroups() {
+		List<ResultGroup> batch = new ArrayList<>(streamedGroups);
+		streamedGroups.clear();
+
+		SwingUtilities.invokeLater(() -> {
+			for (ResultGroup group : batch) {
+				groupList.addGroup(group);
+				groupListModel.addElement(group);
+			}
+
+			setGUIStatus("" + groupList.groupCount() + " Groups");
+		});
+	}
+
+	/**
+	 * Clear the results on the event dispatch thread and wait until that is done, so groups that are streamed
+	 * afterwards are not removed or added twice.
+	 */
+	private void clearResults() throws InvocationTargetException, InterruptedException {
+		synchronized (this) {
+			streamedGroups.clear();
+		}
+
+		SwingUtilities.invokeAndWait(() -> {
+			groupList.populateList(Collections.emptyList());
+			groupList.setMappedListModel(groupListModel);
+			groupListModel.clear();
+			setGUIStatus("" + groupList.groupCount() + " Groups");
+		});
+	}
+
 	/**
 	 * Display the {@link ResultGroup}, generating all necessary UI elements. Will ask the user if a group should be
 	 * loaded if the image count exceeds a set threshold.
@@ -240,12 +332,35 @@ public class SimilarImageController {
 		List<HashHandler> handlers;
 
 		try {
-			handlers = handlerCollectionFactory.withExtendedAttributeSupport(hashAttribute);
+			BatchingImageRepository repository = settings.localHashing()
+					? handlerCollectionFactory.batchingImageRepository()
+					: null;
+			HashingPipeline pipeline = repository != null ? createHashingPipeline(hashAttribute, repository) : null;
+
+			if (pipeline != null) {
+				handlers = handlerCollectionFactory.withLocalHashing(hashAttribute, pipeline);
+			} else {
+				handlers = handlerCollectionFactory.withExtendedAttributeSupport(hashAttribute);
+			}
 
-			ImageFindJobVisitor visitor = new ImageFindJobVisitor(new SimpleImageFilter(), handlers, statistics);
+			ImageFindJobVisitor visitor = new ImageFindJobVisitor(new SimpleImageFilter(), handlers, statistics,
+					settings.concurrentFiles());
+			ImageFindJob findJob = new ImageFindJob(path, visitor);
 
 			// TODO use a priority queue to let FindJobs run first
-			Thread t = new Thread(new ImageFindJob(path, visitor));
+			Thread t = new Thread(() -> {
+				try {
+					findJob.run();
+				} finally {
+					if (pipeline != null) {
+						try {
+							pipeline.close();
+						} finally {
+							repository.close();
+						}
+					}
+				}
+			});
 			t.setName("Image Find Job");
 			startTask(t);
 
@@ -254,6 +369,36 @@ public class SimilarImageController {
 		}
 	}
 
+	private ImagePHash createHasher() {
+		if (settings.dctKernel()) {
+			return new FastImagePHash(new DCTKernel(HASH_IMAGE_SIZE, HASH_DCT_SIZE));
+		}
+
+		return settings.fastPHash() ? new FastImagePHash() : new ImagePHash();
+	}
+
+	private HashingPipeline createHashingPipeline(HashAttribute hashAttribute, ImageRepository repository) {
+		ImagePHash hasher = createHasher();
+		HashingPipeline pipeline = handlerCollectionFactory.hashingPipeline(hasher, repository, settings.ioThreads(),
+				settings.threads());
+
+		pipeline.setHashAttribute(hashAttribute);
+
+		if (settings.subsampledDecoding()) {
+			pipeline.setImageDecoder(new SubsamplingImageDecoder(HASH_IMAGE_SIZE));
+		}
+
+		if (settings.exifThumbnails()) {
+			pipeline.setThumbnailReader(new ExifThumbnailReader(HASH_IMAGE_SIZE));
+		}
+
+		if (settings.differenceHash()) {
+			pipeline.setDifferenceHash(new DifferenceHash());
+		}
+
+		return pipeline;
+	}
+
 	/**
 	 * For every image, find other images that have a matching hash.
 	 * 
@@ -264,10 +409,24 @@ public class SimilarImageController {
 	 */
 	public void sortDuplicates(int hammingDistance, String path) {
 		setGUIStatus(GUI_MSG_SORTING);
-		ImageQueryPipeline pipeline = imagePipelineBuilder.excludeIgnored(!includeIgnoredImages)
-				.distance(hammingDistance).groupAll()
-				.removeSingleImageGroups().removeDuplicateGroups().build();
-		Thread t = createPipelineThread(pipeline, checkPath(path));
+		imagePipelineBuilder.excludeIgnored(!includeIgnoredImages).distance(hammingDistance, IndexType.AUTOMATIC);
+
+		if (settings.clusterGroups()) {
+			// clusters are disjoint, so there are no duplicate groups to remove
+			imagePipelineBuilder.groupClusters().removeSingleImageGroups();
+		} else {
+			imagePipelineBuilder.groupAll().removeSingleImageGroups().removeDuplicateGroups();
+		}
+
+		Thread t;
+
+		if (hammingDistance == 0 && settings.streamExactMatches() && imagePipelineBuilder.isStreamable()) {
+			// exact matches are complete as soon as the next hash is read, so they can be shown while reading
+			t = createStreamingPipelineThread(imagePipelineBuilder.buildStreaming(), checkPath(path));
+		} else {
+			t = createPipelineThread(imagePipelineBuilder.build(), checkPath(path));
+		}
+
 		this.searchTag = null;
 		startTask(t);
 	}
@@ -285,12 +444,37 @@ public class SimilarImageController {
 	public void sortFilter(int hammingDistance, Tag tag, String path) {
 
 		ImageQueryPipeline pipeline = imagePipelineBuilder.excludeIgnored(!includeIgnoredImages)
-				.distance(hammingDistance).groupByTag(tag).build();
+				.distance(hammingDistance, IndexType.AUTOMATIC).groupByTag(tag).build();
 		Thread t = createPipelineThread(pipeline, checkPath(path));
 		this.searchTag = tag;
 		startTask(t);
 	}
 
+	/**
+	 * Find the images closest to the given image, without grouping the other images.
+	 * 
+	 * @param image
+	 *            to find the closest images for
+	 * @param path
+	 *            limit images to this path, if empty or null, all images are considered
+	 */
+	public void findNearest(ImageRecord image, String path) {
+		setGUIStatus(GUI_MSG_SORTING);
+		NearestImageQuery query = imagePipelineBuilder.excludeIgnored(!includeIgnoredImages).buildNearest();
+		Path scope = checkPath(path);
+
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				List<ImageRecord> nearest = query.apply(scope, image.getpHash(), NEAREST_MATCH_COUNT);
+				setResults(ImmutableMultimap.<Long, ImageRecord> builder().putAll(image.getpHash(), nearest).build());
+			}
+		};
+
+		this.searchTag = null;
+		startTask(t);
+	}
+
 	/**
 	 * Stop all running Jobs.
 	 */
@@ -328,6 +512,17 @@ public class SimilarImageController {
 		setResults(event.getGroups());
 	}
 
+	/**
+	 * This event is triggered when the user requests the images closest to a single image.
+	 * 
+	 * @param event
+	 *            data associated with this event
+	 */
+	@Subscribe
+	public void findNearest(GuiNearestMatchEvent event) {
+		findNearest(event.getImage(), null);
+	}
+
 	/**
 	 * Set if ignored images should be included in the results.
 	 * 
@@ -356,6 +551,27 @@ public class SimilarImageController {
 		};
 	}
 
+	private Thread createStreamingPipelineThread(StreamingImageQueryPipeline pipeline, Path scope) {
+		return new Thread() {
+			@Override
+			public void run() {
+				try {
+					clearResults();
+				} catch (InvocationTargetException e) {
+					logger.error("Failed to clear results: {}", e.getCause().toString());
+					return;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+
+				pipeline.apply(scope, SimilarImageController.this::addResult);
+				flushStreamedGroups();
+				SwingUtilities.invokeLater(SimilarImageController.this::updateGUI);
+			}
+		};
+	}
+
 	private Path checkPath(String path) {
 		String checkedPath = path;
 		if (path == null) {
@@ -17,6 +17,7 @@
  */
 package com.github.dozedoff.similarImage.module;
 
+import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
 import com.github.dozedoff.similarImage.db.repository.FilterRepository;
@@ -34,6 +35,7 @@ import dagger.Provides;
 
 @Module
 public class GuiModule {
+	private static final String SEARCH_CACHE_DIRECTORY = "searchCache";
 
 	@Provides
 	public ExtendedAttributeQuery provideExtendedAttributeQuery() {
@@ -49,6 +51,7 @@ public class GuiModule {
 	@Provides
 	public ImageQueryPipelineBuilder provideImageQueryPipelineBuilder(ImageRepository imageRepository,
 			FilterRepository filterRepository) {
-		return ImageQueryPipelineBuilder.newBuilder(imageRepository, filterRepository);
+		return ImageQueryPipelineBuilder.newBuilder(imageRepository, filterRepository)
+				.persistentSearch(Paths.get(SEARCH_CACHE_DIRECTORY)).cacheGroups();
 	}
 }